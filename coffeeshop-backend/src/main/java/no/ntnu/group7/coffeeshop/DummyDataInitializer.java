@@ -5,6 +5,7 @@ import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Component;
 
+import no.ntnu.group7.coffeeshop.cache.CatalogSnapshot;
 import no.ntnu.group7.coffeeshop.model.Category;
 import no.ntnu.group7.coffeeshop.model.Product;
 import no.ntnu.group7.coffeeshop.model.Review;
@@ -14,7 +15,10 @@ import no.ntnu.group7.coffeeshop.repositories.CategoryRepository;
 import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
 import no.ntnu.group7.coffeeshop.repositories.RoleRepository;
 import no.ntnu.group7.coffeeshop.repositories.UserRepository;
+import no.ntnu.group7.coffeeshop.services.ProductFilterService;
+import no.ntnu.group7.coffeeshop.services.ProductSearchService;
 import no.ntnu.group7.coffeeshop.services.ProductService;
+import no.ntnu.group7.coffeeshop.services.ReviewService;
 
 import java.math.BigDecimal;
 import java.util.Arrays;
@@ -47,6 +51,18 @@ public class DummyDataInitializer implements ApplicationListener<ApplicationRead
     @Autowired
     private ProductService productService;
 
+    @Autowired
+    private ReviewService reviewService;
+
+    @Autowired
+    private ProductSearchService productSearchService;
+
+    @Autowired
+    private ProductFilterService productFilterService;
+
+    @Autowired
+    private CatalogSnapshot catalogSnapshot;
+
     private final Logger logger = LoggerFactory.getLogger("DummyInit");
 
     /**
@@ -206,5 +222,10 @@ public class DummyDataInitializer implements ApplicationListener<ApplicationRead
             logger.info("Data already imported");
         }
 
+        reviewService.recountRatingsIfStale();
+        productSearchService.rebuild();
+        productFilterService.rebuild();
+        catalogSnapshot.rebuild();
+
     }
 }
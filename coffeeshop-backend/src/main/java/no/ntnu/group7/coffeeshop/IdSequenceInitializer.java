@@ -0,0 +1,72 @@
+package no.ntnu.group7.coffeeshop;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Moves the ID sequences of the tables whose IDs used to come from
+ * AUTO_INCREMENT past the IDs already in the table.
+ *
+ * MySQL has no sequences, so Hibernate keeps each one as a one-row table,
+ * which it creates starting at 1 even when the table it numbers already has
+ * rows. Runs once Hibernate has created the sequence tables. Other databases
+ * are left alone; in the tests they start empty.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class IdSequenceInitializer {
+  // Must match the allocationSize of the @SequenceGenerator of the entities
+  private static final int ALLOCATION_SIZE = 50;
+
+  // The sequence of each table, as named in the @SequenceGenerator of its entity
+  private static final Map<String, String> SEQUENCES = Map.of(
+      "orders", "orders_seq",
+      "order_product", "order_product_seq",
+      "reviews", "reviews_seq",
+      "stock_holds", "stock_holds_seq");
+
+  private final Logger logger = LoggerFactory.getLogger(IdSequenceInitializer.class);
+
+  @Autowired
+  private DataSource dataSource;
+
+  /**
+   * Sets each sequence far enough past the largest ID of its table that the
+   * next block of IDs handed out can't contain an existing ID. A sequence
+   * that is already past it is left as it is.
+   *
+   * @throws SQLException if the database can't be reached
+   */
+  @PostConstruct
+  public void start() throws SQLException {
+    try (Connection connection = dataSource.getConnection()) {
+      if (!connection.getMetaData().getDatabaseProductName().contains("MySQL")) {
+        return;
+      }
+      try (Statement statement = connection.createStatement()) {
+        for (Map.Entry<String, String> sequence : SEQUENCES.entrySet()) {
+          int updated = statement.executeUpdate("UPDATE " + sequence.getValue()
+              + " SET next_val = (SELECT COALESCE(MAX(id), 0) + " + (ALLOCATION_SIZE + 1)
+              + " FROM " + sequence.getKey() + ")"
+              + " WHERE next_val <= (SELECT COALESCE(MAX(id), 0) + " + ALLOCATION_SIZE
+              + " FROM " + sequence.getKey() + ")");
+          if (updated > 0) {
+            logger.info("Moved " + sequence.getValue() + " past the IDs in " + sequence.getKey());
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package no.ntnu.group7.coffeeshop;
+
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+
+/**
+ * Sets up the application's ObjectMapper. DTOs supporting field selection are
+ * annotated with a JsonFilter; when a response doesn't select fields, no
+ * filter is registered for them, and every field is serialized.
+ */
+@Configuration
+public class JacksonConfiguration {
+
+  @Bean
+  public Jackson2ObjectMapperBuilderCustomizer fieldSelectionCustomizer() {
+    return builder -> builder.filters(new SimpleFilterProvider().setFailOnUnknownId(false));
+  }
+}
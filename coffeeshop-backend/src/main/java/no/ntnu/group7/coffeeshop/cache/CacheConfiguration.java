@@ -0,0 +1,99 @@
+package no.ntnu.group7.coffeeshop.cache;
+
+import java.util.Collection;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.support.NoOpCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import no.ntnu.group7.coffeeshop.dto.CategoryDto;
+import no.ntnu.group7.coffeeshop.dto.ProductDto;
+import no.ntnu.group7.coffeeshop.dto.ReviewDto;
+
+/**
+ * Sets up the in-memory caches for the product catalog. The caches hold the
+ * mapped DTOs, are bounded by their estimated size in bytes, and record
+ * hit/miss/eviction statistics, which Spring Boot exposes as "cache.*" metrics
+ * through the actuator. Caching can be turned off with the
+ * coffeeshop.cache.enabled property.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfiguration {
+  /**
+   * Cache for lists of products, and the product count
+   */
+  public static final String PRODUCT_LISTS = "productLists";
+  /**
+   * Cache for single products, keyed by product ID
+   */
+  public static final String PRODUCTS = "products";
+  /**
+   * Cache for the list of categories and for single categories
+   */
+  public static final String CATEGORIES = "categories";
+
+  @Value("${coffeeshop.cache.enabled:true}")
+  private boolean enabled;
+
+  @Value("${coffeeshop.cache.max-size:16MB}")
+  private DataSize maxSize;
+
+  /**
+   * Creates the cache manager used by the @Cacheable methods.
+   *
+   * @return a Caffeine cache manager, or a no-op cache manager if caching is
+   *         turned off
+   */
+  @Bean
+  public CacheManager cacheManager() {
+    if (!enabled) {
+      return new NoOpCacheManager();
+    }
+
+    CaffeineCacheManager cacheManager = new CaffeineCacheManager(PRODUCT_LISTS, PRODUCTS, CATEGORIES);
+    cacheManager.setCaffeine(Caffeine.newBuilder()
+        .maximumWeight(maxSize.toBytes())
+        .weigher((Object key, Object value) -> estimateSize(value))
+        .recordStats());
+    cacheManager.setAllowNullValues(false);
+    return cacheManager;
+  }
+
+  /**
+   * Gives a rough estimate of how many bytes a cached value takes up, counting
+   * two bytes per character of text.
+   *
+   * @param value the cached value
+   * @return the estimated size in bytes
+   */
+  static int estimateSize(Object value) {
+    int size = 16;
+    if (value instanceof Collection) {
+      for (Object element : (Collection<?>) value) {
+        size += estimateSize(element);
+      }
+    } else if (value instanceof ProductDto) {
+      ProductDto product = (ProductDto) value;
+      size += 64 + textSize(product.getName()) + textSize(product.getDescription()) + textSize(product.getImage());
+      size += estimateSize(product.getCategories()) + estimateSize(product.getReviews()) + 56;
+    } else if (value instanceof ReviewDto) {
+      ReviewDto review = (ReviewDto) value;
+      size += 32 + textSize(review.getReviewText()) + textSize(review.getUsername());
+    } else if (value instanceof CategoryDto) {
+      size += 24 + textSize(((CategoryDto) value).getName());
+    }
+    return size;
+  }
+
+  private static int textSize(String text) {
+    return text == null ? 0 : 40 + 2 * text.length();
+  }
+}
@@ -0,0 +1,88 @@
+package no.ntnu.group7.coffeeshop.cache;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Invalidates the cached product catalog. The write paths that change
+ * products, reviews, categories or stock call this after the change is
+ * saved, so the next read loads fresh data from the database, and bumps
+ * the matching CatalogVersion stamps so clients see new ETags. When called
+ * inside a transaction, the entries are evicted again after the commit, so
+ * a read that raced with the transaction can't leave old data in the cache.
+ * Once the change is committed, a CatalogChangedEvent is published.
+ */
+@Component
+public class CatalogCache {
+
+  @Autowired
+  private CacheManager cacheManager;
+
+  @Autowired
+  private CatalogVersion catalogVersion;
+
+  @Autowired
+  private ApplicationEventPublisher eventPublisher;
+
+  /**
+   * Evicts one product, and every product list and count, since they may all
+   * include the product.
+   *
+   * @param productId the ID of the product that was created, changed or
+   *                  deleted
+   */
+  public void evictProduct(int productId) {
+    evictNowAndAfterCommit(() -> {
+      // Products are cached with and without their reviews
+      getCache(CacheConfiguration.PRODUCTS).evict(productId + ":true");
+      getCache(CacheConfiguration.PRODUCTS).evict(productId + ":false");
+      getCache(CacheConfiguration.PRODUCT_LISTS).clear();
+      catalogVersion.productChanged(productId);
+    }, CatalogChangedEvent.Part.PRODUCTS);
+  }
+
+  /**
+   * Evicts every cached product and product list.
+   */
+  public void evictAllProducts() {
+    evictNowAndAfterCommit(() -> {
+      getCache(CacheConfiguration.PRODUCTS).clear();
+      getCache(CacheConfiguration.PRODUCT_LISTS).clear();
+      catalogVersion.allProductsChanged();
+    }, CatalogChangedEvent.Part.PRODUCTS);
+  }
+
+  /**
+   * Evicts every cached category.
+   */
+  public void evictCategories() {
+    evictNowAndAfterCommit(() -> {
+      getCache(CacheConfiguration.CATEGORIES).clear();
+      catalogVersion.categoriesChanged();
+    }, CatalogChangedEvent.Part.CATEGORIES);
+  }
+
+  private void evictNowAndAfterCommit(Runnable eviction, CatalogChangedEvent.Part part) {
+    eviction.run();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          eviction.run();
+          eventPublisher.publishEvent(new CatalogChangedEvent(part));
+        }
+      });
+    } else {
+      eventPublisher.publishEvent(new CatalogChangedEvent(part));
+    }
+  }
+
+  private Cache getCache(String name) {
+    return cacheManager.getCache(name);
+  }
+}
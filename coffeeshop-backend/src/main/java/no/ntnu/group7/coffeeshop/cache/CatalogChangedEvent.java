@@ -0,0 +1,27 @@
+package no.ntnu.group7.coffeeshop.cache;
+
+/**
+ * Published by CatalogCache once a change to the product catalog is
+ * committed.
+ */
+public class CatalogChangedEvent {
+  /**
+   * The part of the catalog that changed
+   */
+  public enum Part {
+    PRODUCTS, CATEGORIES
+  }
+
+  private final Part part;
+
+  public CatalogChangedEvent(Part part) {
+    this.part = part;
+  }
+
+  /**
+   * @return the part of the catalog that changed
+   */
+  public Part getPart() {
+    return part;
+  }
+}
@@ -0,0 +1,249 @@
+package no.ntnu.group7.coffeeshop.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.annotation.PreDestroy;
+import no.ntnu.group7.coffeeshop.dto.FieldSelection;
+import no.ntnu.group7.coffeeshop.dto.ProductDto;
+import no.ntnu.group7.coffeeshop.services.CategoryService;
+import no.ntnu.group7.coffeeshop.services.ProductService;
+
+/**
+ * Keeps the responses to "/api/products" and "/api/categories" as ready-made
+ * JSON bytes, together with a gzip compressed copy, so that anonymous catalog
+ * reads skip the database, Jackson and compression altogether. Each snapshot
+ * remembers the CatalogVersion ETag it was built for, and is only served while
+ * that ETag is current. Snapshots are rebuilt on a background thread whenever
+ * a CatalogChangedEvent is published; until the rebuild is done, requests are
+ * answered the usual way. Snapshots can be turned off with the
+ * coffeeshop.catalog-snapshot.enabled property.
+ */
+@Component
+public class CatalogSnapshot {
+
+  @Autowired
+  private ProductService productService;
+
+  @Autowired
+  private CategoryService categoryService;
+
+  @Autowired
+  private CatalogVersion catalogVersion;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Value("${coffeeshop.catalog-snapshot.enabled:true}")
+  private boolean enabled;
+
+  private volatile Body products;
+  private volatile Body categories;
+
+  // Set while a rebuild is queued, so that a burst of changes only queues one
+  private final AtomicBoolean productsQueued = new AtomicBoolean();
+  private final AtomicBoolean categoriesQueued = new AtomicBoolean();
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "catalog-snapshot");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Logger logger = LoggerFactory.getLogger(CatalogSnapshot.class);
+
+  /**
+   * Returns the snapshot of the full product list, if it is up to date. If it
+   * isn't, a rebuild is queued.
+   *
+   * @return the snapshot, or empty if there is no current snapshot
+   */
+  public Optional<Body> getProducts() {
+    return current(products, catalogVersion.getProductsETag(), this::rebuildProducts);
+  }
+
+  /**
+   * Returns the snapshot of the category list, if it is up to date. If it
+   * isn't, a rebuild is queued.
+   *
+   * @return the snapshot, or empty if there is no current snapshot
+   */
+  public Optional<Body> getCategories() {
+    return current(categories, catalogVersion.getCategoriesETag(), this::rebuildCategories);
+  }
+
+  /**
+   * Queues a rebuild of both snapshots.
+   */
+  public void rebuild() {
+    rebuildProducts();
+    rebuildCategories();
+  }
+
+  /**
+   * Queues a rebuild of the snapshots affected by a committed catalog change.
+   *
+   * @param event the change
+   */
+  @EventListener
+  public void catalogChanged(CatalogChangedEvent event) {
+    if (event.getPart() == CatalogChangedEvent.Part.PRODUCTS) {
+      rebuildProducts();
+    } else {
+      rebuildCategories();
+    }
+  }
+
+  @PreDestroy
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private Optional<Body> current(Body body, String eTag, Runnable rebuild) {
+    if (!enabled) {
+      return Optional.empty();
+    }
+    if (body == null || !body.eTag.equals(eTag)) {
+      rebuild.run();
+      return Optional.empty();
+    }
+    return Optional.of(body);
+  }
+
+  private void rebuildProducts() {
+    queue(productsQueued, () -> {
+      // Read the ETag first: the list loaded after it is at least as new
+      String eTag = catalogVersion.getProductsETag();
+      MappingJacksonValue value = FieldSelection
+          .parse(null, ProductDto.FIELDS, ProductDto.SUMMARY_FIELDS, ProductDto.FULL_FIELDS)
+          .apply(productService.getAllProductDtos(false), ProductDto.FIELD_FILTER);
+      products = new Body(eTag, objectMapper.writer(value.getFilters()).writeValueAsBytes(value.getValue()));
+    });
+  }
+
+  private void rebuildCategories() {
+    queue(categoriesQueued, () -> {
+      String eTag = catalogVersion.getCategoriesETag();
+      categories = new Body(eTag, objectMapper.writeValueAsBytes(categoryService.getAllCategoryDtos()));
+    });
+  }
+
+  private void queue(AtomicBoolean queued, Build build) {
+    if (!enabled || !queued.compareAndSet(false, true)) {
+      return;
+    }
+    executor.execute(() -> {
+      // Cleared before building, so that a change made during the build
+      // queues another one
+      queued.set(false);
+      try {
+        build.run();
+      } catch (Exception e) {
+        logger.warn("Could not build catalog snapshot", e);
+      }
+    });
+  }
+
+  private interface Build {
+    void run() throws IOException;
+  }
+
+  /**
+   * One pre-serialized response body, as plain and gzip compressed JSON.
+   */
+  public static class Body {
+    private final String eTag;
+    private final byte[] json;
+    private final byte[] gzip;
+
+    Body(String eTag, byte[] json) throws IOException {
+      this.eTag = eTag;
+      this.json = json;
+      this.gzip = compress(json);
+    }
+
+    /**
+     * @return the ETag of the catalog version the body was built from
+     */
+    public String getETag() {
+      return eTag;
+    }
+
+    /**
+     * Builds a response with the body, gzip compressed if the client accepts
+     * it.
+     *
+     * @param acceptEncoding the Accept-Encoding header of the request, or null
+     * @return the response
+     */
+    public ResponseEntity<byte[]> toResponse(String acceptEncoding) {
+      ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+          .cacheControl(CacheControl.noCache())
+          .contentType(MediaType.APPLICATION_JSON)
+          .varyBy(HttpHeaders.ACCEPT_ENCODING);
+      if (acceptsGzip(acceptEncoding)) {
+        return builder.header(HttpHeaders.CONTENT_ENCODING, "gzip").contentLength(gzip.length).body(gzip);
+      }
+      return builder.contentLength(json.length).body(json);
+    }
+
+    private static byte[] compress(byte[] bytes) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+      try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+        gzipOut.write(bytes);
+      }
+      return out.toByteArray();
+    }
+  }
+
+  /**
+   * @param acceptEncoding the Accept-Encoding header of a request, or null
+   * @return whether the header lists gzip (or *) without a zero quality
+   */
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim();
+      if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) {
+        continue;
+      }
+      boolean refused = false;
+      for (int i = 1; i < parts.length; i++) {
+        String parameter = parts[i].trim();
+        if (parameter.startsWith("q=")) {
+          try {
+            refused = Double.parseDouble(parameter.substring(2)) <= 0;
+          } catch (NumberFormatException e) {
+            refused = true;
+          }
+        }
+      }
+      if (!refused) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,124 @@
+package no.ntnu.group7.coffeeshop.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps version stamps for the product catalog, used to answer conditional
+ * GET requests (If-None-Match / If-Modified-Since) without touching the
+ * database. There is one stamp for all products, one for the categories, and
+ * one per product, so a change to one product doesn't invalidate the ETags of
+ * the others. The stamps are bumped by CatalogCache whenever the catalog
+ * changes, and start over with a new epoch when the application restarts.
+ */
+@Component
+public class CatalogVersion {
+  private final String epoch = Long.toHexString(System.currentTimeMillis());
+  private final AtomicLong sequence = new AtomicLong();
+
+  private volatile Stamp products = nextStamp();
+  private volatile Stamp categories = nextStamp();
+  private volatile Stamp allProductsChanged = products;
+  private final ConcurrentMap<Integer, Stamp> productStamps = new ConcurrentHashMap<>();
+
+  /**
+   * Records that one product (or one of its reviews) changed.
+   *
+   * @param productId the ID of the product
+   */
+  public void productChanged(int productId) {
+    Stamp stamp = nextStamp();
+    productStamps.put(productId, stamp);
+    products = stamp;
+  }
+
+  /**
+   * Records that every product may have changed.
+   */
+  public void allProductsChanged() {
+    Stamp stamp = nextStamp();
+    allProductsChanged = stamp;
+    products = stamp;
+    productStamps.clear();
+  }
+
+  /**
+   * Records that the categories changed.
+   */
+  public void categoriesChanged() {
+    categories = nextStamp();
+  }
+
+  /**
+   * @return the ETag of every response listing products
+   */
+  public String getProductsETag() {
+    return toETag("products", products);
+  }
+
+  /**
+   * @return the time of the last change to any product, in milliseconds
+   */
+  public long getProductsLastModified() {
+    return products.modifiedAt;
+  }
+
+  /**
+   * @param productId the ID of the product
+   * @return the ETag of responses about one product
+   */
+  public String getProductETag(int productId) {
+    return toETag("product-" + productId, getProductStamp(productId));
+  }
+
+  /**
+   * @param productId the ID of the product
+   * @return the time of the last change to the product, in milliseconds
+   */
+  public long getProductLastModified(int productId) {
+    return getProductStamp(productId).modifiedAt;
+  }
+
+  /**
+   * @return the ETag of responses about categories
+   */
+  public String getCategoriesETag() {
+    return toETag("categories", categories);
+  }
+
+  /**
+   * @return the time of the last change to the categories, in milliseconds
+   */
+  public long getCategoriesLastModified() {
+    return categories.modifiedAt;
+  }
+
+  private Stamp getProductStamp(int productId) {
+    Stamp stamp = productStamps.get(productId);
+    return stamp == null ? allProductsChanged : stamp;
+  }
+
+  private Stamp nextStamp() {
+    return new Stamp(sequence.incrementAndGet(), System.currentTimeMillis());
+  }
+
+  private String toETag(String resource, Stamp stamp) {
+    return "\"" + resource + "-" + epoch + "-" + stamp.version + "\"";
+  }
+
+  /**
+   * A version number and the time it was created.
+   */
+  private static class Stamp {
+    private final long version;
+    private final long modifiedAt;
+
+    private Stamp(long version, long modifiedAt) {
+      this.version = version;
+      this.modifiedAt = modifiedAt;
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package no.ntnu.group7.coffeeshop.cart;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Chooses where shopping carts are kept, with the coffeeshop.cart.store
+ * property: "memory" (the default) keeps them in an InMemoryCartStore and
+ * writes them to the database in the background, and "jpa" reads and writes
+ * the database on every request. The carts of visitors who haven't logged in
+ * are kept in a GuestCartStore, bounded by the coffeeshop.guest-cart
+ * properties.
+ */
+@Configuration
+public class CartConfiguration {
+
+  @Value("${coffeeshop.cart.store:memory}")
+  private String store;
+
+  @Value("${coffeeshop.cart.flush-interval:500ms}")
+  private Duration flushInterval;
+
+  @Value("${coffeeshop.guest-cart.ttl:24h}")
+  private Duration guestCartTimeToLive;
+
+  @Value("${coffeeshop.guest-cart.max-carts:10000}")
+  private int maxGuestCarts;
+
+  @Value("${coffeeshop.guest-cart.max-items:100}")
+  private int maxGuestCartItems;
+
+  /**
+   * Creates the cart store used by ShoppingCartService.
+   *
+   * @return the configured cart store
+   */
+  @Bean
+  public CartStore cartStore() {
+    switch (store) {
+      case "memory":
+        return new InMemoryCartStore(flushInterval);
+      case "jpa":
+        return new JpaCartStore();
+      default:
+        throw new IllegalStateException("Unknown cart store: " + store);
+    }
+  }
+
+  /**
+   * Creates the store for the carts of visitors who haven't logged in.
+   *
+   * @return the guest cart store
+   */
+  @Bean
+  public GuestCartStore guestCartStore() {
+    return new GuestCartStore(guestCartTimeToLive, maxGuestCarts, maxGuestCartItems);
+  }
+}
@@ -0,0 +1,33 @@
+package no.ntnu.group7.coffeeshop.cart;
+
+/**
+ * One product in a shopping cart, and how many of it. A product appears at
+ * most once in a cart.
+ */
+public class CartItem {
+  private final int productId;
+  private final int quantity;
+
+  /**
+   * @param productId the ID of the product
+   * @param quantity  the quantity of the product in the cart
+   */
+  public CartItem(int productId, int quantity) {
+    this.productId = productId;
+    this.quantity = quantity;
+  }
+
+  /**
+   * @return the ID of the product
+   */
+  public int getProductId() {
+    return productId;
+  }
+
+  /**
+   * @return the quantity of the product in the cart
+   */
+  public int getQuantity() {
+    return quantity;
+  }
+}
@@ -0,0 +1,93 @@
+package no.ntnu.group7.coffeeshop.cart;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One change to a shopping cart, applied together with others by
+ * CartStore.apply.
+ */
+public class CartOperation {
+  /**
+   * The kinds of change
+   */
+  public enum Type {
+    /**
+     * Adds a quantity of a product, like CartStore.add
+     */
+    ADD,
+    /**
+     * Sets the quantity of a product already in the cart
+     */
+    SET,
+    /**
+     * Removes a product, if it is in the cart
+     */
+    REMOVE
+  }
+
+  private final Type type;
+  private final int productId;
+  private final int quantity;
+
+  /**
+   * @param type      the kind of change
+   * @param productId the ID of the product
+   * @param quantity  the quantity to add, or the new quantity. Not used by
+   *                  REMOVE.
+   */
+  public CartOperation(Type type, int productId, int quantity) {
+    this.type = type;
+    this.productId = productId;
+    this.quantity = quantity;
+  }
+
+  /**
+   * @return the kind of change
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * @return the ID of the product
+   */
+  public int getProductId() {
+    return productId;
+  }
+
+  /**
+   * @return the quantity to add, or the new quantity
+   */
+  public int getQuantity() {
+    return quantity;
+  }
+
+  /**
+   * Applies operations, in order, to the contents of a cart.
+   *
+   * @param cart       product ID -> quantity, in the order the products were
+   *                   added. Changed in place.
+   * @param operations the changes to make
+   * @throws IllegalArgumentException if a SET operation is for a product that
+   *                                  isn't in the cart. The cart may then be
+   *                                  partly changed.
+   */
+  static void applyTo(Map<Integer, Integer> cart, List<CartOperation> operations) {
+    for (CartOperation operation : operations) {
+      switch (operation.type) {
+        case ADD:
+          cart.merge(operation.productId, operation.quantity, Integer::sum);
+          break;
+        case SET:
+          if (cart.replace(operation.productId, operation.quantity) == null) {
+            throw new IllegalArgumentException("Product " + operation.productId + " is not in the shopping cart");
+          }
+          break;
+        case REMOVE:
+          cart.remove(operation.productId);
+          break;
+      }
+    }
+  }
+}
@@ -0,0 +1,316 @@
+package no.ntnu.group7.coffeeshop.cart;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository.ProductSummaryView;
+import no.ntnu.group7.coffeeshop.services.TransactionHooks;
+
+/**
+ * Prices shopping carts. Keeps the name and price of every product that has
+ * been in a cart, and a running total for each cart that has been priced.
+ * ShoppingCartService adjusts the running total on every change to a cart
+ * instead of pricing the whole cart again, and drops it when the cart is
+ * cleared or removed. When the price of a product changes, the running totals
+ * of the carts that hold it are dropped and priced again on the next read.
+ *
+ * Callers hold the lock of the user (see lockFor) while they change a cart
+ * and adjust its total, so that a total is never computed from a cart that
+ * already includes a change which is then added to it once more. Every price
+ * change bumps a version, and prices and totals computed while the version
+ * changed are not kept, so a read that raced with a price change can't keep
+ * the old price.
+ */
+@Component
+public class CartPricing {
+  private static final int STRIPES = 64;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  private final ConcurrentMap<Integer, Price> prices = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Long, RunningTotal> totals = new ConcurrentHashMap<>();
+  private final Object[] locks = new Object[STRIPES];
+
+  // Guarded by this, as are the writes to prices and totals that check it
+  private long version;
+
+  public CartPricing() {
+    for (int i = 0; i < STRIPES; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  /**
+   * @param userId the ID of the user
+   * @return the lock to hold while changing the user's cart
+   */
+  public Object lockFor(long userId) {
+    return locks[Long.hashCode(userId) & (STRIPES - 1)];
+  }
+
+  /**
+   * @return the current price version, which changes with every price change
+   */
+  public synchronized long getVersion() {
+    return version;
+  }
+
+  /**
+   * Finds the names and prices of products. Products that haven't been priced
+   * before are loaded in one query.
+   *
+   * @param productIds the IDs of the products
+   * @return the prices by product ID; products that don't exist are left out
+   */
+  public Map<Integer, Price> getPrices(Collection<Integer> productIds) {
+    Map<Integer, Price> found = new HashMap<>();
+    List<Integer> missing = new ArrayList<>();
+    for (Integer productId : productIds) {
+      Price price = prices.get(productId);
+      if (price != null) {
+        found.put(productId, price);
+      } else {
+        missing.add(productId);
+      }
+    }
+
+    if (!missing.isEmpty()) {
+      long start = getVersion();
+      Map<Integer, Price> loaded = new HashMap<>();
+      for (ProductSummaryView product : productRepository.findSummariesByIdIn(missing)) {
+        loaded.put(product.getId(), new Price(product.getName(), product.getPrice()));
+      }
+      found.putAll(loaded);
+      synchronized (this) {
+        if (version == start) {
+          prices.putAll(loaded);
+        }
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Finds the total price of a user's cart. Uses the running total if there is
+   * one, and otherwise prices the items and keeps the result as the running
+   * total. The caller holds the user's lock.
+   *
+   * @param userId the ID of the user
+   * @param items  the items in the user's cart
+   * @return the total price of the items
+   */
+  public BigDecimal getTotal(long userId, List<CartItem> items) {
+    RunningTotal running = totals.get(userId);
+    if (running != null) {
+      return running.total;
+    }
+
+    long start = getVersion();
+    Map<Integer, Price> itemPrices = getPrices(productIds(items));
+    BigDecimal total = calculateTotal(items, itemPrices);
+    // A transaction may still roll back the cart it sees
+    if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+      keepTotal(userId, items, total, start);
+    }
+    return total;
+  }
+
+  /**
+   * Keeps a total computed by the caller as the user's running total, unless
+   * a price changed since the given version. The caller holds the user's lock.
+   *
+   * @param userId  the ID of the user
+   * @param items   the items in the user's cart
+   * @param total   the total price of the items
+   * @param version the price version before the prices were read
+   */
+  public void keepTotal(long userId, List<CartItem> items, BigDecimal total, long version) {
+    synchronized (this) {
+      if (this.version == version) {
+        totals.put(userId, new RunningTotal(total, productIds(items)));
+      }
+    }
+  }
+
+  /**
+   * Adjusts the running total of a user's cart after a quantity of a product
+   * was added to or taken from it. Does nothing if the cart has no running
+   * total. Inside a transaction, the running total is dropped instead, since
+   * the change may still be rolled back. The caller holds the user's lock.
+   *
+   * @param userId         the ID of the user
+   * @param productId      the ID of the product
+   * @param quantityChange the change in quantity, negative if taken away
+   */
+  public void adjust(long userId, int productId, int quantityChange) {
+    if (!totals.containsKey(userId) || quantityChange == 0) {
+      return;
+    }
+    if (TransactionSynchronizationManager.isActualTransactionActive()) {
+      invalidate(userId);
+      return;
+    }
+
+    long start = getVersion();
+    Price price = getPrices(List.of(productId)).get(productId);
+    synchronized (this) {
+      if (price == null || version != start) {
+        totals.remove(userId);
+        return;
+      }
+      BigDecimal change = price.getUnitPrice().multiply(BigDecimal.valueOf(quantityChange));
+      totals.computeIfPresent(userId, (id, running) -> running.plus(productId, change));
+    }
+  }
+
+  /**
+   * Drops the running total of a user's cart. Inside a transaction, it is
+   * dropped again after the commit, so that a read that raced with the
+   * transaction can't keep a total of the old cart.
+   *
+   * @param userId the ID of the user
+   */
+  public void invalidate(long userId) {
+    totals.remove(userId);
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          totals.remove(userId);
+        }
+      });
+    }
+  }
+
+  /**
+   * Updates the name and price of a product once its change is committed. If
+   * the price differs from the one carts were priced with, the running totals
+   * of the carts holding the product are dropped.
+   *
+   * @param productId the ID of the product
+   * @param name      the new name
+   * @param price     the new price
+   */
+  public void productChanged(int productId, String name, BigDecimal price) {
+    TransactionHooks.runAfterCommit(() -> {
+      synchronized (this) {
+        version++;
+        Price old = prices.put(productId, new Price(name, price));
+        if (old == null || price == null || old.getUnitPrice().compareTo(price) != 0) {
+          totals.values().removeIf(running -> running.productIds.contains(productId));
+        }
+      }
+    });
+  }
+
+  /**
+   * Forgets a deleted product, and drops the running totals of the carts that
+   * held it.
+   *
+   * @param productId the ID of the product
+   */
+  public void productRemoved(int productId) {
+    TransactionHooks.runAfterCommit(() -> {
+      synchronized (this) {
+        version++;
+        prices.remove(productId);
+        totals.values().removeIf(running -> running.productIds.contains(productId));
+      }
+    });
+  }
+
+  /**
+   * Adds up the prices of cart items. Items without a price are left out.
+   *
+   * @param items  the items
+   * @param prices the prices by product ID
+   * @return the total price
+   */
+  public static BigDecimal calculateTotal(List<CartItem> items, Map<Integer, Price> prices) {
+    BigDecimal total = BigDecimal.ZERO;
+    for (CartItem item : items) {
+      Price price = prices.get(item.getProductId());
+      if (price != null) {
+        total = total.add(price.getLineTotal(item.getQuantity()));
+      }
+    }
+    return total;
+  }
+
+  private static Set<Integer> productIds(List<CartItem> items) {
+    Set<Integer> productIds = new HashSet<>();
+    items.forEach(item -> productIds.add(item.getProductId()));
+    return productIds;
+  }
+
+  /**
+   * The name and unit price of a product, as carts are priced with.
+   */
+  public static class Price {
+    private final String name;
+    private final BigDecimal unitPrice;
+
+    Price(String name, BigDecimal unitPrice) {
+      this.name = name;
+      this.unitPrice = unitPrice;
+    }
+
+    /**
+     * @return the name of the product
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return the price of one unit of the product
+     */
+    public BigDecimal getUnitPrice() {
+      return unitPrice;
+    }
+
+    /**
+     * @param quantity the number of units
+     * @return the price of the given number of units
+     */
+    public BigDecimal getLineTotal(int quantity) {
+      return unitPrice.multiply(BigDecimal.valueOf(quantity));
+    }
+  }
+
+  // A cart's total, and the products it was computed from. Never changed;
+  // adjustments replace it.
+  private static class RunningTotal {
+    private final BigDecimal total;
+    private final Set<Integer> productIds;
+
+    RunningTotal(BigDecimal total, Set<Integer> productIds) {
+      this.total = total;
+      this.productIds = productIds;
+    }
+
+    RunningTotal plus(int productId, BigDecimal change) {
+      Set<Integer> changedIds = productIds;
+      if (!productIds.contains(productId)) {
+        changedIds = new HashSet<>(productIds);
+        changedIds.add(productId);
+      }
+      return new RunningTotal(total.add(change), changedIds);
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package no.ntnu.group7.coffeeshop.cart;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.persistence.EntityManager;
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.model.ShoppingCartProduct;
+import no.ntnu.group7.coffeeshop.model.User;
+import no.ntnu.group7.coffeeshop.repositories.ShoppingCartProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.ShoppingCartProductRepository.CartRowView;
+
+/**
+ * Brings the shopping_cart rows of some users in line with the wanted contents
+ * of their carts, only writing the rows that differ, and then marks every row
+ * of their carts as touched. Must be called inside a transaction.
+ */
+class CartRowWriter {
+
+  private CartRowWriter() {
+  }
+
+  /**
+   * @param repository    the shopping cart repository
+   * @param entityManager the entity manager to insert new rows with
+   * @param rows          the current rows of the users
+   * @param wanted        user ID -> product ID -> quantity, for every user in
+   *                      the rows, and any user without rows
+   */
+  static void write(ShoppingCartProductRepository repository, EntityManager entityManager, List<CartRowView> rows,
+      Map<Long, Map<Integer, Integer>> wanted) {
+    List<Integer> deletedIds = new ArrayList<>();
+    Map<Long, Map<Integer, Integer>> missing = new HashMap<>();
+    wanted.forEach((userId, cart) -> missing.put(userId, new LinkedHashMap<>(cart)));
+
+    for (CartRowView row : rows) {
+      Integer quantity = missing.get(row.getUserId()).remove(row.getProductId());
+      if (quantity == null) {
+        // Removed from the cart, or a second row for the same product
+        deletedIds.add(row.getId());
+      } else if (quantity != row.getQuantity()) {
+        repository.updateQuantityById(row.getId(), quantity);
+      }
+    }
+
+    if (!deletedIds.isEmpty()) {
+      repository.deleteByIdIn(deletedIds);
+    }
+    missing.forEach((userId, cart) -> cart.forEach((productId, quantity) -> entityManager.persist(
+        new ShoppingCartProduct(entityManager.getReference(User.class, userId),
+            entityManager.getReference(Product.class, productId), quantity))));
+    if (!wanted.isEmpty()) {
+      repository.touchByUserIdIn(wanted.keySet(), new Date());
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package no.ntnu.group7.coffeeshop.cart;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Holds the contents of the users' shopping carts. ShoppingCartService goes
+ * through a CartStore for every cart read and write; CartConfiguration picks
+ * the implementation. Callers check that users and products exist before
+ * adding them to a cart.
+ */
+public interface CartStore {
+
+  /**
+   * @param userId the ID of the user
+   * @return the items in the user's cart, in the order they were added
+   */
+  List<CartItem> getItems(long userId);
+
+  /**
+   * Adds a quantity of a product to a user's cart. If the product is already in
+   * the cart, the quantities are added together.
+   *
+   * @param userId    the ID of the user
+   * @param productId the ID of the product
+   * @param quantity  the quantity to add
+   */
+  void add(long userId, int productId, int quantity);
+
+  /**
+   * Sets the quantity of a product already in a user's cart.
+   *
+   * @param userId    the ID of the user
+   * @param productId the ID of the product
+   * @param quantity  the new quantity
+   * @return the quantity before, or 0 if the product isn't in the cart
+   */
+  int setQuantity(long userId, int productId, int quantity);
+
+  /**
+   * Removes a product from a user's cart, if it is there.
+   *
+   * @param userId    the ID of the user
+   * @param productId the ID of the product
+   * @return the quantity that was removed, or 0 if the product wasn't in the
+   *         cart
+   */
+  int remove(long userId, int productId);
+
+  /**
+   * Applies several changes to a user's cart, in order. Either every change is
+   * applied or, if one of them fails, none of them.
+   *
+   * @param userId     the ID of the user
+   * @param operations the changes to make
+   * @return the items in the cart afterwards
+   * @throws IllegalArgumentException if a change can't be made, such as
+   *                                  setting the quantity of a product that
+   *                                  isn't in the cart
+   */
+  List<CartItem> apply(long userId, List<CartOperation> operations);
+
+  /**
+   * Removes every product from a user's cart. Inside a transaction, the cart
+   * stays as it was if the transaction rolls back.
+   *
+   * @param userId the ID of the user
+   */
+  void clear(long userId);
+
+  /**
+   * Removes a product from every cart, before the product is deleted. When
+   * this returns, the product is no longer in the database's shopping_cart
+   * table.
+   *
+   * @param productId the ID of the product
+   */
+  void removeProduct(int productId);
+
+  /**
+   * Removes a user's cart, before the user is deleted. When this returns, the
+   * user's items are no longer in the database's shopping_cart table.
+   *
+   * @param userId the ID of the user
+   */
+  void removeUser(long userId);
+
+  /**
+   * Removes the carts of the given users that haven't changed since a given
+   * time, in the store and in the database. Carts that changed after the
+   * users were picked are left alone.
+   *
+   * @param userIds the IDs of the users
+   * @param cutoff  the time
+   * @return the number of deleted shopping_cart rows
+   */
+  int expire(Collection<Long> userIds, Date cutoff);
+}
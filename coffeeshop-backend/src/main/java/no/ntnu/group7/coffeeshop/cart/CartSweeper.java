@@ -0,0 +1,191 @@
+package no.ntnu.group7.coffeeshop.cart;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import no.ntnu.group7.coffeeshop.repositories.ShoppingCartProductRepository;
+
+/**
+ * Deletes abandoned shopping carts: carts that haven't changed for the
+ * coffeeshop.cart.expire-after period. Runs every
+ * coffeeshop.cart.sweep-interval on a background thread.
+ *
+ * A sweep looks at a bounded batch of idle rows at a time, in order of user
+ * ID, and deletes the carts they belong to whose rows are all idle, with one
+ * bulk DELETE in a short transaction of its own. Each batch starts after the
+ * last user of the one before, so carts that are kept don't stop the sweep.
+ * It pauses between batches, so it never holds locks on the shopping_cart
+ * table long enough to hold up checkout. The rows looked at, the rows deleted
+ * and the time each sweep took are published as the cart.sweep.rows.scanned,
+ * cart.sweep.rows.deleted and cart.sweep.duration metrics.
+ */
+@Component
+public class CartSweeper {
+
+  @Autowired
+  private ShoppingCartProductRepository shoppingCartProductRepository;
+
+  @Autowired
+  private CartStore cartStore;
+
+  @Autowired
+  private CartPricing cartPricing;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${coffeeshop.cart.sweep.enabled:true}")
+  private boolean enabled;
+
+  @Value("${coffeeshop.cart.expire-after:30d}")
+  private Duration expireAfter;
+
+  @Value("${coffeeshop.cart.sweep-interval:1h}")
+  private Duration sweepInterval;
+
+  @Value("${coffeeshop.cart.sweep-batch-size:500}")
+  private int batchSize;
+
+  @Value("${coffeeshop.cart.sweep-pause:100ms}")
+  private Duration pause;
+
+  private Counter rowsScanned;
+  private Counter rowsDeleted;
+  private Timer sweepDuration;
+
+  private ScheduledExecutorService sweeper;
+
+  private final Logger logger = LoggerFactory.getLogger(CartSweeper.class);
+
+  /**
+   * Registers the metrics, and starts sweeping if enabled.
+   */
+  @PostConstruct
+  public void start() {
+    rowsScanned = Counter.builder("cart.sweep.rows.scanned")
+        .description("Idle shopping cart rows looked at by the cart sweeper")
+        .register(meterRegistry);
+    rowsDeleted = Counter.builder("cart.sweep.rows.deleted")
+        .description("Shopping cart rows deleted by the cart sweeper")
+        .register(meterRegistry);
+    sweepDuration = Timer.builder("cart.sweep.duration")
+        .description("Time taken by a sweep of abandoned shopping carts")
+        .register(meterRegistry);
+
+    // Rows from before the column existed count as touched now. Every write
+    // sets the column, so this only finds rows once, after an upgrade.
+    int touched = new TransactionTemplate(transactionManager)
+        .execute(status -> shoppingCartProductRepository.touchUntouched(new Date()));
+    if (touched > 0) {
+      logger.info("Set the last touched time of " + touched + " shopping cart rows");
+    }
+
+    if (!enabled) {
+      return;
+    }
+    sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "cart-sweeper");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long millis = sweepInterval.toMillis();
+    sweeper.scheduleWithFixedDelay(this::sweepQuietly, millis, millis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops sweeping.
+   */
+  @PreDestroy
+  public void stop() {
+    if (sweeper != null) {
+      sweeper.shutdownNow();
+    }
+  }
+
+  /**
+   * Deletes every cart that hasn't changed for the expiry period.
+   *
+   * @return the number of deleted rows
+   */
+  public int sweep() {
+    return sweep(new Date(System.currentTimeMillis() - expireAfter.toMillis()));
+  }
+
+  /**
+   * Deletes every cart that hasn't changed since a given time.
+   *
+   * @param cutoff the time
+   * @return the number of deleted rows
+   */
+  public int sweep(Date cutoff) {
+    return sweepDuration.record(() -> {
+      int deleted = 0;
+      long lastUserId = 0;
+      while (true) {
+        List<Long> idleRows = shoppingCartProductRepository.findIdleUserIdsAfter(lastUserId, cutoff,
+            PageRequest.of(0, batchSize));
+        rowsScanned.increment(idleRows.size());
+        if (idleRows.isEmpty()) {
+          break;
+        }
+
+        // Carts that changed after they were found, or are waiting to be
+        // written, are kept and looked at again by the next sweep
+        Set<Long> userIds = new LinkedHashSet<>(idleRows);
+        int batchDeleted = cartStore.expire(userIds, cutoff);
+        userIds.forEach(cartPricing::invalidate);
+        rowsDeleted.increment(batchDeleted);
+        deleted += batchDeleted;
+        lastUserId = idleRows.get(idleRows.size() - 1);
+        if (idleRows.size() < batchSize || !pause()) {
+          break;
+        }
+      }
+      if (deleted > 0) {
+        logger.info("Deleted " + deleted + " abandoned shopping cart rows");
+      }
+      return deleted;
+    });
+  }
+
+  private boolean pause() {
+    try {
+      Thread.sleep(pause.toMillis());
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private void sweepQuietly() {
+    try {
+      sweep();
+    } catch (RuntimeException e) {
+      logger.warn("Could not delete abandoned shopping carts", e);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package no.ntnu.group7.coffeeshop.cart;
+
+import java.util.Date;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * Adds a quantity of a product to a cart: the row is inserted if the cart
+ * doesn't hold the product yet, and its quantity is increased otherwise.
+ * Relies on the unique constraint on (user_id, product_id): if two
+ * transactions insert the same row, one of them fails with a constraint
+ * violation and can be retried. Must be called inside a transaction.
+ *
+ * On MySQL this is a single INSERT ... ON DUPLICATE KEY UPDATE, which refers
+ * to the inserted values through a row alias and so needs MySQL 8.0.19 or
+ * later. Derby's MERGE loses increments made by concurrent statements, so on
+ * Derby the quantity is increased with an UPDATE, and the row is only
+ * inserted if there was none, which takes a second statement for the first
+ * add of a product.
+ */
+class CartUpsert {
+  private static final String MYSQL_UPSERT = "INSERT INTO shopping_cart (user_id, product_id, quantity, last_touched) "
+      + "VALUES (?1, ?2, ?3, ?4) AS new "
+      + "ON DUPLICATE KEY UPDATE quantity = quantity + new.quantity, last_touched = new.last_touched";
+
+  private static final String UPDATE = "UPDATE shopping_cart SET quantity = quantity + ?3, last_touched = ?4 "
+      + "WHERE user_id = ?1 AND product_id = ?2";
+
+  private static final String INSERT = "INSERT INTO shopping_cart (user_id, product_id, quantity, last_touched) "
+      + "VALUES (?1, ?2, ?3, ?4)";
+
+  private final boolean updateFirst;
+
+  private CartUpsert(boolean updateFirst) {
+    this.updateFirst = updateFirst;
+  }
+
+  /**
+   * @param databaseProductName the name of the database, as given by the JDBC
+   *                            driver
+   * @return the upsert for the database
+   * @throws IllegalStateException if the database isn't MySQL or Derby
+   */
+  static CartUpsert forDatabase(String databaseProductName) {
+    if (databaseProductName.contains("MySQL")) {
+      return new CartUpsert(false);
+    } else if (databaseProductName.contains("Derby")) {
+      return new CartUpsert(true);
+    }
+    throw new IllegalStateException("No shopping cart upsert for " + databaseProductName);
+  }
+
+  /**
+   * @param entityManager the entity manager to run the statements with
+   * @param userId        the ID of the user
+   * @param productId     the ID of the product
+   * @param quantity      the quantity to add
+   */
+  void execute(EntityManager entityManager, long userId, int productId, int quantity) {
+    Date now = new Date();
+    if (!updateFirst) {
+      run(entityManager, MYSQL_UPSERT, userId, productId, quantity, now);
+    } else if (run(entityManager, UPDATE, userId, productId, quantity, now) == 0) {
+      run(entityManager, INSERT, userId, productId, quantity, now);
+    }
+  }
+
+  private int run(EntityManager entityManager, String sql, long userId, int productId, int quantity, Date now) {
+    return entityManager.createNativeQuery(sql)
+        .setParameter(1, userId)
+        .setParameter(2, productId)
+        .setParameter(3, quantity)
+        .setParameter(4, now)
+        .executeUpdate();
+  }
+}
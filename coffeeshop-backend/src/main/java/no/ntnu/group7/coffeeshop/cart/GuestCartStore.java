@@ -0,0 +1,236 @@
+package no.ntnu.group7.coffeeshop.cart;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the shopping carts of visitors who haven't logged in, keyed by an
+ * opaque random token that the visitor keeps in a cookie. Guest carts live
+ * only in memory and are never written to the database: a cart that isn't
+ * used for the time to live is dropped, and when there are more carts than
+ * the limit, the least recently used ones are dropped first. Each cart holds
+ * a limited number of different products.
+ *
+ * The carts are kept in one access-ordered map guarded by the store's lock.
+ * Guest carts are small and only touched by their own visitor, so the lock is
+ * held briefly.
+ */
+public class GuestCartStore {
+  private static final int TOKEN_BYTES = 32;
+
+  // The length of a token made by newToken: 32 bytes in unpadded Base64
+  private static final int TOKEN_LENGTH = (TOKEN_BYTES * 4 + 2) / 3;
+
+  private final Duration timeToLive;
+  private final int maxCarts;
+  private final int maxItems;
+
+  private final SecureRandom random = new SecureRandom();
+
+  // Token -> cart, least recently used first. Guarded by this.
+  private final LinkedHashMap<String, GuestCart> carts = new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * @param timeToLive how long an unused cart is kept
+   * @param maxCarts   the largest number of carts kept
+   * @param maxItems   the largest number of different products in a cart
+   */
+  public GuestCartStore(Duration timeToLive, int maxCarts, int maxItems) {
+    this.timeToLive = timeToLive;
+    this.maxCarts = maxCarts;
+    this.maxItems = maxItems;
+  }
+
+  /**
+   * @return a new random token for a guest cart
+   */
+  public String newToken() {
+    byte[] bytes = new byte[TOKEN_BYTES];
+    random.nextBytes(bytes);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+
+  /**
+   * Checks that a token looks like one made by newToken, so that a made up
+   * cookie can't be used to store a cart under a key of any size.
+   *
+   * @param token the token, may be null
+   * @return whether the token has the length and characters of a token
+   */
+  public boolean isValidToken(String token) {
+    if (token == null || token.length() != TOKEN_LENGTH) {
+      return false;
+    }
+    for (int i = 0; i < token.length(); i++) {
+      char c = token.charAt(i);
+      if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '-' || c == '_')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return how long an unused cart is kept
+   */
+  public Duration getTimeToLive() {
+    return timeToLive;
+  }
+
+  /**
+   * @param token the token of the cart, may be null
+   * @return the items in the cart, in the order they were added; empty if
+   *         there is no such cart
+   */
+  public synchronized List<CartItem> getItems(String token) {
+    GuestCart cart = find(token);
+    return cart == null ? new ArrayList<>() : toItems(cart.items);
+  }
+
+  /**
+   * Applies changes to a guest cart, creating the cart if needed. Either every
+   * change is applied or, if one of them fails, none of them.
+   *
+   * @param token      the token of the cart
+   * @param operations the changes to make
+   * @return the items in the cart afterwards
+   * @throws IllegalArgumentException if the token is invalid, a change can't
+   *                                  be made, or the cart would hold too many
+   *                                  products
+   */
+  public synchronized List<CartItem> apply(String token, List<CartOperation> operations) {
+    if (!isValidToken(token)) {
+      throw new IllegalArgumentException("Invalid guest cart token");
+    }
+    evictExpired();
+    GuestCart cart = find(token);
+    Map<Integer, Integer> changed = cart == null ? new LinkedHashMap<>() : new LinkedHashMap<>(cart.items);
+    CartOperation.applyTo(changed, operations);
+    if (changed.size() > maxItems) {
+      throw new IllegalArgumentException("A guest cart can hold at most " + maxItems + " products");
+    }
+
+    if (changed.isEmpty()) {
+      carts.remove(token);
+    } else {
+      carts.put(token, new GuestCart(changed, System.nanoTime()));
+      evictOverflow();
+    }
+    return toItems(changed);
+  }
+
+  /**
+   * Removes a guest cart and returns what was in it.
+   *
+   * @param token the token of the cart, may be null
+   * @return the items that were in the cart; empty if there was no such cart
+   */
+  public synchronized List<CartItem> take(String token) {
+    GuestCart cart = find(token);
+    if (cart == null) {
+      return new ArrayList<>();
+    }
+    carts.remove(token);
+    return toItems(cart.items);
+  }
+
+  /**
+   * Puts back items taken from a guest cart, when moving them elsewhere
+   * failed. Items added to the cart meanwhile are kept, and quantities of the
+   * same product are added together.
+   *
+   * @param token the token of the cart
+   * @param items the items that were taken
+   */
+  public synchronized void restore(String token, List<CartItem> items) {
+    if (items.isEmpty() || !isValidToken(token)) {
+      return;
+    }
+    GuestCart cart = find(token);
+    if (cart == null) {
+      cart = new GuestCart(new LinkedHashMap<>(), System.nanoTime());
+      carts.put(token, cart);
+      evictOverflow();
+    }
+    for (CartItem item : items) {
+      cart.items.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+    }
+  }
+
+  /**
+   * Removes a product from every guest cart, before the product is deleted.
+   *
+   * @param productId the ID of the product
+   */
+  public synchronized void removeProduct(int productId) {
+    carts.values().removeIf(cart -> {
+      cart.items.remove(productId);
+      return cart.items.isEmpty();
+    });
+  }
+
+  /**
+   * @return the number of guest carts kept
+   */
+  public synchronized int size() {
+    evictExpired();
+    return carts.size();
+  }
+
+  // Finds a cart that hasn't expired, and marks it as used
+  private GuestCart find(String token) {
+    if (!isValidToken(token)) {
+      return null;
+    }
+    GuestCart cart = carts.get(token);
+    if (cart == null) {
+      return null;
+    }
+    long now = System.nanoTime();
+    if (now - cart.lastUsed > timeToLive.toNanos()) {
+      carts.remove(token);
+      return null;
+    }
+    cart.lastUsed = now;
+    return cart;
+  }
+
+  // The map is in order of use, so the expired carts are at the start
+  private void evictExpired() {
+    long now = System.nanoTime();
+    Iterator<GuestCart> iterator = carts.values().iterator();
+    while (iterator.hasNext() && now - iterator.next().lastUsed > timeToLive.toNanos()) {
+      iterator.remove();
+    }
+  }
+
+  private void evictOverflow() {
+    if (carts.size() > maxCarts) {
+      Iterator<GuestCart> eldest = carts.values().iterator();
+      eldest.next();
+      eldest.remove();
+    }
+  }
+
+  private List<CartItem> toItems(Map<Integer, Integer> items) {
+    List<CartItem> cartItems = new ArrayList<>();
+    items.forEach((productId, quantity) -> cartItems.add(new CartItem(productId, quantity)));
+    return cartItems;
+  }
+
+  private static class GuestCart {
+    private final Map<Integer, Integer> items;
+    private long lastUsed;
+
+    GuestCart(Map<Integer, Integer> items, long lastUsed) {
+      this.items = items;
+      this.lastUsed = lastUsed;
+    }
+  }
+}
@@ -0,0 +1,415 @@
+package no.ntnu.group7.coffeeshop.cart;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.ShoppingCartProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.UserRepository;
+import no.ntnu.group7.coffeeshop.services.TransactionHooks;
+
+/**
+ * CartStore that keeps every cart in memory and writes changes to the
+ * shopping_cart table in the background (write-behind). Reads never touch the
+ * database. Carts are guarded by a fixed set of striped locks, so requests
+ * for different users rarely wait for each other.
+ *
+ * Writes only mark the user's cart as dirty. Every flush interval, the dirty
+ * carts are compared with their rows in the database and the differences are
+ * written in one transaction per batch of users, so any number of changes to a
+ * cart between two flushes cost one write per changed item. The carts are
+ * loaded from the database at startup, and flushed once more at shutdown.
+ * Changes made since the last flush are lost if the process is killed.
+ */
+public class InMemoryCartStore implements CartStore {
+  private static final int STRIPES = 64;
+  private static final int FLUSH_BATCH_SIZE = 500;
+
+  @Autowired
+  private ShoppingCartProductRepository shoppingCartProductRepository;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  private final Duration flushInterval;
+
+  // User ID -> product ID -> quantity. Each inner map is guarded by the lock
+  // of its user's stripe.
+  private final ConcurrentMap<Long, Map<Integer, Integer>> carts = new ConcurrentHashMap<>();
+  private final Object[] locks = new Object[STRIPES];
+  private final Set<Long> dirtyUsers = ConcurrentHashMap.newKeySet();
+
+  // Held while writing to the database, so that flushes don't overlap with
+  // each other or with removing products and users
+  private final Object flushLock = new Object();
+
+  private ScheduledExecutorService flusher;
+
+  private final Logger logger = LoggerFactory.getLogger(InMemoryCartStore.class);
+
+  /**
+   * @param flushInterval the time between two writes to the database
+   */
+  public InMemoryCartStore(Duration flushInterval) {
+    this.flushInterval = flushInterval;
+    for (int i = 0; i < STRIPES; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  /**
+   * Loads the carts from the database and starts flushing changes.
+   */
+  @PostConstruct
+  public void start() {
+    load();
+    flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "cart-flusher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long millis = flushInterval.toMillis();
+    flusher.scheduleWithFixedDelay(this::flushQuietly, millis, millis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops flushing in the background, and writes the last changes.
+   */
+  @PreDestroy
+  public void stop() {
+    if (flusher != null) {
+      flusher.shutdown();
+    }
+    flushQuietly();
+  }
+
+  /**
+   * Replaces the carts in memory with the carts in the database.
+   */
+  public void load() {
+    synchronized (flushLock) {
+      carts.clear();
+      dirtyUsers.clear();
+      for (ShoppingCartProductRepository.CartRowView row : shoppingCartProductRepository.findAllViews()) {
+        Map<Integer, Integer> cart = carts.computeIfAbsent(row.getUserId(), userId -> new LinkedHashMap<>());
+        if (cart.merge(row.getProductId(), row.getQuantity(), Integer::sum) != row.getQuantity()) {
+          // Two rows for the same product; the next flush leaves one
+          dirtyUsers.add(row.getUserId());
+        }
+      }
+      logger.info("Loaded " + carts.size() + " shopping carts");
+    }
+  }
+
+  @Override
+  public List<CartItem> getItems(long userId) {
+    synchronized (lockFor(userId)) {
+      Map<Integer, Integer> cart = carts.get(userId);
+      return cart == null ? new ArrayList<>() : toItems(cart);
+    }
+  }
+
+  @Override
+  public void add(long userId, int productId, int quantity) {
+    synchronized (lockFor(userId)) {
+      carts.computeIfAbsent(userId, id -> new LinkedHashMap<>()).merge(productId, quantity, Integer::sum);
+      dirtyUsers.add(userId);
+    }
+  }
+
+  @Override
+  public int setQuantity(long userId, int productId, int quantity) {
+    synchronized (lockFor(userId)) {
+      Map<Integer, Integer> cart = carts.get(userId);
+      Integer previous = cart == null ? null : cart.replace(productId, quantity);
+      if (previous == null) {
+        return 0;
+      }
+      dirtyUsers.add(userId);
+      return previous;
+    }
+  }
+
+  @Override
+  public int remove(long userId, int productId) {
+    synchronized (lockFor(userId)) {
+      Map<Integer, Integer> cart = carts.get(userId);
+      Integer removed = cart == null ? null : cart.remove(productId);
+      if (removed == null) {
+        return 0;
+      }
+      if (cart.isEmpty()) {
+        carts.remove(userId);
+      }
+      dirtyUsers.add(userId);
+      return removed;
+    }
+  }
+
+  @Override
+  public List<CartItem> apply(long userId, List<CartOperation> operations) {
+    synchronized (lockFor(userId)) {
+      Map<Integer, Integer> cart = carts.get(userId);
+      Map<Integer, Integer> changed = cart == null ? new LinkedHashMap<>() : new LinkedHashMap<>(cart);
+      CartOperation.applyTo(changed, operations);
+      if (changed.equals(cart == null ? Map.of() : cart)) {
+        return toItems(changed);
+      }
+      if (changed.isEmpty()) {
+        carts.remove(userId);
+      } else {
+        carts.put(userId, changed);
+      }
+      dirtyUsers.add(userId);
+      return toItems(changed);
+    }
+  }
+
+  /**
+   * Inside a transaction, such as a checkout, the cart is cleared once the
+   * transaction commits, so that a checkout that rolls back keeps the cart.
+   */
+  @Override
+  public void clear(long userId) {
+    TransactionHooks.runAfterCommit(() -> {
+      synchronized (lockFor(userId)) {
+        if (carts.remove(userId) != null) {
+          dirtyUsers.add(userId);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void removeProduct(int productId) {
+    synchronized (flushLock) {
+      for (Long userId : carts.keySet()) {
+        remove(userId, productId);
+      }
+      new TransactionTemplate(transactionManager)
+          .executeWithoutResult(status -> shoppingCartProductRepository.deleteByProductId(productId));
+    }
+  }
+
+  @Override
+  public void removeUser(long userId) {
+    synchronized (flushLock) {
+      synchronized (lockFor(userId)) {
+        carts.remove(userId);
+        dirtyUsers.remove(userId);
+      }
+      new TransactionTemplate(transactionManager)
+          .executeWithoutResult(status -> shoppingCartProductRepository.deleteByUserId(userId));
+    }
+  }
+
+  /**
+   * Expires carts without changes that aren't written yet. A cart changed in
+   * memory is about to be written, which touches it, so it is left alone.
+   * Flushes are held off meanwhile, so no cart is touched in the database
+   * between finding the idle carts and deleting them.
+   */
+  @Override
+  public int expire(Collection<Long> userIds, Date cutoff) {
+    synchronized (flushLock) {
+      List<Long> clean = new ArrayList<>();
+      for (Long userId : userIds) {
+        if (!dirtyUsers.contains(userId)) {
+          clean.add(userId);
+        }
+      }
+      if (clean.isEmpty()) {
+        return 0;
+      }
+
+      List<Long> idle = new ArrayList<>();
+      int deleted = new TransactionTemplate(transactionManager).execute(status -> {
+        idle.addAll(shoppingCartProductRepository.findIdleUserIdsIn(clean, cutoff));
+        return idle.isEmpty() ? 0 : shoppingCartProductRepository.deleteIdleByUserIdIn(idle, cutoff);
+      });
+      for (Long userId : idle) {
+        synchronized (lockFor(userId)) {
+          // A cart changed since it was found is written again by the next
+          // flush
+          if (!dirtyUsers.contains(userId)) {
+            carts.remove(userId);
+          }
+        }
+      }
+      return deleted;
+    }
+  }
+
+  /**
+   * Writes the changes to every dirty cart to the database, in batches of
+   * users. If a batch fails, its carts are written one by one. A cart that
+   * still fails is repaired if it refers to a deleted user or product, and is
+   * otherwise left dirty and retried on the next flush.
+   */
+  public void flush() {
+    synchronized (flushLock) {
+      List<Long> batch = new ArrayList<>();
+      Iterator<Long> iterator = dirtyUsers.iterator();
+      while (iterator.hasNext()) {
+        batch.add(iterator.next());
+        iterator.remove();
+        if (batch.size() == FLUSH_BATCH_SIZE || !iterator.hasNext()) {
+          flushBatch(batch);
+          batch = new ArrayList<>();
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the number of carts with changes that aren't written yet
+   */
+  public int getDirtyCount() {
+    return dirtyUsers.size();
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      logger.warn("Could not write shopping carts to the database", e);
+    }
+  }
+
+  private void flushBatch(List<Long> userIds) {
+    try {
+      writeCarts(userIds);
+      return;
+    } catch (RuntimeException e) {
+      if (userIds.size() == 1) {
+        repairOrRetryLater(userIds.get(0), e);
+        return;
+      }
+      logger.warn("Could not write a batch of " + userIds.size() + " shopping carts, writing them one by one", e);
+    }
+
+    // One bad cart fails the whole batch, so the others are written on their
+    // own
+    for (int i = 0; i < userIds.size(); i++) {
+      long userId = userIds.get(i);
+      try {
+        writeCarts(List.of(userId));
+      } catch (RuntimeException e) {
+        try {
+          repairOrRetryLater(userId, e);
+        } catch (RuntimeException unavailable) {
+          dirtyUsers.addAll(userIds.subList(i + 1, userIds.size()));
+          throw unavailable;
+        }
+      }
+    }
+  }
+
+  private void writeCarts(List<Long> userIds) {
+    // Copy the carts first, so that no cart lock is held during the database
+    // round trips. Changes made after the copy mark the cart dirty again.
+    Map<Long, Map<Integer, Integer>> wanted = new HashMap<>();
+    for (Long userId : userIds) {
+      synchronized (lockFor(userId)) {
+        Map<Integer, Integer> cart = carts.get(userId);
+        wanted.put(userId, cart == null ? new LinkedHashMap<>() : new LinkedHashMap<>(cart));
+      }
+    }
+    new TransactionTemplate(transactionManager).executeWithoutResult(status -> write(wanted));
+  }
+
+  /**
+   * Handles a cart that could not be written. A cart of a user that was
+   * deleted is dropped, and products that were deleted are taken out of it,
+   * since such a cart could never be written. Any other cart is left dirty and
+   * retried on the next flush.
+   */
+  private void repairOrRetryLater(long userId, RuntimeException failure) {
+    Set<Integer> productIds;
+    synchronized (lockFor(userId)) {
+      Map<Integer, Integer> cart = carts.get(userId);
+      productIds = cart == null ? Set.of() : new HashSet<>(cart.keySet());
+    }
+    boolean userExists;
+    Set<Integer> deletedProducts = new HashSet<>(productIds);
+    try {
+      userExists = userRepository.existsById(userId);
+      if (!productIds.isEmpty()) {
+        productRepository.findStockByIdIn(productIds).forEach(stock -> deletedProducts.remove(stock.getId()));
+      }
+    } catch (RuntimeException e) {
+      dirtyUsers.add(userId);
+      throw e;
+    }
+
+    if (userExists && deletedProducts.isEmpty()) {
+      logger.warn("Could not write the shopping cart of user " + userId + ", retrying on the next flush", failure);
+      dirtyUsers.add(userId);
+      return;
+    }
+    synchronized (lockFor(userId)) {
+      if (!userExists) {
+        carts.remove(userId);
+        logger.warn("Dropped the shopping cart of deleted user " + userId);
+        return;
+      }
+      Map<Integer, Integer> cart = carts.get(userId);
+      if (cart != null) {
+        cart.keySet().removeAll(deletedProducts);
+        if (cart.isEmpty()) {
+          carts.remove(userId);
+        }
+      }
+      dirtyUsers.add(userId);
+    }
+    logger.warn("Removed deleted products " + deletedProducts + " from the shopping cart of user " + userId);
+  }
+
+  private void write(Map<Long, Map<Integer, Integer>> wanted) {
+    CartRowWriter.write(shoppingCartProductRepository, entityManager,
+        shoppingCartProductRepository.findViewsByUserIdIn(wanted.keySet()), wanted);
+  }
+
+  private List<CartItem> toItems(Map<Integer, Integer> cart) {
+    List<CartItem> items = new ArrayList<>();
+    cart.forEach((productId, quantity) -> items.add(new CartItem(productId, quantity)));
+    return items;
+  }
+
+  private Object lockFor(long userId) {
+    return locks[Long.hashCode(userId) & (STRIPES - 1)];
+  }
+}
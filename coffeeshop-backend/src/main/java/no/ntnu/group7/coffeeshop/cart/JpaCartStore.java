@@ -0,0 +1,171 @@
+package no.ntnu.group7.coffeeshop.cart;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockTimeoutException;
+import jakarta.persistence.PessimisticLockException;
+import jakarta.persistence.PersistenceException;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.Transactional;
+import no.ntnu.group7.coffeeshop.repositories.ShoppingCartProductRepository;
+
+/**
+ * CartStore that reads and writes the shopping_cart table directly, a few
+ * queries per operation. Adding to a cart is a single upsert statement; the
+ * other changes also touch the rows of the cart.
+ */
+public class JpaCartStore implements CartStore {
+  private static final int MAX_ADD_ATTEMPTS = 5;
+
+  @Autowired
+  private ShoppingCartProductRepository shoppingCartProductRepository;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  private DataSource dataSource;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  private CartUpsert upsert;
+
+  /**
+   * Picks the upsert statement for the database.
+   *
+   * @throws SQLException if the database can't be reached
+   */
+  @PostConstruct
+  public void start() throws SQLException {
+    try (Connection connection = dataSource.getConnection()) {
+      upsert = CartUpsert.forDatabase(connection.getMetaData().getDatabaseProductName());
+    }
+  }
+
+  @Override
+  public List<CartItem> getItems(long userId) {
+    return shoppingCartProductRepository.findViewsByUserId(userId).stream()
+        .map(row -> new CartItem(row.getProductId(), row.getQuantity()))
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public void add(long userId, int productId, int quantity) {
+    // When two requests add a product that isn't in the cart yet, both may
+    // try to insert it; the unique constraint fails one of them (or the
+    // database gives up waiting for the other's row lock), which then finds
+    // the row and increases its quantity on the next attempt
+    for (int attempt = 1;; attempt++) {
+      try {
+        new TransactionTemplate(transactionManager)
+            .executeWithoutResult(status -> upsert.execute(entityManager, userId, productId, quantity));
+        return;
+      } catch (PersistenceException e) {
+        if (!isLostRace(e) || attempt == MAX_ADD_ATTEMPTS) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  private static boolean isLostRace(PersistenceException e) {
+    return e.getCause() instanceof ConstraintViolationException || e instanceof LockTimeoutException
+        || e instanceof PessimisticLockException;
+  }
+
+  @Override
+  @Transactional
+  public int setQuantity(long userId, int productId, int quantity) {
+    ShoppingCartProductRepository.CartRowView row = findRow(userId, productId);
+    if (row == null) {
+      return 0;
+    }
+    shoppingCartProductRepository.updateQuantityById(row.getId(), quantity);
+    touch(userId);
+    return row.getQuantity();
+  }
+
+  @Override
+  @Transactional
+  public int remove(long userId, int productId) {
+    ShoppingCartProductRepository.CartRowView row = findRow(userId, productId);
+    if (row == null) {
+      return 0;
+    }
+    shoppingCartProductRepository.deleteByUserIdAndProductId(userId, productId);
+    touch(userId);
+    return row.getQuantity();
+  }
+
+  @Override
+  @Transactional
+  public List<CartItem> apply(long userId, List<CartOperation> operations) {
+    List<ShoppingCartProductRepository.CartRowView> rows = shoppingCartProductRepository.findViewsByUserId(userId);
+    Map<Integer, Integer> cart = new LinkedHashMap<>();
+    for (ShoppingCartProductRepository.CartRowView row : rows) {
+      cart.merge(row.getProductId(), row.getQuantity(), Integer::sum);
+    }
+    CartOperation.applyTo(cart, operations);
+
+    CartRowWriter.write(shoppingCartProductRepository, entityManager, rows, Map.of(userId, cart));
+    List<CartItem> items = new ArrayList<>();
+    cart.forEach((productId, quantity) -> items.add(new CartItem(productId, quantity)));
+    return items;
+  }
+
+  @Override
+  @Transactional
+  public void clear(long userId) {
+    shoppingCartProductRepository.deleteByUserId(userId);
+  }
+
+  @Override
+  @Transactional
+  public void removeProduct(int productId) {
+    shoppingCartProductRepository.deleteByProductId(productId);
+  }
+
+  @Override
+  @Transactional
+  public void removeUser(long userId) {
+    shoppingCartProductRepository.deleteByUserId(userId);
+  }
+
+  @Override
+  @Transactional
+  public int expire(Collection<Long> userIds, Date cutoff) {
+    List<Long> idle = shoppingCartProductRepository.findIdleUserIdsIn(userIds, cutoff);
+    return idle.isEmpty() ? 0 : shoppingCartProductRepository.deleteIdleByUserIdIn(idle, cutoff);
+  }
+
+  private void touch(long userId) {
+    shoppingCartProductRepository.touchByUserIdIn(List.of(userId), new Date());
+  }
+
+  private ShoppingCartProductRepository.CartRowView findRow(long userId, int productId) {
+    for (ShoppingCartProductRepository.CartRowView row : shoppingCartProductRepository.findViewsByUserId(userId)) {
+      if (row.getProductId() == productId) {
+        return row;
+      }
+    }
+    return null;
+  }
+}
@@ -5,9 +5,15 @@ import no.ntnu.group7.coffeeshop.dto.AuthenticationResponse;
 import no.ntnu.group7.coffeeshop.dto.ChangePasswordDto;
 import no.ntnu.group7.coffeeshop.dto.SignupDto;
 import no.ntnu.group7.coffeeshop.model.User;
+import no.ntnu.group7.coffeeshop.security.AccessUserDetails;
 import no.ntnu.group7.coffeeshop.security.JwtUtil;
 import no.ntnu.group7.coffeeshop.services.AccessUserService;
+import no.ntnu.group7.coffeeshop.services.ShoppingCartService;
+
+import java.time.Duration;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -29,7 +35,7 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
  * 
  * Controller responsible for authentication.
  */
-@CrossOrigin(origins = "http://localhost:3000")
+@CrossOrigin(origins = "http://localhost:3000", allowCredentials = "true")
 @RestController
 public class AuthenticationController {
   @Autowired
@@ -38,12 +44,17 @@ public class AuthenticationController {
   private AccessUserService userService;
   @Autowired
   private JwtUtil jwtUtil;
+  @Autowired
+  private ShoppingCartService shoppingCartService;
 
   /**
    * HTTP POST request to /authenticate
    *
    * @param authenticationRequest The request JSON object containing username and
    *                              password
+   * @param guestToken            The token of the visitor's guest cart, if any.
+   *                              The guest cart is merged into the user's
+   *                              shopping cart.
    * @return OK + JWT token; Or UNAUTHORIZED
    */
   @PostMapping("/api/authenticate")
@@ -53,7 +64,8 @@ public class AuthenticationController {
       @ApiResponse(responseCode = "401", description = "Invalid username or password")
   })
   public ResponseEntity<?> authenticate(
-      @Parameter(description = "The request JSON object containing username and password") @RequestBody AuthenticationRequest authenticationRequest) {
+      @Parameter(description = "The request JSON object containing username and password") @RequestBody AuthenticationRequest authenticationRequest,
+      @Parameter(hidden = true) @CookieValue(name = ShoppingCartController.GUEST_CART_COOKIE, required = false) String guestToken) {
     try {
       authenticationManager.authenticate(new UsernamePasswordAuthenticationToken(
           authenticationRequest.getUsername(),
@@ -63,6 +75,12 @@ public class AuthenticationController {
     }
     final UserDetails userDetails = userService.loadUserByUsername(authenticationRequest.getUsername());
     final String jwt = jwtUtil.generateToken(userDetails);
+    if (guestToken != null) {
+      shoppingCartService.mergeGuestCart(((AccessUserDetails) userDetails).getUserId(), guestToken);
+      return ResponseEntity.ok()
+          .header(HttpHeaders.SET_COOKIE, ShoppingCartController.guestCartCookie("", Duration.ZERO).toString())
+          .body(new AuthenticationResponse(jwt));
+    }
     return ResponseEntity.ok(new AuthenticationResponse(jwt));
   }
 
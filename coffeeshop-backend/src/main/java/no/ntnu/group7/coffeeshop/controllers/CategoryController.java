@@ -1,12 +1,15 @@
 package no.ntnu.group7.coffeeshop.controllers;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
 
 import io.swagger.v3.oas.annotations.Operation;
@@ -16,6 +19,9 @@ import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import no.ntnu.group7.coffeeshop.cache.CatalogCache;
+import no.ntnu.group7.coffeeshop.cache.CatalogSnapshot;
+import no.ntnu.group7.coffeeshop.cache.CatalogVersion;
 import no.ntnu.group7.coffeeshop.dto.CategoryDto;
 import no.ntnu.group7.coffeeshop.model.Category;
 import no.ntnu.group7.coffeeshop.repositories.CategoryRepository;
@@ -34,25 +40,38 @@ public class CategoryController {
   @Autowired
   CategoryService categoryService;
 
+  @Autowired
+  CatalogCache catalogCache;
+
+  @Autowired
+  CatalogVersion catalogVersion;
+
+  @Autowired
+  CatalogSnapshot catalogSnapshot;
+
   /**
    * Handles HTTP GET requests to "/api/categories" and returns a list of all
-   * Category objects in the database.
+   * Category objects in the database, from the pre-serialized CatalogSnapshot
+   * when it is current.
    *
    * @return A list of Category objects.
    */
   @GetMapping("")
   @Operation(summary = "Get all categories")
   @ApiResponse(responseCode = "400", description = "Success", content = @Content(array = @ArraySchema(schema = @Schema(implementation = CategoryDto.class))))
-  public ResponseEntity<List<CategoryDto>> getAllCategories() {
-    List<Category> categories = categoryRepository.findAll();
-    List<CategoryDto> categoryDtos = new ArrayList<>();
+  public ResponseEntity<?> getAllCategories(WebRequest request) {
+    if (request.checkNotModified(catalogVersion.getCategoriesETag(), catalogVersion.getCategoriesLastModified())) {
+      return notModified();
+    }
 
-    for (Category category : categories) {
-      CategoryDto dto = new CategoryDto(category.getId(), category.getName());
-      categoryDtos.add(dto);
+    Optional<CatalogSnapshot.Body> snapshot = catalogSnapshot.getCategories();
+    if (snapshot.isPresent()) {
+      return snapshot.get().toResponse(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
     }
 
-    return new ResponseEntity<List<CategoryDto>>(categoryDtos, HttpStatus.OK);
+    List<CategoryDto> categoryDtos = categoryService.getAllCategoryDtos();
+
+    return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(categoryDtos);
   }
 
   /**
@@ -67,16 +86,20 @@ public class CategoryController {
   @Operation(summary = "Get one category")
   @ApiResponses({
       @ApiResponse(responseCode = "200", description = "Success", content = @Content(schema = @Schema(implementation = CategoryDto.class))),
+      @ApiResponse(responseCode = "304", description = "Not modified"),
       @ApiResponse(responseCode = "404", description = "Product not found")
   })
   public ResponseEntity<CategoryDto> getCategoryById(
-      @Parameter(description = "The ID of the Category object to retrieve") @PathVariable(value = "id") int categoryId) {
-    Category category = categoryRepository.findById(categoryId)
-        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Product not found"));
+      @Parameter(description = "The ID of the Category object to retrieve") @PathVariable(value = "id") int categoryId,
+      WebRequest request) {
+    if (request.checkNotModified(catalogVersion.getCategoriesETag(), catalogVersion.getCategoriesLastModified())) {
+      return notModified();
+    }
 
-    CategoryDto categoryDto = new CategoryDto(category.getId(), category.getName());
+    CategoryDto categoryDto = categoryService.getCategoryDto(categoryId)
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Product not found"));
 
-    return new ResponseEntity<CategoryDto>(categoryDto, HttpStatus.OK);
+    return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(categoryDto);
   }
 
   /**
@@ -92,6 +115,7 @@ public class CategoryController {
   public ResponseEntity<Category> createCategory(
       @Parameter(description = "The Category object to create") @RequestBody CategoryDto categoryDto) {
     Category newCategory = categoryRepository.save(new Category(categoryDto.getName()));
+    catalogCache.evictCategories();
 
     return new ResponseEntity<Category>(newCategory, HttpStatus.CREATED);
   }
@@ -120,4 +144,13 @@ public class CategoryController {
     return new ResponseEntity<Void>(HttpStatus.NOT_FOUND);
   }
 
+  /**
+   * Builds a 304 Not Modified response. The ETag and Last-Modified headers are
+   * already set by WebRequest.checkNotModified.
+   *
+   * @return An empty response telling the client to use its cached copy.
+   */
+  private <T> ResponseEntity<T> notModified() {
+    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(CacheControl.noCache()).build();
+  }
 }
@@ -1,27 +1,39 @@
 package no.ntnu.group7.coffeeshop.controllers;
 
+import java.net.URI;
 import java.util.List;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import no.ntnu.group7.coffeeshop.dto.CheckoutStatusDto;
 import no.ntnu.group7.coffeeshop.dto.OrderDto;
 import no.ntnu.group7.coffeeshop.dto.OrderProductDto;
+import no.ntnu.group7.coffeeshop.dto.StockShortageDto;
 import no.ntnu.group7.coffeeshop.model.Order;
 import no.ntnu.group7.coffeeshop.model.User;
 import no.ntnu.group7.coffeeshop.services.AccessUserService;
+import no.ntnu.group7.coffeeshop.services.CheckoutQueue;
+import no.ntnu.group7.coffeeshop.services.CheckoutQueueFullException;
 import no.ntnu.group7.coffeeshop.services.CheckoutService;
+import no.ntnu.group7.coffeeshop.services.OutOfStockException;
+import no.ntnu.group7.coffeeshop.services.ShoppingCartService;
 
 /**
  * Controller responsible for managing checkouts in the coffeeshop.
@@ -30,6 +42,8 @@ import no.ntnu.group7.coffeeshop.services.CheckoutService;
 @CrossOrigin(origins = "http://localhost:3000")
 @RequestMapping("/api/checkout")
 public class CheckoutController {
+  private static final String RESPOND_ASYNC = "respond-async";
+  private static final String RETRY_AFTER_SECONDS = "1";
 
   @Autowired
   private AccessUserService accessUserService;
@@ -37,10 +51,21 @@ public class CheckoutController {
   @Autowired
   private CheckoutService checkoutService;
 
+  @Autowired
+  private CheckoutQueue checkoutQueue;
+
+  @Autowired
+  private ShoppingCartService shoppingCartService;
+
   /**
-   * HTTP POST endpoint for handling checkout
+   * HTTP POST endpoint for handling checkout. With the header
+   * "Prefer: respond-async" the order is placed in the background: the
+   * response is 202 with the ID of the pending order, whose status is then
+   * polled at the URL in the Location header.
    * 
-   * @return DTO of the order.
+   * @param prefer The Prefer header of the request.
+   * @return DTO of the order, or of its status if it is placed in the
+   *         background.
    */
   @PostMapping("")
   @Operation(
@@ -48,19 +73,38 @@ public class CheckoutController {
   )
   @ApiResponses({
     @ApiResponse(responseCode = "200", description = "Successful", content = @Content(schema = @Schema(implementation = OrderDto.class))),
-    @ApiResponse(responseCode = "401", description = "User not authenticated")
+    @ApiResponse(responseCode = "202", description = "The order will be placed in the background",
+        content = @Content(schema = @Schema(implementation = CheckoutStatusDto.class))),
+    @ApiResponse(responseCode = "400", description = "The shopping cart is empty, when placing the order in the background"),
+    @ApiResponse(responseCode = "401", description = "User not authenticated"),
+    @ApiResponse(responseCode = "409", description = "Not enough of some products in stock; nothing was ordered",
+        content = @Content(array = @ArraySchema(schema = @Schema(implementation = StockShortageDto.class)))),
+    @ApiResponse(responseCode = "429", description = "Too many checkouts are waiting to be placed; try again later")
   })
-  public ResponseEntity<OrderDto> checkout() {
+  public ResponseEntity<?> checkout(
+      @Parameter(description = "respond-async to place the order in the background") @RequestHeader(value = "Prefer", required = false) String prefer) {
     User user = accessUserService.getSessionUser();
     if (user == null) {
       return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(null);
     }
+
+    if (prefer != null && prefer.contains(RESPOND_ASYNC)) {
+      // Checked before an order is written; a cart emptied after this, such
+      // as by a checkout submitted twice, cancels the order instead
+      if (shoppingCartService.getCartItems(user).isEmpty()) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("The shopping cart is empty");
+      }
+      Order pending = checkoutQueue.submit(user);
+      return ResponseEntity.accepted()
+          .location(URI.create("/api/orders/" + pending.getId() + "/status"))
+          .body(new CheckoutStatusDto(pending.getId(), pending.getOrderStatus().toString(), null));
+    }
   
     Order order = checkoutService.checkout(user);
   
     // Convert OrderProducts to OrderProductDtos
     List<OrderProductDto> orderProductDtos = order.getOrderProducts().stream()
-        .map(op -> new OrderProductDto(op.getId(), op.getProduct().getName(), op.getQuantity()))
+        .map(op -> new OrderProductDto(op.getId(), op.getProductName(), op.getUnitPrice(), op.getQuantity()))
         .collect(Collectors.toList());
   
     // Convert Order to OrderDto
@@ -69,4 +113,28 @@ public class CheckoutController {
   
     return ResponseEntity.ok(orderDto);
   }
+
+  /**
+   * Responds to a checkout that failed because some products ran out.
+   *
+   * @param e the exception
+   * @return the products there isn't enough of, with status 409
+   */
+  @ExceptionHandler(OutOfStockException.class)
+  public ResponseEntity<List<StockShortageDto>> outOfStock(OutOfStockException e) {
+    return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getShortages());
+  }
+
+  /**
+   * Responds to a checkout that was turned away because too many are waiting.
+   *
+   * @param e the exception
+   * @return status 429, with a Retry-After header
+   */
+  @ExceptionHandler(CheckoutQueueFullException.class)
+  public ResponseEntity<String> queueFull(CheckoutQueueFullException e) {
+    return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+        .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+        .body(e.getMessage());
+  }
 }
@@ -1,11 +1,15 @@
 package no.ntnu.group7.coffeeshop.controllers;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
@@ -17,10 +21,20 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.parameters.RequestBody;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import no.ntnu.group7.coffeeshop.dto.CheckoutStatusDto;
+import no.ntnu.group7.coffeeshop.dto.FieldSelection;
 import no.ntnu.group7.coffeeshop.dto.OrderDto;
 import no.ntnu.group7.coffeeshop.dto.OrderProductDto;
+import no.ntnu.group7.coffeeshop.dto.StockShortageDto;
 import no.ntnu.group7.coffeeshop.model.Order;
+import no.ntnu.group7.coffeeshop.model.User;
+import no.ntnu.group7.coffeeshop.repositories.OrderProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.OrderProductRepository.OrderProductView;
 import no.ntnu.group7.coffeeshop.repositories.OrderRepository;
+import no.ntnu.group7.coffeeshop.repositories.OrderRepository.OrderStatusView;
+import no.ntnu.group7.coffeeshop.services.AccessUserService;
+import no.ntnu.group7.coffeeshop.services.CheckoutQueue;
+import no.ntnu.group7.coffeeshop.services.OrderService;
 
 /**
  * Controller responsible for managing orders in the coffeeshop.
@@ -33,34 +47,91 @@ public class OrderController {
   @Autowired
   private OrderRepository orderRepository;
 
+  @Autowired
+  private OrderProductRepository orderProductRepository;
+
+  @Autowired
+  private AccessUserService accessUserService;
+
+  @Autowired
+  private CheckoutQueue checkoutQueue;
+
+  @Autowired
+  private OrderService orderService;
+
   /**
    * Handles HTTP GET requests to "/api/orders" and returns a list of all orders
-   * in the system.
+   * in the system. The fields parameter selects the fields of each order; the
+   * products of the orders are only loaded if they are asked for.
    *
+   * @param fields The fields to include, or the presets summary and full.
    * @return A response containing a list of Order DTOs.
    */
   @GetMapping("")
   @Operation(summary = "Get all orders")
-  @ApiResponse(responseCode = "200", description = "Success", content = @Content(array = @ArraySchema(schema = @Schema(implementation = OrderDto.class))))
-  public ResponseEntity<List<OrderDto>> getAllOrders() {
-    List<Order> orders = orderRepository.findAll();
-
-    List<OrderDto> orderDtos = orders.stream().map(order -> {
-      List<OrderProductDto> orderProductDtos = order.getOrderProducts().stream()
-          .map(orderProduct -> new OrderProductDto(orderProduct.getId(), orderProduct.getProduct().getName(),
-              orderProduct.getQuantity()))
-          .collect(Collectors.toList());
-
-      return new OrderDto(
-          order.getId(),
-          order.getUser().getUsername(),
-          order.getOrderStatus().toString(),
-          order.getTotal(),
-          order.getCreatedAt().toString(),
-          orderProductDtos);
-    }).collect(Collectors.toList());
-
-    return new ResponseEntity<List<OrderDto>>(orderDtos, HttpStatus.OK);
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", description = "Success", content = @Content(array = @ArraySchema(schema = @Schema(implementation = OrderDto.class)))),
+      @ApiResponse(responseCode = "400", description = "Unknown field")
+  })
+  public ResponseEntity<MappingJacksonValue> getAllOrders(
+      @Parameter(description = "The fields to include, comma separated, or the presets summary and full") @RequestParam(required = false) String fields) {
+    FieldSelection selection;
+    try {
+      selection = FieldSelection.parse(fields, OrderDto.FIELDS, OrderDto.SUMMARY_FIELDS, OrderDto.FIELDS);
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+    }
+
+    Map<Long, List<OrderProductDto>> orderProductDtos = new HashMap<>();
+    if (selection.includes("orderProducts")) {
+      for (OrderProductView orderProduct : orderProductRepository.findAllViews()) {
+        orderProductDtos.computeIfAbsent(orderProduct.getOrderId(), key -> new ArrayList<>())
+            .add(new OrderProductDto(orderProduct.getId(), orderProduct.getProductName(),
+                orderProduct.getUnitPrice(), orderProduct.getQuantity()));
+      }
+    }
+
+    List<OrderDto> orderDtos = orderRepository.findAllSummaries().stream()
+        .map(order -> new OrderDto(
+            order.getId(),
+            order.getUsername(),
+            order.getOrderStatus().toString(),
+            order.getTotal(),
+            order.getCreatedAt().toString(),
+            selection.includes("orderProducts")
+                ? orderProductDtos.getOrDefault(order.getId(), new ArrayList<>())
+                : null))
+        .collect(Collectors.toList());
+
+    return new ResponseEntity<>(selection.apply(orderDtos, OrderDto.FIELD_FILTER), HttpStatus.OK);
+  }
+
+  /**
+   * Handles HTTP GET requests to "/api/orders/{id}/status" and returns the
+   * status of an order, for polling an order placed in the background. Only
+   * the user who placed the order and admins may see it.
+   *
+   * @param id The ID of the order.
+   * @return The status of the order, with the products that ran out if it was
+   *         canceled because of them.
+   */
+  @GetMapping("/{id}/status")
+  @Operation(summary = "Get the status of an order")
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", description = "Success", content = @Content(schema = @Schema(implementation = CheckoutStatusDto.class))),
+      @ApiResponse(responseCode = "404", description = "Order not found")
+  })
+  public ResponseEntity<CheckoutStatusDto> getOrderStatus(
+      @Parameter(description = "The ID of the order") @PathVariable long id) {
+    User sessionUser = accessUserService.getSessionUser();
+    OrderStatusView order = orderRepository.findStatusById(id)
+        .filter(found -> sessionUser != null && (found.getUserId() == sessionUser.getId() || sessionUser.isAdmin()))
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found"));
+
+    List<StockShortageDto> shortages = order.getOrderStatus() == Order.OrderStatus.CANCELED
+        ? checkoutQueue.getShortages(id)
+        : null;
+    return ResponseEntity.ok(new CheckoutStatusDto(id, order.getOrderStatus().toString(), shortages));
   }
 
   /**
@@ -84,19 +155,15 @@ public class OrderController {
       @Parameter(description = "The ID of the order to update") @PathVariable int id,
       @Parameter(description = "The order DTO containing the updated details") @RequestBody OrderDto orderDto) {
 
-    Order currentOrder = orderRepository.findById(id)
-        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found"));
-
-    // System.out.println(orderDto.getOrderStatus());
-
+    Order.OrderStatus status;
     try {
-      Order.OrderStatus status = Order.OrderStatus.valueOf(orderDto.getOrderStatus());
-      currentOrder.setOrderStatus(status);
+      status = Order.OrderStatus.valueOf(orderDto.getOrderStatus());
     } catch (IllegalArgumentException e) {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid order status");
     }
 
-    orderRepository.save(currentOrder);
+    orderService.updateStatus(id, status)
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found"));
 
     return new ResponseEntity<OrderDto>(orderDto, HttpStatus.OK);
   }
@@ -143,21 +210,19 @@ public class OrderController {
   public ResponseEntity<OrderDto> updateOrderStatus(
       @Parameter(description = "ID of order to update") @PathVariable int id,
       @Parameter(description = "new status") @PathVariable String status) {
-    Order currentOrder = orderRepository.findById(id)
-        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found"));
-
+    Order.OrderStatus orderStatus;
     try {
-      Order.OrderStatus orderStatus = Order.OrderStatus.valueOf(status.toUpperCase());
-      currentOrder.setOrderStatus(orderStatus);
+      orderStatus = Order.OrderStatus.valueOf(status.toUpperCase());
     } catch (IllegalArgumentException e) {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid order status");
     }
 
-    Order updatedOrder = orderRepository.save(currentOrder);
+    Order updatedOrder = orderService.updateStatus(id, orderStatus)
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found"));
 
     List<OrderProductDto> orderProductDtos = updatedOrder.getOrderProducts().stream()
-        .map(orderProduct -> new OrderProductDto(orderProduct.getId(), orderProduct.getProduct().getName(),
-            orderProduct.getQuantity()))
+        .map(orderProduct -> new OrderProductDto(orderProduct.getId(), orderProduct.getProductName(),
+            orderProduct.getUnitPrice(), orderProduct.getQuantity()))
         .collect(Collectors.toList());
 
     OrderDto updatedOrderDto = new OrderDto(
@@ -1,14 +1,19 @@
 package no.ntnu.group7.coffeeshop.controllers;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
 
 import io.swagger.v3.oas.annotations.Operation;
@@ -18,19 +23,36 @@ import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import no.ntnu.group7.coffeeshop.cache.CatalogCache;
+import no.ntnu.group7.coffeeshop.cache.CatalogSnapshot;
+import no.ntnu.group7.coffeeshop.cache.CatalogVersion;
 import no.ntnu.group7.coffeeshop.dto.CategoryDto;
+import no.ntnu.group7.coffeeshop.dto.FieldSelection;
 import no.ntnu.group7.coffeeshop.dto.ProductDto;
+import no.ntnu.group7.coffeeshop.dto.ProductFilterPageDto;
+import no.ntnu.group7.coffeeshop.dto.ProductPageDto;
+import no.ntnu.group7.coffeeshop.dto.ProductSearchResultDto;
+import no.ntnu.group7.coffeeshop.dto.RatingSummaryDto;
 import no.ntnu.group7.coffeeshop.dto.ReviewDto;
+import no.ntnu.group7.coffeeshop.dto.ReviewPageDto;
+import no.ntnu.group7.coffeeshop.inventory.HotStockLedger;
+import no.ntnu.group7.coffeeshop.inventory.StockReservations;
 import no.ntnu.group7.coffeeshop.model.Category;
 import no.ntnu.group7.coffeeshop.model.OrderProduct;
 import no.ntnu.group7.coffeeshop.model.Product;
 import no.ntnu.group7.coffeeshop.model.Review;
-import no.ntnu.group7.coffeeshop.model.ShoppingCartProduct;
 import no.ntnu.group7.coffeeshop.model.User;
 import no.ntnu.group7.coffeeshop.repositories.CategoryRepository;
 import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
 import no.ntnu.group7.coffeeshop.repositories.ReviewRepository;
 import no.ntnu.group7.coffeeshop.repositories.UserRepository;
+import no.ntnu.group7.coffeeshop.services.CategoryService;
+import no.ntnu.group7.coffeeshop.services.AccessUserService;
+import no.ntnu.group7.coffeeshop.services.ProductFilterService;
+import no.ntnu.group7.coffeeshop.services.ProductSearchService;
+import no.ntnu.group7.coffeeshop.services.ProductService;
+import no.ntnu.group7.coffeeshop.services.ReviewService;
+import no.ntnu.group7.coffeeshop.services.ShoppingCartService;
 
 /**
  * Controller responsible for managing Products in the coffee shop.
@@ -52,81 +74,140 @@ public class ProductController {
   @Autowired
   private UserRepository userRepository;
 
+  @Autowired
+  private ProductService productService;
+
+  @Autowired
+  private CategoryService categoryService;
+
+  @Autowired
+  private ReviewService reviewService;
+
+  @Autowired
+  private ProductSearchService productSearchService;
+
+  @Autowired
+  private ProductFilterService productFilterService;
+
+  @Autowired
+  private ShoppingCartService shoppingCartService;
+
+  @Autowired
+  private AccessUserService userService;
+
+  @Autowired
+  private CatalogCache catalogCache;
+
+  @Autowired
+  private CatalogVersion catalogVersion;
+
+  @Autowired
+  private StockReservations stockReservations;
+
+  @Autowired
+  private HotStockLedger hotStockLedger;
+
+  @Autowired
+  private CatalogSnapshot catalogSnapshot;
+
   /**
    * Handles HTTP GET requests to "/api/products" and returns a list of all
-   * products in the database.
+   * products in the database. If any of the sort, cursor or limit parameters
+   * are given, returns one page of products instead, together with the cursor
+   * for the next page. Answers 304 Not Modified if the client's copy is still
+   * up to date. The full list without parameters is served from the
+   * pre-serialized CatalogSnapshot when it is current.
    *
-   * @return A list of Product objects.
+   * @param sort    The sort order of the page (id, name or price).
+   * @param cursor  The cursor of the page to retrieve, from the previous page.
+   * @param limit   The maximum number of products on the page.
+   * @param reviews Whether to include the full reviews of each product.
+   * @param fields  The fields to include, or the presets summary and full.
+   * @return A list of Product objects, or a page of Product objects.
    */
   @GetMapping("")
-  @Operation(summary = "Get all products")
-  @ApiResponse(responseCode = "200", description = "Success", content = @Content(array = @ArraySchema(schema = @Schema(implementation = ProductDto.class))))
-  public ResponseEntity<List<ProductDto>> getAllProducts() {
-    List<Product> products = productRepository.findAll();
-
-    List<ProductDto> productDtos = products.stream().map(product -> {
-      List<CategoryDto> categoryDtos = product.getCategories().stream()
-          .map(category -> new CategoryDto(category.getId(), category.getName()))
-          .collect(Collectors.toList());
-
-      List<ReviewDto> reviewDtos = product.getReviews().stream()
-          .map(review -> new ReviewDto(review.getId(), review.getReviewText(), review.getRating(),
-              review.getUser().getUsername()))
-          .collect(Collectors.toList());
-
-      return new ProductDto(
-          product.getId(),
-          product.getName(),
-          product.getDescription(),
-          product.getInventoryAmount(),
-          product.getPrice(),
-          product.getImage(),
-          categoryDtos,
-          reviewDtos);
-    }).collect(Collectors.toList());
-
-    return new ResponseEntity<List<ProductDto>>(productDtos, HttpStatus.OK);
+  @Operation(summary = "Get all products, or one page of products")
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", description = "Success", content = {
+          @Content(array = @ArraySchema(schema = @Schema(implementation = ProductDto.class))),
+          @Content(schema = @Schema(implementation = ProductPageDto.class)) }),
+      @ApiResponse(responseCode = "304", description = "Not modified"),
+      @ApiResponse(responseCode = "400", description = "Invalid sort, cursor, limit or fields")
+  })
+  public ResponseEntity<?> getAllProducts(
+      @Parameter(description = "The sort order of the page (id, name or price)") @RequestParam(required = false) String sort,
+      @Parameter(description = "The cursor of the page to retrieve, from the previous page") @RequestParam(required = false) String cursor,
+      @Parameter(description = "The maximum number of products on the page") @RequestParam(required = false) Integer limit,
+      @Parameter(description = "Whether to include the full reviews of each product") @RequestParam(defaultValue = "false") boolean reviews,
+      @Parameter(description = "The fields to include, comma separated, or the presets summary and full") @RequestParam(required = false) String fields,
+      WebRequest request) {
+    if (request.checkNotModified(catalogVersion.getProductsETag(), catalogVersion.getProductsLastModified())) {
+      return notModified();
+    }
+
+    if (sort == null && cursor == null && limit == null && !reviews && fields == null) {
+      Optional<CatalogSnapshot.Body> snapshot = catalogSnapshot.getProducts();
+      if (snapshot.isPresent()) {
+        return snapshot.get().toResponse(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+      }
+    }
+
+    FieldSelection selection = selectProductFields(fields, reviews);
+    boolean summary = selection.isWithin(ProductService.SUMMARY_VIEW_FIELDS);
+
+    if (sort != null || cursor != null || limit != null) {
+      ProductPageDto page = getProductPage(null, sort, cursor, limit, selection.includes("reviews"), summary);
+      return ResponseEntity.ok().cacheControl(CacheControl.noCache())
+          .body(selection.apply(page, ProductDto.FIELD_FILTER));
+    }
+
+    List<ProductDto> productDtos = summary
+        ? productService.getAllProductSummaries()
+        : productService.getAllProductDtos(selection.includes("reviews"));
+    return ResponseEntity.ok().cacheControl(CacheControl.noCache())
+        .body(selection.apply(productDtos, ProductDto.FIELD_FILTER));
   }
 
   /**
    * Handles HTTP GET requests to "/api/products/{id}" and returns a single
    * product with the specified ID. If the product is not found, returns a 404 Not
-   * Found response.
+   * Found response. Answers 304 Not Modified if the client's copy of this
+   * product is still up to date. The reviews themselves are only included if
+   * asked for; they can also be fetched page by page from
+   * "/api/products/{id}/reviews".
    *
-   * @param id The ID of the Product object to retrieve.
+   * @param id      The ID of the Product object to retrieve.
+   * @param reviews Whether to include the full reviews of the product.
    * @return The Product object with the specified ID.
    */
   @GetMapping("/{id}")
   @Operation(summary = "Get one product")
   @ApiResponses({
       @ApiResponse(responseCode = "200", description = "Success", content = @Content(schema = @Schema(implementation = ProductDto.class))),
+      @ApiResponse(responseCode = "304", description = "Not modified"),
       @ApiResponse(responseCode = "404", description = "Product not found")
   })
   public ResponseEntity<ProductDto> getProductById(
-      @Parameter(description = "The ID of the Product object to retrieve") @PathVariable int id) {
-    Product product = productRepository.findById(id)
-        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Product not found"));
-
-    List<CategoryDto> categoryDtos = product.getCategories().stream()
-        .map(category -> new CategoryDto(category.getId(), category.getName()))
-        .collect(Collectors.toList());
-
-    List<ReviewDto> reviewDtos = product.getReviews().stream()
-        .map(review -> new ReviewDto(review.getId(), review.getReviewText(), review.getRating(),
-            review.getUser().getUsername()))
-        .collect(Collectors.toList());
+      @Parameter(description = "The ID of the Product object to retrieve") @PathVariable int id,
+      @Parameter(description = "Whether to include the full reviews of the product") @RequestParam(defaultValue = "false") boolean reviews,
+      WebRequest request) {
+    // The reserved stock changes without the catalog changing, so it is part
+    // of the ETag; so does the stock of a hot product, until its ledger is
+    // written to it
+    int reserved = stockReservations.getReserved(id);
+    Integer hotStock = hotStockLedger.getStock(id);
+    String eTag = catalogVersion.getProductETag(id);
+    eTag = eTag.substring(0, eTag.length() - 1) + "-r" + reserved + (hotStock == null ? "" : "-s" + hotStock) + "\"";
+    if (request.checkNotModified(eTag, catalogVersion.getProductLastModified(id))) {
+      return notModified();
+    }
 
-    ProductDto productDto = new ProductDto(
-        product.getId(),
-        product.getName(),
-        product.getDescription(),
-        product.getInventoryAmount(),
-        product.getPrice(),
-        product.getImage(),
-        categoryDtos,
-        reviewDtos);
+    ProductDto productDto = productService.getProductDto(id, reviews)
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Product not found"));
 
-    return new ResponseEntity<>(productDto, HttpStatus.OK);
+    int inStock = hotStock == null ? productDto.getInventoryAmount() : hotStock;
+    return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(productDto.withReservations(inStock,
+        reserved));
   }
 
   /**
@@ -163,6 +244,9 @@ public class ProductController {
 
     product.setCategories(categories);
     Product newProduct = productRepository.save(product);
+    catalogCache.evictProduct(newProduct.getId());
+    productSearchService.indexProduct(newProduct);
+    productFilterService.indexProduct(newProduct);
 
     return new ResponseEntity<Product>(newProduct, HttpStatus.CREATED);
   }
@@ -192,7 +276,14 @@ public class ProductController {
 
     currentProduct.setName(productDto.getName());
     currentProduct.setDescription(productDto.getDescription());
-    currentProduct.setInventoryAmount(productDto.getInventoryAmount());
+    // The stock of a hot product is changed through its ledger, which writes
+    // it to the product later
+    boolean hot = hotStockLedger.isHot(id);
+    if (hot) {
+      hotStockLedger.setStock(id, productDto.getInventoryAmount());
+    } else {
+      currentProduct.setInventoryAmount(productDto.getInventoryAmount());
+    }
     currentProduct.setPrice(productDto.getPrice());
     currentProduct.setImage(productDto.getImage());
 
@@ -206,17 +297,23 @@ public class ProductController {
     }
 
     currentProduct.setCategories(categories);
-    Product updatedProduct = productRepository.save(currentProduct);
+    Product updatedProduct = hotStockLedger.saveProduct(currentProduct);
+    catalogCache.evictProduct(id);
+    productSearchService.indexProduct(updatedProduct);
+    productFilterService.indexProduct(updatedProduct);
+    shoppingCartService.productChanged(updatedProduct);
 
     ProductDto updatedProductDto = new ProductDto(
         updatedProduct.getId(),
         updatedProduct.getName(),
         updatedProduct.getDescription(),
-        updatedProduct.getInventoryAmount(),
+        hot ? hotStockLedger.getStock(id) : updatedProduct.getInventoryAmount(),
         updatedProduct.getPrice(),
         updatedProduct.getImage(),
         categoryDtos,
-        productDto.getReviews());
+        productDto.getReviews(),
+        new RatingSummaryDto(updatedProduct.getRatingCount(), updatedProduct.getRatingSum(),
+            updatedProduct.getRatingHistogram()));
 
     return new ResponseEntity<ProductDto>(updatedProductDto, HttpStatus.OK);
   }
@@ -240,11 +337,7 @@ public class ProductController {
     Product product = productRepository.findById(id)
         .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Product not found"));
 
-    if (!product.getShoppingCartProducts().isEmpty()) {
-      for (ShoppingCartProduct shoppingCartProduct : new ArrayList<>(product.getShoppingCartProducts())) {
-        product.removeShoppingCartProduct(shoppingCartProduct);
-      }
-    }
+    shoppingCartService.removeProductFromCarts(id);
 
     if (!product.getOrderProducts().isEmpty()) {
       for (OrderProduct orderProduct : new ArrayList<>(product.getOrderProducts())) {
@@ -253,6 +346,9 @@ public class ProductController {
     }
 
     productRepository.deleteById(id);
+    catalogCache.evictProduct(id);
+    productSearchService.removeProduct(id);
+    productFilterService.removeProduct(id);
     return new ResponseEntity<Void>(HttpStatus.NO_CONTENT);
   }
 
@@ -267,69 +363,82 @@ public class ProductController {
   @Operation(summary = "Get categories of one product")
   @ApiResponses({
       @ApiResponse(responseCode = "200", description = "Success", content = @Content(array = @ArraySchema(schema = @Schema(implementation = Category.class)))),
+      @ApiResponse(responseCode = "304", description = "Not modified"),
       @ApiResponse(responseCode = "404", description = "Product not found")
   })
   public ResponseEntity<List<Category>> getCategoriesOfProduct(
-      @Parameter(description = "The ID of the Product object") @PathVariable int id) {
+      @Parameter(description = "The ID of the Product object") @PathVariable int id,
+      WebRequest request) {
+    if (request.checkNotModified(catalogVersion.getProductETag(id), catalogVersion.getProductLastModified(id))) {
+      return notModified();
+    }
+
     Product product = productRepository.findById(id)
         .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Product not found"));
-    return new ResponseEntity<List<Category>>(product.getCategories(), HttpStatus.OK);
+    return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(product.getCategories());
   }
 
   /**
    * Handles HTTP GET requests to "/api/products/category/{categoryId}" and
-   * returns a list of all products in a particular category.
+   * returns a list of all products in a particular category. If any of the
+   * sort, cursor or limit parameters are given, returns one page of products
+   * instead, together with the cursor for the next page. Answers 304 Not
+   * Modified if the client's copy is still up to date.
    *
    * @param categoryId The ID of the Category object.
-   * @return A list of Product objects.
+   * @param sort       The sort order of the page (id, name or price).
+   * @param cursor     The cursor of the page to retrieve, from the previous page.
+   * @param limit      The maximum number of products on the page.
+   * @param reviews    Whether to include the full reviews of each product.
+   * @param fields     The fields to include, or the presets summary and full.
+   * @return A list of Product objects, or a page of Product objects.
    */
   @GetMapping("/category/{categoryId}")
-  @Operation(summary = "Get all products of one category")
+  @Operation(summary = "Get all products of one category, or one page of them")
   @ApiResponses({
-      @ApiResponse(responseCode = "201", description = "Created", content = @Content(array = @ArraySchema(schema = @Schema(implementation = ProductDto.class)))),
-      @ApiResponse(responseCode = "404", description = "Category not found"),
-      @ApiResponse(responseCode = "404", description = "Product not found"),
-      @ApiResponse(responseCode = "404", description = "User not found")
+      @ApiResponse(responseCode = "200", description = "Success", content = {
+          @Content(array = @ArraySchema(schema = @Schema(implementation = ProductDto.class))),
+          @Content(schema = @Schema(implementation = ProductPageDto.class)) }),
+      @ApiResponse(responseCode = "304", description = "Not modified"),
+      @ApiResponse(responseCode = "400", description = "Invalid sort, cursor, limit or fields"),
+      @ApiResponse(responseCode = "404", description = "Category not found")
   })
-  public ResponseEntity<List<ProductDto>> getProductsByCategory(
-      @Parameter(description = "The ID of the Category object") @PathVariable int categoryId) {
-    Category category = categoryRepository.findById(categoryId)
-        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Category not found"));
-
-    List<Product> products = category.getProducts();
-    List<ProductDto> productDtos = new ArrayList<>();
-
-    // Convert Product objects to ProductDto objects
-    for (Product product : products) {
-      List<CategoryDto> categoryDtos = new ArrayList<>();
-      for (Category productCategory : product.getCategories()) {
-        categoryDtos.add(new CategoryDto(productCategory.getId(), productCategory.getName()));
-      }
+  public ResponseEntity<?> getProductsByCategory(
+      @Parameter(description = "The ID of the Category object") @PathVariable int categoryId,
+      @Parameter(description = "The sort order of the page (id, name or price)") @RequestParam(required = false) String sort,
+      @Parameter(description = "The cursor of the page to retrieve, from the previous page") @RequestParam(required = false) String cursor,
+      @Parameter(description = "The maximum number of products on the page") @RequestParam(required = false) Integer limit,
+      @Parameter(description = "Whether to include the full reviews of each product") @RequestParam(defaultValue = "false") boolean reviews,
+      @Parameter(description = "The fields to include, comma separated, or the presets summary and full") @RequestParam(required = false) String fields,
+      WebRequest request) {
+    if (request.checkNotModified(catalogVersion.getProductsETag(), catalogVersion.getProductsLastModified())) {
+      return notModified();
+    }
 
-      List<ReviewDto> reviewDtos = new ArrayList<>();
-      for (Review review : product.getReviews()) {
-        reviewDtos.add(
-            new ReviewDto(review.getId(), review.getReviewText(), review.getRating(), review.getUser().getUsername()));
-      }
+    if (categoryService.getCategoryDto(categoryId).isEmpty()) {
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Category not found");
+    }
+
+    FieldSelection selection = selectProductFields(fields, reviews);
+    boolean summary = selection.isWithin(ProductService.SUMMARY_VIEW_FIELDS);
 
-      ProductDto productDto = new ProductDto(
-          product.getId(),
-          product.getName(),
-          product.getDescription(),
-          product.getInventoryAmount(),
-          product.getPrice(),
-          product.getImage(),
-          categoryDtos,
-          reviewDtos);
-
-      productDtos.add(productDto);
+    if (sort != null || cursor != null || limit != null) {
+      ProductPageDto page = getProductPage(categoryId, sort, cursor, limit, selection.includes("reviews"), summary);
+      return ResponseEntity.ok().cacheControl(CacheControl.noCache())
+          .body(selection.apply(page, ProductDto.FIELD_FILTER));
     }
 
-    return new ResponseEntity<List<ProductDto>>(productDtos, HttpStatus.OK);
+    List<ProductDto> productDtos = summary
+        ? productService.getProductSummariesByCategory(categoryId)
+        : productService.getProductDtosByCategory(categoryId, selection.includes("reviews"));
+
+    return ResponseEntity.ok().cacheControl(CacheControl.noCache())
+        .body(selection.apply(productDtos, ProductDto.FIELD_FILTER));
   }
 
   /**
-   * Adds a review to one product
+   * Adds a review to one product, and counts its rating in the product's
+   * rating summary.
    * 
    * @param id        The id of product to add review to
    * @param reviewDto DTO containing the review
@@ -339,6 +448,7 @@ public class ProductController {
   @Operation(summary = "Add one review to one product")
   @ApiResponses({
       @ApiResponse(responseCode = "201", description = "Created", content = @Content(schema = @Schema(implementation = ReviewDto.class))),
+      @ApiResponse(responseCode = "400", description = "Rating must be between 1 and 5"),
       @ApiResponse(responseCode = "404", description = "Product not found"),
       @ApiResponse(responseCode = "404", description = "User not found")
   })
@@ -351,12 +461,12 @@ public class ProductController {
     User user = userRepository.findByUsername(reviewDto.getUsername())
         .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
 
-    Review review = new Review();
-    review.setReviewText(reviewDto.getReviewText());
-    review.setRating(reviewDto.getRating());
-    review.setProduct(product);
-    review.setUser(user);
-    Review newReview = reviewRepository.save(review);
+    Review newReview;
+    try {
+      newReview = reviewService.addReview(product, user, reviewDto.getReviewText(), reviewDto.getRating());
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+    }
 
     ReviewDto newReviewDto = new ReviewDto(
         newReview.getId(),
@@ -367,6 +477,86 @@ public class ProductController {
     return new ResponseEntity<ReviewDto>(newReviewDto, HttpStatus.CREATED);
   }
 
+  /**
+   * Handles HTTP GET requests to "/api/products/{id}/reviews" and returns one
+   * page of the product's reviews, newest first, together with the cursor for
+   * the next page. Answers 304 Not Modified if the client's copy is still up
+   * to date.
+   *
+   * @param id     The ID of the product.
+   * @param rating Only return reviews with this rating.
+   * @param cursor The cursor of the page to retrieve, from the previous page.
+   * @param limit  The maximum number of reviews on the page.
+   * @return A page of Review objects.
+   */
+  @GetMapping("/{id}/reviews")
+  @Operation(summary = "Get one page of the reviews of one product")
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", description = "Success", content = @Content(schema = @Schema(implementation = ReviewPageDto.class))),
+      @ApiResponse(responseCode = "304", description = "Not modified"),
+      @ApiResponse(responseCode = "400", description = "Invalid rating, cursor or limit"),
+      @ApiResponse(responseCode = "404", description = "Product not found")
+  })
+  public ResponseEntity<ReviewPageDto> getReviews(
+      @Parameter(description = "The ID of the product") @PathVariable int id,
+      @Parameter(description = "Only return reviews with this rating (1-5)") @RequestParam(required = false) Integer rating,
+      @Parameter(description = "The cursor of the page to retrieve, from the previous page") @RequestParam(required = false) String cursor,
+      @Parameter(description = "The maximum number of reviews on the page") @RequestParam(required = false) Integer limit,
+      WebRequest request) {
+    if (request.checkNotModified(catalogVersion.getProductETag(id), catalogVersion.getProductLastModified(id))) {
+      return notModified();
+    }
+
+    if (!productRepository.existsById(id)) {
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Product not found");
+    }
+
+    ReviewPageDto page;
+    try {
+      page = reviewService.getReviewPage(id, rating, cursor, limit);
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+    }
+    return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(page);
+  }
+
+  /**
+   * Handles HTTP DELETE requests to "/api/products/{id}/reviews/{reviewId}" and
+   * deletes one review, taking its rating out of the product's rating summary.
+   * Only the author of the review and admins may delete it.
+   *
+   * @param id       The ID of the product the review is about.
+   * @param reviewId The ID of the review to delete.
+   * @return A response indicating success or failure of the deletion.
+   */
+  @DeleteMapping("/{id}/reviews/{reviewId}")
+  @Operation(summary = "Delete one review of one product")
+  @ApiResponses({
+      @ApiResponse(responseCode = "204", description = "Review removed successfully"),
+      @ApiResponse(responseCode = "401", description = "Only authenticated users can delete reviews"),
+      @ApiResponse(responseCode = "403", description = "Only the author or an admin can delete a review"),
+      @ApiResponse(responseCode = "404", description = "Review not found")
+  })
+  public ResponseEntity<Void> deleteReview(
+      @Parameter(description = "The ID of the product the review is about") @PathVariable int id,
+      @Parameter(description = "The ID of the review to delete") @PathVariable int reviewId) {
+    User sessionUser = userService.getSessionUser();
+    if (sessionUser == null) {
+      throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Only authenticated users can delete reviews");
+    }
+
+    Review review = reviewRepository.findById(reviewId)
+        .filter(r -> r.getProduct().getId() == id)
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Review not found"));
+
+    if (review.getUser().getId() != sessionUser.getId() && !sessionUser.isAdmin()) {
+      throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Only the author or an admin can delete a review");
+    }
+
+    reviewService.deleteReview(review);
+    return new ResponseEntity<Void>(HttpStatus.NO_CONTENT);
+  }
+
   /**
    * Handles HTTP GET requests to "/api/products/count" and returns the count of
    * products in the database.
@@ -375,10 +565,102 @@ public class ProductController {
    */
   @GetMapping("/count")
   @Operation(summary = "Get number of products in database")
-  @ApiResponse(responseCode = "200", description = "Success", content = @Content(schema = @Schema(implementation = Long.class)))
-  public ResponseEntity<Long> getProductCount() {
-    long count = productRepository.count();
-    return new ResponseEntity<>(count, HttpStatus.OK);
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", description = "Success", content = @Content(schema = @Schema(implementation = Long.class))),
+      @ApiResponse(responseCode = "304", description = "Not modified")
+  })
+  public ResponseEntity<Long> getProductCount(WebRequest request) {
+    if (request.checkNotModified(catalogVersion.getProductsETag(), catalogVersion.getProductsLastModified())) {
+      return notModified();
+    }
+
+    long count = productService.getProductCount();
+    return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(count);
+  }
+
+  /**
+   * Handles HTTP GET requests to "/api/products/search" and returns the
+   * products matching every word of the query, best match first. The name,
+   * description and category names of the products are searched, and the last
+   * letters of a word may be left out. Answered from an in-memory index,
+   * without querying the database.
+   *
+   * @param q     The words to search for.
+   * @param limit The maximum number of results.
+   * @return A list of matching products.
+   */
+  @GetMapping("/search")
+  @Operation(summary = "Search for products")
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", description = "Success", content = @Content(array = @ArraySchema(schema = @Schema(implementation = ProductSearchResultDto.class)))),
+      @ApiResponse(responseCode = "400", description = "Invalid limit")
+  })
+  public ResponseEntity<List<ProductSearchResultDto>> searchProducts(
+      @Parameter(description = "The words to search for") @RequestParam String q,
+      @Parameter(description = "The maximum number of results") @RequestParam(required = false) Integer limit) {
+    try {
+      return new ResponseEntity<>(productSearchService.search(q, limit), HttpStatus.OK);
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+    }
+  }
+
+  /**
+   * Handles HTTP GET requests to "/api/products/filter" and returns one page of
+   * the products matching a filter, together with the number of products each
+   * filter option would match. Products must be in one of the given
+   * categories, if any, and match every other filter parameter given. Answered
+   * from an in-memory index; only the products on the page are loaded from the
+   * database. Answers 304 Not Modified if the client's copy is still up to
+   * date.
+   *
+   * @param categories The IDs of the categories to include products of.
+   * @param minPrice   The lowest price to include.
+   * @param maxPrice   The highest price to include.
+   * @param inStock    Whether to only include products in stock.
+   * @param minRating  The lowest average rating to include, from 1 to 5.
+   * @param sort       The sort order of the page (id or price).
+   * @param offset     The number of matching products to skip.
+   * @param limit      The maximum number of products on the page.
+   * @param reviews    Whether to include the full reviews of each product.
+   * @param fields     The fields of the products to include, or the presets
+   *                   summary and full.
+   * @return A page of Product objects and the facet counts.
+   */
+  @GetMapping("/filter")
+  @Operation(summary = "Filter products, counting the matches of each filter option")
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", description = "Success", content = @Content(schema = @Schema(implementation = ProductFilterPageDto.class))),
+      @ApiResponse(responseCode = "304", description = "Not modified"),
+      @ApiResponse(responseCode = "400", description = "Invalid price range, rating, sort, offset, limit or fields")
+  })
+  public ResponseEntity<?> filterProducts(
+      @Parameter(description = "The IDs of the categories to include products of") @RequestParam(required = false) List<Integer> categories,
+      @Parameter(description = "The lowest price to include") @RequestParam(required = false) BigDecimal minPrice,
+      @Parameter(description = "The highest price to include") @RequestParam(required = false) BigDecimal maxPrice,
+      @Parameter(description = "Whether to only include products in stock") @RequestParam(defaultValue = "false") boolean inStock,
+      @Parameter(description = "The lowest average rating to include (1-5)") @RequestParam(required = false) Integer minRating,
+      @Parameter(description = "The sort order of the page (id or price)") @RequestParam(required = false) String sort,
+      @Parameter(description = "The number of matching products to skip") @RequestParam(required = false) Integer offset,
+      @Parameter(description = "The maximum number of products on the page") @RequestParam(required = false) Integer limit,
+      @Parameter(description = "Whether to include the full reviews of each product") @RequestParam(defaultValue = "false") boolean reviews,
+      @Parameter(description = "The fields of the products to include, comma separated, or the presets summary and full") @RequestParam(required = false) String fields,
+      WebRequest request) {
+    if (request.checkNotModified(catalogVersion.getProductsETag(), catalogVersion.getProductsLastModified())) {
+      return notModified();
+    }
+
+    FieldSelection selection = selectProductFields(fields, reviews);
+
+    ProductFilterPageDto page;
+    try {
+      page = productFilterService.filter(categories, minPrice, maxPrice, inStock, minRating, sort, offset, limit,
+          selection.includes("reviews"), selection.isWithin(ProductService.SUMMARY_VIEW_FIELDS));
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+    }
+    return ResponseEntity.ok().cacheControl(CacheControl.noCache())
+        .body(selection.apply(page, ProductDto.FIELD_FILTER));
   }
 
   /**
@@ -410,26 +692,12 @@ public class ProductController {
         .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Product not found"));
 
     product.setImage(image);
-    Product updatedProduct = productRepository.save(product);
+    hotStockLedger.saveProduct(product);
+    catalogCache.evictProduct(id);
+    productSearchService.indexProduct(product);
 
-    List<CategoryDto> categoryDtos = updatedProduct.getCategories().stream()
-        .map(category -> new CategoryDto(category.getId(), category.getName()))
-        .collect(Collectors.toList());
-
-    List<ReviewDto> reviewDtos = updatedProduct.getReviews().stream()
-        .map(review -> new ReviewDto(review.getId(), review.getReviewText(), review.getRating(),
-            review.getUser().getUsername()))
-        .collect(Collectors.toList());
-
-    ProductDto updatedProductDto = new ProductDto(
-        updatedProduct.getId(),
-        updatedProduct.getName(),
-        updatedProduct.getDescription(),
-        updatedProduct.getInventoryAmount(),
-        updatedProduct.getPrice(),
-        updatedProduct.getImage(),
-        categoryDtos,
-        reviewDtos);
+    ProductDto updatedProductDto = productService.getProductDto(id, false)
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Product not found"));
 
     return new ResponseEntity<>(updatedProductDto, HttpStatus.OK);
   }
@@ -439,11 +707,68 @@ public class ProductController {
    */
   @GetMapping("/ids")
   @Operation(summary = "Get all product IDs")
-  @ApiResponse(responseCode = "200", description = "Success", content = @Content(array = @ArraySchema(schema = @Schema(implementation = Integer.class))))
-  public ResponseEntity<List<Integer>> getAllProductIds() {
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", description = "Success", content = @Content(array = @ArraySchema(schema = @Schema(implementation = Integer.class)))),
+      @ApiResponse(responseCode = "304", description = "Not modified")
+  })
+  public ResponseEntity<List<Integer>> getAllProductIds(WebRequest request) {
+    if (request.checkNotModified(catalogVersion.getProductsETag(), catalogVersion.getProductsLastModified())) {
+      return notModified();
+    }
+
     List<Integer> productIds = productRepository.findAll().stream()
         .map(Product::getId)
         .collect(Collectors.toList());
-    return new ResponseEntity<>(productIds, HttpStatus.OK);
+    return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(productIds);
+  }
+
+  /**
+   * Fetches one page of products, answering invalid paging parameters with a
+   * 400 Bad Request response.
+   *
+   * @param categoryId The ID of the category to list, or null for all products.
+   * @param sort       The sort order of the page.
+   * @param cursor     The cursor of the page to retrieve.
+   * @param limit      The maximum number of products on the page.
+   * @param reviews    Whether to include the full reviews of each product.
+   * @param summary    Whether to only load the fields of a summary.
+   * @return The page of products.
+   */
+  private ProductPageDto getProductPage(Integer categoryId, String sort, String cursor, Integer limit,
+      boolean reviews, boolean summary) {
+    try {
+      return productService.getProductPage(categoryId, sort, cursor, limit, reviews, summary);
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+    }
+  }
+
+  /**
+   * Parses the fields of the products a client asked for, answering unknown
+   * fields with a 400 Bad Request response. Asking for reviews with the
+   * reviews parameter selects the reviews field.
+   *
+   * @param fields  The fields to include, or null for the full preset.
+   * @param reviews Whether to include the full reviews of each product.
+   * @return The selected fields.
+   */
+  private FieldSelection selectProductFields(String fields, boolean reviews) {
+    FieldSelection selection;
+    try {
+      selection = FieldSelection.parse(fields, ProductDto.FIELDS, ProductDto.SUMMARY_FIELDS, ProductDto.FULL_FIELDS);
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+    }
+    return reviews ? selection.with("reviews") : selection;
+  }
+
+  /**
+   * Builds a 304 Not Modified response. The ETag and Last-Modified headers are
+   * already set by WebRequest.checkNotModified.
+   *
+   * @return An empty response telling the client to use its cached copy.
+   */
+  private <T> ResponseEntity<T> notModified() {
+    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(CacheControl.noCache()).build();
   }
 }
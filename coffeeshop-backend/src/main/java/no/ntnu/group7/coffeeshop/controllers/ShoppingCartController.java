@@ -1,13 +1,18 @@
 package no.ntnu.group7.coffeeshop.controllers;
 
 import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
+import java.util.NoSuchElementException;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseCookie;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CookieValue;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -26,22 +31,32 @@ import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import no.ntnu.group7.coffeeshop.cart.CartItem;
+import no.ntnu.group7.coffeeshop.cart.CartOperation;
+import no.ntnu.group7.coffeeshop.cart.CartPricing;
+import no.ntnu.group7.coffeeshop.cart.GuestCartStore;
+import no.ntnu.group7.coffeeshop.dto.CartOperationDto;
+import no.ntnu.group7.coffeeshop.dto.ShoppingCartDto;
+import no.ntnu.group7.coffeeshop.dto.ShoppingCartItemDto;
 import no.ntnu.group7.coffeeshop.dto.ShoppingCartProductDto;
-import no.ntnu.group7.coffeeshop.model.Product;
-import no.ntnu.group7.coffeeshop.model.ShoppingCartProduct;
 import no.ntnu.group7.coffeeshop.model.User;
 import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
-import no.ntnu.group7.coffeeshop.repositories.ShoppingCartProductRepository;
 import no.ntnu.group7.coffeeshop.services.AccessUserService;
 import no.ntnu.group7.coffeeshop.services.ShoppingCartService;
 
 /**
- * Controller responsible for managing shopping cart related endpoints
+ * Controller responsible for managing shopping cart related endpoints. Visitors
+ * who haven't logged in get a guest cart, identified by the guest_cart cookie,
+ * which is merged into their own cart when they log in.
  */
 @RestController
-@CrossOrigin(origins = "http://localhost:3000")
+@CrossOrigin(origins = "http://localhost:3000", allowCredentials = "true")
 @RequestMapping("/api/shoppingCart")
 public class ShoppingCartController {
+  /**
+   * The cookie that holds the token of a visitor's guest cart
+   */
+  public static final String GUEST_CART_COOKIE = "guest_cart";
 
   @Autowired
   private AccessUserService accessUserService;
@@ -53,52 +68,71 @@ public class ShoppingCartController {
   private ProductRepository productRepository;
 
   @Autowired
-  private ShoppingCartProductRepository shoppingCartProductRepository;
+  private GuestCartStore guestCartStore;
 
   /**
    * HTTP GET endpoint for getting all the products in the users cart
    *
+   * @param guestToken The token of the visitor's guest cart, if the visitor
+   *                   isn't logged in
    * @return List of all shoppingCartProducts in the shoppingcart
    */
   @GetMapping("")
   @Operation(summary = "Get shopping cart items")
   @ApiResponses({
-      @ApiResponse(responseCode = "200", description = "Success", content = @Content(array = @ArraySchema(schema = @Schema(implementation = ShoppingCartProductDto.class)))),
-      @ApiResponse(responseCode = "401", description = "Unauthorized")
+      @ApiResponse(responseCode = "200", description = "Success", content = @Content(array = @ArraySchema(schema = @Schema(implementation = ShoppingCartProductDto.class))))
   })
-  public ResponseEntity<List<ShoppingCartProductDto>> getShoppingCart() {
+  public ResponseEntity<List<ShoppingCartProductDto>> getShoppingCart(
+      @Parameter(hidden = true) @CookieValue(name = GUEST_CART_COOKIE, required = false) String guestToken) {
     User user = accessUserService.getSessionUser();
     if (user == null) {
-      return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+      return ResponseEntity.ok(toDtos(null, shoppingCartService.getGuestCart(guestToken).getItems()));
     }
 
-    List<ShoppingCartProduct> shoppingCartProducts = shoppingCartService.getCartProducts(user);
-    List<ShoppingCartProductDto> shoppingCartProductDtos = shoppingCartProducts.stream()
-        .map(shoppingCartProduct -> new ShoppingCartProductDto(
-            shoppingCartProduct.getId(),
-            shoppingCartProduct.getUser().getId(),
-            shoppingCartProduct.getProduct().getId(),
-            shoppingCartProduct.getQuantity()))
-        .collect(Collectors.toList());
+    return ResponseEntity.ok(toDtos(user.getId(), shoppingCartService.getCartItems(user)));
+  }
+
+  /**
+   * HTTP GET endpoint for getting the products in the user's cart together
+   * with their names and prices, and the total cost of the cart, in one
+   * response
+   *
+   * @param guestToken The token of the visitor's guest cart, if the visitor
+   *                   isn't logged in
+   * @return The shopping cart and its total cost
+   */
+  @GetMapping("/details")
+  @Operation(summary = "Get shopping cart items with their prices and the total")
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", description = "Success", content = @Content(schema = @Schema(implementation = ShoppingCartDto.class)))
+  })
+  public ResponseEntity<ShoppingCartDto> getShoppingCartDetails(
+      @Parameter(hidden = true) @CookieValue(name = GUEST_CART_COOKIE, required = false) String guestToken) {
+    User user = accessUserService.getSessionUser();
+    if (user == null) {
+      return ResponseEntity.ok(toDto(null, shoppingCartService.getGuestCart(guestToken)));
+    }
 
-    return ResponseEntity.ok(shoppingCartProductDtos);
+    return ResponseEntity.ok(toDto(user.getId(), shoppingCartService.getCart(user)));
   }
 
   /**
    * HTTP GET endpoint for getting the total cost of a users cart
    *
+   * @param guestToken The token of the visitor's guest cart, if the visitor
+   *                   isn't logged in
    * @return The total cost of users shopping cart items
    */
   @GetMapping("/total")
   @Operation(summary = "Get total cost of shopping cart")
   @ApiResponses({
-      @ApiResponse(responseCode = "200", description = "Success", content = @Content(schema = @Schema(implementation = BigDecimal.class))),
-      @ApiResponse(responseCode = "401", description = "Unauthorized")
+      @ApiResponse(responseCode = "200", description = "Success", content = @Content(schema = @Schema(implementation = BigDecimal.class)))
   })
-  public ResponseEntity<BigDecimal> getTotal() {
+  public ResponseEntity<BigDecimal> getTotal(
+      @Parameter(hidden = true) @CookieValue(name = GUEST_CART_COOKIE, required = false) String guestToken) {
     User user = accessUserService.getSessionUser();
     if (user == null) {
-      return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+      return ResponseEntity.ok(shoppingCartService.getGuestCart(guestToken).getTotal());
     }
 
     BigDecimal total = shoppingCartService.calculateShoppingCartTotal(user);
@@ -109,37 +143,42 @@ public class ShoppingCartController {
    * HTTP DELETE endpoint for deleting an item from cart
    *
    * @param id id of the item to delete
+   * @param guestToken The token of the visitor's guest cart, if the visitor
+   *                   isn't logged in
    * @return A response indicating success or failure of the operation.
    */
   @DeleteMapping("/{id}")
   @Operation(summary = "Remove item from shopping cart")
   @ApiResponses({
       @ApiResponse(responseCode = "204", description = "Item removed successfully"),
-      @ApiResponse(responseCode = "401", description = "Unauthorized"),
       @ApiResponse(responseCode = "404", description = "Product not found")
   })
   public ResponseEntity<String> deleteItemFromCart(
-      @Parameter(description = "ID of the item to delete") @PathVariable int id) {
+      @Parameter(description = "ID of the item to delete") @PathVariable int id,
+      @Parameter(hidden = true) @CookieValue(name = GUEST_CART_COOKIE, required = false) String guestToken) {
     User user = accessUserService.getSessionUser();
-    if (user == null) {
-      return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
-    }
 
     if (!productRepository.existsById(id)) {
       return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Product not found");
     }
 
-    Product product = productRepository.findById(id)
-        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Product not found"));
-    shoppingCartService.removeItemFromCart(user, product);
+    if (user == null) {
+      shoppingCartService.removeItemFromGuestCart(guestToken, id);
+    } else {
+      shoppingCartService.removeItemFromCart(user, id);
+    }
 
     return ResponseEntity.noContent().build();
   }
 
   /**
-   * HTTP PUT endpoint for updating the quantity of a shoppingCartProduct
+   * HTTP PATCH endpoint for updating the quantity of a shoppingCartProduct in
+   * the user's cart. The item is found by its product ID, or by its ID if no
+   * product ID is given; the two are the same.
    *
    * @param shoppingCartProductDto The shoppingCartProduct to update quantity of
+   * @param guestToken The token of the visitor's guest cart, if the visitor
+   *                   isn't logged in
    * @return A response indicating success or failure of the operation.
    */
   @PatchMapping("/quantity")
@@ -150,19 +189,25 @@ public class ShoppingCartController {
       @ApiResponse(responseCode = "404", description = "ShoppingCartProduct not found")
   })
   public ResponseEntity<String> updateShoppingCartProductQuantity(
-      @Parameter(description = "The shoppingCartProduct to update quantity of") @RequestBody ShoppingCartProductDto shoppingCartProductDto) {
+      @Parameter(description = "The shoppingCartProduct to update quantity of") @RequestBody ShoppingCartProductDto shoppingCartProductDto,
+      @Parameter(hidden = true) @CookieValue(name = GUEST_CART_COOKIE, required = false) String guestToken) {
+    User user = accessUserService.getSessionUser();
 
-    int id = shoppingCartProductDto.getId();
+    int productId = shoppingCartProductDto.getProductId() != 0
+        ? shoppingCartProductDto.getProductId()
+        : shoppingCartProductDto.getId();
     int quantity = shoppingCartProductDto.getQuantity();
 
-    ShoppingCartProduct shoppingCartProduct = shoppingCartProductRepository.findById(id)
-        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "ShoppingCartProduct not found"));
-
     if (quantity <= 0) {
       return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
     }
 
-    shoppingCartService.updateCartItemQuantity(shoppingCartProduct, quantity);
+    boolean updated = user == null
+        ? shoppingCartService.updateGuestCartItemQuantity(guestToken, productId, quantity)
+        : shoppingCartService.updateCartItemQuantity(user, productId, quantity);
+    if (!updated) {
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "ShoppingCartProduct not found");
+    }
 
     return ResponseEntity.ok("Quantity updated successfully");
   }
@@ -173,6 +218,8 @@ public class ShoppingCartController {
    *
    * @param shoppingCartProductDto The DTO containing the ID of the product, and
    *                               the quantity of the product
+   * @param guestToken The token of the visitor's guest cart, if the visitor
+   *                   isn't logged in
    * @return A response indicating success or failure of the operation.
    */
   @PostMapping("/add-to-cart")
@@ -180,15 +227,12 @@ public class ShoppingCartController {
   @ApiResponses({
       @ApiResponse(responseCode = "200", description = "Product added to cart successfully"),
       @ApiResponse(responseCode = "400", description = "Invalid quantity"),
-      @ApiResponse(responseCode = "401", description = "Unauthorized"),
       @ApiResponse(responseCode = "404", description = "Product not found")
   })
   public ResponseEntity<String> addToCart(
-      @Parameter(description = "The DTO containing the ID and quantity of the product") @RequestBody ShoppingCartProductDto shoppingCartProductDto) {
+      @Parameter(description = "The DTO containing the ID and quantity of the product") @RequestBody ShoppingCartProductDto shoppingCartProductDto,
+      @Parameter(hidden = true) @CookieValue(name = GUEST_CART_COOKIE, required = false) String guestToken) {
     User user = accessUserService.getSessionUser();
-    if (user == null) {
-      return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("User not authenticated");
-    }
 
     int productId = shoppingCartProductDto.getProductId();
     int quantity = shoppingCartProductDto.getQuantity();
@@ -197,13 +241,130 @@ public class ShoppingCartController {
       return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid quantity");
     }
 
-    Optional<Product> optionalProduct = productRepository.findById(productId);
-    if (optionalProduct.isEmpty()) {
+    if (!productRepository.existsById(productId)) {
       return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Product not found");
     }
 
-    Product product = optionalProduct.get();
-    shoppingCartService.addItemToCart(user, product, quantity);
+    if (user == null) {
+      String token = guestCartStore.isValidToken(guestToken) ? guestToken : guestCartStore.newToken();
+      try {
+        shoppingCartService.addItemToGuestCart(token, productId, quantity);
+      } catch (IllegalArgumentException e) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+      }
+      return ResponseEntity.ok()
+          .header(HttpHeaders.SET_COOKIE, guestCartCookie(token, guestCartStore.getTimeToLive()).toString())
+          .body("Product added to cart");
+    }
+
+    shoppingCartService.addItemToCart(user, productId, quantity);
     return ResponseEntity.ok("Product added to cart");
   }
-}
\ No newline at end of file
+
+  /**
+   * Handles HTTP POST requests to "/api/shoppingCart/batch" and applies several
+   * changes to the shopping cart of the user at once. The changes are checked
+   * together and applied in one transaction; if one of them is invalid, none of
+   * them are applied.
+   *
+   * @param operations The changes to make, in order.
+   * @param guestToken The token of the visitor's guest cart, if the visitor
+   *                   isn't logged in
+   * @return The shopping cart after the changes, and its total price.
+   */
+  @PostMapping("/batch")
+  @Operation(summary = "Apply several changes to the shopping cart")
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", description = "Changes applied", content = @Content(schema = @Schema(implementation = ShoppingCartDto.class))),
+      @ApiResponse(responseCode = "400", description = "Invalid operation, quantity or too many operations"),
+      @ApiResponse(responseCode = "404", description = "Product not found")
+  })
+  public ResponseEntity<ShoppingCartDto> applyBatch(
+      @Parameter(description = "The changes to make, in order") @RequestBody List<CartOperationDto> operations,
+      @Parameter(hidden = true) @CookieValue(name = GUEST_CART_COOKIE, required = false) String guestToken) {
+    User user = accessUserService.getSessionUser();
+    String token = user == null && !guestCartStore.isValidToken(guestToken) ? guestCartStore.newToken() : guestToken;
+
+    if (operations == null) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Operations are required");
+    }
+    List<CartOperation> cartOperations = new ArrayList<>();
+    for (CartOperationDto operation : operations) {
+      if (operation == null) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Operations can't be null");
+      }
+      cartOperations.add(new CartOperation(parseOperationType(operation.getType()), operation.getProductId(),
+          operation.getQuantity()));
+    }
+
+    ShoppingCartService.CartWithTotal cart;
+    try {
+      cart = user == null
+          ? shoppingCartService.applyGuestBatch(token, cartOperations)
+          : shoppingCartService.applyBatch(user, cartOperations);
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+    } catch (NoSuchElementException e) {
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+    }
+
+    if (user == null) {
+      return ResponseEntity.ok()
+          .header(HttpHeaders.SET_COOKIE, guestCartCookie(token, guestCartStore.getTimeToLive()).toString())
+          .body(toDto(null, cart));
+    }
+    return ResponseEntity.ok(toDto(user.getId(), cart));
+  }
+
+  private CartOperation.Type parseOperationType(String type) {
+    if (type != null) {
+      for (CartOperation.Type value : CartOperation.Type.values()) {
+        if (value.name().equalsIgnoreCase(type)) {
+          return value;
+        }
+      }
+    }
+    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown operation: " + type);
+  }
+
+  /**
+   * Creates the cookie that holds the token of a guest cart.
+   *
+   * @param token  the token of the guest cart
+   * @param maxAge how long the browser keeps the cookie; zero removes it
+   * @return the cookie
+   */
+  static ResponseCookie guestCartCookie(String token, Duration maxAge) {
+    return ResponseCookie.from(GUEST_CART_COOKIE, token)
+        .httpOnly(true)
+        .sameSite("Lax")
+        .path("/api")
+        .maxAge(maxAge)
+        .build();
+  }
+
+  private List<ShoppingCartProductDto> toDtos(Long userId, List<CartItem> cartItems) {
+    return cartItems.stream()
+        .map(cartItem -> new ShoppingCartProductDto(
+            cartItem.getProductId(),
+            userId,
+            cartItem.getProductId(),
+            cartItem.getQuantity()))
+        .collect(Collectors.toList());
+  }
+
+  private ShoppingCartDto toDto(Long userId, ShoppingCartService.CartWithTotal cart) {
+    List<ShoppingCartItemDto> items = new ArrayList<>();
+    for (CartItem cartItem : cart.getItems()) {
+      CartPricing.Price price = cart.getPrice(cartItem.getProductId());
+      items.add(new ShoppingCartItemDto(
+          userId,
+          cartItem.getProductId(),
+          cartItem.getQuantity(),
+          price == null ? null : price.getName(),
+          price == null ? null : price.getUnitPrice(),
+          price == null ? null : price.getLineTotal(cartItem.getQuantity())));
+    }
+    return new ShoppingCartDto(items, cart.getTotal());
+  }
+}
@@ -1,10 +1,13 @@
 package no.ntnu.group7.coffeeshop.controllers;
 
+import no.ntnu.group7.coffeeshop.dto.FieldSelection;
 import no.ntnu.group7.coffeeshop.dto.UserProfileDto;
 import no.ntnu.group7.coffeeshop.model.Role;
 import no.ntnu.group7.coffeeshop.model.User;
 import no.ntnu.group7.coffeeshop.repositories.UserRepository;
 import no.ntnu.group7.coffeeshop.services.AccessUserService;
+import no.ntnu.group7.coffeeshop.services.ReviewService;
+import no.ntnu.group7.coffeeshop.services.ShoppingCartService;
 
 import java.util.HashMap;
 import java.util.List;
@@ -43,6 +46,12 @@ public class UserController {
   @Autowired
   private UserRepository userRepository;
 
+  @Autowired
+  private ReviewService reviewService;
+
+  @Autowired
+  private ShoppingCartService shoppingCartService;
+
   private final Logger logger = LoggerFactory.getLogger("User Controller Logger");
 
   /**
@@ -145,36 +154,56 @@ public class UserController {
 
   /**
    * Handles HTTP GET requests to "/api/users" and returns a list of user profile
-   * information for all users. If the request is not made by an authenticated
-   * admin user, returns a 403 Forbidden response. If the request is not made by
-   * an authenticated user, returns a 401 Unauthorized response.
+   * information for all users. The fields parameter selects the fields of each
+   * profile; the roles are only loaded if they are asked for. If the request is
+   * not made by an authenticated admin user, returns a 403 Forbidden response.
+   * If the request is not made by an authenticated user, returns a 401
+   * Unauthorized response.
    *
+   * @param fields The fields to include, or the presets summary and full.
    * @return A list of user profile information for all users.
    */
   @GetMapping("")
   @Operation(summary = "Get all users")
   @ApiResponses({
       @ApiResponse(responseCode = "200", description = "Success", content = @Content(schema = @Schema(implementation = UserProfileDto.class))),
+      @ApiResponse(responseCode = "400", description = "Unknown field"),
       @ApiResponse(responseCode = "401", description = "User data accessible only to authenticated users"),
       @ApiResponse(responseCode = "403", description = "User data accessible only to admin users")
   })
-  public ResponseEntity<?> getAllUsers() throws InterruptedException {
+  public ResponseEntity<?> getAllUsers(
+      @Parameter(description = "The fields to include, comma separated, or the presets summary and full") @RequestParam(required = false) String fields)
+      throws InterruptedException {
     User sessionUser = userService.getSessionUser();
 
     if (sessionUser != null && sessionUser.isAdmin()) {
-      List<User> allUsers = userService.getAllUsers();
-
-      List<UserProfileDto> allUserProfileDtos = allUsers.stream()
-          .map(user -> {
-            List<String> roleNames = user.getRoles().stream()
-                .map(Role::getName)
-                .collect(Collectors.toList());
-            return new UserProfileDto(user.getId(), user.getFirstName(), user.getLastName(), user.getEmail(),
-                user.getAddress(), user.getUsername(), user.getCreatedAt().toString(), String.join(", ", roleNames));
-          })
-          .collect(Collectors.toList());
+      FieldSelection selection;
+      try {
+        selection = FieldSelection.parse(fields, UserProfileDto.FIELDS, UserProfileDto.SUMMARY_FIELDS,
+            UserProfileDto.FIELDS);
+      } catch (IllegalArgumentException e) {
+        return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+      }
+
+      List<UserProfileDto> allUserProfileDtos;
+      if (selection.includes("roles")) {
+        allUserProfileDtos = userService.getAllUsers().stream()
+            .map(user -> {
+              List<String> roleNames = user.getRoles().stream()
+                  .map(Role::getName)
+                  .collect(Collectors.toList());
+              return new UserProfileDto(user.getId(), user.getFirstName(), user.getLastName(), user.getEmail(),
+                  user.getAddress(), user.getUsername(), user.getCreatedAt().toString(), String.join(", ", roleNames));
+            })
+            .collect(Collectors.toList());
+      } else {
+        allUserProfileDtos = userService.getAllUserSummaries().stream()
+            .map(user -> new UserProfileDto(user.getId(), user.getFirstName(), user.getLastName(), user.getEmail(),
+                user.getAddress(), user.getUsername(), user.getCreatedAt().toString(), null))
+            .collect(Collectors.toList());
+      }
 
-      return new ResponseEntity<List<UserProfileDto>>(allUserProfileDtos, HttpStatus.OK);
+      return new ResponseEntity<>(selection.apply(allUserProfileDtos, UserProfileDto.FIELD_FILTER), HttpStatus.OK);
     } else if (sessionUser == null) {
       return new ResponseEntity<>("User data accessible only to authenticated users", HttpStatus.UNAUTHORIZED);
     } else {
@@ -290,6 +319,8 @@ public class UserController {
       Optional<User> user = userRepository.findByUsername(username);
 
       if (user.isPresent()) {
+        reviewService.deleteReviewsByUser(user.get());
+        shoppingCartService.removeCart(user.get());
         userRepository.deleteById(user.get().getId());
         return new ResponseEntity<>(username + " has been deleted.", HttpStatus.OK);
       } else {
@@ -0,0 +1,50 @@
+package no.ntnu.group7.coffeeshop.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Data transfer object for one change to a shopping cart, as part of a batch.
+ */
+@Schema(description = "DTO for one change to a shopping cart")
+public class CartOperationDto {
+  @Schema(description = "The kind of change: add, set (the quantity) or remove")
+  private String type;
+  @Schema(description = "Unique ID of product")
+  private int productId;
+  @Schema(description = "The quantity to add, or the new quantity. Not used by remove")
+  private int quantity;
+
+  /**
+   * Constructs a new CartOperationDto.
+   *
+   * @param type      The kind of change: add, set or remove.
+   * @param productId The unique identifier for the product.
+   * @param quantity  The quantity to add, or the new quantity.
+   */
+  public CartOperationDto(String type, int productId, int quantity) {
+    this.type = type;
+    this.productId = productId;
+    this.quantity = quantity;
+  }
+
+  /**
+   * @return the type
+   */
+  public String getType() {
+    return type;
+  }
+
+  /**
+   * @return the productId
+   */
+  public int getProductId() {
+    return productId;
+  }
+
+  /**
+   * @return the quantity
+   */
+  public int getQuantity() {
+    return quantity;
+  }
+}
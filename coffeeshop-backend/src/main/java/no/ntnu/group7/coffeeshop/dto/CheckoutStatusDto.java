@@ -0,0 +1,57 @@
+package no.ntnu.group7.coffeeshop.dto;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Data transfer object (DTO) for the status of an order placed in the
+ * background.
+ */
+@Schema(description = "Status of an order placed in the background")
+public class CheckoutStatusDto {
+  @Schema(description = "ID of the order")
+  private long orderId;
+  @Schema(description = "Status of the order: PENDING until it has been placed, then PROCESSING, "
+      + "or CANCELED if some products ran out")
+  private String orderStatus;
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  @Schema(description = "The products there wasn't enough of, if the order was canceled because they ran out")
+  private List<StockShortageDto> shortages;
+
+  /**
+   * Constructs a new CheckoutStatusDto
+   *
+   * @param orderId     The ID of the order.
+   * @param orderStatus The status of the order.
+   * @param shortages   The products there wasn't enough of, or null.
+   */
+  public CheckoutStatusDto(long orderId, String orderStatus, List<StockShortageDto> shortages) {
+    this.orderId = orderId;
+    this.orderStatus = orderStatus;
+    this.shortages = shortages;
+  }
+
+  /**
+   * @return the orderId
+   */
+  public long getOrderId() {
+    return orderId;
+  }
+
+  /**
+   * @return the orderStatus
+   */
+  public String getOrderStatus() {
+    return orderStatus;
+  }
+
+  /**
+   * @return the products there wasn't enough of, or null
+   */
+  public List<StockShortageDto> getShortages() {
+    return shortages;
+  }
+}
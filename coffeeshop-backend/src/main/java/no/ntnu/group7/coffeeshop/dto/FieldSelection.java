@@ -0,0 +1,120 @@
+package no.ntnu.group7.coffeeshop.dto;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.http.converter.json.MappingJacksonValue;
+
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+
+/**
+ * The fields of a DTO a client asked for with the "fields" query parameter of
+ * a list endpoint. The parameter is a comma separated list of field names and
+ * the presets "summary" and "full", for example "summary,description". The ID
+ * is always included. Services use the selection to skip loading what isn't
+ * needed, and controllers use it to leave the other fields out of the
+ * response.
+ *
+ * DTOs that support field selection are annotated with a JsonFilter. Without a
+ * selection, the default filter provider set up in JacksonConfiguration
+ * serializes every field.
+ */
+public class FieldSelection {
+  public static final String SUMMARY = "summary";
+  public static final String FULL = "full";
+
+  private final Set<String> fields;
+
+  private FieldSelection(Set<String> fields) {
+    this.fields = fields;
+  }
+
+  /**
+   * Parses the "fields" query parameter.
+   *
+   * @param fields        the value of the parameter, or null to select the
+   *                      full preset
+   * @param allFields     every field of the DTO
+   * @param summaryFields the fields of the summary preset
+   * @param fullFields    the fields of the full preset
+   * @return the selected fields
+   * @throws IllegalArgumentException if a field isn't one of the DTO's fields
+   */
+  public static FieldSelection parse(String fields, Collection<String> allFields, Collection<String> summaryFields,
+      Collection<String> fullFields) {
+    Set<String> selected = new LinkedHashSet<>();
+    selected.add("id");
+    if (fields == null || fields.isBlank()) {
+      selected.addAll(fullFields);
+      return new FieldSelection(selected);
+    }
+
+    for (String field : fields.split(",")) {
+      field = field.trim();
+      if (field.equals(SUMMARY)) {
+        selected.addAll(summaryFields);
+      } else if (field.equals(FULL)) {
+        selected.addAll(fullFields);
+      } else if (allFields.contains(field)) {
+        selected.add(field);
+      } else if (!field.isEmpty()) {
+        throw new IllegalArgumentException("Unknown field: " + field);
+      }
+    }
+    return new FieldSelection(selected);
+  }
+
+  /**
+   * Returns a selection with one more field.
+   *
+   * @param field the field to add
+   * @return the new selection
+   */
+  public FieldSelection with(String field) {
+    Set<String> selected = new LinkedHashSet<>(fields);
+    selected.add(field);
+    return new FieldSelection(selected);
+  }
+
+  /**
+   * @param field the name of a field
+   * @return whether the field is selected
+   */
+  public boolean includes(String field) {
+    return fields.contains(field);
+  }
+
+  /**
+   * @param available the fields that can be provided
+   * @return whether every selected field is one of the given fields
+   */
+  public boolean isWithin(Collection<String> available) {
+    return available.containsAll(fields);
+  }
+
+  /**
+   * @return the selected fields
+   */
+  public List<String> getFields() {
+    return List.copyOf(fields);
+  }
+
+  /**
+   * Wraps a response body so that only the selected fields of the DTOs with
+   * the given filter are serialized.
+   *
+   * @param body     the response body
+   * @param filterId the ID of the JsonFilter of the DTO
+   * @return the wrapped body
+   */
+  public MappingJacksonValue apply(Object body, String filterId) {
+    MappingJacksonValue value = new MappingJacksonValue(body);
+    value.setFilters(new SimpleFilterProvider()
+        .setFailOnUnknownId(false)
+        .addFilter(filterId, SimpleBeanPropertyFilter.filterOutAllExcept(fields)));
+    return value;
+  }
+}
@@ -3,13 +3,22 @@ package no.ntnu.group7.coffeeshop.dto;
 import java.math.BigDecimal;
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
+
 import io.swagger.v3.oas.annotations.media.Schema;
 
 /**
  * Data transfer object (DTO) for submitting orders.
  */
 @Schema(description = "DTO for order")
+@JsonFilter(OrderDto.FIELD_FILTER)
 public class OrderDto {
+  public static final String FIELD_FILTER = "orderFields";
+  // Fields that can be selected with the "fields" query parameter
+  public static final List<String> FIELDS = List.of("id", "username", "orderStatus", "totalPrice", "createdAt",
+      "orderProducts");
+  public static final List<String> SUMMARY_FIELDS = List.of("id", "username", "orderStatus", "totalPrice",
+      "createdAt");
   @Schema(description = "Unqiue ID")
   private long id;
   @Schema(description = "Username of the user who placed the order")
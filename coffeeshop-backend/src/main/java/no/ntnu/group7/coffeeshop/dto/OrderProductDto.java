@@ -1,13 +1,17 @@
 package no.ntnu.group7.coffeeshop.dto;
 
+import java.math.BigDecimal;
+
 import io.swagger.v3.oas.annotations.media.Schema;
 
 @Schema(description = "DTO for OrderProduct")
 public class OrderProductDto {
   @Schema(description = "Unqiue ID")
   private long id;
-  @Schema(description = "Name of the product this represents")
+  @Schema(description = "Name of the product this represents, when it was ordered")
   private String productName;
+  @Schema(description = "Price of one unit of the product, when it was ordered")
+  private BigDecimal unitPrice;
   @Schema(description = "Quantity of the product")
   private int quantity;
 
@@ -16,11 +20,13 @@ public class OrderProductDto {
    * 
    * @param id          The id of the orderProduct.
    * @param productName The name or the product.
+   * @param unitPrice   The price of one unit of the product.
    * @param quantity    The quantity of the product.
    */
-  public OrderProductDto(long id, String productName, int quantity) {
+  public OrderProductDto(long id, String productName, BigDecimal unitPrice, int quantity) {
     this.id = id;
     this.productName = productName;
+    this.unitPrice = unitPrice;
     this.quantity = quantity;
   }
 
@@ -38,6 +44,13 @@ public class OrderProductDto {
     return productName;
   }
 
+  /**
+   * @return the unitPrice
+   */
+  public BigDecimal getUnitPrice() {
+    return unitPrice;
+  }
+
   /**
    * @return the quantity
    */
@@ -3,10 +3,22 @@ package no.ntnu.group7.coffeeshop.dto;
 import java.math.BigDecimal;
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import io.swagger.v3.oas.annotations.media.Schema;
 
 @Schema(description = "DTO for product")
+@JsonFilter(ProductDto.FIELD_FILTER)
 public class ProductDto {
+  public static final String FIELD_FILTER = "productFields";
+  // Fields that can be selected with the "fields" query parameter. Reviews
+  // are left out of the full preset, as they are only loaded if asked for.
+  public static final List<String> FIELDS = List.of("id", "name", "description", "inventoryAmount", "price",
+      "image", "categories", "reviews", "ratingSummary");
+  public static final List<String> SUMMARY_FIELDS = List.of("id", "name", "price", "image", "inventoryAmount");
+  public static final List<String> FULL_FIELDS = List.of("id", "name", "description", "inventoryAmount", "price",
+      "image", "categories", "ratingSummary");
 
   @Schema(description = "Unique ID")
   private int id;
@@ -22,11 +34,20 @@ public class ProductDto {
   private String image;
   @Schema(description = "List of categories this product belong in")
   private List<CategoryDto> categories;
-  @Schema(description = "Reviews this product has")
+  @Schema(description = "Reviews this product has. Left out of listings that skip review bodies")
+  @JsonInclude(JsonInclude.Include.NON_NULL)
   private List<ReviewDto> reviews;
+  @Schema(description = "Summary of the ratings of this product's reviews")
+  private RatingSummaryDto ratingSummary;
+  @Schema(description = "How much of the stock is held for shopping carts. Only given for a single product")
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private Integer reservedAmount;
+  @Schema(description = "How much of the stock isn't held for shopping carts. Only given for a single product")
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private Integer availableAmount;
 
   public ProductDto(int id, String name, String description, int inventoryAmount, BigDecimal price, String image,
-      List<CategoryDto> categories, List<ReviewDto> reviews) {
+      List<CategoryDto> categories, List<ReviewDto> reviews, RatingSummaryDto ratingSummary) {
     this.id = id;
     this.name = name;
     this.description = description;
@@ -35,6 +56,7 @@ public class ProductDto {
     this.image = image;
     this.categories = categories;
     this.reviews = reviews;
+    this.ratingSummary = ratingSummary;
   }
 
   /**
@@ -93,4 +115,52 @@ public class ProductDto {
     return reviews;
   }
 
+  /**
+   * @return the ratingSummary
+   */
+  public RatingSummaryDto getRatingSummary() {
+    return ratingSummary;
+  }
+
+  /**
+   * @return the reservedAmount, or null if not given
+   */
+  public Integer getReservedAmount() {
+    return reservedAmount;
+  }
+
+  /**
+   * @return the availableAmount, or null if not given
+   */
+  public Integer getAvailableAmount() {
+    return availableAmount;
+  }
+
+  /**
+   * Copies this DTO with the stock held for shopping carts. The DTO itself may
+   * be cached, and is left as it is.
+   *
+   * @param reserved the quantity held for shopping carts
+   * @return a copy with the reserved and available amounts
+   */
+  public ProductDto withReservations(int reserved) {
+    return withReservations(inventoryAmount, reserved);
+  }
+
+  /**
+   * Copies this DTO with the current stock, and the stock held for shopping
+   * carts. The DTO itself may be cached, and is left as it is.
+   *
+   * @param inStock  the number of items in stock
+   * @param reserved the quantity held for shopping carts
+   * @return a copy with the inventory, reserved and available amounts
+   */
+  public ProductDto withReservations(int inStock, int reserved) {
+    ProductDto copy = new ProductDto(id, name, description, inStock, price, image, categories, reviews,
+        ratingSummary);
+    copy.reservedAmount = reserved;
+    copy.availableAmount = Math.max(0, inStock - reserved);
+    return copy;
+  }
+
 }
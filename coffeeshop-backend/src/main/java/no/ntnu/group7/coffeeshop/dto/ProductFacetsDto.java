@@ -0,0 +1,80 @@
+package no.ntnu.group7.coffeeshop.dto;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Data transfer object counting how many products each filter option would
+ * match, for showing next to the options. Each count applies the rest of the
+ * filter, but not the part it counts for.
+ */
+@Schema(description = "Number of products matching each filter option")
+public class ProductFacetsDto {
+  @Schema(description = "Number of matching products in each category, by category ID")
+  private Map<Integer, Integer> categories;
+  @Schema(description = "Number of matching products in stock")
+  private int inStock;
+  @Schema(description = "Number of matching products rated at least 1 to 5 stars")
+  private int[] minRating;
+  @Schema(description = "Lowest price of the matching products, or null if there are none")
+  private BigDecimal minPrice;
+  @Schema(description = "Highest price of the matching products, or null if there are none")
+  private BigDecimal maxPrice;
+
+  /**
+   * Constructs a new ProductFacetsDto
+   *
+   * @param categories The number of matching products in each category.
+   * @param inStock    The number of matching products in stock.
+   * @param minRating  The number of matching products rated at least 1 to 5
+   *                   stars.
+   * @param minPrice   The lowest price of the matching products.
+   * @param maxPrice   The highest price of the matching products.
+   */
+  public ProductFacetsDto(Map<Integer, Integer> categories, int inStock, int[] minRating, BigDecimal minPrice,
+      BigDecimal maxPrice) {
+    this.categories = categories;
+    this.inStock = inStock;
+    this.minRating = minRating;
+    this.minPrice = minPrice;
+    this.maxPrice = maxPrice;
+  }
+
+  /**
+   * @return the categories
+   */
+  public Map<Integer, Integer> getCategories() {
+    return categories;
+  }
+
+  /**
+   * @return the inStock
+   */
+  public int getInStock() {
+    return inStock;
+  }
+
+  /**
+   * @return the minRating
+   */
+  public int[] getMinRating() {
+    return minRating;
+  }
+
+  /**
+   * @return the minPrice
+   */
+  public BigDecimal getMinPrice() {
+    return minPrice;
+  }
+
+  /**
+   * @return the maxPrice
+   */
+  public BigDecimal getMaxPrice() {
+    return maxPrice;
+  }
+
+}
@@ -0,0 +1,88 @@
+package no.ntnu.group7.coffeeshop.dto;
+
+import java.util.List;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Data transfer object for one page of filtered products, together with the
+ * facet counts of the filter.
+ */
+@Schema(description = "DTO for a page of filtered products")
+public class ProductFilterPageDto {
+  @Schema(description = "The products on this page")
+  private List<ProductDto> items;
+  @Schema(description = "Number of products matching the filter")
+  private int total;
+  @Schema(description = "Number of matching products skipped before this page")
+  private int offset;
+  @Schema(description = "Maximum number of products on a page")
+  private int limit;
+  @Schema(description = "Sort order of the products (id or price)")
+  private String sort;
+  @Schema(description = "Number of products matching each filter option")
+  private ProductFacetsDto facets;
+
+  /**
+   * Constructs a new ProductFilterPageDto
+   *
+   * @param items  The products on this page.
+   * @param total  The number of products matching the filter.
+   * @param offset The number of matching products skipped before this page.
+   * @param limit  The maximum number of products on a page.
+   * @param sort   The sort order of the products.
+   * @param facets The number of products matching each filter option.
+   */
+  public ProductFilterPageDto(List<ProductDto> items, int total, int offset, int limit, String sort,
+      ProductFacetsDto facets) {
+    this.items = items;
+    this.total = total;
+    this.offset = offset;
+    this.limit = limit;
+    this.sort = sort;
+    this.facets = facets;
+  }
+
+  /**
+   * @return the items
+   */
+  public List<ProductDto> getItems() {
+    return items;
+  }
+
+  /**
+   * @return the total
+   */
+  public int getTotal() {
+    return total;
+  }
+
+  /**
+   * @return the offset
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  /**
+   * @return the limit
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * @return the sort
+   */
+  public String getSort() {
+    return sort;
+  }
+
+  /**
+   * @return the facets
+   */
+  public ProductFacetsDto getFacets() {
+    return facets;
+  }
+
+}
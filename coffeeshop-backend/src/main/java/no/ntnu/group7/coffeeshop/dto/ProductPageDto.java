@@ -0,0 +1,65 @@
+package no.ntnu.group7.coffeeshop.dto;
+
+import java.util.List;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Data transfer object for one page of products, fetched with keyset
+ * pagination.
+ */
+@Schema(description = "DTO for a page of products")
+public class ProductPageDto {
+  @Schema(description = "The products on this page")
+  private List<ProductDto> items;
+  @Schema(description = "Opaque cursor for the next page, or null if this is the last page")
+  private String nextCursor;
+  @Schema(description = "Maximum number of products on a page")
+  private int limit;
+  @Schema(description = "Sort order of the products (id, name or price)")
+  private String sort;
+
+  /**
+   * Constructs a new ProductPageDto
+   *
+   * @param items      The products on this page.
+   * @param nextCursor The cursor for the next page, or null if there is none.
+   * @param limit      The maximum number of products on a page.
+   * @param sort       The sort order of the products.
+   */
+  public ProductPageDto(List<ProductDto> items, String nextCursor, int limit, String sort) {
+    this.items = items;
+    this.nextCursor = nextCursor;
+    this.limit = limit;
+    this.sort = sort;
+  }
+
+  /**
+   * @return the items
+   */
+  public List<ProductDto> getItems() {
+    return items;
+  }
+
+  /**
+   * @return the nextCursor
+   */
+  public String getNextCursor() {
+    return nextCursor;
+  }
+
+  /**
+   * @return the limit
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * @return the sort
+   */
+  public String getSort() {
+    return sort;
+  }
+
+}
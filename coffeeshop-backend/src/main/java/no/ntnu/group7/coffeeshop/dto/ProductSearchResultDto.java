@@ -0,0 +1,76 @@
+package no.ntnu.group7.coffeeshop.dto;
+
+import java.math.BigDecimal;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Data transfer object for one product found by a search. Only holds what is
+ * needed to list the result; the full product can be fetched by its ID.
+ */
+@Schema(description = "DTO for a product found by a search")
+public class ProductSearchResultDto {
+  @Schema(description = "Unique ID of the product")
+  private int id;
+  @Schema(description = "Name of the product")
+  private String name;
+  @Schema(description = "Product price")
+  private BigDecimal price;
+  @Schema(description = "Product image")
+  private String image;
+  @Schema(description = "How well the product matches the search, higher is better")
+  private double score;
+
+  /**
+   * Constructs a new ProductSearchResultDto
+   *
+   * @param id    The ID of the product.
+   * @param name  The name of the product.
+   * @param price The price of the product.
+   * @param image The image of the product.
+   * @param score How well the product matches the search.
+   */
+  public ProductSearchResultDto(int id, String name, BigDecimal price, String image, double score) {
+    this.id = id;
+    this.name = name;
+    this.price = price;
+    this.image = image;
+    this.score = score;
+  }
+
+  /**
+   * @return the id
+   */
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * @return the name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the price
+   */
+  public BigDecimal getPrice() {
+    return price;
+  }
+
+  /**
+   * @return the image
+   */
+  public String getImage() {
+    return image;
+  }
+
+  /**
+   * @return the score
+   */
+  public double getScore() {
+    return score;
+  }
+
+}
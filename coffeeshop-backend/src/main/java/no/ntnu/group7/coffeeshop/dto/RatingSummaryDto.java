@@ -0,0 +1,52 @@
+package no.ntnu.group7.coffeeshop.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Data transfer object summarizing the ratings of a product's reviews, so
+ * clients can show star ratings without downloading every review.
+ */
+@Schema(description = "Summary of the review ratings of a product")
+public class RatingSummaryDto {
+  @Schema(description = "Number of reviews")
+  private int count;
+  @Schema(description = "Average rating, or 0 if there are no reviews")
+  private double average;
+  @Schema(description = "Number of reviews with each rating, from 1 to 5 stars")
+  private int[] histogram;
+
+  /**
+   * Constructs a new RatingSummaryDto
+   *
+   * @param count     The number of reviews.
+   * @param sum       The sum of the ratings.
+   * @param histogram The number of reviews with each rating, from 1 to 5 stars.
+   */
+  public RatingSummaryDto(int count, long sum, int[] histogram) {
+    this.count = count;
+    this.average = count == 0 ? 0 : Math.round(100.0 * sum / count) / 100.0;
+    this.histogram = histogram;
+  }
+
+  /**
+   * @return the count
+   */
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * @return the average
+   */
+  public double getAverage() {
+    return average;
+  }
+
+  /**
+   * @return the histogram
+   */
+  public int[] getHistogram() {
+    return histogram;
+  }
+
+}
@@ -0,0 +1,54 @@
+package no.ntnu.group7.coffeeshop.dto;
+
+import java.util.List;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Data transfer object for one page of a product's reviews, fetched with
+ * keyset pagination.
+ */
+@Schema(description = "DTO for a page of reviews")
+public class ReviewPageDto {
+  @Schema(description = "The reviews on this page, newest first")
+  private List<ReviewDto> items;
+  @Schema(description = "Opaque cursor for the next page, or null if this is the last page")
+  private String nextCursor;
+  @Schema(description = "Maximum number of reviews on a page")
+  private int limit;
+
+  /**
+   * Constructs a new ReviewPageDto
+   *
+   * @param items      The reviews on this page.
+   * @param nextCursor The cursor for the next page, or null if there is none.
+   * @param limit      The maximum number of reviews on a page.
+   */
+  public ReviewPageDto(List<ReviewDto> items, String nextCursor, int limit) {
+    this.items = items;
+    this.nextCursor = nextCursor;
+    this.limit = limit;
+  }
+
+  /**
+   * @return the items
+   */
+  public List<ReviewDto> getItems() {
+    return items;
+  }
+
+  /**
+   * @return the nextCursor
+   */
+  public String getNextCursor() {
+    return nextCursor;
+  }
+
+  /**
+   * @return the limit
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+}
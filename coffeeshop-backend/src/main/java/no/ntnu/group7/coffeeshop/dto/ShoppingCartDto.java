@@ -0,0 +1,43 @@
+package no.ntnu.group7.coffeeshop.dto;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Data transfer object for a whole shopping cart: its products with their names
+ * and prices, and its total price.
+ */
+@Schema(description = "DTO for a shopping cart and its total")
+public class ShoppingCartDto {
+  @Schema(description = "The products in the cart, in the order they were added")
+  private List<ShoppingCartItemDto> items;
+  @Schema(description = "Total price of the products in the cart")
+  private BigDecimal total;
+
+  /**
+   * Constructs a new ShoppingCartDto.
+   *
+   * @param items The products in the cart.
+   * @param total The total price of the products in the cart.
+   */
+  public ShoppingCartDto(List<ShoppingCartItemDto> items, BigDecimal total) {
+    this.items = items;
+    this.total = total;
+  }
+
+  /**
+   * @return the items
+   */
+  public List<ShoppingCartItemDto> getItems() {
+    return items;
+  }
+
+  /**
+   * @return the total
+   */
+  public BigDecimal getTotal() {
+    return total;
+  }
+}
@@ -0,0 +1,59 @@
+package no.ntnu.group7.coffeeshop.dto;
+
+import java.math.BigDecimal;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Data transfer object for a priced shopping cart product. In addition to the
+ * fields of ShoppingCartProductDto, it contains the name and unit price of the
+ * product, and the price of the whole quantity.
+ */
+@Schema(description = "DTO for a ShoppingCartProduct with its name and prices")
+public class ShoppingCartItemDto extends ShoppingCartProductDto {
+  @Schema(description = "Name of product")
+  private String productName;
+  @Schema(description = "Price of one unit of the product")
+  private BigDecimal unitPrice;
+  @Schema(description = "Price of the whole quantity of the product")
+  private BigDecimal lineTotal;
+
+  /**
+   * Constructs a new ShoppingCartItemDto.
+   *
+   * @param userId      The unique identifier for the user.
+   * @param productId   The unique identifier for the product.
+   * @param quantity    The quantity of the product in the shopping cart.
+   * @param productName The name of the product.
+   * @param unitPrice   The price of one unit of the product.
+   * @param lineTotal   The price of the whole quantity.
+   */
+  public ShoppingCartItemDto(Long userId, int productId, int quantity, String productName, BigDecimal unitPrice,
+      BigDecimal lineTotal) {
+    super(productId, userId, productId, quantity);
+    this.productName = productName;
+    this.unitPrice = unitPrice;
+    this.lineTotal = lineTotal;
+  }
+
+  /**
+   * @return the productName
+   */
+  public String getProductName() {
+    return productName;
+  }
+
+  /**
+   * @return the unitPrice
+   */
+  public BigDecimal getUnitPrice() {
+    return unitPrice;
+  }
+
+  /**
+   * @return the lineTotal
+   */
+  public BigDecimal getLineTotal() {
+    return lineTotal;
+  }
+}
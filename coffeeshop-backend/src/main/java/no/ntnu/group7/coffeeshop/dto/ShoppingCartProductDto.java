@@ -4,11 +4,12 @@ import io.swagger.v3.oas.annotations.media.Schema;
 
 /**
  * Data transfer object for shopping cart products. It contains the user ID,
- * product ID, and product quantity.
+ * product ID, and product quantity. A product appears at most once in a cart,
+ * so the ID of a shopping cart product is the ID of its product.
  */
 @Schema(description = "DTO for ShoppingCartProduct")
 public class ShoppingCartProductDto {
-  @Schema(description = "Unqiue ID")
+  @Schema(description = "Unique ID within the cart, the same as the product ID")
   private int id;
   @Schema(description = "Unique ID of user")
   private Long userId;
@@ -0,0 +1,51 @@
+package no.ntnu.group7.coffeeshop.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Data transfer object (DTO) for a product there isn't enough of in stock for
+ * an order.
+ */
+@Schema(description = "A product there isn't enough of in stock")
+public class StockShortageDto {
+  @Schema(description = "ID of the product")
+  private int productId;
+  @Schema(description = "Quantity ordered")
+  private int requested;
+  @Schema(description = "Quantity in stock that isn't held for other carts")
+  private int available;
+
+  /**
+   * Constructs a new StockShortageDto
+   *
+   * @param productId The ID of the product.
+   * @param requested The quantity ordered.
+   * @param available The quantity in stock that isn't held for other carts.
+   */
+  public StockShortageDto(int productId, int requested, int available) {
+    this.productId = productId;
+    this.requested = requested;
+    this.available = available;
+  }
+
+  /**
+   * @return the productId
+   */
+  public int getProductId() {
+    return productId;
+  }
+
+  /**
+   * @return the quantity ordered
+   */
+  public int getRequested() {
+    return requested;
+  }
+
+  /**
+   * @return the quantity in stock that isn't held for other carts
+   */
+  public int getAvailable() {
+    return available;
+  }
+}
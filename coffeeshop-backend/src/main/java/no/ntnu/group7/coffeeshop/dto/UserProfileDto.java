@@ -1,5 +1,9 @@
 package no.ntnu.group7.coffeeshop.dto;
 
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+
 import io.swagger.v3.oas.annotations.media.Schema;
 
 /**
@@ -10,7 +14,13 @@ import io.swagger.v3.oas.annotations.media.Schema;
  * data.
  */
 @Schema(description = "DTO for a user profile")
+@JsonFilter(UserProfileDto.FIELD_FILTER)
 public class UserProfileDto {
+  public static final String FIELD_FILTER = "userFields";
+  // Fields that can be selected with the "fields" query parameter
+  public static final List<String> FIELDS = List.of("id", "firstName", "lastName", "email", "address", "username",
+      "createdAt", "roles");
+  public static final List<String> SUMMARY_FIELDS = List.of("id", "username", "firstName", "lastName");
   @Schema(description = "Unqiue ID of user")
   private long id;
   @Schema(description = "First name")
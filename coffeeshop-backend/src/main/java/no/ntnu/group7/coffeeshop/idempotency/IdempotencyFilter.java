@@ -0,0 +1,394 @@
+package no.ntnu.group7.coffeeshop.idempotency;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import io.micrometer.core.instrument.Counter;
+import io.jsonwebtoken.JwtException;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import no.ntnu.group7.coffeeshop.controllers.ShoppingCartController;
+import no.ntnu.group7.coffeeshop.security.JwtUtil;
+
+/**
+ * Makes retries of the POST endpoints in PATHS safe. A client sends the same
+ * Idempotency-Key header with every attempt of a request; the response to the
+ * first attempt is kept, and the later attempts get it back, with an
+ * Idempotent-Replayed header, instead of running the request again. Keys are
+ * scoped to the endpoint and to the Authorization header and guest cart
+ * cookie of the request, so a client can only replay its own responses.
+ * Requests with neither aren't tied to any client, so their responses aren't
+ * kept, and Set-Cookie headers are never kept, so a replay can't hand one
+ * client's guest cart to another.
+ *
+ * The responses are kept in memory for coffeeshop.idempotency.ttl, but no
+ * longer than the JWT of the request is valid, up to
+ * coffeeshop.idempotency.max-size in total. The filter runs before Spring
+ * Security, so a replay is served without touching the database. An attempt
+ * that arrives while the first one is still running waits for its response.
+ * Server errors, 401, 403 and 429 responses aren't kept, so those requests
+ * can be retried. Reusing a key with a different body is rejected with 422,
+ * and a body larger than coffeeshop.idempotency.max-body-size with 413. The
+ * number of replays is published as the idempotency.replays metric.
+ */
+@Component
+@Order(SecurityProperties.DEFAULT_FILTER_ORDER - 1)
+public class IdempotencyFilter extends OncePerRequestFilter {
+  public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+  public static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+  private static final List<String> PATHS = List.of("/api/checkout", "/api/shoppingCart/add-to-cart",
+      "/api/products/*/add-review");
+  private static final int MAX_KEY_LENGTH = 255;
+  // How long an attempt waits for the first one before giving up with 409
+  private static final long WAIT_SECONDS = 30;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  private JwtUtil jwtUtil;
+
+  @Value("${coffeeshop.idempotency.ttl:24h}")
+  private Duration ttl;
+
+  @Value("${coffeeshop.idempotency.max-size:8MB}")
+  private DataSize maxSize;
+
+  @Value("${coffeeshop.idempotency.max-body-size:1MB}")
+  private DataSize maxBodySize;
+
+  private Cache<String, StoredResponse> responses;
+  // The first attempts that are still running; completed with their
+  // response once it is kept, or with null if it isn't
+  private final ConcurrentMap<String, CompletableFuture<StoredResponse>> running = new ConcurrentHashMap<>();
+  private final AntPathMatcher pathMatcher = new AntPathMatcher();
+  private Counter replays;
+
+  /**
+   * Creates the response store, and registers the metric.
+   */
+  @PostConstruct
+  public void start() {
+    responses = Caffeine.newBuilder()
+        .expireAfter(new Expiry<String, StoredResponse>() {
+          @Override
+          public long expireAfterCreate(String key, StoredResponse response, long currentTime) {
+            return response.timeToLive.toNanos();
+          }
+
+          @Override
+          public long expireAfterUpdate(String key, StoredResponse response, long currentTime,
+              long currentDuration) {
+            return response.timeToLive.toNanos();
+          }
+
+          @Override
+          public long expireAfterRead(String key, StoredResponse response, long currentTime, long currentDuration) {
+            return currentDuration;
+          }
+        })
+        .maximumWeight(maxSize.toBytes())
+        .weigher((String key, StoredResponse response) -> 2 * key.length() + response.size())
+        .build();
+    replays = Counter.builder("idempotency.replays")
+        .description("Retried requests answered with the response to the first attempt")
+        .register(meterRegistry);
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    return !HttpMethod.POST.matches(request.getMethod()) || request.getHeader(IDEMPOTENCY_KEY) == null
+        || PATHS.stream().noneMatch(path -> pathMatcher.match(path, request.getRequestURI()));
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    String idempotencyKey = request.getHeader(IDEMPOTENCY_KEY);
+    if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+      reject(response, HttpStatus.BAD_REQUEST, IDEMPOTENCY_KEY + " must be 1 to " + MAX_KEY_LENGTH + " characters");
+      return;
+    }
+    long maxBodyBytes = maxBodySize.toBytes();
+    byte[] body = request.getContentLengthLong() > maxBodyBytes
+        ? null
+        : request.getInputStream().readNBytes((int) maxBodyBytes + 1);
+    if (body == null || body.length > maxBodyBytes) {
+      reject(response, HttpStatus.PAYLOAD_TOO_LARGE,
+          "Requests with an " + IDEMPOTENCY_KEY + " can have at most " + maxBodyBytes + " bytes of body");
+      return;
+    }
+    String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+    String guestCartToken = guestCartToken(request);
+    if (authorization == null && guestCartToken == null) {
+      filterChain.doFilter(new CachedBodyRequest(request, body), response);
+      return;
+    }
+    byte[] fingerprint = fingerprint(body);
+    String key = String.join("\n", request.getMethod(), request.getRequestURI(), String.valueOf(authorization),
+        String.valueOf(guestCartToken), idempotencyKey);
+
+    while (true) {
+      StoredResponse stored = responses.getIfPresent(key);
+      if (stored != null) {
+        replay(stored, fingerprint, response);
+        return;
+      }
+
+      CompletableFuture<StoredResponse> attempt = new CompletableFuture<>();
+      CompletableFuture<StoredResponse> first = running.putIfAbsent(key, attempt);
+      if (first == null) {
+        run(key, attempt, fingerprint, new CachedBodyRequest(request, body), response, filterChain);
+        return;
+      }
+
+      try {
+        stored = first.get(WAIT_SECONDS, TimeUnit.SECONDS);
+      } catch (TimeoutException e) {
+        reject(response, HttpStatus.CONFLICT, "A request with this " + IDEMPOTENCY_KEY + " is still running");
+        return;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ServletException(e);
+      } catch (ExecutionException e) {
+        throw new ServletException(e.getCause());
+      }
+      if (stored != null) {
+        replay(stored, fingerprint, response);
+        return;
+      }
+      // The first attempt failed, or its response isn't kept, so this one
+      // runs the request instead
+    }
+  }
+
+  private void run(String key, CompletableFuture<StoredResponse> attempt, byte[] fingerprint,
+      HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    // An attempt that finished after the store was looked at has already
+    // stopped running
+    StoredResponse stored = responses.getIfPresent(key);
+    if (stored != null) {
+      running.remove(key);
+      attempt.complete(stored);
+      replay(stored, fingerprint, response);
+      return;
+    }
+
+    Duration timeToLive = timeToLive(request);
+    ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+    try {
+      filterChain.doFilter(request, wrapper);
+      if (isKept(wrapper.getStatus()) && !timeToLive.isNegative() && !timeToLive.isZero()) {
+        stored = new StoredResponse(fingerprint, wrapper, timeToLive);
+        responses.put(key, stored);
+      }
+    } finally {
+      // Taken out of running after it is kept, so that later attempts find
+      // the one or the other
+      running.remove(key);
+      attempt.complete(stored);
+    }
+    wrapper.copyBodyToResponse();
+  }
+
+  // Errors that may go away when the request is retried aren't kept
+  private static boolean isKept(int status) {
+    return status < 500 && status != HttpStatus.UNAUTHORIZED.value() && status != HttpStatus.FORBIDDEN.value()
+        && status != HttpStatus.TOO_MANY_REQUESTS.value();
+  }
+
+  // The ttl, or less if the JWT of the request expires sooner, so that a
+  // response isn't replayed to a request its token would no longer allow.
+  // Zero if the token can't be read.
+  private Duration timeToLive(HttpServletRequest request) {
+    String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+    if (authorization == null || !authorization.startsWith("Bearer ")) {
+      return ttl;
+    }
+    try {
+      Duration untilExpiry = Duration.ofMillis(jwtUtil.extractExpiration(authorization.substring(7)).getTime()
+          - System.currentTimeMillis());
+      return untilExpiry.compareTo(ttl) < 0 ? untilExpiry : ttl;
+    } catch (JwtException | IllegalArgumentException e) {
+      return Duration.ZERO;
+    }
+  }
+
+  private void replay(StoredResponse stored, byte[] fingerprint, HttpServletResponse response) throws IOException {
+    if (!MessageDigest.isEqual(stored.fingerprint, fingerprint)) {
+      reject(response, HttpStatus.UNPROCESSABLE_ENTITY,
+          IDEMPOTENCY_KEY + " was already used for a request with a different body");
+      return;
+    }
+    replays.increment();
+    response.setStatus(stored.status);
+    stored.headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+    if (stored.contentType != null) {
+      response.setContentType(stored.contentType);
+    }
+    response.setHeader(IDEMPOTENT_REPLAYED, "true");
+    response.setContentLength(stored.body.length);
+    response.getOutputStream().write(stored.body);
+  }
+
+  private static void reject(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+    response.setStatus(status.value());
+    response.setContentType("text/plain;charset=UTF-8");
+    response.getWriter().write(message);
+  }
+
+  private static String guestCartToken(HttpServletRequest request) {
+    if (request.getCookies() != null) {
+      for (Cookie cookie : request.getCookies()) {
+        if (cookie.getName().equals(ShoppingCartController.GUEST_CART_COOKIE)) {
+          return cookie.getValue();
+        }
+      }
+    }
+    return null;
+  }
+
+  private static byte[] fingerprint(byte[] body) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(body);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // A response as it was sent to the first attempt
+  private static class StoredResponse {
+    private final byte[] fingerprint;
+    private final int status;
+    private final String contentType;
+    private final Map<String, List<String>> headers = new LinkedHashMap<>();
+    private final byte[] body;
+    private final Duration timeToLive;
+
+    StoredResponse(byte[] fingerprint, ContentCachingResponseWrapper response, Duration timeToLive) {
+      this.fingerprint = fingerprint;
+      this.timeToLive = timeToLive;
+      this.status = response.getStatus();
+      this.contentType = response.getContentType();
+      for (String name : response.getHeaderNames()) {
+        if (!name.equalsIgnoreCase(HttpHeaders.CONTENT_TYPE) && !name.equalsIgnoreCase(HttpHeaders.CONTENT_LENGTH)
+            && !name.equalsIgnoreCase(HttpHeaders.SET_COOKIE)) {
+          headers.put(name, new ArrayList<>(response.getHeaders(name)));
+        }
+      }
+      this.body = response.getContentAsByteArray();
+    }
+
+    // A rough estimate of the bytes taken up, counting two bytes per
+    // character of text
+    int size() {
+      int size = 64 + fingerprint.length + body.length;
+      for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+        size += 40 + 2 * header.getKey().length();
+        for (String value : header.getValue()) {
+          size += 40 + 2 * value.length();
+        }
+      }
+      return size;
+    }
+  }
+
+  // The request, with its body read up front so it can be fingerprinted
+  private static class CachedBodyRequest extends HttpServletRequestWrapper {
+    private final byte[] body;
+
+    CachedBodyRequest(HttpServletRequest request, byte[] body) {
+      super(request);
+      this.body = body;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+      ByteArrayInputStream input = new ByteArrayInputStream(body);
+      return new ServletInputStream() {
+        @Override
+        public int read() {
+          return input.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+          return input.read(buffer, offset, length);
+        }
+
+        @Override
+        public boolean isFinished() {
+          return input.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+          return true;
+        }
+
+        // The body is already in memory, so all of it can be read at once
+        @Override
+        public void setReadListener(ReadListener listener) {
+          try {
+            if (input.available() > 0) {
+              listener.onDataAvailable();
+            }
+            listener.onAllDataRead();
+          } catch (IOException e) {
+            listener.onError(e);
+          }
+        }
+      };
+    }
+
+    @Override
+    public BufferedReader getReader() {
+      String encoding = getCharacterEncoding();
+      return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body),
+          encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding)));
+    }
+  }
+}
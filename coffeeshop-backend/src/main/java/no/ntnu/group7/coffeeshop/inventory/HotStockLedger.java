@@ -0,0 +1,379 @@
+package no.ntnu.group7.coffeeshop.inventory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import no.ntnu.group7.coffeeshop.cache.CatalogCache;
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.model.StockLedgerEntry;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.StockLedgerRepository;
+import no.ntnu.group7.coffeeshop.services.ProductFilterService;
+
+/**
+ * Counts the stock of hot products in memory, so that checkouts of a product
+ * everyone is buying don't queue up for the lock on its row in the products
+ * table. The products are listed in coffeeshop.inventory.hot-products; with
+ * none listed, every product is counted in its row as before.
+ *
+ * The stock of each hot product that no one holds is a striped counter, taken
+ * from without locks; what StockReservations holds for carts is moved out of
+ * it into a held count, so a sale can't take stock held for someone else's
+ * cart, and only has to look at the buyer's own holds. Every change is also appended to the stock_ledger journal in the
+ * transaction that made it, and given back to the counter if that
+ * transaction rolls back. Every flush interval the journal is added to the
+ * inventory amounts of the products in the background, one short UPDATE per
+ * product, and the rows added are deleted in the same transaction. Until
+ * then the inventory amount in the products table, and what is read from it
+ * such as product lists, lags behind the counter. At startup anything left in
+ * the journal is added to the products first, so the counters start from the
+ * stock of every committed sale.
+ */
+@Component
+public class HotStockLedger {
+  private static final int STRIPES = 32;
+
+  // Journal rows added to the products per transaction
+  private static final int FLUSH_BATCH_SIZE = 1000;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private StockLedgerRepository stockLedgerRepository;
+
+  @Autowired
+  private CatalogCache catalogCache;
+
+  @Autowired
+  private ProductFilterService productFilterService;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Value("${coffeeshop.inventory.hot-products:}")
+  private List<Integer> hotProducts;
+
+  @Value("${coffeeshop.inventory.flush-interval:1s}")
+  private Duration flushInterval;
+
+  // The stock of each hot product that no one holds, and what is held
+  private final ConcurrentMap<Integer, StripedCounter> counters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Integer, AtomicLong> held = new ConcurrentHashMap<>();
+
+  // Held while flushing, so that flushes don't overlap
+  private final Object flushLock = new Object();
+
+  private ScheduledExecutorService flusher;
+
+  private final Logger logger = LoggerFactory.getLogger(HotStockLedger.class);
+
+  /**
+   * Adds what is left in the journal to the products, counts the stock of the
+   * hot products, and starts flushing the journal if there are any.
+   */
+  @PostConstruct
+  public void start() {
+    flush();
+    hotProducts.forEach(this::track);
+    if (hotProducts.isEmpty()) {
+      return;
+    }
+    flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "stock-ledger");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long millis = flushInterval.toMillis();
+    flusher.scheduleWithFixedDelay(this::flushQuietly, millis, millis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops flushing, and adds the last of the journal to the products.
+   */
+  @PreDestroy
+  public void stop() {
+    if (flusher != null) {
+      flusher.shutdown();
+    }
+    flushQuietly();
+  }
+
+  /**
+   * Starts counting the stock of a product in memory. Sales that are taking
+   * the stock from the products table meanwhile may be missed, so a product
+   * is best made hot before it is sold, or at startup.
+   *
+   * @param productId the ID of the product
+   */
+  public void track(int productId) {
+    flush();
+    productRepository.findStockByIdIn(List.of(productId)).forEach(stock -> {
+      held.putIfAbsent(productId, new AtomicLong());
+      counters.computeIfAbsent(productId, id -> new StripedCounter(STRIPES, stock.getInventoryAmount()));
+    });
+  }
+
+  /**
+   * @param productId the ID of a product
+   * @return whether the stock of the product is counted in memory
+   */
+  public boolean isHot(int productId) {
+    return counters.containsKey(productId);
+  }
+
+  /**
+   * @param productId the ID of a product
+   * @return the stock of the product, or null if it isn't hot
+   */
+  public Integer getStock(int productId) {
+    StripedCounter counter = counters.get(productId);
+    return counter == null ? null : (int) (counter.sum() + held.get(productId).get());
+  }
+
+  /**
+   * Finds the stock of those of some products that are hot.
+   *
+   * @param productIds the IDs of the products
+   * @return the stock of each hot product, by product ID
+   */
+  public Map<Integer, Integer> getStock(Collection<Integer> productIds) {
+    Map<Integer, Integer> stock = new HashMap<>();
+    for (int productId : productIds) {
+      Integer inStock = getStock(productId);
+      if (inStock != null) {
+        stock.put(productId, inStock);
+      }
+    }
+    return stock;
+  }
+
+  /**
+   * Moves stock of a hot product that no one holds to what is held for carts,
+   * as much of a quantity as there is.
+   *
+   * @param productId the ID of the product, which must be hot
+   * @param quantity  the quantity to hold
+   * @return the quantity moved, less than asked for if there wasn't enough
+   */
+  public int hold(int productId, int quantity) {
+    int moved = (int) counters.get(productId).takeUpTo(quantity);
+    held.get(productId).addAndGet(moved);
+    return moved;
+  }
+
+  /**
+   * Moves stock of a hot product that was held for a cart back to the stock
+   * no one holds.
+   *
+   * @param productId the ID of the product, which must be hot
+   * @param quantity  the quantity that was held
+   */
+  public void release(int productId, int quantity) {
+    held.get(productId).addAndGet(-quantity);
+    counters.get(productId).add(quantity);
+  }
+
+  /**
+   * Takes quantities of hot products out of their stock, if there is enough
+   * of every one of them, and appends the sales to the journal. What was
+   * claimed from the buyer's holds is taken from the held stock, and only the
+   * rest from the stock no one holds, so nothing is locked. Must be called
+   * inside a transaction; if it rolls back, the stock is given back to the
+   * stock no one holds.
+   *
+   * @param quantities the quantity to take of each product, by product ID;
+   *                   every product must be hot
+   * @param fromHolds  the quantity of each product claimed from the buyer's
+   *                   holds, at most the quantity taken, by product ID
+   * @return the stock left of each product, by product ID, or null if there
+   *         wasn't enough; then nothing was taken, and what was claimed from
+   *         the holds is back in the stock no one holds
+   */
+  public Map<Integer, Integer> take(Map<Integer, Integer> quantities, Map<Integer, Integer> fromHolds) {
+    fromHolds.forEach((productId, quantity) -> held.get(productId).addAndGet(-quantity));
+    Map<Integer, Integer> taken = new LinkedHashMap<>(fromHolds);
+    for (Map.Entry<Integer, Integer> entry : quantities.entrySet()) {
+      int unheld = entry.getValue() - fromHolds.getOrDefault(entry.getKey(), 0);
+      if (unheld > 0) {
+        if (!counters.get(entry.getKey()).tryTake(unheld)) {
+          giveBack(taken);
+          return null;
+        }
+        taken.merge(entry.getKey(), unheld, Integer::sum);
+      }
+    }
+    giveBackOnRollback(taken);
+
+    Map<Integer, Integer> stockLeft = new HashMap<>();
+    quantities.forEach((productId, quantity) -> {
+      entityManager.persist(new StockLedgerEntry(productId, -quantity));
+      int left = getStock(productId);
+      stockLeft.put(productId, left);
+      if (left == 0) {
+        productFilterService.stockChanged(productId, 0);
+      }
+    });
+    return stockLeft;
+  }
+
+  /**
+   * Sets the stock of a hot product, as counted by a person, by appending the
+   * difference to the journal. Runs in a transaction of its own, or in the
+   * caller's.
+   *
+   * @param productId the ID of the product, which must be hot
+   * @param stock     the new stock
+   */
+  public void setStock(int productId, int stock) {
+    StripedCounter counter = counters.get(productId);
+    new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+      long difference = stock - getStock(productId);
+      int delta;
+      if (difference >= 0) {
+        counter.add(difference);
+        delta = (int) difference;
+      } else {
+        // Sales meanwhile may have taken some of what is being taken away, and
+        // what is held for carts is left alone
+        delta = (int) -counter.takeUpTo(-difference);
+      }
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int completionStatus) {
+          if (completionStatus != STATUS_COMMITTED) {
+            if (delta > 0) {
+              counter.takeUpTo(delta);
+            } else {
+              counter.add(-delta);
+            }
+          }
+        }
+      });
+      entityManager.persist(new StockLedgerEntry(productId, delta));
+      productFilterService.stockChanged(productId, getStock(productId));
+    });
+  }
+
+  /**
+   * Saves a product that was read earlier. The ledger may have been written
+   * to the inventory amount of a hot product since, so a hot product is
+   * saved between flushes, with its inventory amount as it is now.
+   *
+   * @param product the product
+   * @return the saved product
+   */
+  public Product saveProduct(Product product) {
+    if (!isHot(product.getId())) {
+      return productRepository.save(product);
+    }
+    synchronized (flushLock) {
+      productRepository.findStockByIdIn(List.of(product.getId()))
+          .forEach(stock -> product.setInventoryAmount(stock.getInventoryAmount()));
+      return productRepository.save(product);
+    }
+  }
+
+  /**
+   * Adds the journal to the inventory amounts of the products, and deletes
+   * it.
+   *
+   * @return the number of journal rows added
+   */
+  public int flush() {
+    synchronized (flushLock) {
+      int flushed = 0;
+      while (true) {
+        Map<Integer, Integer> deltas = new TreeMap<>();
+        Integer rows = new TransactionTemplate(transactionManager).execute(status -> {
+          List<StockLedgerRepository.EntryView> entries = stockLedgerRepository
+              .findEntries(PageRequest.of(0, FLUSH_BATCH_SIZE));
+          if (entries.isEmpty()) {
+            return 0;
+          }
+          List<Long> ids = new ArrayList<>();
+          for (StockLedgerRepository.EntryView entry : entries) {
+            ids.add(entry.getId());
+            deltas.merge(entry.getProductId(), entry.getDelta(), Integer::sum);
+          }
+          // In product order, so that flushes and checkouts lock the rows in
+          // the same order
+          deltas.forEach((productId, delta) -> {
+            if (delta != 0) {
+              productRepository.addToStock(productId, delta);
+            }
+            catalogCache.evictProduct(productId);
+          });
+          stockLedgerRepository.deleteByIdIn(ids);
+          return entries.size();
+        });
+        if (rows == 0) {
+          return flushed;
+        }
+        flushed += rows;
+        deltas.keySet().forEach(productId -> {
+          Integer stock = getStock(productId);
+          if (stock != null) {
+            productFilterService.stockChanged(productId, stock);
+          }
+        });
+        if (rows < FLUSH_BATCH_SIZE) {
+          return flushed;
+        }
+      }
+    }
+  }
+
+  private void giveBack(Map<Integer, Integer> taken) {
+    taken.forEach((productId, quantity) -> counters.get(productId).add(quantity));
+  }
+
+  private void giveBackOnRollback(Map<Integer, Integer> taken) {
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCompletion(int status) {
+        if (status != STATUS_COMMITTED) {
+          giveBack(taken);
+        }
+      }
+    });
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      logger.warn("Could not write the stock ledger to the products", e);
+    }
+  }
+}
@@ -0,0 +1,559 @@
+package no.ntnu.group7.coffeeshop.inventory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import no.ntnu.group7.coffeeshop.model.StockHold;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.StockHoldRepository;
+import no.ntnu.group7.coffeeshop.services.TransactionHooks;
+
+/**
+ * Holds stock for the products in users' shopping carts, so that a customer
+ * who got through the cart page can't lose the items at checkout to someone
+ * who put them in their cart later. A hold lasts for the hold time after the
+ * product was last added or changed in the cart, and is released when it runs
+ * out, when the product leaves the cart, or when the cart is checked out and
+ * the hold becomes a sale.
+ *
+ * A hold never takes more than the stock no one else holds: a user who wants
+ * more gets a smaller hold, or none, and can still try to check out if the
+ * stock comes back. Checkout only sells what isn't held by other users. The
+ * holds on hot products are moved out of the HotStockLedger's stock no one
+ * holds, so their checkouts don't have to look at other users' holds.
+ *
+ * The ledger lives in memory. Holds and the total held of each product are
+ * changed under one of a fixed set of locks striped by product, so holds on
+ * different products rarely wait for each other. Expired holds are found by a
+ * timer wheel that is advanced every tick, without scanning the holds.
+ * Changed holds are written to the stock_holds journal in the background
+ * every journal interval, and the ledger is loaded from the journal at
+ * startup. Changes since the last write are lost if the process is killed,
+ * which at worst releases holds early.
+ */
+@Component
+public class StockReservations {
+  private static final int STRIPES = 64;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private StockHoldRepository stockHoldRepository;
+
+  @Autowired
+  private HotStockLedger hotStockLedger;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Value("${coffeeshop.reservation.hold-time:15m}")
+  private Duration holdTime;
+
+  @Value("${coffeeshop.reservation.tick:1s}")
+  private Duration tick;
+
+  @Value("${coffeeshop.reservation.journal-interval:1s}")
+  private Duration journalInterval;
+
+  // Holds, and the total held of each product, guarded by the lock of the
+  // product's stripe
+  private final ConcurrentMap<HoldKey, Hold> holds = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Integer, Integer> reserved = new ConcurrentHashMap<>();
+  private final Object[] locks = new Object[STRIPES];
+
+  // The products each user holds
+  private final ConcurrentMap<Long, Set<Integer>> productsByUser = new ConcurrentHashMap<>();
+
+  // Holds changed since the journal was last written
+  private final Set<HoldKey> dirty = ConcurrentHashMap.newKeySet();
+
+  // Guarded by itself
+  private TimerWheel<HoldKey> wheel;
+
+  // Held while writing the journal, so that writes don't overlap
+  private final Object journalLock = new Object();
+
+  private ScheduledExecutorService timer;
+
+  private final Logger logger = LoggerFactory.getLogger(StockReservations.class);
+
+  public StockReservations() {
+    for (int i = 0; i < STRIPES; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  /**
+   * Loads the holds from the journal, and starts releasing expired holds and
+   * writing the journal.
+   */
+  @PostConstruct
+  public void start() {
+    long now = System.currentTimeMillis();
+    int slots = (int) Math.min(holdTime.toMillis() / tick.toMillis() + 1, 1 << 16);
+    wheel = new TimerWheel<>(tick.toMillis(), slots, now);
+    load(now);
+
+    timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "stock-reservations");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long tickMillis = tick.toMillis();
+    timer.scheduleAtFixedRate(this::expireQuietly, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    long journalMillis = journalInterval.toMillis();
+    timer.scheduleWithFixedDelay(this::writeJournalQuietly, journalMillis, journalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops the background work, and writes the last changes to the journal.
+   */
+  @PreDestroy
+  public void stop() {
+    if (timer != null) {
+      timer.shutdown();
+    }
+    writeJournalQuietly();
+  }
+
+  /**
+   * Holds more of a product for a user, after the user added it to their
+   * cart, and restarts the hold time. Holds what is left if there isn't
+   * enough.
+   *
+   * @param userId    the ID of the user
+   * @param productId the ID of the product
+   * @param quantity  the quantity added to the cart
+   */
+  public void holdMore(long userId, int productId, int quantity) {
+    Map<Integer, Integer> stock = findStock(List.of(productId));
+    HoldKey key = new HoldKey(userId, productId);
+    synchronized (lockFor(productId)) {
+      Hold current = holds.get(key);
+      int held = current == null ? 0 : current.quantity;
+      setHold(key, held + quantity, stock.getOrDefault(productId, 0));
+    }
+  }
+
+  /**
+   * Sets how much of some products a user holds, after the quantities in the
+   * user's cart changed, and restarts the hold time. Holds what is left of a
+   * product if there isn't enough.
+   *
+   * @param userId     the ID of the user
+   * @param quantities the quantity in the cart of each product, by product ID;
+   *                   0 releases the hold
+   */
+  public void hold(long userId, Map<Integer, Integer> quantities) {
+    if (quantities.isEmpty()) {
+      return;
+    }
+    Map<Integer, Integer> stock = findStock(quantities.keySet());
+    quantities.forEach((productId, quantity) -> {
+      synchronized (lockFor(productId)) {
+        setHold(new HoldKey(userId, productId), quantity, stock.getOrDefault(productId, 0));
+      }
+    });
+  }
+
+  /**
+   * Releases a user's hold on a product. Inside a transaction, the hold is
+   * released once the transaction commits.
+   *
+   * @param userId    the ID of the user
+   * @param productId the ID of the product
+   */
+  public void release(long userId, int productId) {
+    TransactionHooks.runAfterCommit(() -> {
+      synchronized (lockFor(productId)) {
+        removeHold(new HoldKey(userId, productId));
+      }
+    });
+  }
+
+  /**
+   * Releases every hold of a user, after the user's cart was checked out or
+   * cleared. Inside a transaction, the holds are released once the
+   * transaction commits.
+   *
+   * @param userId the ID of the user
+   */
+  public void releaseAll(long userId) {
+    TransactionHooks.runAfterCommit(() -> removeAll(userId));
+  }
+
+  /**
+   * Releases every hold of a user as they become a sale at checkout. Inside a
+   * transaction, the holds are released just before it commits, so that a
+   * checkout that waited for the products to be unlocked never sees the stock
+   * taken while the holds are still there. If the commit then fails, the holds
+   * are lost, which at worst releases them early.
+   *
+   * @param userId the ID of the user
+   */
+  public void convert(long userId) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void beforeCommit(boolean readOnly) {
+          removeAll(userId);
+        }
+      });
+    } else {
+      removeAll(userId);
+    }
+  }
+
+  /**
+   * Takes quantities of hot products out of the HotStockLedger for a user's
+   * sale, and the user's holds on them become the sale. Only the user's own
+   * holds are claimed under their products' locks, which only touches the
+   * holds in memory; the stock is taken without locks. What other users hold
+   * isn't in the ledger's stock no one holds, so the sale can't take it. Must
+   * be called inside a transaction; if it rolls back, the stock is given back
+   * and the holds are put back, as far as the stock no one else holds allows.
+   *
+   * @param userId     the ID of the user
+   * @param quantities the quantity to take of each product, by product ID;
+   *                   every product must be hot
+   * @return the stock left of each product, by product ID, or null if there
+   *         wasn't enough of some product, and the transaction must be rolled
+   *         back
+   */
+  public Map<Integer, Integer> takeForSale(long userId, Map<Integer, Integer> quantities) {
+    Map<Integer, Integer> claimed = new HashMap<>();
+    for (Map.Entry<Integer, Integer> entry : quantities.entrySet()) {
+      int productId = entry.getKey();
+      HoldKey key = new HoldKey(userId, productId);
+      synchronized (lockFor(productId)) {
+        Hold own = forgetHold(key);
+        if (own != null) {
+          int sold = Math.min(own.quantity, entry.getValue());
+          if (own.quantity > sold) {
+            hotStockLedger.release(productId, own.quantity - sold);
+          }
+          claimed.put(productId, sold);
+        }
+      }
+    }
+
+    Map<Integer, Integer> stockLeft = hotStockLedger.take(quantities, claimed);
+    // Registered after the ledger's, so the stock is given back before it is
+    // held again
+    if (!claimed.isEmpty()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          if (status != STATUS_COMMITTED) {
+            claimed.forEach((productId, quantity) -> holdMore(userId, productId, quantity));
+          }
+        }
+      });
+    }
+    return stockLeft;
+  }
+
+  /**
+   * Releases every hold on a product, after the product was deleted.
+   *
+   * @param productId the ID of the product
+   */
+  public void releaseProduct(int productId) {
+    TransactionHooks.runAfterCommit(() -> {
+      synchronized (lockFor(productId)) {
+        for (HoldKey key : new ArrayList<>(holds.keySet())) {
+          if (key.productId == productId) {
+            removeHold(key);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * @param productId the ID of the product
+   * @return the quantity of the product held for carts
+   */
+  public int getReserved(int productId) {
+    return reserved.getOrDefault(productId, 0);
+  }
+
+  /**
+   * Finds how much of some products other users than the given one hold.
+   * Checkout must leave at least this much in stock.
+   *
+   * @param userId     the ID of the user
+   * @param productIds the IDs of the products
+   * @return the quantity held by other users, by product ID
+   */
+  public Map<Integer, Integer> getReservedByOthers(long userId, Collection<Integer> productIds) {
+    Map<Integer, Integer> others = new HashMap<>();
+    for (int productId : productIds) {
+      synchronized (lockFor(productId)) {
+        Hold own = holds.get(new HoldKey(userId, productId));
+        others.put(productId, getReserved(productId) - (own == null ? 0 : own.quantity));
+      }
+    }
+    return others;
+  }
+
+  /**
+   * Releases the holds whose hold time ran out.
+   *
+   * @param nowMillis the current time, in milliseconds
+   * @return the number of released holds
+   */
+  public int expire(long nowMillis) {
+    List<HoldKey> due;
+    synchronized (wheel) {
+      due = wheel.advance(nowMillis);
+    }
+    int released = 0;
+    for (HoldKey key : due) {
+      synchronized (lockFor(key.productId)) {
+        Hold hold = holds.get(key);
+        // The wheel still has the old due time of holds that were renewed
+        if (hold != null && hold.expiresAt <= nowMillis) {
+          removeHold(key);
+          released++;
+        }
+      }
+    }
+    return released;
+  }
+
+  /**
+   * Writes the holds changed since the last write to the journal, in one
+   * transaction per user. The holds of a user whose transaction fails are
+   * written again by the next write.
+   *
+   * @throws RuntimeException the last failure, after the other users were
+   *                          written
+   */
+  public void writeJournal() {
+    synchronized (journalLock) {
+      Map<Long, Set<Integer>> changed = new HashMap<>();
+      for (HoldKey key : new ArrayList<>(dirty)) {
+        dirty.remove(key);
+        changed.computeIfAbsent(key.userId, userId -> new HashSet<>()).add(key.productId);
+      }
+
+      TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+      RuntimeException failure = null;
+      for (Map.Entry<Long, Set<Integer>> entry : changed.entrySet()) {
+        long userId = entry.getKey();
+        Set<Integer> productIds = entry.getValue();
+        try {
+          transaction.executeWithoutResult(status -> {
+            stockHoldRepository.deleteByUserIdAndProductIdIn(userId, productIds);
+            List<StockHold> rows = new ArrayList<>();
+            for (int productId : productIds) {
+              Hold hold = holds.get(new HoldKey(userId, productId));
+              if (hold != null) {
+                rows.add(new StockHold(userId, productId, hold.quantity, new Date(hold.expiresAt)));
+              }
+            }
+            stockHoldRepository.saveAll(rows);
+          });
+        } catch (RuntimeException e) {
+          productIds.forEach(productId -> dirty.add(new HoldKey(userId, productId)));
+          failure = e;
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  // Loads the holds that haven't expired, and forgets the ones that have
+  private void load(long now) {
+    synchronized (journalLock) {
+      new TransactionTemplate(transactionManager)
+          .executeWithoutResult(status -> stockHoldRepository.deleteExpired(new Date(now)));
+      for (StockHold row : stockHoldRepository.findAll()) {
+        HoldKey key = new HoldKey(row.getUserId(), row.getProductId());
+        long expiresAt = row.getExpiresAt().getTime();
+        int quantity = hotStockLedger.isHot(row.getProductId())
+            ? hotStockLedger.hold(row.getProductId(), row.getQuantity())
+            : row.getQuantity();
+        if (quantity == 0) {
+          continue;
+        }
+        holds.put(key, new Hold(quantity, expiresAt));
+        reserved.merge(row.getProductId(), quantity, Integer::sum);
+        addProductOf(key);
+        wheel.schedule(key, expiresAt);
+      }
+      logger.info("Loaded " + holds.size() + " stock holds");
+    }
+  }
+
+  // Sets a hold to the quantity, or to what is left of the stock if that is
+  // less. The caller holds the lock of the product.
+  private void setHold(HoldKey key, int quantity, int inStock) {
+    Hold current = holds.get(key);
+    int held = current == null ? 0 : current.quantity;
+    int quantityHeld;
+    if (hotStockLedger.isHot(key.productId)) {
+      // The ledger counts what is held apart, so the difference is moved
+      quantityHeld = Math.max(0, quantity);
+      if (quantityHeld > held) {
+        quantityHeld = held + hotStockLedger.hold(key.productId, quantityHeld - held);
+      } else if (quantityHeld < held && quantityHeld > 0) {
+        hotStockLedger.release(key.productId, held - quantityHeld);
+      }
+    } else {
+      int heldByOthers = getReserved(key.productId) - held;
+      quantityHeld = Math.max(0, Math.min(quantity, inStock - heldByOthers));
+    }
+    if (quantityHeld == 0) {
+      removeHold(key);
+      return;
+    }
+
+    long expiresAt = System.currentTimeMillis() + holdTime.toMillis();
+    holds.put(key, new Hold(quantityHeld, expiresAt));
+    reserved.merge(key.productId, quantityHeld - held, Integer::sum);
+    addProductOf(key);
+    dirty.add(key);
+    synchronized (wheel) {
+      wheel.schedule(key, expiresAt);
+    }
+  }
+
+  // The caller holds the lock of the product
+  private void removeHold(HoldKey key) {
+    Hold removed = forgetHold(key);
+    if (removed != null && hotStockLedger.isHot(key.productId)) {
+      hotStockLedger.release(key.productId, removed.quantity);
+    }
+  }
+
+  // Removes a hold without giving its stock back to the HotStockLedger, as
+  // it is sold. The caller holds the lock of the product.
+  private Hold forgetHold(HoldKey key) {
+    Hold removed = holds.remove(key);
+    if (removed != null) {
+      reserved.computeIfPresent(key.productId, (id, total) -> total == removed.quantity ? null
+          : total - removed.quantity);
+      productsByUser.computeIfPresent(key.userId, (userId, productIds) -> {
+        productIds.remove(key.productId);
+        return productIds.isEmpty() ? null : productIds;
+      });
+      dirty.add(key);
+    }
+    return removed;
+  }
+
+  private void removeAll(long userId) {
+    Set<Integer> productIds = productsByUser.get(userId);
+    if (productIds == null) {
+      return;
+    }
+    for (int productId : new ArrayList<>(productIds)) {
+      synchronized (lockFor(productId)) {
+        removeHold(new HoldKey(userId, productId));
+      }
+    }
+  }
+
+  private void addProductOf(HoldKey key) {
+    productsByUser.compute(key.userId, (userId, productIds) -> {
+      Set<Integer> held = productIds == null ? ConcurrentHashMap.newKeySet() : productIds;
+      held.add(key.productId);
+      return held;
+    });
+  }
+
+  private Map<Integer, Integer> findStock(Collection<Integer> productIds) {
+    Map<Integer, Integer> stock = new HashMap<>();
+    productRepository.findStockByIdIn(productIds)
+        .forEach(product -> stock.put(product.getId(), product.getInventoryAmount()));
+    stock.putAll(hotStockLedger.getStock(stock.keySet()));
+    return stock;
+  }
+
+  private Object lockFor(int productId) {
+    return locks[Integer.hashCode(productId) & (STRIPES - 1)];
+  }
+
+  private void expireQuietly() {
+    try {
+      expire(System.currentTimeMillis());
+    } catch (RuntimeException e) {
+      logger.warn("Could not release expired stock holds", e);
+    }
+  }
+
+  private void writeJournalQuietly() {
+    try {
+      writeJournal();
+    } catch (RuntimeException e) {
+      logger.warn("Could not write the stock hold journal", e);
+    }
+  }
+
+  // A user's hold on a product
+  private static class HoldKey {
+    private final long userId;
+    private final int productId;
+
+    HoldKey(long userId, int productId) {
+      this.userId = userId;
+      this.productId = productId;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof HoldKey)) {
+        return false;
+      }
+      HoldKey key = (HoldKey) other;
+      return userId == key.userId && productId == key.productId;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(userId, productId);
+    }
+  }
+
+  // A quantity held until a time in milliseconds. Never changed; changes
+  // replace it.
+  private static class Hold {
+    private final int quantity;
+    private final long expiresAt;
+
+    Hold(int quantity, long expiresAt) {
+      this.quantity = quantity;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package no.ntnu.group7.coffeeshop.inventory;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A count that never goes below zero, spread over a number of stripes that
+ * are changed with compare-and-set, so that threads taking from it at the
+ * same time mostly touch different cache lines and never block each other.
+ * A thread takes from its own stripe when it has enough, and otherwise
+ * gathers what it needs from the others, giving it all back if there isn't
+ * enough in total.
+ *
+ * The sum read while others are taking is a moment's view of each stripe, and
+ * may miss stock that a failed take is giving back.
+ */
+final class StripedCounter {
+  // Longs in a 64 byte cache line; only the first of each is used
+  private static final int PADDING = 8;
+
+  private final int stripes;
+  private final AtomicLongArray cells;
+
+  /**
+   * @param stripes the number of stripes, a power of two
+   * @param value   the starting count, spread evenly over the stripes
+   */
+  StripedCounter(int stripes, long value) {
+    if (Integer.bitCount(stripes) != 1) {
+      throw new IllegalArgumentException("The number of stripes must be a power of two");
+    }
+    this.stripes = stripes;
+    this.cells = new AtomicLongArray(stripes * PADDING);
+    for (int stripe = 0; stripe < stripes; stripe++) {
+      cells.set(stripe * PADDING, value / stripes + (stripe < value % stripes ? 1 : 0));
+    }
+  }
+
+  /**
+   * Takes an amount from the count, if there is that much.
+   *
+   * @param amount the amount, at least 1
+   * @return true if it was taken
+   */
+  boolean tryTake(long amount) {
+    int home = home();
+    while (true) {
+      if (takeAll(home, amount)) {
+        return true;
+      }
+
+      long[] taken = new long[stripes];
+      long needed = amount;
+      for (int i = 0; i < stripes && needed > 0; i++) {
+        int stripe = (home + i) & (stripes - 1);
+        taken[stripe] = take(stripe, needed);
+        needed -= taken[stripe];
+      }
+      if (needed == 0) {
+        return true;
+      }
+      // Put everything back where it came from, so that a sum read meanwhile
+      // never counts it twice
+      for (int stripe = 0; stripe < stripes; stripe++) {
+        if (taken[stripe] > 0) {
+          cells.addAndGet(stripe * PADDING, taken[stripe]);
+        }
+      }
+      // Others gathering at the same time may have held some of it; only
+      // give up once there isn't enough in total
+      if (sum() < amount) {
+        return false;
+      }
+      Thread.onSpinWait();
+    }
+  }
+
+  /**
+   * Takes up to an amount from the count.
+   *
+   * @param amount the most to take
+   * @return the amount taken, less than asked for if there wasn't enough
+   */
+  long takeUpTo(long amount) {
+    int home = home();
+    long needed = amount;
+    for (int i = 0; i < stripes && needed > 0; i++) {
+      needed -= take((home + i) & (stripes - 1), needed);
+    }
+    return amount - needed;
+  }
+
+  /**
+   * Adds an amount to the count.
+   *
+   * @param amount the amount, at least 0
+   */
+  void add(long amount) {
+    cells.addAndGet(home() * PADDING, amount);
+  }
+
+  /**
+   * @return the count
+   */
+  long sum() {
+    long sum = 0;
+    for (int stripe = 0; stripe < stripes; stripe++) {
+      sum += cells.get(stripe * PADDING);
+    }
+    return sum;
+  }
+
+  // Takes an amount from a stripe, if it has that much
+  private boolean takeAll(int stripe, long amount) {
+    int index = stripe * PADDING;
+    while (true) {
+      long value = cells.get(index);
+      if (value < amount) {
+        return false;
+      }
+      if (cells.compareAndSet(index, value, value - amount)) {
+        return true;
+      }
+    }
+  }
+
+  // Takes as much of an amount as a stripe has
+  private long take(int stripe, long amount) {
+    int index = stripe * PADDING;
+    while (true) {
+      long value = cells.get(index);
+      if (value <= 0) {
+        return 0;
+      }
+      long taken = Math.min(value, amount);
+      if (cells.compareAndSet(index, value, value - taken)) {
+        return taken;
+      }
+    }
+  }
+
+  // The stripe of the current thread
+  private int home() {
+    long id = Thread.currentThread().getId();
+    return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (stripes - 1);
+  }
+}
@@ -0,0 +1,75 @@
+package no.ntnu.group7.coffeeshop.inventory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A hashed timer wheel. Time is cut into ticks, and a key is put in the slot
+ * of the tick it is due in. Advancing the wheel only looks at the slots of the
+ * ticks that passed, so finding what is due doesn't depend on how many keys
+ * are waiting. Keys due more than a turn of the wheel ahead stay in their slot
+ * until the wheel comes round to their tick.
+ *
+ * Scheduling a key again doesn't remove it from its old slot; the caller
+ * checks whether a key handed back is really due. Not thread safe.
+ */
+class TimerWheel<K> {
+  private final long tickMillis;
+  private final List<Map<K, Long>> slots = new ArrayList<>();
+
+  // The first tick that hasn't been advanced past
+  private long nextTick;
+
+  /**
+   * @param tickMillis the length of a tick, in milliseconds
+   * @param slotCount  the number of slots, best chosen so that a turn of the
+   *                   wheel is at least as long as the longest delay
+   * @param nowMillis  the current time, in milliseconds
+   */
+  TimerWheel(long tickMillis, int slotCount, long nowMillis) {
+    this.tickMillis = tickMillis;
+    for (int i = 0; i < slotCount; i++) {
+      slots.add(new HashMap<>());
+    }
+    nextTick = nowMillis / tickMillis;
+  }
+
+  /**
+   * Schedules a key. It is handed back by the first advance at or after the
+   * end of the tick it is due in.
+   *
+   * @param key       the key
+   * @param dueMillis when the key is due, in milliseconds
+   */
+  void schedule(K key, long dueMillis) {
+    long tick = Math.max(dueMillis / tickMillis, nextTick);
+    slots.get((int) (tick % slots.size())).put(key, tick);
+  }
+
+  /**
+   * Advances the wheel to the current time.
+   *
+   * @param nowMillis the current time, in milliseconds
+   * @return the keys due in the ticks that passed
+   */
+  List<K> advance(long nowMillis) {
+    List<K> due = new ArrayList<>();
+    long lastTick = nowMillis / tickMillis - 1;
+    long turns = Math.min(lastTick - nextTick + 1, slots.size());
+    for (long tick = nextTick; tick < nextTick + turns; tick++) {
+      Iterator<Map.Entry<K, Long>> entries = slots.get((int) (tick % slots.size())).entrySet().iterator();
+      while (entries.hasNext()) {
+        Map.Entry<K, Long> entry = entries.next();
+        if (entry.getValue() <= lastTick) {
+          due.add(entry.getKey());
+          entries.remove();
+        }
+      }
+    }
+    nextTick = Math.max(nextTick, lastTick + 1);
+    return due;
+  }
+}
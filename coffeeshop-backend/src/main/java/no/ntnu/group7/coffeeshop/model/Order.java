@@ -26,6 +26,7 @@ import jakarta.persistence.Table;
 import jakarta.persistence.Temporal;
 import jakarta.persistence.TemporalType;
 import jakarta.persistence.JoinColumn;
+import jakarta.persistence.SequenceGenerator;
 
 /**
  * Represents the order of a customer, with a set of orderProducts to keep track
@@ -36,8 +37,11 @@ import jakarta.persistence.JoinColumn;
 @Table(name = "orders")
 @Schema(description = "Represents an order placed by user")
 public class Order {
+  // IDs are allocated by the application in blocks of 50, instead of by the
+  // database on insert, so that inserts can be batched
   @Id
-  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_ids")
+  @SequenceGenerator(name = "order_ids", sequenceName = "orders_seq", allocationSize = 50)
   @Schema(description = "Unique ID")
   private long id;
 
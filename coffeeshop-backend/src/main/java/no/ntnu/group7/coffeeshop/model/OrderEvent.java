@@ -0,0 +1,180 @@
+package no.ntnu.group7.coffeeshop.model;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.persistence.Temporal;
+import jakarta.persistence.TemporalType;
+
+/**
+ * Something that happened to an order, waiting in the outbox to be handed to
+ * the subscribers by OrderOutbox. It is written in the transaction that
+ * changed the order, so there is an event for every committed change and for
+ * nothing else, and deleted once it has been delivered. An event that keeps
+ * failing is tried again later and later, and is parked once it has failed
+ * for too long, staying in the table until someone looks at it.
+ * The order and user are plain IDs, so an event can outlive its order.
+ */
+@Entity
+@Table(name = "order_events", indexes = @Index(name = "idx_order_events_order", columnList = "order_id"))
+@Schema(description = "Represents a change to an order, for subscribers to order events")
+public class OrderEvent {
+  // IDs come from one sequence in the order the events are written, which is
+  // the order they are delivered in
+  @Id
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_event_ids")
+  @SequenceGenerator(name = "order_event_ids", sequenceName = "order_events_seq", allocationSize = 50)
+  @Schema(description = "Unique ID, for telling redeliveries apart")
+  private long id;
+
+  @Enumerated(EnumType.STRING)
+  @Column(name = "event_type", nullable = false)
+  @Schema(description = "What happened to the order")
+  private Type type;
+
+  @Column(name = "order_id", nullable = false)
+  @Schema(description = "The ID of the order")
+  private long orderId;
+
+  @Column(name = "user_id", nullable = false)
+  @Schema(description = "The ID of the user who placed the order")
+  private long userId;
+
+  @Enumerated(EnumType.STRING)
+  @Column(name = "order_status", nullable = false)
+  @Schema(description = "Status of the order after the change")
+  private Order.OrderStatus orderStatus;
+
+  @Column(nullable = false)
+  @Schema(description = "Total cost of the order")
+  private BigDecimal total;
+
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "created_at", nullable = false)
+  @Schema(description = "When the change was made")
+  private Date createdAt;
+
+  @Column(nullable = false)
+  @Schema(description = "How many times a subscriber failed the event")
+  private int attempts;
+
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "next_attempt_at", nullable = false)
+  @Schema(description = "When the event is delivered next")
+  private Date nextAttemptAt;
+
+  @Column(nullable = false)
+  @Schema(description = "Whether the event failed for too long, and is no longer delivered")
+  private boolean parked;
+
+  /**
+   * What happened to an order
+   */
+  public enum Type {
+    PLACED,
+    STATUS_CHANGED
+  }
+
+  /**
+   * Empty constructor needed for JPA
+   */
+  public OrderEvent() {
+  }
+
+  /**
+   * Constructs a new OrderEvent for an order as it is now.
+   *
+   * @param type  What happened to the order.
+   * @param order The order.
+   */
+  public OrderEvent(Type type, Order order) {
+    this.type = type;
+    this.orderId = order.getId();
+    this.userId = order.getUser().getId();
+    this.orderStatus = order.getOrderStatus();
+    this.total = order.getTotal();
+    this.createdAt = new Date();
+    this.nextAttemptAt = createdAt;
+  }
+
+  /**
+   * @return the id
+   */
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * @return the type
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * @return the orderId
+   */
+  public long getOrderId() {
+    return orderId;
+  }
+
+  /**
+   * @return the userId
+   */
+  public long getUserId() {
+    return userId;
+  }
+
+  /**
+   * @return the orderStatus
+   */
+  public Order.OrderStatus getOrderStatus() {
+    return orderStatus;
+  }
+
+  /**
+   * @return the total
+   */
+  public BigDecimal getTotal() {
+    return total;
+  }
+
+  /**
+   * @return the createdAt
+   */
+  public Date getCreatedAt() {
+    return createdAt;
+  }
+
+  /**
+   * @return the attempts
+   */
+  public int getAttempts() {
+    return attempts;
+  }
+
+  /**
+   * @return the nextAttemptAt
+   */
+  public Date getNextAttemptAt() {
+    return nextAttemptAt;
+  }
+
+  /**
+   * @return the parked
+   */
+  public boolean isParked() {
+    return parked;
+  }
+}
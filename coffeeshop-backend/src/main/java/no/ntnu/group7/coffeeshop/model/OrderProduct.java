@@ -1,5 +1,7 @@
 package no.ntnu.group7.coffeeshop.model;
 
+import java.math.BigDecimal;
+
 import com.fasterxml.jackson.annotation.JsonBackReference;
 import com.fasterxml.jackson.annotation.JsonIdentityInfo;
 import com.fasterxml.jackson.annotation.ObjectIdGenerators;
@@ -7,11 +9,13 @@ import com.fasterxml.jackson.annotation.ObjectIdGenerators;
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 
 /**
@@ -19,14 +23,21 @@ import jakarta.persistence.Table;
  * the relationship between an order and a product, including the price and
  * quantity of the product in the order. It is mapped to the "order_product"
  * table in the database.
+ *
+ * The name and unit price of the product are copied onto the line when the
+ * order is placed, so the order shows what was bought and at what price even
+ * after the product changes, and reading an order doesn't need the product.
  */
 @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
 @Entity
 @Table(name = "order_product")
 @Schema(description = "Represents an OrderProduct")
 public class OrderProduct {
+  // Allocated in blocks like the IDs of orders, so that the lines of an order
+  // are inserted in one batch
   @Id
-  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_product_ids")
+  @SequenceGenerator(name = "order_product_ids", sequenceName = "order_product_seq", allocationSize = 50)
   @Schema(description = "Unique ID")
   private long id;
 
@@ -36,12 +47,20 @@ public class OrderProduct {
   @Schema(description = "Which order the OrderProduct belongs to")
   private Order order;
 
-  @ManyToOne
+  @ManyToOne(fetch = FetchType.LAZY)
   @JsonBackReference("product-orderProduct")
   @JoinColumn(name = "product_id", nullable = false)
   @Schema(description = "Which product the OrderProduct represents")
   private Product product;
 
+  @Column(name = "product_name")
+  @Schema(description = "Name of the product when it was ordered")
+  private String productName;
+
+  @Column(name = "unit_price")
+  @Schema(description = "Price of one unit of the product when it was ordered")
+  private BigDecimal unitPrice;
+
   @Column(nullable = false)
   @Schema(description = "Quantity of the product")
   private int quantity;
@@ -61,8 +80,24 @@ public class OrderProduct {
    * @param quantity The quantity of the product in the order.
    */
   public OrderProduct(Order order, Product product, int quantity) {
+    this(order, product, product.getName(), product.getPrice(), quantity);
+  }
+
+  /**
+   * Constructs a new OrderProduct with the name and unit price the product
+   * was ordered at, without reading them from the product.
+   *
+   * @param order       The order associated with this order product.
+   * @param product     The product associated with this order product.
+   * @param productName The name of the product.
+   * @param unitPrice   The price of one unit of the product.
+   * @param quantity    The quantity of the product in the order.
+   */
+  public OrderProduct(Order order, Product product, String productName, BigDecimal unitPrice, int quantity) {
     this.order = order;
     this.product = product;
+    this.productName = productName;
+    this.unitPrice = unitPrice;
     this.quantity = quantity;
   }
 
@@ -108,6 +143,34 @@ public class OrderProduct {
     this.product = product;
   }
 
+  /**
+   * @return the name of the product when it was ordered
+   */
+  public String getProductName() {
+    return productName;
+  }
+
+  /**
+   * @param productName the productName to set
+   */
+  public void setProductName(String productName) {
+    this.productName = productName;
+  }
+
+  /**
+   * @return the price of one unit of the product when it was ordered
+   */
+  public BigDecimal getUnitPrice() {
+    return unitPrice;
+  }
+
+  /**
+   * @param unitPrice the unitPrice to set
+   */
+  public void setUnitPrice(BigDecimal unitPrice) {
+    this.unitPrice = unitPrice;
+  }
+
   /**
    * @return the quantity
    */
@@ -16,6 +16,7 @@ import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.JoinTable;
 import jakarta.persistence.ManyToMany;
@@ -33,7 +34,10 @@ import jakarta.persistence.Table;
  */
 @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
 @Entity
-@Table(name = "products")
+@Table(name = "products", indexes = {
+    @Index(name = "idx_products_name_id", columnList = "name, id"),
+    @Index(name = "idx_products_price_id", columnList = "price, id")
+})
 @Schema(description = "Represents a product in the coffeeshop")
 public class Product {
   @Id
@@ -61,6 +65,37 @@ public class Product {
   @Schema(description = "How much of this product is in stock")
   private int inventoryAmount;
 
+  // The review aggregates are only written by ReviewService, with single
+  // UPDATE statements, so saving a product never overwrites them with stale
+  // values.
+  @Column(nullable = false, updatable = false)
+  @Schema(description = "Number of reviews this product has")
+  private int ratingCount;
+
+  @Column(nullable = false, updatable = false)
+  @Schema(description = "Sum of the ratings of this product's reviews")
+  private long ratingSum;
+
+  @Column(nullable = false, updatable = false)
+  @Schema(description = "Number of 1-star reviews")
+  private int oneStarCount;
+
+  @Column(nullable = false, updatable = false)
+  @Schema(description = "Number of 2-star reviews")
+  private int twoStarCount;
+
+  @Column(nullable = false, updatable = false)
+  @Schema(description = "Number of 3-star reviews")
+  private int threeStarCount;
+
+  @Column(nullable = false, updatable = false)
+  @Schema(description = "Number of 4-star reviews")
+  private int fourStarCount;
+
+  @Column(nullable = false, updatable = false)
+  @Schema(description = "Number of 5-star reviews")
+  private int fiveStarCount;
+
   @ManyToMany(fetch = FetchType.EAGER)
   @JoinTable(name = "product_categories", joinColumns = @JoinColumn(name = "product_id"), inverseJoinColumns = @JoinColumn(name = "category_id"))
   @JsonManagedReference("product-category")
@@ -190,6 +225,27 @@ public class Product {
     this.inventoryAmount = inventoryAmount;
   }
 
+  /**
+   * @return the number of reviews
+   */
+  public int getRatingCount() {
+    return ratingCount;
+  }
+
+  /**
+   * @return the sum of the review ratings
+   */
+  public long getRatingSum() {
+    return ratingSum;
+  }
+
+  /**
+   * @return the number of reviews with each rating, from 1 to 5 stars
+   */
+  public int[] getRatingHistogram() {
+    return new int[] { oneStarCount, twoStarCount, threeStarCount, fourStarCount, fiveStarCount };
+  }
+
   /**
    * @return the categories
    */
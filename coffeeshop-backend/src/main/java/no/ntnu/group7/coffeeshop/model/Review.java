@@ -11,19 +11,26 @@ import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 
 @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
 @Entity
-@Table(name = "reviews")
+@Table(name = "reviews", indexes = {
+    @Index(name = "idx_reviews_product_id", columnList = "product_id, id"),
+    @Index(name = "idx_reviews_product_rating_id", columnList = "product_id, rating, id")
+})
 @Schema(description = "Represents a review of a product")
 public class Review {
+  // Allocated in blocks by the application, not by the database
   @Id
-  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "review_ids")
+  @SequenceGenerator(name = "review_ids", sequenceName = "reviews_seq", allocationSize = 50)
   @Schema(description = "Unique ID")
   private int id;
 
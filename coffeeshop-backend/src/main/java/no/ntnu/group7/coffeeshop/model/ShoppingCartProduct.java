@@ -1,5 +1,7 @@
 package no.ntnu.group7.coffeeshop.model;
 
+import java.util.Date;
+
 import com.fasterxml.jackson.annotation.JsonBackReference;
 import com.fasterxml.jackson.annotation.JsonIdentityInfo;
 import com.fasterxml.jackson.annotation.ObjectIdGenerators;
@@ -10,19 +12,30 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
+import jakarta.persistence.Temporal;
+import jakarta.persistence.TemporalType;
+import jakarta.persistence.UniqueConstraint;
 
 /**
  * Represents a product added to a customer's shopping cart. This class is
  * responsible for storing the relationship between a user, a product, and the
  * quantity of that product in the user's shopping cart. It is mapped tothe
- * "shopping_cart" table in the database.
+ * "shopping_cart" table in the database. A product appears at most once in a
+ * user's cart, which a unique constraint enforces. Rows are touched when the
+ * cart changes, so carts whose rows haven't been touched for a long time can
+ * be found by the index on last_touched and swept away.
  */
 @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
 @Entity
-@Table(name = "shopping_cart")
+@Table(name = "shopping_cart", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_shopping_cart_user_product", columnNames = { "user_id", "product_id" })
+}, indexes = {
+    @Index(name = "idx_shopping_cart_last_touched", columnList = "last_touched")
+})
 @Schema(description = "Represents a product in a shoppingcart")
 public class ShoppingCartProduct {
   @Id
@@ -45,6 +58,13 @@ public class ShoppingCartProduct {
   @Schema(description = "Quantity of the product")
   private int quantity;
 
+  // Nullable, since rows from before the column existed have no value; the
+  // cart sweeper fills it in
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "last_touched")
+  @Schema(description = "When the cart this product is in last changed")
+  private Date lastTouched;
+
   /**
    * Empty constructor needed for JPA
    */
@@ -63,6 +83,7 @@ public class ShoppingCartProduct {
     this.user = user;
     this.product = product;
     this.quantity = quantity;
+    this.lastTouched = new Date();
   }
 
   /**
@@ -121,4 +142,18 @@ public class ShoppingCartProduct {
     this.quantity = quantity;
   }
 
+  /**
+   * @return when the cart last changed
+   */
+  public Date getLastTouched() {
+    return lastTouched;
+  }
+
+  /**
+   * @param lastTouched when the cart last changed
+   */
+  public void setLastTouched(Date lastTouched) {
+    this.lastTouched = lastTouched;
+  }
+
 }
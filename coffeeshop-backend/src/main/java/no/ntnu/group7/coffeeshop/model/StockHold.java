@@ -0,0 +1,110 @@
+package no.ntnu.group7.coffeeshop.model;
+
+import java.util.Date;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.persistence.Temporal;
+import jakarta.persistence.TemporalType;
+import jakarta.persistence.UniqueConstraint;
+
+/**
+ * A hold a user has on some of the stock of a product, while the product is in
+ * the user's shopping cart. The holds are kept in memory by StockReservations;
+ * this is the journal they are written to, so that they survive a restart.
+ * There is one row per live hold, and rows are deleted when their hold is
+ * released. The user and product are plain IDs, so the journal never stands in
+ * the way of deleting either.
+ */
+@Entity
+@Table(name = "stock_holds", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_stock_holds_user_product", columnNames = { "user_id", "product_id" })
+})
+@Schema(description = "Represents a hold on the stock of a product")
+public class StockHold {
+  // Allocated in blocks, so that the journal is written in batches
+  @Id
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "stock_hold_ids")
+  @SequenceGenerator(name = "stock_hold_ids", sequenceName = "stock_holds_seq", allocationSize = 50)
+  @Schema(description = "Unique ID")
+  private long id;
+
+  @Column(name = "user_id", nullable = false)
+  @Schema(description = "The ID of the user holding the stock")
+  private long userId;
+
+  @Column(name = "product_id", nullable = false)
+  @Schema(description = "The ID of the product held")
+  private int productId;
+
+  @Column(nullable = false)
+  @Schema(description = "Quantity held")
+  private int quantity;
+
+  @Temporal(TemporalType.TIMESTAMP)
+  @Column(name = "expires_at", nullable = false)
+  @Schema(description = "When the hold is released")
+  private Date expiresAt;
+
+  /**
+   * Empty constructor needed for JPA
+   */
+  public StockHold() {
+  }
+
+  /**
+   * Constructs a new StockHold.
+   *
+   * @param userId    The ID of the user holding the stock.
+   * @param productId The ID of the product held.
+   * @param quantity  The quantity held.
+   * @param expiresAt When the hold is released.
+   */
+  public StockHold(long userId, int productId, int quantity, Date expiresAt) {
+    this.userId = userId;
+    this.productId = productId;
+    this.quantity = quantity;
+    this.expiresAt = expiresAt;
+  }
+
+  /**
+   * @return the id
+   */
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * @return the userId
+   */
+  public long getUserId() {
+    return userId;
+  }
+
+  /**
+   * @return the productId
+   */
+  public int getProductId() {
+    return productId;
+  }
+
+  /**
+   * @return the quantity
+   */
+  public int getQuantity() {
+    return quantity;
+  }
+
+  /**
+   * @return the expiresAt
+   */
+  public Date getExpiresAt() {
+    return expiresAt;
+  }
+}
@@ -0,0 +1,77 @@
+package no.ntnu.group7.coffeeshop.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+
+/**
+ * A change to the stock of a hot product that hasn't been added to the
+ * product's inventory amount yet. The stock of hot products is counted in
+ * memory by HotStockLedger; every change is appended here in the transaction
+ * that made it, and rows are deleted once they have been added to the
+ * product. The product is a plain ID, so the ledger never stands in the way
+ * of deleting it.
+ */
+@Entity
+@Table(name = "stock_ledger")
+@Schema(description = "Represents a change to the stock of a product that is yet to be written to it")
+public class StockLedgerEntry {
+  // Checkouts append a row each, so IDs are handed out in blocks rather than
+  // fetched one at a time
+  @Id
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "stock_ledger_ids")
+  @SequenceGenerator(name = "stock_ledger_ids", sequenceName = "stock_ledger_seq", allocationSize = 50)
+  @Schema(description = "Unique ID")
+  private long id;
+
+  @Column(name = "product_id", nullable = false)
+  @Schema(description = "The ID of the product")
+  private int productId;
+
+  @Column(nullable = false)
+  @Schema(description = "The change to the stock; negative when stock was taken")
+  private int delta;
+
+  /**
+   * Empty constructor needed for JPA
+   */
+  public StockLedgerEntry() {
+  }
+
+  /**
+   * Constructs a new StockLedgerEntry.
+   *
+   * @param productId The ID of the product.
+   * @param delta     The change to the stock.
+   */
+  public StockLedgerEntry(int productId, int delta) {
+    this.productId = productId;
+    this.delta = delta;
+  }
+
+  /**
+   * @return the id
+   */
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * @return the productId
+   */
+  public int getProductId() {
+    return productId;
+  }
+
+  /**
+   * @return the delta
+   */
+  public int getDelta() {
+    return delta;
+  }
+}
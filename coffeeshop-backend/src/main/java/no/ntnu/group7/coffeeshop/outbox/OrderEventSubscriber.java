@@ -0,0 +1,27 @@
+package no.ntnu.group7.coffeeshop.outbox;
+
+import no.ntnu.group7.coffeeshop.model.OrderEvent;
+
+/**
+ * Something in the application that is told about changes to orders, such as
+ * a webhook sender, analytics or notifications. Every bean implementing it is
+ * handed the events by OrderOutbox, on its relay thread, once the change is
+ * committed.
+ *
+ * Delivery is at least once: an event is delivered again, to every
+ * subscriber, if any of them throws, so handling an event twice must do no
+ * harm; the event ID tells redeliveries apart. The events of an order are
+ * delivered in the order they happened, and a later event of an order isn't
+ * delivered until the earlier ones have been.
+ */
+public interface OrderEventSubscriber {
+
+  /**
+   * Handles a change to an order.
+   *
+   * @param event the change
+   * @throws RuntimeException if the event couldn't be handled, and must be
+   *                          delivered again later
+   */
+  void onEvent(OrderEvent event);
+}
@@ -0,0 +1,260 @@
+package no.ntnu.group7.coffeeshop.outbox;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.Transactional;
+import no.ntnu.group7.coffeeshop.model.Order;
+import no.ntnu.group7.coffeeshop.model.OrderEvent;
+import no.ntnu.group7.coffeeshop.repositories.OrderEventRepository;
+
+/**
+ * The outbox of order events. Changes to orders add an event to the
+ * order_events table in their own transaction, so an event is written if and
+ * only if the change is committed, and whoever is interested is told without
+ * polling the orders table or holding up the request that made the change.
+ *
+ * Every poll interval a relay thread reads the oldest events in batches,
+ * hands each to every OrderEventSubscriber, and deletes the ones delivered.
+ * If a subscriber throws, the event stays in the outbox to be delivered again
+ * on a later poll, and so do the later events of the same order, so an
+ * order's events are always delivered in order; other orders carry on, also
+ * when a whole batch is held back. A failed event is tried again after the
+ * retry backoff, doubled after every failure up to the max retry backoff, so
+ * a subscriber that is down isn't called at every poll. An event still
+ * failing park-after after it was written is parked: it stays in the table,
+ * with the later events of its order, but isn't delivered again until
+ * someone clears its parked flag.
+ * Events are delivered at least once: a subscriber may see an event again
+ * after another subscriber failed it, or after a crash between delivering and
+ * deleting it.
+ *
+ * The time from an event being written to it being delivered, the age of the
+ * oldest event waiting, the failed deliveries and the parked events are
+ * published as the outbox.delivery.lag, outbox.oldest.age,
+ * outbox.delivery.failures and outbox.parked metrics.
+ */
+@Component
+public class OrderOutbox {
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Autowired
+  private OrderEventRepository orderEventRepository;
+
+  @Autowired
+  private List<OrderEventSubscriber> subscribers;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${coffeeshop.outbox.poll-interval:500ms}")
+  private Duration pollInterval;
+
+  @Value("${coffeeshop.outbox.batch-size:100}")
+  private int batchSize;
+
+  @Value("${coffeeshop.outbox.retry-backoff:1s}")
+  private Duration retryBackoff;
+
+  @Value("${coffeeshop.outbox.max-retry-backoff:5m}")
+  private Duration maxRetryBackoff;
+
+  @Value("${coffeeshop.outbox.park-after:24h}")
+  private Duration parkAfter;
+
+  private Timer deliveryLag;
+  private Counter failures;
+  private Counter parked;
+
+  // When the oldest event waiting was written, as of the last poll; 0 if none
+  private final AtomicLong oldestWaiting = new AtomicLong();
+
+  // Held while relaying, so that an event isn't delivered by two polls at once
+  private final Object relayLock = new Object();
+
+  private ScheduledExecutorService relay;
+
+  private final Logger logger = LoggerFactory.getLogger(OrderOutbox.class);
+
+  /**
+   * Registers the metrics, and starts relaying events.
+   */
+  @PostConstruct
+  public void start() {
+    deliveryLag = Timer.builder("outbox.delivery.lag")
+        .description("Time from an order event being written to it being delivered")
+        .register(meterRegistry);
+    failures = Counter.builder("outbox.delivery.failures")
+        .description("Order event deliveries a subscriber failed, to be tried again")
+        .register(meterRegistry);
+    parked = Counter.builder("outbox.parked")
+        .description("Order events parked after failing for park-after")
+        .register(meterRegistry);
+    Gauge.builder("outbox.oldest.age", oldestWaiting, oldest -> oldest.get() == 0 ? 0
+        : Math.max(0, System.currentTimeMillis() - oldest.get()) / 1000.0)
+        .description("Age in seconds of the oldest order event waiting to be delivered")
+        .baseUnit("seconds")
+        .register(meterRegistry);
+
+    relay = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "order-outbox");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long millis = pollInterval.toMillis();
+    relay.scheduleWithFixedDelay(this::relayQuietly, millis, millis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops relaying events. Events not yet delivered stay in the outbox.
+   */
+  @PreDestroy
+  public void stop() {
+    relay.shutdownNow();
+  }
+
+  /**
+   * Adds an event about an order, as it is now, to the outbox. Must be called
+   * in the transaction that changed the order.
+   *
+   * @param type  what happened to the order
+   * @param order the order, with its ID assigned
+   */
+  @Transactional(Transactional.TxType.MANDATORY)
+  public void add(OrderEvent.Type type, Order order) {
+    entityManager.persist(new OrderEvent(type, order));
+  }
+
+  /**
+   * Delivers the events in the outbox that are due to the subscribers, and
+   * deletes the ones delivered.
+   *
+   * @return the number of events delivered
+   */
+  public int relay() {
+    return relay(System.currentTimeMillis());
+  }
+
+  /**
+   * Delivers the events in the outbox that are due at a time to the
+   * subscribers, and deletes the ones delivered.
+   *
+   * @param nowMillis the current time, in milliseconds
+   * @return the number of events delivered
+   */
+  public int relay(long nowMillis) {
+    Date now = new Date(nowMillis);
+    synchronized (relayLock) {
+      int delivered = 0;
+      // Orders held back stay held back for the rest of the poll, on every
+      // later page too
+      Set<Long> heldBack = new HashSet<>();
+      long lastId = 0;
+      while (true) {
+        List<OrderEvent> events = orderEventRepository.findDueAfter(lastId, now, PageRequest.of(0, batchSize));
+        if (lastId == 0) {
+          oldestWaiting.set(events.isEmpty() ? 0 : events.get(0).getCreatedAt().getTime());
+        }
+        if (events.isEmpty()) {
+          return delivered;
+        }
+
+        List<Long> done = new ArrayList<>();
+        List<OrderEvent> failed = new ArrayList<>();
+        for (OrderEvent event : events) {
+          if (heldBack.contains(event.getOrderId())) {
+            continue;
+          }
+          if (deliver(event)) {
+            done.add(event.getId());
+          } else {
+            failed.add(event);
+            heldBack.add(event.getOrderId());
+          }
+        }
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+          if (!done.isEmpty()) {
+            orderEventRepository.deleteByIdIn(done);
+          }
+          failed.forEach(event -> retryLater(event, nowMillis));
+        });
+        delivered += done.size();
+        // What is held back is tried again once it is due; the events after
+        // it are on the next page
+        if (events.size() < batchSize) {
+          return delivered;
+        }
+        lastId = events.get(events.size() - 1).getId();
+      }
+    }
+  }
+
+  // Backs off exponentially from the retry backoff to the max retry backoff,
+  // or parks the event once it has waited for park-after
+  private void retryLater(OrderEvent event, long nowMillis) {
+    if (nowMillis - event.getCreatedAt().getTime() >= parkAfter.toMillis()) {
+      orderEventRepository.recordFailure(event.getId(), new Date(nowMillis), true);
+      parked.increment();
+      logger.error("Parked event " + event.getId() + " of order " + event.getOrderId() + " after failing for "
+          + parkAfter + "; it and the later events of the order are no longer delivered");
+      return;
+    }
+    long backoff = Math.min(maxRetryBackoff.toMillis(),
+        retryBackoff.toMillis() << Math.min(event.getAttempts(), 30));
+    orderEventRepository.recordFailure(event.getId(), new Date(nowMillis + backoff), false);
+  }
+
+  private boolean deliver(OrderEvent event) {
+    for (OrderEventSubscriber subscriber : subscribers) {
+      try {
+        subscriber.onEvent(event);
+      } catch (RuntimeException e) {
+        failures.increment();
+        logger.warn("Could not deliver event " + event.getId() + " of order " + event.getOrderId() + " to "
+            + subscriber.getClass().getSimpleName() + "; it will be delivered again", e);
+        return false;
+      }
+    }
+    deliveryLag.record(Math.max(0, System.currentTimeMillis() - event.getCreatedAt().getTime()),
+        TimeUnit.MILLISECONDS);
+    return true;
+  }
+
+  private void relayQuietly() {
+    try {
+      relay();
+    } catch (RuntimeException e) {
+      logger.warn("Could not relay order events", e);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package no.ntnu.group7.coffeeshop.outbox;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import no.ntnu.group7.coffeeshop.model.OrderEvent;
+
+/**
+ * Sends order events to the URLs in coffeeshop.outbox.webhook-urls, as JSON
+ * in a POST request each. A URL that doesn't answer with a 2xx status within
+ * the timeout fails the delivery, and the event is sent again later, also to
+ * the URLs that took it; receivers tell the copies apart by the event's ID.
+ */
+@Component
+public class WebhookSender implements OrderEventSubscriber {
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Value("${coffeeshop.outbox.webhook-urls:}")
+  private List<URI> urls;
+
+  @Value("${coffeeshop.outbox.webhook-timeout:5s}")
+  private Duration timeout;
+
+  private final HttpClient client = HttpClient.newHttpClient();
+
+  @Override
+  public void onEvent(OrderEvent event) {
+    if (urls.isEmpty()) {
+      return;
+    }
+    String body;
+    try {
+      body = objectMapper.writeValueAsString(event);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Could not write order event " + event.getId(), e);
+    }
+
+    for (URI url : urls) {
+      HttpRequest request = HttpRequest.newBuilder(url)
+          .timeout(timeout)
+          .header("Content-Type", "application/json")
+          .POST(HttpRequest.BodyPublishers.ofString(body))
+          .build();
+      int status;
+      try {
+        status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+      } catch (IOException e) {
+        throw new IllegalStateException("Could not send order event " + event.getId() + " to " + url, e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted sending order event " + event.getId() + " to " + url, e);
+      }
+      if (status / 100 != 2) {
+        throw new IllegalStateException(url + " answered order event " + event.getId() + " with " + status);
+      }
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package no.ntnu.group7.coffeeshop.repositories;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import no.ntnu.group7.coffeeshop.model.OrderEvent;
+
+/**
+ * Repository interface for accessing the outbox of order events.
+ * Spring will auto-generate necessary methods.
+ */
+public interface OrderEventRepository extends JpaRepository<OrderEvent, Long> {
+
+  /**
+   * Finds the oldest events in the outbox written after an event, leaving out
+   * the events of orders with an event that is parked or waiting to be tried
+   * again.
+   *
+   * @param id       the ID of the event; 0 to start from the oldest
+   * @param now      the current time
+   * @param pageable how many events to find
+   * @return the events, oldest first
+   */
+  @Query("SELECT e FROM OrderEvent e WHERE e.id > :id AND e.orderId NOT IN "
+      + "(SELECT w.orderId FROM OrderEvent w WHERE w.parked = true OR w.nextAttemptAt > :now) ORDER BY e.id")
+  List<OrderEvent> findDueAfter(@Param("id") long id, @Param("now") Date now, Pageable pageable);
+
+  /**
+   * Counts a failed delivery of an event, and sets when it is tried again or
+   * parks it.
+   *
+   * @param id            the ID of the event
+   * @param nextAttemptAt when the event is tried again
+   * @param parked        whether the event is parked
+   * @return the number of updated rows
+   */
+  @Modifying
+  @Query("UPDATE OrderEvent e SET e.attempts = e.attempts + 1, e.nextAttemptAt = :nextAttemptAt, "
+      + "e.parked = :parked WHERE e.id = :id")
+  int recordFailure(@Param("id") long id, @Param("nextAttemptAt") Date nextAttemptAt,
+      @Param("parked") boolean parked);
+
+  /**
+   * Finds the events of an order still in the outbox.
+   *
+   * @param orderId the ID of the order
+   * @return the events, oldest first
+   */
+  List<OrderEvent> findByOrderIdOrderById(long orderId);
+
+  /**
+   * Deletes events from the outbox.
+   *
+   * @param ids the IDs of the events
+   * @return the number of deleted rows
+   */
+  @Modifying
+  @Query("DELETE FROM OrderEvent e WHERE e.id IN :ids")
+  int deleteByIdIn(@Param("ids") Collection<Long> ids);
+}
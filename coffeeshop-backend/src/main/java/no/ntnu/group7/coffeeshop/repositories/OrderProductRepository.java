@@ -1,6 +1,12 @@
 package no.ntnu.group7.coffeeshop.repositories;
 
+import java.math.BigDecimal;
+import java.util.List;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
 import no.ntnu.group7.coffeeshop.model.OrderProduct;
 
 /**
@@ -9,4 +15,43 @@ import no.ntnu.group7.coffeeshop.model.OrderProduct;
  */
 public interface OrderProductRepository extends JpaRepository<OrderProduct, Integer> {
 
+  /**
+   * Finds the products of every order with the names and prices they were
+   * ordered at, in one query of the order_product table.
+   *
+   * @return all order products, ordered by ID
+   */
+  @Query("SELECT op.order.id AS orderId, op.id AS id, op.productName AS productName, op.unitPrice AS unitPrice, "
+      + "op.quantity AS quantity FROM OrderProduct op ORDER BY op.id")
+  List<OrderProductView> findAllViews();
+
+  /**
+   * Gives order products from before they kept the name and price of their
+   * product the current name and price of the product. Those whose product
+   * was deleted are named "Deleted product", without a price, so that they
+   * aren't looked at again.
+   *
+   * @return the number of updated rows
+   */
+  @Modifying
+  @Query("UPDATE OrderProduct op SET op.productName = "
+      + "COALESCE((SELECT p.name FROM Product p WHERE p = op.product), 'Deleted product'), "
+      + "op.unitPrice = (SELECT p.price FROM Product p WHERE p = op.product) WHERE op.productName IS NULL")
+  int copyMissingProductDetails();
+
+  /**
+   * Read-only projection of a product in an order, with the name and price it
+   * was ordered at.
+   */
+  interface OrderProductView {
+    long getOrderId();
+
+    long getId();
+
+    String getProductName();
+
+    BigDecimal getUnitPrice();
+
+    int getQuantity();
+  }
 }
@@ -1,6 +1,14 @@
 package no.ntnu.group7.coffeeshop.repositories;
 
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
 import no.ntnu.group7.coffeeshop.model.Order;
 
 /**
@@ -9,4 +17,50 @@ import no.ntnu.group7.coffeeshop.model.Order;
  */
 public interface OrderRepository extends JpaRepository<Order, Integer> {
 
+  /**
+   * Finds every order with the username of the user who placed it, without
+   * loading the users or the products of the orders.
+   *
+   * @return all orders ordered by ID
+   */
+  @Query("SELECT o.id AS id, u.username AS username, o.orderStatus AS orderStatus, o.total AS total, "
+      + "o.createdAt AS createdAt FROM Order o JOIN o.user u ORDER BY o.id")
+  List<OrderSummaryView> findAllSummaries();
+
+  /**
+   * Finds the status of an order and the ID of the user who placed it,
+   * without loading the order.
+   *
+   * @param id the ID of the order
+   * @return the status, or empty if there is no such order
+   */
+  @Query("SELECT o.id AS id, o.user.id AS userId, o.orderStatus AS orderStatus FROM Order o WHERE o.id = :id")
+  Optional<OrderStatusView> findStatusById(@Param("id") long id);
+
+  /**
+   * Read-only projection of an order and the username of the user who placed
+   * it.
+   */
+  interface OrderSummaryView {
+    long getId();
+
+    String getUsername();
+
+    Order.OrderStatus getOrderStatus();
+
+    BigDecimal getTotal();
+
+    Date getCreatedAt();
+  }
+
+  /**
+   * Read-only projection of the status of an order.
+   */
+  interface OrderStatusView {
+    long getId();
+
+    long getUserId();
+
+    Order.OrderStatus getOrderStatus();
+  }
 }
@@ -1,6 +1,16 @@
 package no.ntnu.group7.coffeeshop.repositories;
 
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
 import no.ntnu.group7.coffeeshop.model.Product;
 
 /**
@@ -8,5 +18,208 @@ import no.ntnu.group7.coffeeshop.model.Product;
  * Spring will auto-generate necessary methods.
  */
 public interface ProductRepository extends JpaRepository<Product, Integer> {
+  String SUMMARY_COLUMNS = "p.id AS id, p.name AS name, p.price AS price, p.image AS image, "
+      + "p.inventoryAmount AS inventoryAmount, p.ratingCount AS ratingCount, p.ratingSum AS ratingSum, "
+      + "p.oneStarCount AS oneStarCount, p.twoStarCount AS twoStarCount, p.threeStarCount AS threeStarCount, "
+      + "p.fourStarCount AS fourStarCount, p.fiveStarCount AS fiveStarCount";
+
+  /**
+   * Finds all products, with their categories fetched in the same query.
+   *
+   * @return all products ordered by ID
+   */
+  @Query("SELECT DISTINCT p FROM Product p LEFT JOIN FETCH p.categories ORDER BY p.id")
+  List<Product> findAllWithCategories();
+
+  /**
+   * Finds one product, with its categories fetched in the same query.
+   *
+   * @param id the ID of the product
+   * @return the product, or empty if not found
+   */
+  @Query("SELECT DISTINCT p FROM Product p LEFT JOIN FETCH p.categories WHERE p.id = :id")
+  Optional<Product> findWithCategoriesById(@Param("id") int id);
+
+  /**
+   * Finds all products in a category, with all of their categories fetched in
+   * the same query.
+   *
+   * @param categoryId the ID of the category
+   * @return the products in the category ordered by ID
+   */
+  @Query("SELECT DISTINCT p FROM Product p LEFT JOIN FETCH p.categories WHERE p.id IN "
+      + "(SELECT cp.id FROM Product cp JOIN cp.categories c WHERE c.id = :categoryId) ORDER BY p.id")
+  List<Product> findAllWithCategoriesByCategoryId(@Param("categoryId") int categoryId);
+
+  /**
+   * Finds the given products, with their categories fetched in the same query.
+   *
+   * @param ids the IDs of the products
+   * @return the products, in no particular order
+   */
+  @Query("SELECT DISTINCT p FROM Product p LEFT JOIN FETCH p.categories WHERE p.id IN :ids")
+  List<Product> findAllWithCategoriesByIdIn(@Param("ids") Collection<Integer> ids);
+
+  // Summary queries, used when a client only asks for fields stored in the
+  // products table. They skip the description and don't join the categories.
+
+  @Query("SELECT " + SUMMARY_COLUMNS + " FROM Product p ORDER BY p.id")
+  List<ProductSummaryView> findAllSummaries();
+
+  @Query("SELECT " + SUMMARY_COLUMNS + " FROM Product p JOIN p.categories c WHERE c.id = :categoryId ORDER BY p.id")
+  List<ProductSummaryView> findSummariesByCategoryId(@Param("categoryId") int categoryId);
+
+  @Query("SELECT " + SUMMARY_COLUMNS + " FROM Product p WHERE p.id IN :ids")
+  List<ProductSummaryView> findSummariesByIdIn(@Param("ids") Collection<Integer> ids);
+
+  // Seek queries used for keyset pagination. Each one returns the IDs of the
+  // first products of a page (the size is given by the Pageable), ordered by
+  // the sort column and then by ID. The "After" variants start right after the
+  // last product of the previous page, so no rows are skipped with OFFSET.
+
+  @Query("SELECT p.id FROM Product p ORDER BY p.id")
+  List<Integer> findPageIdsOrderById(Pageable pageable);
+
+  @Query("SELECT p.id FROM Product p WHERE p.id > :id ORDER BY p.id")
+  List<Integer> findPageIdsOrderByIdAfter(@Param("id") int id, Pageable pageable);
+
+  @Query("SELECT p.id FROM Product p ORDER BY p.name, p.id")
+  List<Integer> findPageIdsOrderByName(Pageable pageable);
+
+  @Query("SELECT p.id FROM Product p WHERE p.name > :name OR (p.name = :name AND p.id > :id) ORDER BY p.name, p.id")
+  List<Integer> findPageIdsOrderByNameAfter(@Param("name") String name, @Param("id") int id, Pageable pageable);
+
+  @Query("SELECT p.id FROM Product p ORDER BY p.price, p.id")
+  List<Integer> findPageIdsOrderByPrice(Pageable pageable);
+
+  @Query("SELECT p.id FROM Product p WHERE p.price > :price OR (p.price = :price AND p.id > :id) ORDER BY p.price, p.id")
+  List<Integer> findPageIdsOrderByPriceAfter(@Param("price") BigDecimal price, @Param("id") int id,
+      Pageable pageable);
+
+  @Query("SELECT p.id FROM Product p JOIN p.categories c WHERE c.id = :categoryId ORDER BY p.id")
+  List<Integer> findPageIdsByCategoryOrderById(@Param("categoryId") int categoryId, Pageable pageable);
+
+  @Query("SELECT p.id FROM Product p JOIN p.categories c WHERE c.id = :categoryId AND p.id > :id ORDER BY p.id")
+  List<Integer> findPageIdsByCategoryOrderByIdAfter(@Param("categoryId") int categoryId, @Param("id") int id,
+      Pageable pageable);
+
+  @Query("SELECT p.id FROM Product p JOIN p.categories c WHERE c.id = :categoryId ORDER BY p.name, p.id")
+  List<Integer> findPageIdsByCategoryOrderByName(@Param("categoryId") int categoryId, Pageable pageable);
+
+  @Query("SELECT p.id FROM Product p JOIN p.categories c WHERE c.id = :categoryId "
+      + "AND (p.name > :name OR (p.name = :name AND p.id > :id)) ORDER BY p.name, p.id")
+  List<Integer> findPageIdsByCategoryOrderByNameAfter(@Param("categoryId") int categoryId,
+      @Param("name") String name, @Param("id") int id, Pageable pageable);
+
+  @Query("SELECT p.id FROM Product p JOIN p.categories c WHERE c.id = :categoryId ORDER BY p.price, p.id")
+  List<Integer> findPageIdsByCategoryOrderByPrice(@Param("categoryId") int categoryId, Pageable pageable);
+
+  @Query("SELECT p.id FROM Product p JOIN p.categories c WHERE c.id = :categoryId "
+      + "AND (p.price > :price OR (p.price = :price AND p.id > :id)) ORDER BY p.price, p.id")
+  List<Integer> findPageIdsByCategoryOrderByPriceAfter(@Param("categoryId") int categoryId,
+      @Param("price") BigDecimal price, @Param("id") int id, Pageable pageable);
+
+  /**
+   * Adds a review rating to the review aggregates of a product, or takes one
+   * away when delta is -1. Done as a single UPDATE, so reviews added at the
+   * same time are all counted.
+   *
+   * @param productId the ID of the product
+   * @param rating    the rating of the review, from 1 to 5
+   * @param delta     1 when a review is added, -1 when one is deleted
+   * @return the number of updated products
+   */
+  @Modifying
+  @Query("UPDATE Product p SET p.ratingCount = p.ratingCount + :delta, "
+      + "p.ratingSum = p.ratingSum + :delta * :rating, "
+      + "p.oneStarCount = p.oneStarCount + CASE WHEN :rating = 1 THEN :delta ELSE 0 END, "
+      + "p.twoStarCount = p.twoStarCount + CASE WHEN :rating = 2 THEN :delta ELSE 0 END, "
+      + "p.threeStarCount = p.threeStarCount + CASE WHEN :rating = 3 THEN :delta ELSE 0 END, "
+      + "p.fourStarCount = p.fourStarCount + CASE WHEN :rating = 4 THEN :delta ELSE 0 END, "
+      + "p.fiveStarCount = p.fiveStarCount + CASE WHEN :rating = 5 THEN :delta ELSE 0 END "
+      + "WHERE p.id = :productId")
+  int updateRating(@Param("productId") int productId, @Param("rating") int rating, @Param("delta") int delta);
+
+  /**
+   * Counts the products whose review count doesn't match their reviews, for
+   * example in a database created before the aggregates existed.
+   *
+   * @return the number of products with out of date review aggregates
+   */
+  @Query("SELECT COUNT(p) FROM Product p WHERE p.ratingCount <> (SELECT COUNT(r) FROM Review r WHERE r.product = p)")
+  long countWithStaleRatings();
+
+  /**
+   * Recomputes the review aggregates of every product from its reviews.
+   *
+   * @return the number of updated products
+   */
+  @Modifying
+  @Query("UPDATE Product p SET "
+      + "p.ratingCount = (SELECT COUNT(r) FROM Review r WHERE r.product = p), "
+      + "p.ratingSum = (SELECT COALESCE(SUM(r.rating), 0) FROM Review r WHERE r.product = p), "
+      + "p.oneStarCount = (SELECT COUNT(r) FROM Review r WHERE r.product = p AND r.rating = 1), "
+      + "p.twoStarCount = (SELECT COUNT(r) FROM Review r WHERE r.product = p AND r.rating = 2), "
+      + "p.threeStarCount = (SELECT COUNT(r) FROM Review r WHERE r.product = p AND r.rating = 3), "
+      + "p.fourStarCount = (SELECT COUNT(r) FROM Review r WHERE r.product = p AND r.rating = 4), "
+      + "p.fiveStarCount = (SELECT COUNT(r) FROM Review r WHERE r.product = p AND r.rating = 5)")
+  int recountRatings();
+
+  /**
+   * Adds to the stock of a product.
+   *
+   * @param id    the ID of the product
+   * @param delta the amount to add; negative to take stock away
+   * @return the number of updated products
+   */
+  @Modifying
+  @Query("UPDATE Product p SET p.inventoryAmount = p.inventoryAmount + :delta WHERE p.id = :id")
+  int addToStock(@Param("id") int id, @Param("delta") int delta);
+
+  /**
+   * Finds how many of each of the given products are in stock.
+   *
+   * @param ids the IDs of the products
+   * @return the stock of the products, in no particular order
+   */
+  @Query("SELECT p.id AS id, p.inventoryAmount AS inventoryAmount FROM Product p WHERE p.id IN :ids")
+  List<StockView> findStockByIdIn(@Param("ids") Collection<Integer> ids);
+
+  /**
+   * Read-only projection of the stock of a product.
+   */
+  interface StockView {
+    int getId();
+
+    int getInventoryAmount();
+  }
+
+  /**
+   * Read-only projection of the columns of a product needed for summaries.
+   */
+  interface ProductSummaryView {
+    int getId();
+
+    String getName();
+
+    BigDecimal getPrice();
+
+    String getImage();
+
+    int getInventoryAmount();
+
+    int getRatingCount();
+
+    long getRatingSum();
+
+    int getOneStarCount();
+
+    int getTwoStarCount();
+
+    int getThreeStarCount();
+
+    int getFourStarCount();
 
+    int getFiveStarCount();
+  }
 }
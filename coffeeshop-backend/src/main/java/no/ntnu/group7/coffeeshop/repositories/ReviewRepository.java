@@ -1,6 +1,12 @@
 package no.ntnu.group7.coffeeshop.repositories;
 
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import no.ntnu.group7.coffeeshop.model.Review;
 
@@ -10,4 +16,64 @@ import no.ntnu.group7.coffeeshop.model.Review;
  */
 public interface ReviewRepository extends JpaRepository<Review, Integer> {
 
-}
\ No newline at end of file
+  /**
+   * Finds the reviews written by a user.
+   *
+   * @param userId the ID of the user
+   * @return the user's reviews
+   */
+  List<Review> findByUserId(long userId);
+
+  /**
+   * Finds the reviews of the given products, together with the username of the
+   * reviewer, without loading the Review or User entities.
+   *
+   * @param productIds the IDs of the products to find reviews for
+   * @return the reviews ordered by ID
+   */
+  @Query("SELECT r.product.id AS productId, r.id AS id, r.reviewText AS reviewText, r.rating AS rating, "
+      + "u.username AS username FROM Review r JOIN r.user u WHERE r.product.id IN :productIds ORDER BY r.id")
+  List<ReviewView> findViewsByProductIdIn(@Param("productIds") Collection<Integer> productIds);
+
+  // Seek queries used for keyset pagination of one product's reviews, newest
+  // first. Each one returns the first reviews of a page (the size is given by
+  // the Pageable). The "Before" variants start right after the last review of
+  // the previous page, so no rows are skipped with OFFSET.
+
+  @Query("SELECT r.product.id AS productId, r.id AS id, r.reviewText AS reviewText, r.rating AS rating, "
+      + "u.username AS username FROM Review r JOIN r.user u WHERE r.product.id = :productId ORDER BY r.id DESC")
+  List<ReviewView> findPageViewsByProductId(@Param("productId") int productId, Pageable pageable);
+
+  @Query("SELECT r.product.id AS productId, r.id AS id, r.reviewText AS reviewText, r.rating AS rating, "
+      + "u.username AS username FROM Review r JOIN r.user u WHERE r.product.id = :productId AND r.id < :id "
+      + "ORDER BY r.id DESC")
+  List<ReviewView> findPageViewsByProductIdBefore(@Param("productId") int productId, @Param("id") int id,
+      Pageable pageable);
+
+  @Query("SELECT r.product.id AS productId, r.id AS id, r.reviewText AS reviewText, r.rating AS rating, "
+      + "u.username AS username FROM Review r JOIN r.user u WHERE r.product.id = :productId "
+      + "AND r.rating = :rating ORDER BY r.id DESC")
+  List<ReviewView> findPageViewsByProductIdAndRating(@Param("productId") int productId,
+      @Param("rating") int rating, Pageable pageable);
+
+  @Query("SELECT r.product.id AS productId, r.id AS id, r.reviewText AS reviewText, r.rating AS rating, "
+      + "u.username AS username FROM Review r JOIN r.user u WHERE r.product.id = :productId "
+      + "AND r.rating = :rating AND r.id < :id ORDER BY r.id DESC")
+  List<ReviewView> findPageViewsByProductIdAndRatingBefore(@Param("productId") int productId,
+      @Param("rating") int rating, @Param("id") int id, Pageable pageable);
+
+  /**
+   * Read-only projection of a review and the username of its author.
+   */
+  interface ReviewView {
+    int getProductId();
+
+    int getId();
+
+    String getReviewText();
+
+    int getRating();
+
+    String getUsername();
+  }
+}
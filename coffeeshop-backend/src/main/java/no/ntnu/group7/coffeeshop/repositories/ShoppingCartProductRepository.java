@@ -1,6 +1,15 @@
 package no.ntnu.group7.coffeeshop.repositories;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
 import no.ntnu.group7.coffeeshop.model.ShoppingCartProduct;
 
 /**
@@ -9,4 +18,174 @@ import no.ntnu.group7.coffeeshop.model.ShoppingCartProduct;
  */
 public interface ShoppingCartProductRepository extends JpaRepository<ShoppingCartProduct, Integer> {
 
+  /**
+   * Finds the items in a user's shopping cart, without loading the User or
+   * Product entities.
+   *
+   * @param userId the ID of the user
+   * @return the items ordered by ID, which is the order they were added in
+   */
+  @Query("SELECT c.id AS id, c.user.id AS userId, c.product.id AS productId, c.quantity AS quantity "
+      + "FROM ShoppingCartProduct c WHERE c.user.id = :userId ORDER BY c.id")
+  List<CartRowView> findViewsByUserId(@Param("userId") long userId);
+
+  /**
+   * Finds the items in the shopping carts of the given users.
+   *
+   * @param userIds the IDs of the users
+   * @return the items ordered by ID
+   */
+  @Query("SELECT c.id AS id, c.user.id AS userId, c.product.id AS productId, c.quantity AS quantity "
+      + "FROM ShoppingCartProduct c WHERE c.user.id IN :userIds ORDER BY c.id")
+  List<CartRowView> findViewsByUserIdIn(@Param("userIds") Collection<Long> userIds);
+
+  /**
+   * Finds the items in every shopping cart.
+   *
+   * @return the items ordered by ID
+   */
+  @Query("SELECT c.id AS id, c.user.id AS userId, c.product.id AS productId, c.quantity AS quantity "
+      + "FROM ShoppingCartProduct c ORDER BY c.id")
+  List<CartRowView> findAllViews();
+
+  /**
+   * Sets the quantity of one product in a user's shopping cart.
+   *
+   * @param userId    the ID of the user
+   * @param productId the ID of the product
+   * @param quantity  the new quantity
+   * @return the number of updated rows, 0 if the product isn't in the cart
+   */
+  @Modifying
+  @Query("UPDATE ShoppingCartProduct c SET c.quantity = :quantity "
+      + "WHERE c.user.id = :userId AND c.product.id = :productId")
+  int updateQuantity(@Param("userId") long userId, @Param("productId") int productId,
+      @Param("quantity") int quantity);
+
+  /**
+   * Sets the quantity of a shopping cart item.
+   *
+   * @param id       the ID of the item
+   * @param quantity the new quantity
+   * @return the number of updated rows
+   */
+  @Modifying
+  @Query("UPDATE ShoppingCartProduct c SET c.quantity = :quantity WHERE c.id = :id")
+  int updateQuantityById(@Param("id") int id, @Param("quantity") int quantity);
+
+  /**
+   * Removes one product from a user's shopping cart.
+   *
+   * @param userId    the ID of the user
+   * @param productId the ID of the product
+   * @return the number of deleted rows
+   */
+  @Modifying
+  @Query("DELETE FROM ShoppingCartProduct c WHERE c.user.id = :userId AND c.product.id = :productId")
+  int deleteByUserIdAndProductId(@Param("userId") long userId, @Param("productId") int productId);
+
+  /**
+   * Empties a user's shopping cart.
+   *
+   * @param userId the ID of the user
+   * @return the number of deleted rows
+   */
+  @Modifying
+  @Query("DELETE FROM ShoppingCartProduct c WHERE c.user.id = :userId")
+  int deleteByUserId(@Param("userId") long userId);
+
+  /**
+   * Removes a product from every shopping cart.
+   *
+   * @param productId the ID of the product
+   * @return the number of deleted rows
+   */
+  @Modifying
+  @Query("DELETE FROM ShoppingCartProduct c WHERE c.product.id = :productId")
+  int deleteByProductId(@Param("productId") int productId);
+
+  /**
+   * Deletes shopping cart items by ID.
+   *
+   * @param ids the IDs of the items
+   * @return the number of deleted rows
+   */
+  @Modifying
+  @Query("DELETE FROM ShoppingCartProduct c WHERE c.id IN :ids")
+  int deleteByIdIn(@Param("ids") Collection<Integer> ids);
+
+  /**
+   * Sets the time the carts of the given users were last touched, on every row
+   * of the carts.
+   *
+   * @param userIds the IDs of the users
+   * @param now     the time to set
+   * @return the number of updated rows
+   */
+  @Modifying
+  @Query("UPDATE ShoppingCartProduct c SET c.lastTouched = :now WHERE c.user.id IN :userIds")
+  int touchByUserIdIn(@Param("userIds") Collection<Long> userIds, @Param("now") Date now);
+
+  /**
+   * Sets the last touched time of the rows that have none, such as rows from
+   * before the column existed.
+   *
+   * @param now the time to set
+   * @return the number of updated rows
+   */
+  @Modifying
+  @Query("UPDATE ShoppingCartProduct c SET c.lastTouched = :now WHERE c.lastTouched IS NULL")
+  int touchUntouched(@Param("now") Date now);
+
+  /**
+   * Finds the users of rows that haven't been touched since a given time,
+   * starting after a user, in order of user ID. A user appears once for each
+   * of their idle rows.
+   *
+   * @param userId   the ID of the last user of the previous page, or 0
+   * @param cutoff   the time
+   * @param pageable the number of rows to look at
+   * @return the IDs of the users of the idle rows
+   */
+  @Query("SELECT c.user.id FROM ShoppingCartProduct c WHERE c.user.id > :userId AND c.lastTouched < :cutoff "
+      + "ORDER BY c.user.id")
+  List<Long> findIdleUserIdsAfter(@Param("userId") long userId, @Param("cutoff") Date cutoff, Pageable pageable);
+
+  /**
+   * Finds which of the given users have carts where no row has been touched
+   * since a given time.
+   *
+   * @param userIds the IDs of the users
+   * @param cutoff  the time
+   * @return the IDs of the users with idle carts
+   */
+  @Query("SELECT c.user.id FROM ShoppingCartProduct c WHERE c.user.id IN :userIds "
+      + "GROUP BY c.user.id HAVING MAX(c.lastTouched) < :cutoff")
+  List<Long> findIdleUserIdsIn(@Param("userIds") Collection<Long> userIds, @Param("cutoff") Date cutoff);
+
+  /**
+   * Deletes the rows of the given users that haven't been touched since a given
+   * time. Called for users whose whole cart is idle (see findIdleUserIdsIn);
+   * rows added or changed since then are kept.
+   *
+   * @param userIds the IDs of the users
+   * @param cutoff  the time
+   * @return the number of deleted rows
+   */
+  @Modifying
+  @Query("DELETE FROM ShoppingCartProduct c WHERE c.user.id IN :userIds AND c.lastTouched < :cutoff")
+  int deleteIdleByUserIdIn(@Param("userIds") Collection<Long> userIds, @Param("cutoff") Date cutoff);
+
+  /**
+   * Read-only projection of a shopping cart item.
+   */
+  interface CartRowView {
+    int getId();
+
+    long getUserId();
+
+    int getProductId();
+
+    int getQuantity();
+  }
 }
@@ -0,0 +1,39 @@
+package no.ntnu.group7.coffeeshop.repositories;
+
+import java.util.Collection;
+import java.util.Date;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import no.ntnu.group7.coffeeshop.model.StockHold;
+
+/**
+ * Repository interface for accessing the journal of stock holds.
+ * Spring will auto-generate necessary methods.
+ */
+public interface StockHoldRepository extends JpaRepository<StockHold, Long> {
+
+  /**
+   * Deletes the journal rows of some of a user's holds.
+   *
+   * @param userId     the ID of the user
+   * @param productIds the IDs of the products held
+   * @return the number of deleted rows
+   */
+  @Modifying
+  @Query("DELETE FROM StockHold h WHERE h.userId = :userId AND h.productId IN :productIds")
+  int deleteByUserIdAndProductIdIn(@Param("userId") long userId, @Param("productIds") Collection<Integer> productIds);
+
+  /**
+   * Deletes the journal rows of holds that have expired.
+   *
+   * @param now the current time
+   * @return the number of deleted rows
+   */
+  @Modifying
+  @Query("DELETE FROM StockHold h WHERE h.expiresAt <= :now")
+  int deleteExpired(@Param("now") Date now);
+}
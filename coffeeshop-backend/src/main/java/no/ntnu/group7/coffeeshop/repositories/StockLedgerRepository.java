@@ -0,0 +1,50 @@
+package no.ntnu.group7.coffeeshop.repositories;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import no.ntnu.group7.coffeeshop.model.StockLedgerEntry;
+
+/**
+ * Repository interface for accessing the journal of changes to the stock of
+ * hot products.
+ * Spring will auto-generate necessary methods.
+ */
+public interface StockLedgerRepository extends JpaRepository<StockLedgerEntry, Long> {
+
+  /**
+   * Finds the oldest entries of the journal.
+   *
+   * @param pageable how many entries to find
+   * @return the entries, oldest first
+   */
+  @Query("SELECT e.id AS id, e.productId AS productId, e.delta AS delta FROM StockLedgerEntry e ORDER BY e.id")
+  List<EntryView> findEntries(Pageable pageable);
+
+  /**
+   * Deletes entries of the journal.
+   *
+   * @param ids the IDs of the entries
+   * @return the number of deleted rows
+   */
+  @Modifying
+  @Query("DELETE FROM StockLedgerEntry e WHERE e.id IN :ids")
+  int deleteByIdIn(@Param("ids") Collection<Long> ids);
+
+  /**
+   * Read-only projection of an entry of the journal.
+   */
+  interface EntryView {
+    long getId();
+
+    int getProductId();
+
+    int getDelta();
+  }
+}
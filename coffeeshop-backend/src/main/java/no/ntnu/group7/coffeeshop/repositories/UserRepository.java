@@ -1,9 +1,12 @@
 package no.ntnu.group7.coffeeshop.repositories;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 import no.ntnu.group7.coffeeshop.model.User;
 
+import java.util.Date;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -15,4 +18,40 @@ import java.util.Optional;
  */
 public interface UserRepository extends JpaRepository<User, Long> {
   Optional<User> findByUsername(String username);
+
+  /**
+   * Finds all users, with their roles fetched in the same query.
+   *
+   * @return all users ordered by ID
+   */
+  @Query("SELECT DISTINCT u FROM User u LEFT JOIN FETCH u.roles ORDER BY u.id")
+  List<User> findAllWithRoles();
+
+  /**
+   * Finds the profile fields of all users, without loading their roles.
+   *
+   * @return all users ordered by ID
+   */
+  @Query("SELECT u.id AS id, u.firstName AS firstName, u.lastName AS lastName, u.email AS email, "
+      + "u.address AS address, u.username AS username, u.createdAt AS createdAt FROM User u ORDER BY u.id")
+  List<UserSummaryView> findAllSummaries();
+
+  /**
+   * Read-only projection of the profile fields of a user, except the roles.
+   */
+  interface UserSummaryView {
+    long getId();
+
+    String getFirstName();
+
+    String getLastName();
+
+    String getEmail();
+
+    String getAddress();
+
+    String getUsername();
+
+    Date getCreatedAt();
+  }
 }
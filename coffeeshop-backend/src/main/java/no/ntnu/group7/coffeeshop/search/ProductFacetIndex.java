@@ -0,0 +1,616 @@
+package no.ntnu.group7.coffeeshop.search;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index for filtering products by category, price, stock and
+ * rating, and for counting how many products each filter option would
+ * match. Every product gets a slot number, and each filter option is a
+ * bitset of slots: one per category, one for the products in stock and one
+ * per whole number of stars the average rating reaches. Prices are kept in
+ * an array of slots sorted by price, so a price range is found with two
+ * binary searches. A filter is then a few bitset intersections, which cost
+ * the same no matter how the products are spread over the categories.
+ *
+ * Slots are handed out in the order products are added, so as long as
+ * products are added in ID order, slot order is ID order. Slots of removed
+ * products are left empty until enough of them pile up, and then the slots
+ * are compacted, keeping their order.
+ *
+ * The index is safe to use from several threads. Filters run in parallel;
+ * updates lock out filters while they run.
+ */
+public class ProductFacetIndex {
+  public static final int MAX_RATING = 5;
+
+  // Compact the slots when at least this many, and at least half of them,
+  // are empty
+  private static final int MIN_EMPTY_SLOTS_TO_COMPACT = 1024;
+
+  /**
+   * The orders filtered products can be returned in. Ties are broken by ID.
+   */
+  public enum Sort {
+    ID,
+    PRICE
+  }
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Map<Integer, Integer> slotsByProductId = new HashMap<>();
+  private int slotCount;
+  private int[] productIds = new int[16];
+  private BigDecimal[] prices = new BigDecimal[16];
+  private int[] ratingCounts = new int[16];
+  private long[] ratingSums = new long[16];
+  // Slots of the indexed products, sorted by price and then by slot
+  private int[] slotsByPrice = new int[16];
+  private int priceOrderSize;
+
+  private final BitSet live = new BitSet();
+  private final BitSet inStock = new BitSet();
+  private final Map<Integer, BitSet> categories = new HashMap<>();
+  // ratedAtLeast[n] holds the products with an average rating of at least n
+  private final BitSet[] ratedAtLeast = new BitSet[MAX_RATING + 1];
+
+  public ProductFacetIndex() {
+    for (int rating = 1; rating <= MAX_RATING; rating++) {
+      ratedAtLeast[rating] = new BitSet();
+    }
+  }
+
+  /**
+   * Adds a product to the index, replacing it if it is already indexed.
+   *
+   * @param id              the ID of the product
+   * @param price           the price of the product
+   * @param inventoryAmount the number of items in stock
+   * @param categoryIds     the IDs of the product's categories
+   * @param ratingCount     the number of reviews of the product
+   * @param ratingSum       the sum of the ratings of the product's reviews
+   */
+  public void put(int id, BigDecimal price, int inventoryAmount, Collection<Integer> categoryIds,
+      int ratingCount, long ratingSum) {
+    lock.writeLock().lock();
+    try {
+      Integer existing = slotsByProductId.get(id);
+      int slot;
+      if (existing != null) {
+        slot = existing;
+        removeFromPriceOrder(slot);
+        for (BitSet category : categories.values()) {
+          category.clear(slot);
+        }
+      } else {
+        slot = slotCount++;
+        ensureCapacity(slotCount);
+        slotsByProductId.put(id, slot);
+        productIds[slot] = id;
+        live.set(slot);
+      }
+
+      prices[slot] = price;
+      addToPriceOrder(slot);
+      inStock.set(slot, inventoryAmount > 0);
+      for (Integer categoryId : categoryIds) {
+        categories.computeIfAbsent(categoryId, key -> new BitSet()).set(slot);
+      }
+      ratingCounts[slot] = ratingCount;
+      ratingSums[slot] = ratingSum;
+      updateRatingBits(slot);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes a product from the index. Does nothing if it isn't indexed.
+   *
+   * @param id the ID of the product
+   */
+  public void remove(int id) {
+    lock.writeLock().lock();
+    try {
+      Integer slot = slotsByProductId.remove(id);
+      if (slot == null) {
+        return;
+      }
+      removeFromPriceOrder(slot);
+      prices[slot] = null;
+      live.clear(slot);
+      inStock.clear(slot);
+      for (BitSet category : categories.values()) {
+        category.clear(slot);
+      }
+      for (int rating = 1; rating <= MAX_RATING; rating++) {
+        ratedAtLeast[rating].clear(slot);
+      }
+
+      int emptySlots = slotCount - slotsByProductId.size();
+      if (emptySlots >= MIN_EMPTY_SLOTS_TO_COMPACT && emptySlots * 2 >= slotCount) {
+        compact();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Records a new inventory amount for a product. Does nothing if the product
+   * isn't indexed.
+   *
+   * @param id              the ID of the product
+   * @param inventoryAmount the number of items in stock
+   */
+  public void updateStock(int id, int inventoryAmount) {
+    lock.writeLock().lock();
+    try {
+      Integer slot = slotsByProductId.get(id);
+      if (slot != null) {
+        inStock.set(slot, inventoryAmount > 0);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Counts a review of a product being added or removed. Does nothing if the
+   * product isn't indexed.
+   *
+   * @param id     the ID of the product
+   * @param rating the rating of the review
+   * @param delta  1 if the review was added, -1 if it was removed
+   */
+  public void updateRating(int id, int rating, int delta) {
+    lock.writeLock().lock();
+    try {
+      Integer slot = slotsByProductId.get(id);
+      if (slot != null) {
+        ratingCounts[slot] += delta;
+        ratingSums[slot] += (long) rating * delta;
+        updateRatingBits(slot);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes a category from every product.
+   *
+   * @param categoryId the ID of the category
+   */
+  public void removeCategory(int categoryId) {
+    lock.writeLock().lock();
+    try {
+      categories.remove(categoryId);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes every product from the index.
+   */
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      slotsByProductId.clear();
+      slotCount = 0;
+      priceOrderSize = 0;
+      Arrays.fill(prices, null);
+      live.clear();
+      inStock.clear();
+      categories.clear();
+      for (int rating = 1; rating <= MAX_RATING; rating++) {
+        ratedAtLeast[rating].clear();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return the number of indexed products
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return slotsByProductId.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Finds the products matching a filter, and counts how many products each
+   * filter option would match. The count for an option applies every other
+   * part of the filter, so for example the category counts are what the
+   * result would grow to if that category was also selected.
+   *
+   * @param filter the filter to apply
+   * @param sort   the order to return the products in
+   * @param offset the number of matching products to skip
+   * @param limit  the maximum number of products to return
+   * @return the IDs of the matching products and the facet counts
+   */
+  public Result filter(Filter filter, Sort sort, int offset, int limit) {
+    lock.readLock().lock();
+    try {
+      BitSet categoryMatches = null;
+      if (!filter.categoryIds.isEmpty()) {
+        categoryMatches = new BitSet();
+        for (Integer categoryId : filter.categoryIds) {
+          BitSet category = categories.get(categoryId);
+          if (category != null) {
+            categoryMatches.or(category);
+          }
+        }
+      }
+      BitSet priceMatches = null;
+      if (filter.minPrice != null || filter.maxPrice != null) {
+        priceMatches = slotsInPriceRange(filter.minPrice, filter.maxPrice);
+      }
+      BitSet stockMatches = filter.inStock ? inStock : null;
+      BitSet ratingMatches = filter.minRating > 0 ? ratedAtLeast[filter.minRating] : null;
+
+      BitSet matches = intersect(categoryMatches, priceMatches, stockMatches, ratingMatches);
+
+      BitSet withoutCategory = intersect(null, priceMatches, stockMatches, ratingMatches);
+      Map<Integer, Integer> categoryCounts = new HashMap<>();
+      for (Map.Entry<Integer, BitSet> category : categories.entrySet()) {
+        int count = countIntersection(withoutCategory, category.getValue());
+        if (count > 0) {
+          categoryCounts.put(category.getKey(), count);
+        }
+      }
+
+      int inStockCount = countIntersection(intersect(categoryMatches, priceMatches, null, ratingMatches), inStock);
+
+      BitSet withoutRating = intersect(categoryMatches, priceMatches, stockMatches, null);
+      int[] ratingCounts = new int[MAX_RATING];
+      for (int rating = 1; rating <= MAX_RATING; rating++) {
+        ratingCounts[rating - 1] = countIntersection(withoutRating, ratedAtLeast[rating]);
+      }
+
+      BitSet withoutPrice = intersect(categoryMatches, null, stockMatches, ratingMatches);
+      BigDecimal lowestPrice = null;
+      BigDecimal highestPrice = null;
+      if (!withoutPrice.isEmpty()) {
+        lowestPrice = prices[firstInPriceOrder(withoutPrice)];
+        highestPrice = prices[lastInPriceOrder(withoutPrice)];
+      }
+
+      List<Integer> ids = sort == Sort.PRICE ? pageByPrice(matches, offset, limit) : pageBySlot(matches, offset, limit);
+
+      return new Result(ids, matches.cardinality(), categoryCounts, inStockCount, ratingCounts, lowestPrice,
+          highestPrice);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Intersects the live products with the given sets, skipping the null ones.
+   * The caller must hold the read lock.
+   */
+  private BitSet intersect(BitSet categoryMatches, BitSet priceMatches, BitSet stockMatches,
+      BitSet ratingMatches) {
+    BitSet result = (BitSet) live.clone();
+    for (BitSet set : new BitSet[] { categoryMatches, priceMatches, stockMatches, ratingMatches }) {
+      if (set != null) {
+        result.and(set);
+      }
+    }
+    return result;
+  }
+
+  private static int countIntersection(BitSet a, BitSet b) {
+    BitSet intersection = (BitSet) a.clone();
+    intersection.and(b);
+    return intersection.cardinality();
+  }
+
+  /**
+   * Returns the slots of the products with a price in the given range. The
+   * caller must hold the read lock.
+   */
+  private BitSet slotsInPriceRange(BigDecimal minPrice, BigDecimal maxPrice) {
+    int from = minPrice == null ? 0 : firstPricePosition(minPrice, false);
+    int to = maxPrice == null ? priceOrderSize : firstPricePosition(maxPrice, true);
+    BitSet result = new BitSet(slotCount);
+    for (int i = from; i < to; i++) {
+      result.set(slotsByPrice[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Finds the first position in the price order with a price at or above the
+   * given price, or above it if afterEqual is true.
+   */
+  private int firstPricePosition(BigDecimal price, boolean afterEqual) {
+    int low = 0;
+    int high = priceOrderSize;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      int comparison = prices[slotsByPrice[middle]].compareTo(price);
+      if (comparison < 0 || (afterEqual && comparison == 0)) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private int firstInPriceOrder(BitSet slots) {
+    for (int i = 0;; i++) {
+      if (slots.get(slotsByPrice[i])) {
+        return slotsByPrice[i];
+      }
+    }
+  }
+
+  private int lastInPriceOrder(BitSet slots) {
+    for (int i = priceOrderSize - 1;; i--) {
+      if (slots.get(slotsByPrice[i])) {
+        return slotsByPrice[i];
+      }
+    }
+  }
+
+  private List<Integer> pageBySlot(BitSet matches, int offset, int limit) {
+    List<Integer> ids = new ArrayList<>();
+    int skipped = 0;
+    for (int slot = matches.nextSetBit(0); slot >= 0 && ids.size() < limit; slot = matches.nextSetBit(slot + 1)) {
+      if (skipped++ >= offset) {
+        ids.add(productIds[slot]);
+      }
+    }
+    return ids;
+  }
+
+  private List<Integer> pageByPrice(BitSet matches, int offset, int limit) {
+    List<Integer> ids = new ArrayList<>();
+    int skipped = 0;
+    for (int i = 0; i < priceOrderSize && ids.size() < limit; i++) {
+      int slot = slotsByPrice[i];
+      if (matches.get(slot) && skipped++ >= offset) {
+        ids.add(productIds[slot]);
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Sets the rating bits of a slot from its rating count and sum. The caller
+   * must hold the write lock.
+   */
+  private void updateRatingBits(int slot) {
+    for (int rating = 1; rating <= MAX_RATING; rating++) {
+      // average >= rating, without rounding errors
+      ratedAtLeast[rating].set(slot, ratingCounts[slot] > 0 && ratingSums[slot] >= (long) rating * ratingCounts[slot]);
+    }
+  }
+
+  /**
+   * Inserts a slot into the price order. The price of the slot must be set.
+   */
+  private void addToPriceOrder(int slot) {
+    int low = 0;
+    int high = priceOrderSize;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (comparePriceOrder(slotsByPrice[middle], slot) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    System.arraycopy(slotsByPrice, low, slotsByPrice, low + 1, priceOrderSize - low);
+    slotsByPrice[low] = slot;
+    priceOrderSize++;
+  }
+
+  /**
+   * Takes a slot out of the price order. The price of the slot must not have
+   * changed since it was inserted.
+   */
+  private void removeFromPriceOrder(int slot) {
+    int low = 0;
+    int high = priceOrderSize - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = comparePriceOrder(slotsByPrice[middle], slot);
+      if (comparison < 0) {
+        low = middle + 1;
+      } else if (comparison > 0) {
+        high = middle - 1;
+      } else {
+        System.arraycopy(slotsByPrice, middle + 1, slotsByPrice, middle, priceOrderSize - middle - 1);
+        priceOrderSize--;
+        return;
+      }
+    }
+    throw new IllegalStateException("Slot " + slot + " is not in the price order");
+  }
+
+  private int comparePriceOrder(int slot, int otherSlot) {
+    int comparison = prices[slot].compareTo(prices[otherSlot]);
+    return comparison != 0 ? comparison : Integer.compare(slot, otherSlot);
+  }
+
+  /**
+   * Moves the products into the lowest slots, keeping their order. The caller
+   * must hold the write lock.
+   */
+  private void compact() {
+    int[] newSlots = new int[slotCount];
+    int next = 0;
+    for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+      newSlots[slot] = next;
+      productIds[next] = productIds[slot];
+      prices[next] = prices[slot];
+      ratingCounts[next] = ratingCounts[slot];
+      ratingSums[next] = ratingSums[slot];
+      slotsByProductId.put(productIds[next], next);
+      next++;
+    }
+    Arrays.fill(prices, next, slotCount, null);
+
+    // Moving every slot down keeps the price order, including the ties
+    for (int i = 0; i < priceOrderSize; i++) {
+      slotsByPrice[i] = newSlots[slotsByPrice[i]];
+    }
+    remap(live, newSlots);
+    remap(inStock, newSlots);
+    for (BitSet category : categories.values()) {
+      remap(category, newSlots);
+    }
+    for (int rating = 1; rating <= MAX_RATING; rating++) {
+      remap(ratedAtLeast[rating], newSlots);
+    }
+    slotCount = next;
+  }
+
+  private static void remap(BitSet set, int[] newSlots) {
+    BitSet old = (BitSet) set.clone();
+    set.clear();
+    for (int slot = old.nextSetBit(0); slot >= 0; slot = old.nextSetBit(slot + 1)) {
+      set.set(newSlots[slot]);
+    }
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > productIds.length) {
+      int newLength = Math.max(capacity, productIds.length * 2);
+      productIds = Arrays.copyOf(productIds, newLength);
+      prices = Arrays.copyOf(prices, newLength);
+      ratingCounts = Arrays.copyOf(ratingCounts, newLength);
+      ratingSums = Arrays.copyOf(ratingSums, newLength);
+      slotsByPrice = Arrays.copyOf(slotsByPrice, newLength);
+    }
+  }
+
+  /**
+   * What to filter products on. Products must be in at least one of the
+   * categories, and match every other part of the filter that is set.
+   */
+  public static class Filter {
+    private final Collection<Integer> categoryIds;
+    private final BigDecimal minPrice;
+    private final BigDecimal maxPrice;
+    private final boolean inStock;
+    private final int minRating;
+
+    /**
+     * Constructs a new Filter
+     *
+     * @param categoryIds The IDs of the categories, or empty for any category.
+     * @param minPrice    The lowest price, or null for no lower bound.
+     * @param maxPrice    The highest price, or null for no upper bound.
+     * @param inStock     Whether to only match products in stock.
+     * @param minRating   The lowest average rating, from 1 to 5, or 0 for any
+     *                    rating.
+     */
+    public Filter(Collection<Integer> categoryIds, BigDecimal minPrice, BigDecimal maxPrice, boolean inStock,
+        int minRating) {
+      if (minRating < 0 || minRating > MAX_RATING) {
+        throw new IllegalArgumentException("Minimum rating must be between 0 (any rating) and " + MAX_RATING);
+      }
+      this.categoryIds = categoryIds;
+      this.minPrice = minPrice;
+      this.maxPrice = maxPrice;
+      this.inStock = inStock;
+      this.minRating = minRating;
+    }
+  }
+
+  /**
+   * The products matching a filter, and the facet counts.
+   */
+  public static class Result {
+    private final List<Integer> ids;
+    private final int total;
+    private final Map<Integer, Integer> categoryCounts;
+    private final int inStockCount;
+    private final int[] ratingCounts;
+    private final BigDecimal lowestPrice;
+    private final BigDecimal highestPrice;
+
+    private Result(List<Integer> ids, int total, Map<Integer, Integer> categoryCounts, int inStockCount,
+        int[] ratingCounts, BigDecimal lowestPrice, BigDecimal highestPrice) {
+      this.ids = ids;
+      this.total = total;
+      this.categoryCounts = categoryCounts;
+      this.inStockCount = inStockCount;
+      this.ratingCounts = ratingCounts;
+      this.lowestPrice = lowestPrice;
+      this.highestPrice = highestPrice;
+    }
+
+    /**
+     * @return the IDs of the products on the page, in order
+     */
+    public List<Integer> getIds() {
+      return ids;
+    }
+
+    /**
+     * @return the number of products matching the filter
+     */
+    public int getTotal() {
+      return total;
+    }
+
+    /**
+     * @return the number of matching products in each category, ignoring the
+     *         category part of the filter. Categories without any are left out.
+     */
+    public Map<Integer, Integer> getCategoryCounts() {
+      return categoryCounts;
+    }
+
+    /**
+     * @return the number of matching products in stock, ignoring the stock
+     *         part of the filter
+     */
+    public int getInStockCount() {
+      return inStockCount;
+    }
+
+    /**
+     * @return the number of matching products rated at least 1 to 5 stars,
+     *         ignoring the rating part of the filter
+     */
+    public int[] getRatingCounts() {
+      return ratingCounts;
+    }
+
+    /**
+     * @return the lowest price of the matching products, ignoring the price
+     *         part of the filter, or null if there are none
+     */
+    public BigDecimal getLowestPrice() {
+      return lowestPrice;
+    }
+
+    /**
+     * @return the highest price of the matching products, ignoring the price
+     *         part of the filter, or null if there are none
+     */
+    public BigDecimal getHighestPrice() {
+      return highestPrice;
+    }
+  }
+}
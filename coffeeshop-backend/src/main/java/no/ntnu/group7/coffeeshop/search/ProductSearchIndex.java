@@ -0,0 +1,496 @@
+package no.ntnu.group7.coffeeshop.search;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over the name, description and category names of
+ * every product. Searches never touch the database: each word of the query is
+ * looked up in the index, both as a whole (stemmed) word and as a prefix of
+ * indexed words, and the products containing every query word are ranked with
+ * BM25. Words in the name count more than words in the category names, which
+ * count more than words in the description.
+ *
+ * The index is safe to use from several threads. Searches run in parallel;
+ * updates, which are rare, lock out searches while they run.
+ */
+public class ProductSearchIndex {
+  // BM25 parameters: term frequency saturation and document length weight
+  private static final double K1 = 1.2;
+  private static final double B = 0.75;
+
+  private static final int NAME_WEIGHT = 3;
+  private static final int CATEGORY_WEIGHT = 2;
+  private static final int DESCRIPTION_WEIGHT = 1;
+
+  // A word that only matches as a prefix of an indexed word scores a bit
+  // lower than an exact match, and a short prefix can't expand to more than
+  // this many words
+  private static final double PREFIX_MATCH_FACTOR = 0.8;
+  private static final int MAX_PREFIX_EXPANSIONS = 64;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // Each indexed product gets a slot number, so postings and scores can be
+  // kept in plain arrays. Slots of removed products are reused.
+  private final Map<Integer, Integer> slotsByProductId = new HashMap<>();
+  private final List<Document> slots = new ArrayList<>();
+  private final Deque<Integer> freeSlots = new ArrayDeque<>();
+  private int[] lengths = new int[16];
+  private long totalLength;
+  // Stem -> slots of the products containing it
+  private final Map<String, Posting> postings = new HashMap<>();
+  // Every indexed word as written, used for prefix matching
+  private final NavigableMap<String, Word> words = new TreeMap<>();
+
+  private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+  /**
+   * Adds a product to the index, replacing it if it is already indexed.
+   *
+   * @param id            the ID of the product
+   * @param name          the name of the product
+   * @param description   the description of the product
+   * @param categoryNames the names of the product's categories
+   * @param price         the price of the product
+   * @param image         the image of the product
+   */
+  public void put(int id, String name, String description, Collection<String> categoryNames, BigDecimal price,
+      String image) {
+    Document document = new Document(id, name, price, image);
+    addWords(document, TextAnalyzer.tokenize(name), NAME_WEIGHT);
+    for (String categoryName : categoryNames) {
+      addWords(document, TextAnalyzer.tokenize(categoryName), CATEGORY_WEIGHT);
+    }
+    addWords(document, TextAnalyzer.tokenize(description), DESCRIPTION_WEIGHT);
+
+    lock.writeLock().lock();
+    try {
+      removeDocument(id);
+      int slot;
+      if (freeSlots.isEmpty()) {
+        slot = slots.size();
+        slots.add(document);
+        if (slot == lengths.length) {
+          lengths = Arrays.copyOf(lengths, slot * 2);
+        }
+      } else {
+        slot = freeSlots.pop();
+        slots.set(slot, document);
+      }
+      slotsByProductId.put(id, slot);
+      lengths[slot] = document.length;
+      totalLength += document.length;
+      for (Map.Entry<String, Integer> term : document.termFrequencies.entrySet()) {
+        postings.computeIfAbsent(term.getKey(), key -> new Posting()).add(slot, term.getValue());
+      }
+      for (String word : document.words) {
+        words.computeIfAbsent(word, key -> new Word(TextAnalyzer.stem(key))).documentCount++;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes a product from the index. Does nothing if it isn't indexed.
+   *
+   * @param id the ID of the product
+   */
+  public void remove(int id) {
+    lock.writeLock().lock();
+    try {
+      removeDocument(id);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes every product from the index.
+   */
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      slotsByProductId.clear();
+      slots.clear();
+      freeSlots.clear();
+      totalLength = 0;
+      postings.clear();
+      words.clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return the number of indexed products
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return slotsByProductId.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Finds the products matching every word of the query, best match first.
+   *
+   * @param query the words to search for
+   * @param limit the maximum number of results
+   * @return the matching products with their scores, ordered by descending
+   *         score and then by ID
+   */
+  public List<Hit> search(String query, int limit) {
+    Set<String> queryWords = new HashSet<>(TextAnalyzer.tokenize(query));
+    if (queryWords.isEmpty() || limit <= 0) {
+      return new ArrayList<>();
+    }
+
+    lock.readLock().lock();
+    try {
+      if (slotsByProductId.isEmpty()) {
+        return new ArrayList<>();
+      }
+
+      // Look up the words first, so the rarest one can narrow down the
+      // candidates before the common ones are scored
+      List<WordMatch> matches = new ArrayList<>();
+      for (String queryWord : queryWords) {
+        WordMatch match = matchWord(queryWord);
+        if (match.candidates == 0) {
+          return new ArrayList<>();
+        }
+        matches.add(match);
+      }
+      matches.sort(Comparator.comparingInt(match -> match.candidates));
+
+      Scratch work = scratch.get();
+      work.ensureCapacity(slots.size());
+      try {
+        return score(matches, work, limit);
+      } finally {
+        work.reset();
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Finds the stems a query word matches: its own stem, and the stems of the
+   * indexed words it is a prefix of. The caller must hold the read lock.
+   */
+  private WordMatch matchWord(String queryWord) {
+    WordMatch match = new WordMatch();
+    int expansions = 0;
+    for (Map.Entry<String, Word> word : words.subMap(queryWord, true, queryWord + Character.MAX_VALUE, false)
+        .entrySet()) {
+      if (expansions++ == MAX_PREFIX_EXPANSIONS) {
+        break;
+      }
+      match.add(word.getValue().stem, PREFIX_MATCH_FACTOR);
+    }
+    match.add(TextAnalyzer.stem(queryWord), 1.0);
+    return match;
+  }
+
+  /**
+   * Scores the products matching every word with BM25 and returns the best
+   * ones. A product matching one query word through several indexed words
+   * gets the best of their scores. The caller must hold the read lock.
+   */
+  private List<Hit> score(List<WordMatch> matches, Scratch work, int limit) {
+    int documentCount = slotsByProductId.size();
+    double averageLength = (double) totalLength / documentCount;
+
+    for (int round = 0; round < matches.size(); round++) {
+      work.roundHits.clear();
+      for (Map.Entry<String, Double> stem : matches.get(round).stems.entrySet()) {
+        Posting posting = postings.get(stem.getKey());
+        if (posting == null) {
+          continue;
+        }
+        double idf = Math.log(1 + (documentCount - posting.size + 0.5) / (posting.size + 0.5));
+        double weight = stem.getValue() * idf * (K1 + 1);
+        for (int i = 0; i < posting.size; i++) {
+          int slot = posting.slots[i];
+          int matched = work.matched[slot];
+          if (matched < round) {
+            // Missed an earlier query word
+            continue;
+          }
+          int frequency = posting.frequencies[i];
+          double score = weight * frequency / (frequency + K1 * (1 - B + B * lengths[slot] / averageLength));
+          if (matched == round) {
+            work.matched[slot] = round + 1;
+            work.current[slot] = score;
+            work.roundHits.add(slot);
+            if (round == 0) {
+              work.touched.add(slot);
+            }
+          } else if (score > work.current[slot]) {
+            work.current[slot] = score;
+          }
+        }
+      }
+      for (int i = 0; i < work.roundHits.size; i++) {
+        int slot = work.roundHits.values[i];
+        work.scores[slot] += work.current[slot];
+      }
+    }
+
+    // Keep the best hits in a heap with the worst of them on top
+    Comparator<Hit> byRank = Comparator.comparingDouble(Hit::getScore).reversed().thenComparingInt(Hit::getId);
+    PriorityQueue<Hit> best = new PriorityQueue<>(limit + 1, byRank.reversed());
+    for (int i = 0; i < work.roundHits.size; i++) {
+      int slot = work.roundHits.values[i];
+      double score = work.scores[slot];
+      if (best.size() == limit) {
+        Hit worst = best.peek();
+        if (score < worst.score || (score == worst.score && slots.get(slot).id > worst.getId())) {
+          continue;
+        }
+      }
+      best.add(new Hit(slots.get(slot), score));
+      if (best.size() > limit) {
+        best.poll();
+      }
+    }
+    List<Hit> hits = new ArrayList<>(best);
+    hits.sort(byRank);
+    return hits;
+  }
+
+  private static void addWords(Document document, List<String> words, int weight) {
+    for (String word : words) {
+      document.words.add(word);
+      document.termFrequencies.merge(TextAnalyzer.stem(word), weight, Integer::sum);
+      document.length += weight;
+    }
+  }
+
+  /**
+   * Removes a product from the index. The caller must hold the write lock.
+   */
+  private void removeDocument(int id) {
+    Integer slot = slotsByProductId.remove(id);
+    if (slot == null) {
+      return;
+    }
+    Document document = slots.get(slot);
+    slots.set(slot, null);
+    freeSlots.push(slot);
+    totalLength -= document.length;
+    for (String stem : document.termFrequencies.keySet()) {
+      Posting posting = postings.get(stem);
+      posting.remove(slot);
+      if (posting.size == 0) {
+        postings.remove(stem);
+      }
+    }
+    for (String word : document.words) {
+      Word entry = words.get(word);
+      if (--entry.documentCount == 0) {
+        words.remove(word);
+      }
+    }
+  }
+
+  /**
+   * The slots of the products containing one stem, and how many times each
+   * contains it, weighted by field.
+   */
+  private static class Posting {
+    private int[] slots = new int[4];
+    private int[] frequencies = new int[4];
+    private int size;
+
+    private void add(int slot, int frequency) {
+      if (size == slots.length) {
+        slots = Arrays.copyOf(slots, size * 2);
+        frequencies = Arrays.copyOf(frequencies, size * 2);
+      }
+      slots[size] = slot;
+      frequencies[size] = frequency;
+      size++;
+    }
+
+    private void remove(int slot) {
+      for (int i = 0; i < size; i++) {
+        if (slots[i] == slot) {
+          size--;
+          slots[i] = slots[size];
+          frequencies[i] = frequencies[size];
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * The stems one query word matches, each with the factor its score is
+   * multiplied by, and an upper bound on the number of matching products.
+   */
+  private class WordMatch {
+    private final Map<String, Double> stems = new HashMap<>();
+    private int candidates;
+
+    private void add(String stem, double factor) {
+      Double previous = stems.put(stem, factor);
+      if (previous == null) {
+        Posting posting = postings.get(stem);
+        candidates += posting == null ? 0 : posting.size;
+      } else if (previous > factor) {
+        stems.put(stem, previous);
+      }
+    }
+  }
+
+  /**
+   * Per-thread arrays used while scoring a search, indexed by slot. They are
+   * kept between searches so a search doesn't allocate arrays the size of the
+   * catalog, and only the entries a search touched are cleared afterwards.
+   */
+  private static class Scratch {
+    private double[] scores = new double[0];
+    private double[] current = new double[0];
+    private int[] matched = new int[0];
+    private final IntList touched = new IntList();
+    private final IntList roundHits = new IntList();
+
+    private void ensureCapacity(int capacity) {
+      if (scores.length < capacity) {
+        scores = new double[capacity];
+        current = new double[capacity];
+        matched = new int[capacity];
+      }
+    }
+
+    private void reset() {
+      for (int i = 0; i < touched.size; i++) {
+        int slot = touched.values[i];
+        scores[slot] = 0;
+        current[slot] = 0;
+        matched[slot] = 0;
+      }
+      touched.clear();
+      roundHits.clear();
+    }
+  }
+
+  /**
+   * A growable list of ints, to avoid boxing in the scoring loop.
+   */
+  private static class IntList {
+    private int[] values = new int[16];
+    private int size;
+
+    private void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    private void clear() {
+      size = 0;
+    }
+  }
+
+  /**
+   * One product in the index, with the fields returned in search results.
+   */
+  private static class Document {
+    private final int id;
+    private final String name;
+    private final BigDecimal price;
+    private final String image;
+    private final Map<String, Integer> termFrequencies = new HashMap<>();
+    private final Set<String> words = new HashSet<>();
+    private int length;
+
+    private Document(int id, String name, BigDecimal price, String image) {
+      this.id = id;
+      this.name = name;
+      this.price = price;
+      this.image = image;
+    }
+  }
+
+  /**
+   * An indexed word, its stem and how many products contain it.
+   */
+  private static class Word {
+    private final String stem;
+    private int documentCount;
+
+    private Word(String stem) {
+      this.stem = stem;
+    }
+  }
+
+  /**
+   * A product matching a search, and how well it matches.
+   */
+  public static class Hit {
+    private final Document document;
+    private final double score;
+
+    private Hit(Document document, double score) {
+      this.document = document;
+      this.score = score;
+    }
+
+    /**
+     * @return the ID of the product
+     */
+    public int getId() {
+      return document.id;
+    }
+
+    /**
+     * @return the name of the product
+     */
+    public String getName() {
+      return document.name;
+    }
+
+    /**
+     * @return the price of the product
+     */
+    public BigDecimal getPrice() {
+      return document.price;
+    }
+
+    /**
+     * @return the image of the product
+     */
+    public String getImage() {
+      return document.image;
+    }
+
+    /**
+     * @return the BM25 score, higher is better
+     */
+    public double getScore() {
+      return score;
+    }
+  }
+}
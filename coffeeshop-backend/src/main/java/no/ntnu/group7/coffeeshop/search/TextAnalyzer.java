@@ -0,0 +1,58 @@
+package no.ntnu.group7.coffeeshop.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits text into lowercase words and reduces words to a stem, so that for
+ * example "beans" matches "bean" and "kaffen" matches "kaffe". The stemmer only
+ * strips a few common English and Norwegian endings. It is deliberately
+ * simple: the same word always gets the same stem, which is all the index
+ * needs, even when the stem isn't a real word.
+ */
+final class TextAnalyzer {
+  // Longest endings first, so "ies" is tried before "es" and "s"
+  private static final String[] SUFFIXES = {
+      "ene", "ane", "ing", "ies", "er", "en", "et", "es", "ed", "e", "s"
+  };
+  private static final int MIN_STEM_LENGTH = 3;
+
+  private TextAnalyzer() {
+  }
+
+  /**
+   * Splits text into lowercase words on anything that isn't a letter or digit.
+   *
+   * @param text the text to split, may be null
+   * @return the words, in order, including duplicates
+   */
+  static List<String> tokenize(String text) {
+    List<String> words = new ArrayList<>();
+    if (text == null) {
+      return words;
+    }
+    for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+      if (!word.isEmpty()) {
+        words.add(word);
+      }
+    }
+    return words;
+  }
+
+  /**
+   * Reduces a lowercase word to its stem.
+   *
+   * @param word the word
+   * @return the stem of the word
+   */
+  static String stem(String word) {
+    for (String suffix : SUFFIXES) {
+      if (word.endsWith(suffix) && word.length() - suffix.length() >= MIN_STEM_LENGTH) {
+        String stem = word.substring(0, word.length() - suffix.length());
+        return suffix.equals("ies") ? stem + "y" : stem;
+      }
+    }
+    return word;
+  }
+}
@@ -76,7 +76,14 @@ public class JwtUtil {
     return username.equals(userDetails.getUsername()) && !isTokenExpired(token);
   }
 
-  private Date extractExpiration(String token) {
+  /**
+   * Finds when a JWT token expires.
+   *
+   * @param token JWT token
+   * @return The expiration time
+   * @throws io.jsonwebtoken.JwtException If the token is invalid or has expired
+   */
+  public Date extractExpiration(String token) {
     return extractClaim(token, Claims::getExpiration);
   }
 
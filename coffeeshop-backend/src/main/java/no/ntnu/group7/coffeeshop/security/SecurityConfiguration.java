@@ -70,6 +70,7 @@ public class SecurityConfiguration {
         .requestMatchers(HttpMethod.GET, "/api/products/*").permitAll()
         .requestMatchers(HttpMethod.POST, "/api/products/*/add-review").permitAll()
         .requestMatchers(HttpMethod.GET, "/api/products/*/categories").permitAll()
+        .requestMatchers(HttpMethod.GET, "/api/products/*/reviews").permitAll()
         .requestMatchers(HttpMethod.GET, "/api/products/category/*").permitAll()
         .requestMatchers(HttpMethod.GET, "/api/products/count").permitAll()
         // Categories
@@ -78,9 +79,11 @@ public class SecurityConfiguration {
         // ShoppingCart
         .requestMatchers(HttpMethod.GET, "/api/shoppingCart").permitAll()
         .requestMatchers(HttpMethod.GET, "/api/shoppingCart/total").permitAll()
+        .requestMatchers(HttpMethod.GET, "/api/shoppingCart/details").permitAll()
         .requestMatchers(HttpMethod.DELETE, "/api/shoppingCart/*").permitAll()
         .requestMatchers(HttpMethod.PATCH, "/api/shoppingCart/quantity").permitAll()
         .requestMatchers(HttpMethod.POST, "/api/shoppingCart/add-to-cart").permitAll()
+        .requestMatchers(HttpMethod.POST, "/api/shoppingCart/batch").permitAll()
         .anyRequest().authenticated()
         .and().sessionManagement()
         .sessionCreationPolicy(SessionCreationPolicy.STATELESS)
@@ -18,6 +18,7 @@ import no.ntnu.group7.coffeeshop.model.Role;
 import no.ntnu.group7.coffeeshop.model.User;
 import no.ntnu.group7.coffeeshop.repositories.RoleRepository;
 import no.ntnu.group7.coffeeshop.repositories.UserRepository;
+import no.ntnu.group7.coffeeshop.repositories.UserRepository.UserSummaryView;
 import no.ntnu.group7.coffeeshop.security.AccessUserDetails;
 
 import java.util.List;
@@ -186,12 +187,23 @@ public class AccessUserService implements UserDetailsService {
   }
 
   /**
-   * Fetches all users from the database and returns them as a list.
+   * Fetches all users from the database and returns them as a list. Their
+   * roles are fetched in the same query.
    *
    * @return a list of all users in the database
    */
   public List<User> getAllUsers() {
-    return userRepository.findAll();
+    return userRepository.findAllWithRoles();
+  }
+
+  /**
+   * Fetches the profile fields of all users, except their roles, without
+   * loading the roles.
+   *
+   * @return a list of all users in the database
+   */
+  public List<UserSummaryView> getAllUserSummaries() {
+    return userRepository.findAllSummaries();
   }
 
   /**
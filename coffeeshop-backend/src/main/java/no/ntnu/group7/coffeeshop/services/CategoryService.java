@@ -1,11 +1,17 @@
 package no.ntnu.group7.coffeeshop.services;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import no.ntnu.group7.coffeeshop.cache.CacheConfiguration;
+import no.ntnu.group7.coffeeshop.cache.CatalogCache;
+import no.ntnu.group7.coffeeshop.dto.CategoryDto;
 import no.ntnu.group7.coffeeshop.model.Category;
 import no.ntnu.group7.coffeeshop.model.Product;
 import no.ntnu.group7.coffeeshop.repositories.CategoryRepository;
@@ -20,6 +26,41 @@ public class CategoryService {
   @Autowired
   private ProductRepository productRepository;
 
+  @Autowired
+  private CatalogCache catalogCache;
+
+  @Autowired
+  private ProductSearchService productSearchService;
+
+  @Autowired
+  private ProductFilterService productFilterService;
+
+  /**
+   * Returns all categories as DTOs.
+   *
+   * @return a list of all categories
+   */
+  @Cacheable(cacheNames = CacheConfiguration.CATEGORIES, key = "'all'")
+  public List<CategoryDto> getAllCategoryDtos() {
+    List<CategoryDto> categoryDtos = new ArrayList<>();
+    for (Category category : categoryRepository.findAll()) {
+      categoryDtos.add(new CategoryDto(category.getId(), category.getName()));
+    }
+    return categoryDtos;
+  }
+
+  /**
+   * Returns one category as a DTO.
+   *
+   * @param categoryId the ID of the category
+   * @return the category, or empty if not found
+   */
+  @Cacheable(cacheNames = CacheConfiguration.CATEGORIES, key = "#categoryId", unless = "#result == null")
+  public Optional<CategoryDto> getCategoryDto(int categoryId) {
+    return categoryRepository.findById(categoryId)
+        .map(category -> new CategoryDto(category.getId(), category.getName()));
+  }
+
   @Transactional
   public boolean deleteCategory(int categoryId) {
     Optional<Category> categoryOpt = categoryRepository.findById(categoryId);
@@ -30,8 +71,12 @@ public class CategoryService {
       for (Product product : category.getProducts()) {
         product.getCategories().remove(category);
         productRepository.save(product);
+        productSearchService.indexProduct(product);
       }
       categoryRepository.delete(category);
+      productFilterService.categoryRemoved(categoryId);
+      catalogCache.evictCategories();
+      catalogCache.evictAllProducts();
 
       return true;
     } else {
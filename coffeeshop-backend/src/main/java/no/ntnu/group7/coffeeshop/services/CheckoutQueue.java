@@ -0,0 +1,177 @@
+package no.ntnu.group7.coffeeshop.services;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import no.ntnu.group7.coffeeshop.dto.StockShortageDto;
+import no.ntnu.group7.coffeeshop.model.Order;
+import no.ntnu.group7.coffeeshop.model.User;
+
+/**
+ * Places orders in the background, so that checkouts don't tie up request
+ * threads when traffic peaks. Submitting a checkout writes a PENDING order and
+ * returns it at once; one of coffeeshop.checkout.workers threads then places
+ * it, or cancels it if some products ran out.
+ *
+ * At most coffeeshop.checkout.queue-capacity checkouts wait for a worker.
+ * Further checkouts are turned away with CheckoutQueueFullException before
+ * anything is written. The number of waiting checkouts and the number turned
+ * away are published as the checkout.queue.size and checkout.queue.rejected
+ * metrics.
+ */
+@Component
+public class CheckoutQueue {
+  // Shortages are kept for the most recently canceled orders only
+  private static final int MAX_SHORTAGES_KEPT = 1000;
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+  @Autowired
+  private CheckoutService checkoutService;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${coffeeshop.checkout.workers:4}")
+  private int workers;
+
+  @Value("${coffeeshop.checkout.queue-capacity:100}")
+  private int capacity;
+
+  private ThreadPoolExecutor executor;
+  // A permit for each checkout being placed or waiting; taken before the
+  // order is written, so a full queue costs nothing
+  private Semaphore slots;
+  private Counter rejected;
+
+  private final Map<Long, List<StockShortageDto>> shortages = Collections.synchronizedMap(
+      new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, List<StockShortageDto>> eldest) {
+          return size() > MAX_SHORTAGES_KEPT;
+        }
+      });
+
+  private final Logger logger = LoggerFactory.getLogger(CheckoutQueue.class);
+
+  /**
+   * Starts the workers, and registers the metrics.
+   */
+  @PostConstruct
+  public void start() {
+    slots = new Semaphore(workers + capacity);
+    AtomicInteger threadCount = new AtomicInteger();
+    executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(capacity), runnable -> {
+          Thread thread = new Thread(runnable, "checkout-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+
+    Gauge.builder("checkout.queue.size", executor, pool -> pool.getQueue().size())
+        .description("Checkouts waiting to be placed")
+        .register(meterRegistry);
+    rejected = Counter.builder("checkout.queue.rejected")
+        .description("Checkouts turned away because too many were waiting")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Stops taking checkouts, and gives the waiting ones time to be placed.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    executor.shutdown();
+    if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+      logger.warn("Stopped with " + executor.getQueue().size() + " checkouts still waiting");
+    }
+  }
+
+  /**
+   * Starts a checkout of the user's shopping cart, to be placed in the
+   * background.
+   *
+   * @param user the user to checkout
+   * @return the order, which is PENDING until it has been placed
+   * @throws CheckoutQueueFullException if too many checkouts are waiting
+   */
+  public Order submit(User user) {
+    if (!slots.tryAcquire()) {
+      rejected.increment();
+      throw new CheckoutQueueFullException(capacity);
+    }
+    Order order;
+    try {
+      order = checkoutService.openOrder(user);
+    } catch (RuntimeException e) {
+      slots.release();
+      throw e;
+    }
+    try {
+      executor.execute(() -> place(order.getId(), user));
+    } catch (RejectedExecutionException e) {
+      // Shutting down
+      slots.release();
+      checkoutService.cancelOrder(order.getId());
+      rejected.increment();
+      throw new CheckoutQueueFullException(capacity);
+    }
+    return order;
+  }
+
+  /**
+   * Returns the products there wasn't enough of for an order that was
+   * canceled because they ran out.
+   *
+   * @param orderId the ID of the order
+   * @return the products, or null if the order wasn't canceled for a shortage
+   *         recently
+   */
+  public List<StockShortageDto> getShortages(long orderId) {
+    return shortages.get(orderId);
+  }
+
+  private void place(long orderId, User user) {
+    try {
+      checkoutService.completeOrder(orderId, user);
+    } catch (OutOfStockException e) {
+      // Kept before the order is canceled, so that they are there as soon as
+      // the order shows as canceled
+      shortages.put(orderId, e.getShortages());
+      cancelQuietly(orderId);
+    } catch (RuntimeException e) {
+      logger.warn("Could not place order " + orderId, e);
+      cancelQuietly(orderId);
+    } finally {
+      slots.release();
+    }
+  }
+
+  private void cancelQuietly(long orderId) {
+    try {
+      checkoutService.cancelOrder(orderId);
+    } catch (RuntimeException e) {
+      logger.warn("Could not cancel order " + orderId, e);
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package no.ntnu.group7.coffeeshop.services;
+
+/**
+ * Thrown when a checkout can't be started because too many checkouts are
+ * already waiting to be placed. Nothing has been written.
+ */
+public class CheckoutQueueFullException extends RuntimeException {
+
+  /**
+   * @param capacity the number of checkouts that may wait
+   */
+  public CheckoutQueueFullException(int capacity) {
+    super("More than " + capacity + " checkouts are waiting to be placed");
+  }
+}
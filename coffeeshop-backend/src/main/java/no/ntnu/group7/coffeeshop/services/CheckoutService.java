@@ -2,19 +2,30 @@ package no.ntnu.group7.coffeeshop.services;
 
 import java.math.BigDecimal;
 import java.util.Date;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
-import jakarta.transaction.Transactional;
+import no.ntnu.group7.coffeeshop.cart.CartItem;
+import no.ntnu.group7.coffeeshop.cart.CartPricing;
+import no.ntnu.group7.coffeeshop.inventory.HotStockLedger;
+import no.ntnu.group7.coffeeshop.inventory.StockReservations;
 import no.ntnu.group7.coffeeshop.model.Order;
+import no.ntnu.group7.coffeeshop.model.OrderEvent;
 import no.ntnu.group7.coffeeshop.model.OrderProduct;
 import no.ntnu.group7.coffeeshop.model.Product;
-import no.ntnu.group7.coffeeshop.model.ShoppingCartProduct;
 import no.ntnu.group7.coffeeshop.model.User;
+import no.ntnu.group7.coffeeshop.outbox.OrderOutbox;
+import no.ntnu.group7.coffeeshop.repositories.OrderProductRepository;
 
 /**
  * CheckoutService is a service layer class that handles the checkout process
@@ -33,67 +44,210 @@ public class CheckoutService {
   @Autowired
   private InventoryService inventoryService;
 
+  @Autowired
+  private StockReservations stockReservations;
+
+  @Autowired
+  private HotStockLedger hotStockLedger;
+
+  @Autowired
+  private OrderProductRepository orderProductRepository;
+
+  @Autowired
+  private OrderOutbox orderOutbox;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  private final Logger logger = LoggerFactory.getLogger(CheckoutService.class);
+
+  /**
+   * Gives the lines of orders placed before order lines kept the name and price
+   * of their product the current name and price, so that every order can be
+   * read without its products.
+   */
+  @PostConstruct
+  public void start() {
+    int updated = new TransactionTemplate(transactionManager)
+        .execute(status -> orderProductRepository.copyMissingProductDetails());
+    if (updated > 0) {
+      logger.info("Copied product names and prices onto " + updated + " order lines");
+    }
+  }
+
   /**
    * Performs the checkout process for a given user. Creates an order, adds
    * shopping cart items to the order, updates the inventory, clears the user's
    * shopping cart, and sets the order status to PROCESSING.
    *
+   * The statements don't grow with the size of the cart: the cart is read
+   * once, the order and its lines are inserted in JDBC batches, the stock of
+   * every product is decremented with one UPDATE, the cart is cleared with
+   * one DELETE, and a PLACED event is added to the order outbox.
+   *
+   * The stock is only taken if there is enough of every product that isn't
+   * held for other users' carts. Otherwise the whole checkout is rolled back,
+   * and the cart is left as it was.
+   *
    * @param user the user to checkout
+   * @return the order
+   * @throws OutOfStockException if there isn't enough of some product in stock
    */
-  @Transactional
   public Order checkout(User user) {
-    BigDecimal total = shoppingCartService.calculateShoppingCartTotal(user);
+    try {
+      return new TransactionTemplate(transactionManager).execute(status -> placeOrder(user, null));
+    } catch (StockShortfall e) {
+      throw outOfStock(user, e);
+    }
+  }
 
-    Order order = new Order();
-    order.setUser(user);
-    order.setOrderStatus(Order.OrderStatus.PENDING);
-    order.setTotal(total);
-    order.setCreatedAt(new Date());
+  /**
+   * Starts an order that is placed later by completeOrder: writes it as
+   * PENDING, without any products, so that its ID can be handed out before
+   * the order is placed.
+   *
+   * @param user the user to checkout
+   * @return the pending order
+   */
+  public Order openOrder(User user) {
+    return new TransactionTemplate(transactionManager).execute(status -> {
+      Order order = new Order(user, Order.OrderStatus.PENDING, BigDecimal.ZERO);
+      entityManager.persist(order);
+      return order;
+    });
+  }
 
-    entityManager.persist(order);
+  /**
+   * Places an order started by openOrder, from the user's shopping cart as it
+   * is now, the same way checkout does. If the cart is empty by now, the
+   * order is canceled. If there isn't enough of some product in stock, the
+   * order is left PENDING, to be canceled with cancelOrder.
+   *
+   * @param orderId the ID of the pending order
+   * @param user    the user who started it
+   * @return the order, or null if it has been deleted
+   * @throws OutOfStockException if there isn't enough of some product in stock
+   */
+  public Order completeOrder(long orderId, User user) {
+    try {
+      return new TransactionTemplate(transactionManager).execute(status -> {
+        Order order = entityManager.find(Order.class, orderId);
+        return order == null ? null : placeOrder(user, order);
+      });
+    } catch (StockShortfall e) {
+      throw outOfStock(user, e);
+    }
+  }
+
+  /**
+   * Cancels an order that couldn't be placed.
+   *
+   * @param orderId the ID of the order
+   */
+  public void cancelOrder(long orderId) {
+    new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+      Order order = entityManager.find(Order.class, orderId);
+      if (order != null) {
+        order.setOrderStatus(Order.OrderStatus.CANCELED);
+        orderOutbox.add(OrderEvent.Type.STATUS_CHANGED, order);
+      }
+    });
+  }
 
-    // Add the items from the shopping cart to the order
-    List<ShoppingCartProduct> cartItems = shoppingCartService.getCartProducts(user);
-    for (ShoppingCartProduct cartItem : cartItems) {
-      OrderProduct orderItem = new OrderProduct();
-      orderItem.setOrder(order);
-      orderItem.setProduct(cartItem.getProduct());
-      orderItem.setQuantity(cartItem.getQuantity());
+  private OutOfStockException outOfStock(User user, StockShortfall e) {
+    // Read after the rollback, so the shortages are the committed stock
+    return new OutOfStockException(inventoryService.findShortages(e.quantities,
+        stockReservations.getReservedByOthers(user.getId(), e.quantities.keySet())));
+  }
 
-      entityManager.persist(orderItem);
+  // Places a new order if order is null, or else the given pending order
+  private Order placeOrder(User user, Order order) {
+    // The cart and its total in one read; the total is the cart's running
+    // total if it has one
+    ShoppingCartService.CartWithTotal cart = shoppingCartService.getCart(user);
+
+    // Products deleted since they were put in the cart are left out, as they
+    // are from the total
+    Map<Integer, Integer> quantities = new LinkedHashMap<>();
+    for (CartItem cartItem : cart.getItems()) {
+      if (cart.getPrice(cartItem.getProductId()) != null) {
+        quantities.merge(cartItem.getProductId(), cartItem.getQuantity(), Integer::sum);
+      }
     }
 
-    // Removes product from inventory that are in the shopping cart
-    updateInventoryAfterCheckout(user);
+    // A pending order whose cart was emptied since it was submitted, such as by
+    // the same checkout submitted twice, has nothing to place
+    if (order != null && quantities.isEmpty()) {
+      order.setOrderStatus(Order.OrderStatus.CANCELED);
+      orderOutbox.add(OrderEvent.Type.STATUS_CHANGED, order);
+      return order;
+    }
+
+    // Nothing else sees a new order before the transaction commits, so it is
+    // written as PROCESSING straight away instead of being updated from PENDING
+    if (order == null) {
+      order = new Order();
+      order.setUser(user);
+      order.setCreatedAt(new Date());
+    }
+    order.setOrderStatus(Order.OrderStatus.PROCESSING);
+    order.setTotal(cart.getTotal());
+
+    // A pending order is already managed, and is updated when the transaction
+    // commits
+    entityManager.persist(order);
+
+    // Add the items from the shopping cart to the order, with the names and
+    // prices they were priced at. Their IDs come from the application, so the
+    // lines are inserted in one batch when the transaction commits
+    for (Map.Entry<Integer, Integer> line : quantities.entrySet()) {
+      CartPricing.Price price = cart.getPrice(line.getKey());
+      OrderProduct orderProduct = new OrderProduct(order, entityManager.getReference(Product.class, line.getKey()),
+          price.getName(), price.getUnitPrice(), line.getValue());
+      entityManager.persist(orderProduct);
+      order.getOrderProducts().add(orderProduct);
+    }
+
+    // Removes product from inventory that are in the shopping cart, or rolls
+    // everything back if there isn't enough. What is left must cover the
+    // holds of other users; it is checked while the products are locked, so
+    // checkouts that waited for this one see its holds gone.
+    // Checkouts of hot products don't wait for each other; what other users
+    // hold of them is kept apart in the ledger, and the user's holds are
+    // taken as their stock is
+    Map<Integer, Integer> stockLeft = inventoryService.takeFromStock(user.getId(), quantities);
+    if (stockLeft == null || !coversHolds(user, stockLeft)) {
+      throw new StockShortfall(quantities);
+    }
+    // The user's own holds become the sale
+    stockReservations.convert(user.getId());
 
     // Clear the shopping cart
     shoppingCartService.clearShoppingCart(user);
 
-    // Updates the order status
-    order.setOrderStatus(Order.OrderStatus.PROCESSING);
+    // Whoever else needs to know is told by the outbox, once this commits
+    orderOutbox.add(OrderEvent.Type.PLACED, order);
 
     return order;
   }
 
-  /**
-   * Updates the inventory after a user completes the checkout process. Reduces
-   * the inventory amount for each product in the user's shopping cart according
-   * to the purchased quantity.
-   *
-   * @param user the user whose purchased products should be removed from the
-   *             inventory
-   */
-  @Transactional
-  public void updateInventoryAfterCheckout(User user) {
-    List<ShoppingCartProduct> cartProducts = shoppingCartService.getCartProducts(user);
+  private boolean coversHolds(User user, Map<Integer, Integer> stockLeft) {
+    Map<Integer, Integer> reservedByOthers = stockReservations.getReservedByOthers(user.getId(), stockLeft.keySet());
+    for (Map.Entry<Integer, Integer> stock : stockLeft.entrySet()) {
+      if (!hotStockLedger.isHot(stock.getKey()) && stock.getValue() < reservedByOthers.get(stock.getKey())) {
+        return false;
+      }
+    }
+    return true;
+  }
 
-    for (ShoppingCartProduct cartProduct : cartProducts) {
-      Product product = cartProduct.getProduct();
+  // Rolls back a checkout that couldn't take the stock it needed
+  private static class StockShortfall extends RuntimeException {
+    private final transient Map<Integer, Integer> quantities;
 
-      int updatedQuantity = product.getInventoryAmount() - cartProduct.getQuantity();
-      product.setInventoryAmount(updatedQuantity);
-      inventoryService.updateProduct(product);
+    StockShortfall(Map<Integer, Integer> quantities) {
+      super(null, null, false, false);
+      this.quantities = quantities;
     }
   }
-
 }
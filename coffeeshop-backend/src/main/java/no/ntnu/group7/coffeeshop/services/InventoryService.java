@@ -1,11 +1,23 @@
 package no.ntnu.group7.coffeeshop.services;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
 import jakarta.transaction.Transactional;
+import no.ntnu.group7.coffeeshop.cache.CatalogCache;
+import no.ntnu.group7.coffeeshop.dto.StockShortageDto;
+import no.ntnu.group7.coffeeshop.inventory.HotStockLedger;
+import no.ntnu.group7.coffeeshop.inventory.StockReservations;
 import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
 
 /**
  * InventoryService is a service layer class responsible for managing the
@@ -17,6 +29,21 @@ public class InventoryService {
   @PersistenceContext
   private EntityManager entityManager;
 
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private CatalogCache catalogCache;
+
+  @Autowired
+  private ProductFilterService productFilterService;
+
+  @Autowired
+  private HotStockLedger hotStockLedger;
+
+  @Autowired
+  private StockReservations stockReservations;
+
   /**
    * Updates the product entity in the database with the provided product object.
    *
@@ -26,5 +53,108 @@ public class InventoryService {
   @Transactional
   public void updateProduct(Product product) {
     entityManager.merge(product);
+    catalogCache.evictProduct(product.getId());
+    productFilterService.stockChanged(product.getId(), product.getInventoryAmount());
+  }
+
+  /**
+   * Takes quantities of products out of the inventory, if there is enough of
+   * every one of them. Every product is decremented by one conditional UPDATE
+   * statement that only changes products with at least the quantity in stock,
+   * so concurrent checkouts can neither lose a decrement nor take the stock
+   * below zero. The new stock is read back with one query; the products stay
+   * locked until the transaction ends.
+   *
+   * Hot products are taken from the HotStockLedger instead, without locking
+   * their rows or waiting for other checkouts: the user's holds on them
+   * become the sale, and the rest comes from the stock no one holds. They are
+   * taken first, so a sold out hot product fails the checkout before any row
+   * is locked.
+   *
+   * If there isn't enough of some product, the others have been decremented,
+   * and the caller must roll the transaction back.
+   *
+   * @param userId     the ID of the user the stock is taken for
+   * @param quantities the quantity to take of each product, by product ID
+   * @return the stock left of each product, by product ID, or null if there
+   *         wasn't enough and the transaction must be rolled back
+   */
+  @Transactional
+  public Map<Integer, Integer> takeFromStock(long userId, Map<Integer, Integer> quantities) {
+    Map<Integer, Integer> hot = new HashMap<>();
+    Map<Integer, Integer> cold = new HashMap<>();
+    quantities.forEach((productId, quantity) -> (hotStockLedger.isHot(productId) ? hot : cold)
+        .put(productId, quantity));
+
+    Map<Integer, Integer> stockLeft = new HashMap<>();
+    if (!hot.isEmpty()) {
+      Map<Integer, Integer> hotStockLeft = stockReservations.takeForSale(userId, hot);
+      if (hotStockLeft == null) {
+        return null;
+      }
+      stockLeft.putAll(hotStockLeft);
+    }
+    if (cold.isEmpty()) {
+      return stockLeft;
+    }
+
+    // One WHEN per product, bound below in the order of the entries
+    StringBuilder quantityOf = new StringBuilder("CASE p.id");
+    for (int i = 0; i < cold.size(); i++) {
+      quantityOf.append(" WHEN :id").append(i).append(" THEN :quantity").append(i);
+    }
+    quantityOf.append(" ELSE 0 END");
+
+    Query update = entityManager.createQuery("UPDATE Product p SET p.inventoryAmount = p.inventoryAmount - "
+        + quantityOf + " WHERE p.id IN :ids AND p.inventoryAmount >= " + quantityOf);
+    int i = 0;
+    for (Map.Entry<Integer, Integer> entry : cold.entrySet()) {
+      update.setParameter("id" + i, entry.getKey());
+      update.setParameter("quantity" + i, entry.getValue());
+      i++;
+    }
+    update.setParameter("ids", cold.keySet());
+    if (update.executeUpdate() < cold.size()) {
+      return null;
+    }
+
+    for (ProductRepository.StockView stock : productRepository.findStockByIdIn(cold.keySet())) {
+      stockLeft.put(stock.getId(), stock.getInventoryAmount());
+      catalogCache.evictProduct(stock.getId());
+      productFilterService.stockChanged(stock.getId(), stock.getInventoryAmount());
+    }
+    return stockLeft;
+  }
+
+  /**
+   * Finds the products there isn't enough of in stock, leaving out what is
+   * held for other users' carts.
+   *
+   * @param quantities       the quantity wanted of each product, by product ID
+   * @param reservedByOthers the quantity of each product held for other users
+   * @return the products with less than the wanted quantity available, in the
+   *         order of the given quantities; products that no longer exist are
+   *         left out
+   */
+  public List<StockShortageDto> findShortages(Map<Integer, Integer> quantities,
+      Map<Integer, Integer> reservedByOthers) {
+    Map<Integer, Integer> available = new HashMap<>();
+    productRepository.findStockByIdIn(quantities.keySet())
+        .forEach(stock -> available.put(stock.getId(), stock.getInventoryAmount()));
+    // The rows of hot products lag behind their ledger
+    available.putAll(hotStockLedger.getStock(available.keySet()));
+
+    List<StockShortageDto> shortages = new ArrayList<>();
+    quantities.forEach((productId, requested) -> {
+      Integer inStock = available.get(productId);
+      if (inStock == null) {
+        return;
+      }
+      int unreserved = Math.max(0, inStock - reservedByOthers.getOrDefault(productId, 0));
+      if (unreserved < requested) {
+        shortages.add(new StockShortageDto(productId, requested, unreserved));
+      }
+    });
+    return shortages;
   }
 }
@@ -0,0 +1,44 @@
+package no.ntnu.group7.coffeeshop.services;
+
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import jakarta.transaction.Transactional;
+import no.ntnu.group7.coffeeshop.model.Order;
+import no.ntnu.group7.coffeeshop.model.OrderEvent;
+import no.ntnu.group7.coffeeshop.outbox.OrderOutbox;
+import no.ntnu.group7.coffeeshop.repositories.OrderRepository;
+
+/**
+ * OrderService is a service layer class for changing orders after they have
+ * been placed.
+ */
+@Service
+public class OrderService {
+
+  @Autowired
+  private OrderRepository orderRepository;
+
+  @Autowired
+  private OrderOutbox orderOutbox;
+
+  /**
+   * Changes the status of an order. If it changed, a STATUS_CHANGED event is
+   * added to the order outbox in the same transaction.
+   *
+   * @param orderId the ID of the order
+   * @param status  the new status
+   * @return the order, or empty if not found
+   */
+  @Transactional
+  public Optional<Order> updateStatus(int orderId, Order.OrderStatus status) {
+    Optional<Order> order = orderRepository.findById(orderId);
+    order.filter(current -> current.getOrderStatus() != status).ifPresent(current -> {
+      current.setOrderStatus(status);
+      orderOutbox.add(OrderEvent.Type.STATUS_CHANGED, current);
+    });
+    return order;
+  }
+}
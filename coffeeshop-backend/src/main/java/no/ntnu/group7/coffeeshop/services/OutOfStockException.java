@@ -0,0 +1,29 @@
+package no.ntnu.group7.coffeeshop.services;
+
+import java.util.List;
+
+import no.ntnu.group7.coffeeshop.dto.StockShortageDto;
+
+/**
+ * Thrown when an order can't be placed because there isn't enough of some of
+ * its products in stock. Nothing of the order has been written.
+ */
+public class OutOfStockException extends RuntimeException {
+  private final transient List<StockShortageDto> shortages;
+
+  /**
+   * @param shortages the products there isn't enough of; may be empty if the
+   *                  stock was replenished after the order failed
+   */
+  public OutOfStockException(List<StockShortageDto> shortages) {
+    super("Not enough in stock of " + shortages.size() + " products");
+    this.shortages = shortages;
+  }
+
+  /**
+   * @return the products there isn't enough of
+   */
+  public List<StockShortageDto> getShortages() {
+    return shortages;
+  }
+}
@@ -0,0 +1,179 @@
+package no.ntnu.group7.coffeeshop.services;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import no.ntnu.group7.coffeeshop.dto.ProductDto;
+import no.ntnu.group7.coffeeshop.dto.ProductFacetsDto;
+import no.ntnu.group7.coffeeshop.dto.ProductFilterPageDto;
+import no.ntnu.group7.coffeeshop.model.Category;
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.search.ProductFacetIndex;
+
+/**
+ * ProductFilterService filters products by category, price, stock and rating
+ * using an in-memory ProductFacetIndex, and counts the matches of each filter
+ * option. The index is built from the database at startup, and the write
+ * paths that change products, stock, reviews or categories keep it up to
+ * date. Only the products on the returned page are loaded from the database.
+ */
+@Service
+public class ProductFilterService {
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private ProductService productService;
+
+  @Value("${coffeeshop.products.default-page-size:20}")
+  private int defaultPageSize;
+
+  @Value("${coffeeshop.products.max-page-size:100}")
+  private int maxPageSize;
+
+  private final ProductFacetIndex index = new ProductFacetIndex();
+
+  private final Logger logger = LoggerFactory.getLogger(ProductFilterService.class);
+
+  /**
+   * Rebuilds the index from every product in the database.
+   */
+  public void rebuild() {
+    List<Product> products = productRepository.findAllWithCategories();
+    index.clear();
+    for (Product product : products) {
+      put(product);
+    }
+    logger.info("Indexed " + products.size() + " products for filtering");
+  }
+
+  /**
+   * Adds a product to the index, or updates it if already indexed. The
+   * product's categories must be loaded. When called inside a transaction,
+   * the index is updated after the commit.
+   *
+   * @param product the product that was created or changed
+   */
+  public void indexProduct(Product product) {
+    TransactionHooks.runAfterCommit(() -> put(product));
+  }
+
+  /**
+   * Removes a product from the index. When called inside a transaction, the
+   * index is updated after the commit.
+   *
+   * @param productId the ID of the product that was deleted
+   */
+  public void removeProduct(int productId) {
+    TransactionHooks.runAfterCommit(() -> index.remove(productId));
+  }
+
+  /**
+   * Records a product's new inventory amount. When called inside a
+   * transaction, the index is updated after the commit.
+   *
+   * @param productId       the ID of the product
+   * @param inventoryAmount the number of items in stock
+   */
+  public void stockChanged(int productId, int inventoryAmount) {
+    TransactionHooks.runAfterCommit(() -> index.updateStock(productId, inventoryAmount));
+  }
+
+  /**
+   * Counts a review being added to or removed from a product. When called
+   * inside a transaction, the index is updated after the commit.
+   *
+   * @param productId the ID of the product
+   * @param rating    the rating of the review
+   * @param delta     1 if the review was added, -1 if it was removed
+   */
+  public void ratingChanged(int productId, int rating, int delta) {
+    TransactionHooks.runAfterCommit(() -> index.updateRating(productId, rating, delta));
+  }
+
+  /**
+   * Removes a deleted category from every product. When called inside a
+   * transaction, the index is updated after the commit.
+   *
+   * @param categoryId the ID of the category
+   */
+  public void categoryRemoved(int categoryId) {
+    TransactionHooks.runAfterCommit(() -> index.removeCategory(categoryId));
+  }
+
+  /**
+   * Returns one page of the products matching a filter, together with the
+   * number of products matching each filter option.
+   *
+   * @param categoryIds    the categories to include products of, or empty for
+   *                       every category
+   * @param minPrice       the lowest price, or null for no lower bound
+   * @param maxPrice       the highest price, or null for no upper bound
+   * @param inStock        whether to only include products in stock
+   * @param minRating      the lowest average rating, from 1 to 5, or null for
+   *                       any rating
+   * @param sortName       the sort order (id or price), or null to sort by ID
+   * @param offset         the number of matching products to skip, or null
+   *                       for none
+   * @param limit          the number of products on the page, or null for the
+   *                       default page size. Capped at the maximum page size.
+   * @param includeReviews whether to include the full reviews of each product
+   * @param summary        whether to only load the fields in
+   *                       ProductService.SUMMARY_VIEW_FIELDS
+   * @return the page of products and the facet counts
+   * @throws IllegalArgumentException if any of the parameters are invalid
+   */
+  public ProductFilterPageDto filter(List<Integer> categoryIds, BigDecimal minPrice, BigDecimal maxPrice,
+      boolean inStock, Integer minRating, String sortName, Integer offset, Integer limit,
+      boolean includeReviews, boolean summary) {
+    ProductFacetIndex.Sort sort = sortName == null
+        ? ProductFacetIndex.Sort.ID
+        : ProductFacetIndex.Sort.valueOf(sortName.toUpperCase(Locale.ROOT));
+    if (minPrice != null && maxPrice != null && minPrice.compareTo(maxPrice) > 0) {
+      throw new IllegalArgumentException("Minimum price can't be above maximum price");
+    }
+    if (minRating != null && (minRating < 1 || minRating > ProductFacetIndex.MAX_RATING)) {
+      throw new IllegalArgumentException("Minimum rating must be between 1 and " + ProductFacetIndex.MAX_RATING);
+    }
+    if (offset != null && offset < 0) {
+      throw new IllegalArgumentException("Offset can't be negative");
+    }
+    if (limit != null && limit <= 0) {
+      throw new IllegalArgumentException("Limit must be positive");
+    }
+    int pageOffset = offset == null ? 0 : offset;
+    int pageSize = limit == null ? defaultPageSize : Math.min(limit, maxPageSize);
+
+    ProductFacetIndex.Filter filter = new ProductFacetIndex.Filter(
+        categoryIds == null ? new ArrayList<>() : categoryIds, minPrice, maxPrice, inStock,
+        minRating == null ? 0 : minRating);
+    ProductFacetIndex.Result result = index.filter(filter, sort, pageOffset, pageSize);
+
+    ProductFacetsDto facets = new ProductFacetsDto(result.getCategoryCounts(), result.getInStockCount(),
+        result.getRatingCounts(), result.getLowestPrice(), result.getHighestPrice());
+    List<ProductDto> productDtos = summary
+        ? productService.getProductSummaries(result.getIds())
+        : productService.getProductDtos(result.getIds(), includeReviews);
+    return new ProductFilterPageDto(productDtos, result.getTotal(), pageOffset, pageSize, sort.name().toLowerCase(Locale.ROOT),
+        facets);
+  }
+
+  private void put(Product product) {
+    List<Integer> categoryIds = product.getCategories().stream()
+        .map(Category::getId)
+        .collect(Collectors.toList());
+    index.put(product.getId(), product.getPrice(), product.getInventoryAmount(), categoryIds,
+        product.getRatingCount(), product.getRatingSum());
+  }
+}
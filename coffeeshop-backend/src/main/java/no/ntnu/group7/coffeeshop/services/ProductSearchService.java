@@ -0,0 +1,98 @@
+package no.ntnu.group7.coffeeshop.services;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import no.ntnu.group7.coffeeshop.dto.ProductSearchResultDto;
+import no.ntnu.group7.coffeeshop.model.Category;
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.search.ProductSearchIndex;
+
+/**
+ * ProductSearchService answers product searches from an in-memory
+ * ProductSearchIndex. The index is built from the database at startup, and
+ * the write paths that change products or categories keep it up to date by
+ * calling indexProduct and removeProduct.
+ */
+@Service
+public class ProductSearchService {
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Value("${coffeeshop.search.max-results:50}")
+  private int maxResults;
+
+  private final ProductSearchIndex index = new ProductSearchIndex();
+
+  private final Logger logger = LoggerFactory.getLogger(ProductSearchService.class);
+
+  /**
+   * Rebuilds the index from every product in the database.
+   */
+  public void rebuild() {
+    List<Product> products = productRepository.findAllWithCategories();
+    index.clear();
+    for (Product product : products) {
+      put(product);
+    }
+    logger.info("Indexed " + products.size() + " products for search");
+  }
+
+  /**
+   * Adds a product to the index, or updates it if already indexed. The
+   * product's categories must be loaded. When called inside a transaction,
+   * the index is updated after the commit.
+   *
+   * @param product the product that was created or changed
+   */
+  public void indexProduct(Product product) {
+    TransactionHooks.runAfterCommit(() -> put(product));
+  }
+
+  /**
+   * Removes a product from the index. When called inside a transaction, the
+   * index is updated after the commit.
+   *
+   * @param productId the ID of the product that was deleted
+   */
+  public void removeProduct(int productId) {
+    TransactionHooks.runAfterCommit(() -> index.remove(productId));
+  }
+
+  /**
+   * Finds the products matching every word of the query, best match first.
+   *
+   * @param query the words to search for
+   * @param limit the maximum number of results, or null for the maximum.
+   *              Capped at the maximum number of results.
+   * @return the matching products
+   * @throws IllegalArgumentException if the limit isn't positive
+   */
+  public List<ProductSearchResultDto> search(String query, Integer limit) {
+    if (limit != null && limit <= 0) {
+      throw new IllegalArgumentException("Limit must be positive");
+    }
+    int resultLimit = limit == null ? maxResults : Math.min(limit, maxResults);
+
+    return index.search(query, resultLimit).stream()
+        .map(hit -> new ProductSearchResultDto(hit.getId(), hit.getName(), hit.getPrice(), hit.getImage(),
+            hit.getScore()))
+        .collect(Collectors.toList());
+  }
+
+  private void put(Product product) {
+    List<String> categoryNames = product.getCategories().stream()
+        .map(Category::getName)
+        .collect(Collectors.toList());
+    index.put(product.getId(), product.getName(), product.getDescription(), categoryNames, product.getPrice(),
+        product.getImage());
+  }
+}
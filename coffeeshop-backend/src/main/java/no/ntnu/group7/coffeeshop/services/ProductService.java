@@ -1,22 +1,72 @@
 package no.ntnu.group7.coffeeshop.services;
 
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
 import jakarta.transaction.Transactional;
+import no.ntnu.group7.coffeeshop.cache.CacheConfiguration;
+import no.ntnu.group7.coffeeshop.dto.CategoryDto;
+import no.ntnu.group7.coffeeshop.dto.ProductDto;
+import no.ntnu.group7.coffeeshop.dto.ProductPageDto;
+import no.ntnu.group7.coffeeshop.dto.RatingSummaryDto;
+import no.ntnu.group7.coffeeshop.dto.ReviewDto;
 import no.ntnu.group7.coffeeshop.model.Product;
 import no.ntnu.group7.coffeeshop.model.Review;
 import no.ntnu.group7.coffeeshop.model.User;
 import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository.ProductSummaryView;
 import no.ntnu.group7.coffeeshop.repositories.ReviewRepository;
+import no.ntnu.group7.coffeeshop.repositories.ReviewRepository.ReviewView;
 
+/**
+ * ProductService is a service layer class for products. It provides the read
+ * path used by the product endpoints, which builds ProductDtos from a fixed
+ * number of queries regardless of how many products and reviews there are.
+ */
 @Service
 public class ProductService {
   private final ProductRepository productRepository;
   private final ReviewRepository reviewRepository;
 
+  @Value("${coffeeshop.products.default-page-size:20}")
+  private int defaultPageSize;
+
+  @Value("${coffeeshop.products.max-page-size:100}")
+  private int maxPageSize;
+
+  /**
+   * The fields of a ProductDto that can be loaded from the products table
+   * alone. When a client only asks for these, the summary methods are used.
+   */
+  public static final List<String> SUMMARY_VIEW_FIELDS = List.of("id", "name", "price", "image", "inventoryAmount",
+      "ratingSummary");
+
+  /**
+   * The orders a page of products can be sorted in. Ties are broken by ID, so
+   * every order is stable.
+   */
+  public enum ProductSort {
+    ID,
+    NAME,
+    PRICE
+  }
+
   @Autowired
   public ProductService(ProductRepository productRepository, ReviewRepository reviewRepository) {
     this.productRepository = productRepository;
@@ -29,8 +79,353 @@ public class ProductService {
       review.setProduct(product);
       review.setUser(user);
       reviewRepository.save(review);
+      productRepository.updateRating(product.getId(), review.getRating(), 1);
     });
     product.setReviews(reviews);
     productRepository.save(product);
   }
+
+  /**
+   * Returns all products as DTOs, including their categories and rating
+   * summaries.
+   *
+   * @param includeReviews whether to include the full reviews of each product
+   * @return a list of all products ordered by ID
+   */
+  @Cacheable(cacheNames = CacheConfiguration.PRODUCT_LISTS, key = "'all:' + #includeReviews")
+  public List<ProductDto> getAllProductDtos(boolean includeReviews) {
+    return toProductDtos(productRepository.findAllWithCategories(), includeReviews);
+  }
+
+  /**
+   * Returns one product as a DTO, including its categories and rating summary.
+   *
+   * @param id             the ID of the product
+   * @param includeReviews whether to include the full reviews of the product
+   * @return the product, or empty if not found
+   */
+  @Cacheable(cacheNames = CacheConfiguration.PRODUCTS, key = "#id + ':' + #includeReviews", unless = "#result == null")
+  public Optional<ProductDto> getProductDto(int id, boolean includeReviews) {
+    return productRepository.findWithCategoriesById(id)
+        .map(product -> toProductDtos(List.of(product), includeReviews).get(0));
+  }
+
+  /**
+   * Returns all products in a category as DTOs, including their categories and
+   * rating summaries.
+   *
+   * @param categoryId     the ID of the category
+   * @param includeReviews whether to include the full reviews of each product
+   * @return a list of the products in the category ordered by ID
+   */
+  @Cacheable(cacheNames = CacheConfiguration.PRODUCT_LISTS, key = "'category:' + #categoryId + ':' + #includeReviews")
+  public List<ProductDto> getProductDtosByCategory(int categoryId, boolean includeReviews) {
+    return toProductDtos(productRepository.findAllWithCategoriesByCategoryId(categoryId), includeReviews);
+  }
+
+  /**
+   * Returns all products as DTOs holding only the fields in
+   * SUMMARY_VIEW_FIELDS, loaded without joining any other table.
+   *
+   * @return a list of all products ordered by ID
+   */
+  @Cacheable(cacheNames = CacheConfiguration.PRODUCT_LISTS, key = "'summary:all'")
+  public List<ProductDto> getAllProductSummaries() {
+    return toSummaryDtos(productRepository.findAllSummaries());
+  }
+
+  /**
+   * Returns all products in a category as DTOs holding only the fields in
+   * SUMMARY_VIEW_FIELDS.
+   *
+   * @param categoryId the ID of the category
+   * @return a list of the products in the category ordered by ID
+   */
+  @Cacheable(cacheNames = CacheConfiguration.PRODUCT_LISTS, key = "'summary:category:' + #categoryId")
+  public List<ProductDto> getProductSummariesByCategory(int categoryId) {
+    return toSummaryDtos(productRepository.findSummariesByCategoryId(categoryId));
+  }
+
+  /**
+   * Returns the number of products.
+   *
+   * @return the number of products in the database
+   */
+  @Cacheable(cacheNames = CacheConfiguration.PRODUCT_LISTS, key = "'count'")
+  public long getProductCount() {
+    return productRepository.count();
+  }
+
+  /**
+   * Returns one page of products as DTOs, using keyset pagination. The page
+   * starts right after the product the cursor points to, so every page costs
+   * the same to fetch no matter how far into the catalog it is.
+   *
+   * @param categoryId     the ID of the category to list products of, or null
+   *                       to list all products
+   * @param sortName       the sort order (id, name or price), or null to sort
+   *                       by ID
+   * @param cursor         the cursor returned with the previous page, or null
+   *                       for the first page
+   * @param limit          the number of products on the page, or null for the
+   *                       default page size. Capped at the maximum page size.
+   * @param includeReviews whether to include the full reviews of each product
+   * @param summary        whether to only load the fields in
+   *                       SUMMARY_VIEW_FIELDS, which needs no joins
+   * @return the page of products
+   * @throws IllegalArgumentException if the sort order, cursor or limit is
+   *                                  invalid
+   */
+  public ProductPageDto getProductPage(Integer categoryId, String sortName, String cursor, Integer limit,
+      boolean includeReviews, boolean summary) {
+    ProductSort sort = sortName == null ? ProductSort.ID : ProductSort.valueOf(sortName.toUpperCase(Locale.ROOT));
+    if (limit != null && limit <= 0) {
+      throw new IllegalArgumentException("Limit must be positive");
+    }
+    int pageSize = limit == null ? defaultPageSize : Math.min(limit, maxPageSize);
+
+    // Fetch one extra ID to find out if there is a next page
+    Pageable pageable = PageRequest.ofSize(pageSize + 1);
+    List<Integer> ids = cursor == null
+        ? findFirstPageIds(categoryId, sort, pageable)
+        : findPageIdsAfter(categoryId, sort, PageCursor.decode(cursor, sort), pageable);
+
+    boolean hasNextPage = ids.size() > pageSize;
+    if (hasNextPage) {
+      ids = ids.subList(0, pageSize);
+    }
+
+    List<ProductDto> productDtos = summary ? getProductSummaries(ids) : getProductDtos(ids, includeReviews);
+
+    String nextCursor = null;
+    if (hasNextPage) {
+      nextCursor = PageCursor.after(sort, productDtos.get(productDtos.size() - 1)).encode();
+    }
+
+    return new ProductPageDto(productDtos, nextCursor, pageSize, sort.name().toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * Returns the given products as DTOs, including their categories and rating
+   * summaries.
+   *
+   * @param ids            the IDs of the products
+   * @param includeReviews whether to include the full reviews of each product
+   * @return the products, in the same order as the IDs. Products that don't
+   *         exist are left out.
+   */
+  public List<ProductDto> getProductDtos(List<Integer> ids, boolean includeReviews) {
+    return toProductDtos(findAllWithCategoriesInOrder(ids), includeReviews);
+  }
+
+  /**
+   * Returns the given products as DTOs holding only the fields in
+   * SUMMARY_VIEW_FIELDS.
+   *
+   * @param ids the IDs of the products
+   * @return the products, in the same order as the IDs. Products that don't
+   *         exist are left out.
+   */
+  public List<ProductDto> getProductSummaries(List<Integer> ids) {
+    if (ids.isEmpty()) {
+      return new ArrayList<>();
+    }
+    Map<Integer, ProductSummaryView> summariesById = productRepository.findSummariesByIdIn(ids).stream()
+        .collect(Collectors.toMap(ProductSummaryView::getId, Function.identity()));
+    List<ProductSummaryView> summaries = new ArrayList<>();
+    for (Integer id : ids) {
+      ProductSummaryView summary = summariesById.get(id);
+      if (summary != null) {
+        summaries.add(summary);
+      }
+    }
+    return toSummaryDtos(summaries);
+  }
+
+  /**
+   * Finds the given products with one query, keeping the order of the IDs.
+   */
+  private List<Product> findAllWithCategoriesInOrder(List<Integer> ids) {
+    List<Product> products = new ArrayList<>();
+    if (!ids.isEmpty()) {
+      Map<Integer, Product> productsById = productRepository.findAllWithCategoriesByIdIn(ids).stream()
+          .collect(Collectors.toMap(Product::getId, Function.identity()));
+      for (Integer id : ids) {
+        Product product = productsById.get(id);
+        if (product != null) {
+          products.add(product);
+        }
+      }
+    }
+    return products;
+  }
+
+  /**
+   * Finds the IDs of the products on the first page.
+   */
+  private List<Integer> findFirstPageIds(Integer categoryId, ProductSort sort, Pageable pageable) {
+    if (categoryId == null) {
+      switch (sort) {
+        case NAME:
+          return productRepository.findPageIdsOrderByName(pageable);
+        case PRICE:
+          return productRepository.findPageIdsOrderByPrice(pageable);
+        default:
+          return productRepository.findPageIdsOrderById(pageable);
+      }
+    }
+
+    switch (sort) {
+      case NAME:
+        return productRepository.findPageIdsByCategoryOrderByName(categoryId, pageable);
+      case PRICE:
+        return productRepository.findPageIdsByCategoryOrderByPrice(categoryId, pageable);
+      default:
+        return productRepository.findPageIdsByCategoryOrderById(categoryId, pageable);
+    }
+  }
+
+  /**
+   * Finds the IDs of the products on the page following the cursor.
+   */
+  private List<Integer> findPageIdsAfter(Integer categoryId, ProductSort sort, PageCursor after,
+      Pageable pageable) {
+    if (categoryId == null) {
+      switch (sort) {
+        case NAME:
+          return productRepository.findPageIdsOrderByNameAfter(after.value, after.id, pageable);
+        case PRICE:
+          return productRepository.findPageIdsOrderByPriceAfter(new BigDecimal(after.value), after.id, pageable);
+        default:
+          return productRepository.findPageIdsOrderByIdAfter(after.id, pageable);
+      }
+    }
+
+    switch (sort) {
+      case NAME:
+        return productRepository.findPageIdsByCategoryOrderByNameAfter(categoryId, after.value, after.id,
+            pageable);
+      case PRICE:
+        return productRepository.findPageIdsByCategoryOrderByPriceAfter(categoryId, new BigDecimal(after.value),
+            after.id, pageable);
+      default:
+        return productRepository.findPageIdsByCategoryOrderByIdAfter(categoryId, after.id, pageable);
+    }
+  }
+
+  /**
+   * Converts products with fetched categories to DTOs. The rating summaries
+   * come from the aggregates kept on each product. If reviews are included,
+   * the reviews of all the products are loaded with one query; otherwise the
+   * reviews are left out of the DTOs.
+   *
+   * @param products       the products to convert
+   * @param includeReviews whether to load the full reviews
+   * @return the product DTOs, in the same order as the products
+   */
+  private List<ProductDto> toProductDtos(List<Product> products, boolean includeReviews) {
+    if (products.isEmpty()) {
+      return new ArrayList<>();
+    }
+
+    Map<Integer, List<ReviewDto>> reviewsByProduct = new HashMap<>();
+    if (includeReviews) {
+      List<Integer> productIds = products.stream().map(Product::getId).collect(Collectors.toList());
+      for (ReviewView review : reviewRepository.findViewsByProductIdIn(productIds)) {
+        reviewsByProduct.computeIfAbsent(review.getProductId(), key -> new ArrayList<>())
+            .add(new ReviewDto(review.getId(), review.getReviewText(), review.getRating(), review.getUsername()));
+      }
+    }
+
+    return products.stream().map(product -> {
+      List<CategoryDto> categoryDtos = product.getCategories().stream()
+          .map(category -> new CategoryDto(category.getId(), category.getName()))
+          .collect(Collectors.toList());
+
+      return new ProductDto(
+          product.getId(),
+          product.getName(),
+          product.getDescription(),
+          product.getInventoryAmount(),
+          product.getPrice(),
+          product.getImage(),
+          categoryDtos,
+          includeReviews ? reviewsByProduct.getOrDefault(product.getId(), new ArrayList<>()) : null,
+          new RatingSummaryDto(product.getRatingCount(), product.getRatingSum(), product.getRatingHistogram()));
+    }).collect(Collectors.toList());
+  }
+
+  /**
+   * Converts product summaries to DTOs. The fields that aren't loaded for
+   * summaries are left null.
+   */
+  private List<ProductDto> toSummaryDtos(List<ProductSummaryView> summaries) {
+    return summaries.stream()
+        .map(summary -> new ProductDto(
+            summary.getId(),
+            summary.getName(),
+            null,
+            summary.getInventoryAmount(),
+            summary.getPrice(),
+            summary.getImage(),
+            null,
+            null,
+            new RatingSummaryDto(summary.getRatingCount(), summary.getRatingSum(), new int[] {
+                summary.getOneStarCount(), summary.getTwoStarCount(), summary.getThreeStarCount(),
+                summary.getFourStarCount(), summary.getFiveStarCount() })))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Position of the last product on a page: its ID and the value of the sort
+   * column. Sent to clients as an opaque, URL-safe string.
+   */
+  private static class PageCursor {
+    private final ProductSort sort;
+    private final int id;
+    private final String value;
+
+    private PageCursor(ProductSort sort, int id, String value) {
+      this.sort = sort;
+      this.id = id;
+      this.value = value;
+    }
+
+    /**
+     * Creates a cursor pointing at the given product.
+     */
+    static PageCursor after(ProductSort sort, ProductDto product) {
+      String value = "";
+      if (sort == ProductSort.NAME) {
+        value = product.getName();
+      } else if (sort == ProductSort.PRICE) {
+        value = product.getPrice().toPlainString();
+      }
+      return new PageCursor(sort, product.getId(), value);
+    }
+
+    /**
+     * Decodes a cursor, checking that it was made for the given sort order.
+     *
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    static PageCursor decode(String cursor, ProductSort expectedSort) {
+      String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 3);
+      if (parts.length != 3 || !parts[0].equals(expectedSort.name())) {
+        throw new IllegalArgumentException("Invalid cursor");
+      }
+      int id = Integer.parseInt(parts[1]);
+      String value = parts[2];
+      if (expectedSort == ProductSort.PRICE) {
+        // Normalized, and a malformed price fails here rather than in the query
+        value = new BigDecimal(value).toPlainString();
+      }
+      return new PageCursor(expectedSort, id, value);
+    }
+
+    String encode() {
+      String raw = sort.name() + ":" + id + ":" + value;
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+  }
 }
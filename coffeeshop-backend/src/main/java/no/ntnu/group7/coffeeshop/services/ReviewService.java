@@ -0,0 +1,189 @@
+package no.ntnu.group7.coffeeshop.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+import jakarta.transaction.Transactional;
+import no.ntnu.group7.coffeeshop.cache.CatalogCache;
+import no.ntnu.group7.coffeeshop.dto.ReviewDto;
+import no.ntnu.group7.coffeeshop.dto.ReviewPageDto;
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.model.Review;
+import no.ntnu.group7.coffeeshop.model.User;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.ReviewRepository;
+import no.ntnu.group7.coffeeshop.repositories.ReviewRepository.ReviewView;
+
+/**
+ * ReviewService is a service layer class for reviews. The review endpoints add
+ * and delete reviews through here, so the review aggregates kept on each
+ * product (rating count, sum and histogram) are updated in the same
+ * transaction as the review itself.
+ */
+@Service
+public class ReviewService {
+
+  @Autowired
+  private ReviewRepository reviewRepository;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private CatalogCache catalogCache;
+
+  @Autowired
+  private ProductFilterService productFilterService;
+
+  @Value("${coffeeshop.reviews.default-page-size:10}")
+  private int defaultPageSize;
+
+  @Value("${coffeeshop.reviews.max-page-size:50}")
+  private int maxPageSize;
+
+  /**
+   * Returns one page of a product's reviews, newest first, using keyset
+   * pagination on the (product_id, id) index, so every page costs the same to
+   * fetch no matter how many reviews come before it.
+   *
+   * @param productId the ID of the product
+   * @param rating    only return reviews with this rating, or null for all
+   * @param cursor    the cursor returned with the previous page, or null for
+   *                  the first page
+   * @param limit     the number of reviews on the page, or null for the
+   *                  default page size. Capped at the maximum page size.
+   * @return the page of reviews
+   * @throws IllegalArgumentException if the rating, cursor or limit is invalid
+   */
+  public ReviewPageDto getReviewPage(int productId, Integer rating, String cursor, Integer limit) {
+    if (rating != null && (rating < 1 || rating > 5)) {
+      throw new IllegalArgumentException("Rating must be between 1 and 5");
+    }
+    if (limit != null && limit <= 0) {
+      throw new IllegalArgumentException("Limit must be positive");
+    }
+    int pageSize = limit == null ? defaultPageSize : Math.min(limit, maxPageSize);
+
+    // Fetch one extra review to find out if there is a next page
+    Pageable pageable = PageRequest.ofSize(pageSize + 1);
+    List<ReviewView> reviews;
+    if (cursor == null) {
+      reviews = rating == null
+          ? reviewRepository.findPageViewsByProductId(productId, pageable)
+          : reviewRepository.findPageViewsByProductIdAndRating(productId, rating, pageable);
+    } else {
+      int before = decodeCursor(cursor);
+      reviews = rating == null
+          ? reviewRepository.findPageViewsByProductIdBefore(productId, before, pageable)
+          : reviewRepository.findPageViewsByProductIdAndRatingBefore(productId, rating, before, pageable);
+    }
+
+    String nextCursor = null;
+    if (reviews.size() > pageSize) {
+      reviews = reviews.subList(0, pageSize);
+      nextCursor = encodeCursor(reviews.get(pageSize - 1).getId());
+    }
+
+    List<ReviewDto> reviewDtos = reviews.stream()
+        .map(review -> new ReviewDto(review.getId(), review.getReviewText(), review.getRating(),
+            review.getUsername()))
+        .collect(Collectors.toList());
+    return new ReviewPageDto(reviewDtos, nextCursor, pageSize);
+  }
+
+  /**
+   * Saves a new review of a product and counts its rating.
+   *
+   * @param product    the product the review is about
+   * @param user       the user who wrote the review
+   * @param reviewText the content of the review
+   * @param rating     the rating, from 1 to 5
+   * @return the saved review
+   * @throws IllegalArgumentException if the rating is not between 1 and 5
+   */
+  @Transactional
+  public Review addReview(Product product, User user, String reviewText, int rating) {
+    if (rating < 1 || rating > 5) {
+      throw new IllegalArgumentException("Rating must be between 1 and 5");
+    }
+
+    Review review = reviewRepository.save(new Review(product, user, reviewText, rating));
+    productRepository.updateRating(product.getId(), rating, 1);
+    catalogCache.evictProduct(product.getId());
+    productFilterService.ratingChanged(product.getId(), rating, 1);
+    return review;
+  }
+
+  /**
+   * Deletes a review and takes its rating out of the product's aggregates.
+   *
+   * @param review the review to delete
+   */
+  @Transactional
+  public void deleteReview(Review review) {
+    int productId = review.getProduct().getId();
+    reviewRepository.delete(review);
+    productRepository.updateRating(productId, review.getRating(), -1);
+    catalogCache.evictProduct(productId);
+    productFilterService.ratingChanged(productId, review.getRating(), -1);
+  }
+
+  /**
+   * Deletes every review written by a user, taking their ratings out of the
+   * products' aggregates. Called before the user is deleted.
+   *
+   * @param user the user whose reviews to delete
+   */
+  @Transactional
+  public void deleteReviewsByUser(User user) {
+    List<Review> reviews = reviewRepository.findByUserId(user.getId());
+    for (Review review : reviews) {
+      productRepository.updateRating(review.getProduct().getId(), review.getRating(), -1);
+      catalogCache.evictProduct(review.getProduct().getId());
+      productFilterService.ratingChanged(review.getProduct().getId(), review.getRating(), -1);
+    }
+    reviewRepository.deleteAll(reviews);
+  }
+
+  /**
+   * Recomputes the review aggregates of every product if any of them are out
+   * of date, which happens when upgrading a database created before the
+   * aggregates existed.
+   */
+  @Transactional
+  public void recountRatingsIfStale() {
+    if (productRepository.countWithStaleRatings() > 0) {
+      productRepository.recountRatings();
+      catalogCache.evictAllProducts();
+    }
+  }
+
+  /**
+   * Encodes the ID of the last review on a page as an opaque, URL-safe cursor.
+   */
+  private static String encodeCursor(int reviewId) {
+    String raw = "REVIEW:" + reviewId;
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Decodes a cursor made by encodeCursor.
+   *
+   * @throws IllegalArgumentException if the cursor is malformed
+   */
+  private static int decodeCursor(String cursor) {
+    String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    if (!raw.startsWith("REVIEW:")) {
+      throw new IllegalArgumentException("Invalid cursor");
+    }
+    return Integer.parseInt(raw.substring("REVIEW:".length()));
+  }
+}
@@ -1,136 +1,327 @@
 package no.ntnu.group7.coffeeshop.services;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.stream.Collectors;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import jakarta.persistence.EntityManager;
-import jakarta.persistence.NoResultException;
-import jakarta.persistence.PersistenceContext;
-import jakarta.transaction.Transactional;
+import no.ntnu.group7.coffeeshop.cart.CartItem;
+import no.ntnu.group7.coffeeshop.cart.CartOperation;
+import no.ntnu.group7.coffeeshop.cart.CartPricing;
+import no.ntnu.group7.coffeeshop.cart.CartStore;
+import no.ntnu.group7.coffeeshop.cart.GuestCartStore;
+import no.ntnu.group7.coffeeshop.inventory.StockReservations;
 import no.ntnu.group7.coffeeshop.model.Product;
-import no.ntnu.group7.coffeeshop.model.ShoppingCartProduct;
 import no.ntnu.group7.coffeeshop.model.User;
 
 /**
  * ShoppingCartService is a service layer class responsible for managing
  * shopping carts in the coffee shop application. It provides functionality to
  * add, remove, and update items in a user's shopping cart, as well as retrieve
- * the items in the shopping cart for a specific user.
+ * the items in the shopping cart for a specific user. The carts themselves are
+ * kept in the configured CartStore, and priced by CartPricing, which keeps a
+ * running total of each cart that this service adjusts on every change.
+ * Visitors who haven't logged in get a guest cart in the GuestCartStore, which
+ * is merged into their own cart when they log in. Products in a user's cart
+ * are held in stock for a while by StockReservations; guest carts hold no
+ * stock until they are merged.
  */
 @Service
 public class ShoppingCartService {
+  /**
+   * The largest number of operations in one batch
+   */
+  public static final int MAX_BATCH_SIZE = 100;
+
+  @Autowired
+  private CartStore cartStore;
 
-  @PersistenceContext
-  private EntityManager entityManager;
+  @Autowired
+  private GuestCartStore guestCartStore;
+
+  @Autowired
+  private CartPricing cartPricing;
+
+  @Autowired
+  private StockReservations stockReservations;
 
   /**
    * Adds a product to the shopping cart of a user with the specified quantity. If
    * the product is already in the cart, it updates the quantity.
    *
-   * @param user     the User whose shopping cart the product should be added to
-   * @param product  the Product to add to the shopping cart
-   * @param quantity the amount of the product to add
+   * @param user      the User whose shopping cart the product should be added to
+   * @param productId the ID of the product to add to the shopping cart
+   * @param quantity  the amount of the product to add
    */
-  @Transactional
-  public void addItemToCart(User user, Product product, int quantity) {
-    ShoppingCartProduct cartItem = findCartItem(user, product);
-
-    if (cartItem == null) {
-      cartItem = new ShoppingCartProduct();
-      cartItem.setUser(user);
-      cartItem.setProduct(product);
-      cartItem.setQuantity(quantity);
-
-      entityManager.persist(cartItem);
-    } else {
-      updateCartItemQuantity(cartItem, cartItem.getQuantity() + quantity);
+  public void addItemToCart(User user, int productId, int quantity) {
+    synchronized (cartPricing.lockFor(user.getId())) {
+      cartStore.add(user.getId(), productId, quantity);
+      cartPricing.adjust(user.getId(), productId, quantity);
+      stockReservations.holdMore(user.getId(), productId, quantity);
     }
   }
 
   /**
    * Removes a product from the shopping cart of a user.
    *
-   * @param user    the User whose shopping cart the product should be removed
-   *                from
-   * @param product the Product to remove from the shopping cart
+   * @param user      the User whose shopping cart the product should be removed
+   *                  from
+   * @param productId the ID of the product to remove from the shopping cart
    */
-  @Transactional
-  public void removeItemFromCart(User user, Product product) {
-    ShoppingCartProduct cartItem = findCartItem(user, product);
-
-    if (cartItem != null) {
-      entityManager.remove(cartItem);
+  public void removeItemFromCart(User user, int productId) {
+    synchronized (cartPricing.lockFor(user.getId())) {
+      int removed = cartStore.remove(user.getId(), productId);
+      cartPricing.adjust(user.getId(), productId, -removed);
+      stockReservations.release(user.getId(), productId);
     }
   }
 
   /**
    * Updates the quantity of an item in the shopping cart.
    *
-   * @param cartItem    the ShoppingCartProduct representing the item to update
-   *                    the quantity of
+   * @param user        the User whose shopping cart to update
+   * @param productId   the ID of the product to update the quantity of
    * @param newQuantity the new quantity for the item
+   * @return false if the product isn't in the user's shopping cart
    */
-  @Transactional
-  public void updateCartItemQuantity(ShoppingCartProduct cartItem, int newQuantity) {
-    cartItem.setQuantity(newQuantity);
-    entityManager.merge(cartItem);
+  public boolean updateCartItemQuantity(User user, int productId, int newQuantity) {
+    synchronized (cartPricing.lockFor(user.getId())) {
+      int previous = cartStore.setQuantity(user.getId(), productId, newQuantity);
+      if (previous == 0) {
+        return false;
+      }
+      cartPricing.adjust(user.getId(), productId, newQuantity - previous);
+      stockReservations.hold(user.getId(), Map.of(productId, newQuantity));
+      return true;
+    }
   }
 
   /**
    * Retrieves the items in the shopping cart for a specific user.
    *
    * @param user the User to retrieve the items in the shopping cart for
-   * @return a List of ShoppingCartProduct objects representing the items in the
-   *         user's shopping cart
+   * @return the items in the user's shopping cart, in the order they were added
    */
-  public List<ShoppingCartProduct> getCartProducts(User user) {
-    return entityManager
-        .createQuery("SELECT c FROM ShoppingCartProduct c WHERE c.user = :user", ShoppingCartProduct.class)
-        .setParameter("user", user)
-        .getResultList();
+  public List<CartItem> getCartItems(User user) {
+    return cartStore.getItems(user.getId());
   }
 
   /**
-   * Retrieves an existing product in a user's shopping cart.
+   * Retrieves the items in a user's shopping cart together with their names,
+   * prices and total price. The total is the cart's running total, if it has
+   * one.
    *
-   * @param user    the User whose shopping cart to look for the product in
-   * @param product the Product to find in the user's shopping cart
-   * @return the ShoppingCartProduct representing the product in the user's
-   *         shopping cart, or null if not found
+   * @param user the user whose shopping cart to retrieve
+   * @return the items in the user's shopping cart, their prices and total
    */
-  private ShoppingCartProduct findCartItem(User user, Product product) {
-    try {
-      return entityManager
-          .createQuery("SELECT c FROM ShoppingCartProduct c WHERE c.user = :user AND c.product = :product",
-              ShoppingCartProduct.class)
-          .setParameter("user", user)
-          .setParameter("product", product)
-          .getSingleResult();
-    } catch (NoResultException e) {
-      return null;
+  public CartWithTotal getCart(User user) {
+    synchronized (cartPricing.lockFor(user.getId())) {
+      List<CartItem> cartItems = cartStore.getItems(user.getId());
+      Map<Integer, CartPricing.Price> prices = cartPricing.getPrices(productIds(cartItems));
+      return new CartWithTotal(cartItems, prices, cartPricing.getTotal(user.getId(), cartItems));
     }
   }
 
   /**
-   * Calculates the total price of all items in a user's shopping cart.
+   * Calculates the total price of all items in a user's shopping cart. The
+   * cart's running total is used if it has one.
    *
    * @param user the user whose shopping cart total should be calculated
    * @return the total price of all items in the user's shopping cart as a
    *         BigDecimal
    */
   public BigDecimal calculateShoppingCartTotal(User user) {
-    List<ShoppingCartProduct> cartItems = getCartProducts(user);
+    synchronized (cartPricing.lockFor(user.getId())) {
+      return cartPricing.getTotal(user.getId(), cartStore.getItems(user.getId()));
+    }
+  }
+
+  /**
+   * Applies several changes to a user's shopping cart at once. The changes are
+   * checked together, and either all or none of them are applied.
+   *
+   * @param user       the user whose shopping cart to change
+   * @param operations the changes, applied in order
+   * @return the items in the shopping cart afterwards, and their total price
+   * @throws IllegalArgumentException if there are too many operations, a
+   *                                  quantity isn't positive, or a quantity is
+   *                                  set for a product that isn't in the cart
+   * @throws NoSuchElementException   if a product doesn't exist
+   */
+  public CartWithTotal applyBatch(User user, List<CartOperation> operations) {
+    checkBatch(operations);
+
+    synchronized (cartPricing.lockFor(user.getId())) {
+      long version = cartPricing.getVersion();
+      Map<Integer, CartPricing.Price> prices = priceBatch(operations, getCartItems(user));
+
+      // The store applies the whole batch atomically, and every product in
+      // the resulting cart was priced above
+      List<CartItem> cartItems = cartStore.apply(user.getId(), operations);
+      BigDecimal total = CartPricing.calculateTotal(cartItems, prices);
+      cartPricing.keepTotal(user.getId(), cartItems, total, version);
+      stockReservations.hold(user.getId(), heldQuantities(operations, cartItems));
+      return new CartWithTotal(cartItems, prices, total);
+    }
+  }
+
+  /**
+   * Retrieves the items in a guest's shopping cart together with their names,
+   * prices and total price.
+   *
+   * @param guestToken the token of the guest cart, may be null
+   * @return the items in the cart, their prices and total; empty if there is
+   *         no such cart
+   */
+  public CartWithTotal getGuestCart(String guestToken) {
+    return priceGuestCart(guestCartStore.getItems(guestToken));
+  }
+
+  /**
+   * Adds a product to a guest's shopping cart, creating the cart if needed.
+   *
+   * @param guestToken the token of the guest cart
+   * @param productId  the ID of the product to add
+   * @param quantity   the amount of the product to add
+   * @throws IllegalArgumentException if the cart would hold too many products
+   */
+  public void addItemToGuestCart(String guestToken, int productId, int quantity) {
+    guestCartStore.apply(guestToken,
+        List.of(new CartOperation(CartOperation.Type.ADD, productId, quantity)));
+  }
+
+  /**
+   * Removes a product from a guest's shopping cart.
+   *
+   * @param guestToken the token of the guest cart, may be null
+   * @param productId  the ID of the product to remove
+   */
+  public void removeItemFromGuestCart(String guestToken, int productId) {
+    if (guestCartStore.isValidToken(guestToken)) {
+      guestCartStore.apply(guestToken,
+          List.of(new CartOperation(CartOperation.Type.REMOVE, productId, 0)));
+    }
+  }
+
+  /**
+   * Updates the quantity of an item in a guest's shopping cart.
+   *
+   * @param guestToken  the token of the guest cart, may be null
+   * @param productId   the ID of the product to update the quantity of
+   * @param newQuantity the new quantity for the item
+   * @return false if the product isn't in the guest's shopping cart
+   */
+  public boolean updateGuestCartItemQuantity(String guestToken, int productId, int newQuantity) {
+    if (!guestCartStore.isValidToken(guestToken)) {
+      return false;
+    }
+    try {
+      guestCartStore.apply(guestToken,
+          List.of(new CartOperation(CartOperation.Type.SET, productId, newQuantity)));
+      return true;
+    } catch (IllegalArgumentException e) {
+      // Setting a quantity only fails if the product isn't in the cart
+      return false;
+    }
+  }
+
+  /**
+   * Applies several changes to a guest's shopping cart at once, creating the
+   * cart if needed. Either all or none of the changes are applied.
+   *
+   * @param guestToken the token of the guest cart
+   * @param operations the changes, applied in order
+   * @return the items in the shopping cart afterwards, and their total price
+   * @throws IllegalArgumentException if there are too many operations, a
+   *                                  quantity isn't positive, a quantity is set
+   *                                  for a product that isn't in the cart, or
+   *                                  the cart would hold too many products
+   * @throws NoSuchElementException   if a product doesn't exist
+   */
+  public CartWithTotal applyGuestBatch(String guestToken, List<CartOperation> operations) {
+    checkBatch(operations);
+    priceBatch(operations, List.of());
+    return priceGuestCart(guestCartStore.apply(guestToken, operations));
+  }
+
+  /**
+   * Moves the items in a guest's shopping cart into a user's shopping cart,
+   * after the guest has logged in. Quantities of products already in the
+   * user's cart are added together. The items are written in one batch, and
+   * products that no longer exist are left out.
+   *
+   * @param userId     the ID of the user
+   * @param guestToken the token of the guest cart, may be null
+   */
+  public void mergeGuestCart(long userId, String guestToken) {
+    // Taken at once, so that two logins with the same cart can't both merge
+    // it. If the merge fails, the items are put back.
+    List<CartItem> guestItems = guestCartStore.take(guestToken);
+    if (guestItems.isEmpty()) {
+      return;
+    }
+
+    List<CartOperation> operations = new ArrayList<>();
+    try {
+      Map<Integer, CartPricing.Price> prices = cartPricing.getPrices(productIds(guestItems));
+      for (CartItem item : guestItems) {
+        if (prices.containsKey(item.getProductId())) {
+          operations.add(new CartOperation(CartOperation.Type.ADD, item.getProductId(), item.getQuantity()));
+        }
+      }
+    } catch (RuntimeException e) {
+      guestCartStore.restore(guestToken, guestItems);
+      throw e;
+    }
+    synchronized (cartPricing.lockFor(userId)) {
+      List<CartItem> cartItems;
+      try {
+        cartItems = cartStore.apply(userId, operations);
+      } catch (RuntimeException e) {
+        guestCartStore.restore(guestToken, guestItems);
+        throw e;
+      }
+      cartPricing.invalidate(userId);
+      stockReservations.hold(userId, heldQuantities(operations, cartItems));
+    }
+  }
 
-    BigDecimal total = BigDecimal.ZERO;
+  private void checkBatch(List<CartOperation> operations) {
+    if (operations.size() > MAX_BATCH_SIZE) {
+      throw new IllegalArgumentException("At most " + MAX_BATCH_SIZE + " operations are allowed in a batch");
+    }
+    for (CartOperation operation : operations) {
+      if (operation.getType() != CartOperation.Type.REMOVE && operation.getQuantity() <= 0) {
+        throw new IllegalArgumentException("Invalid quantity for product " + operation.getProductId());
+      }
+    }
+  }
 
-    for (ShoppingCartProduct cartItem : cartItems) {
-      BigDecimal itemTotal = cartItem.getProduct().getPrice().multiply(new BigDecimal(cartItem.getQuantity()));
-      total = total.add(itemTotal);
+  // Prices the products of the operations and of the current cart together,
+  // to check that they exist and to price the resulting cart
+  private Map<Integer, CartPricing.Price> priceBatch(List<CartOperation> operations, List<CartItem> cartItems) {
+    Set<Integer> productIds = productIds(cartItems);
+    operations.forEach(operation -> productIds.add(operation.getProductId()));
+    Map<Integer, CartPricing.Price> prices = cartPricing.getPrices(productIds);
+    for (CartOperation operation : operations) {
+      if (operation.getType() != CartOperation.Type.REMOVE && !prices.containsKey(operation.getProductId())) {
+        throw new NoSuchElementException("Product " + operation.getProductId() + " not found");
+      }
     }
+    return prices;
+  }
 
-    return total;
+  private CartWithTotal priceGuestCart(List<CartItem> cartItems) {
+    Map<Integer, CartPricing.Price> prices = cartPricing.getPrices(productIds(cartItems));
+    return new CartWithTotal(cartItems, prices, CartPricing.calculateTotal(cartItems, prices));
   }
 
   /**
@@ -139,10 +330,102 @@ public class ShoppingCartService {
    * @param user the user whose shopping cart should be cleared
    */
   public void clearShoppingCart(User user) {
-    List<ShoppingCartProduct> cartProducts = getCartProducts(user);
+    synchronized (cartPricing.lockFor(user.getId())) {
+      cartStore.clear(user.getId());
+      cartPricing.invalidate(user.getId());
+      stockReservations.releaseAll(user.getId());
+    }
+  }
+
+  /**
+   * Removes a product from every shopping cart. Must be called before the
+   * product is deleted.
+   *
+   * @param productId the ID of the product
+   */
+  public void removeProductFromCarts(int productId) {
+    cartStore.removeProduct(productId);
+    guestCartStore.removeProduct(productId);
+    cartPricing.productRemoved(productId);
+    stockReservations.releaseProduct(productId);
+  }
+
+  /**
+   * Updates the name and price that shopping carts are priced with, after a
+   * product was changed. If the price changed, the carts holding the product
+   * are priced again.
+   *
+   * @param product the changed product
+   */
+  public void productChanged(Product product) {
+    cartPricing.productChanged(product.getId(), product.getName(), product.getPrice());
+  }
+
+  /**
+   * Removes a user's shopping cart. Must be called before the user is deleted.
+   *
+   * @param user the user
+   */
+  public void removeCart(User user) {
+    synchronized (cartPricing.lockFor(user.getId())) {
+      cartStore.removeUser(user.getId());
+      cartPricing.invalidate(user.getId());
+      stockReservations.releaseAll(user.getId());
+    }
+  }
+
+  // The quantities in the cart of the products a batch changed, 0 for those
+  // it removed
+  private static Map<Integer, Integer> heldQuantities(List<CartOperation> operations, List<CartItem> cartItems) {
+    Map<Integer, Integer> quantities = new HashMap<>();
+    operations.forEach(operation -> quantities.put(operation.getProductId(), 0));
+    for (CartItem item : cartItems) {
+      if (quantities.containsKey(item.getProductId())) {
+        quantities.put(item.getProductId(), item.getQuantity());
+      }
+    }
+    return quantities;
+  }
+
+  private static Set<Integer> productIds(List<CartItem> cartItems) {
+    return cartItems.stream().map(CartItem::getProductId).collect(Collectors.toCollection(HashSet::new));
+  }
+
+  /**
+   * The items in a shopping cart, their prices, and their total price.
+   */
+  public static class CartWithTotal {
+    private final List<CartItem> items;
+    private final Map<Integer, CartPricing.Price> prices;
+    private final BigDecimal total;
+
+    private CartWithTotal(List<CartItem> items, Map<Integer, CartPricing.Price> prices, BigDecimal total) {
+      this.items = items;
+      this.prices = prices;
+      this.total = total;
+    }
+
+    /**
+     * @return the items in the cart, in the order they were added
+     */
+    public List<CartItem> getItems() {
+      return items;
+    }
+
+    /**
+     * @param productId the ID of a product in the cart
+     * @return the name and price of the product, or null if it no longer
+     *         exists
+     */
+    public CartPricing.Price getPrice(int productId) {
+      return prices.get(productId);
+    }
 
-    for (ShoppingCartProduct cartProduct : cartProducts) {
-      removeItemFromCart(user, cartProduct.getProduct());
+    /**
+     * @return the total price of the items
+     */
+    public BigDecimal getTotal() {
+      return total;
     }
   }
 }
@@ -0,0 +1,33 @@
+package no.ntnu.group7.coffeeshop.services;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Helpers for work that must only happen once a transaction has committed,
+ * such as updating in-memory state that mirrors the database.
+ */
+public final class TransactionHooks {
+  private TransactionHooks() {
+  }
+
+  /**
+   * Runs an update after the current transaction commits, or right away when
+   * there is no transaction. If the transaction rolls back, the update is
+   * never run.
+   *
+   * @param update the update
+   */
+  public static void runAfterCommit(Runnable update) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          update.run();
+        }
+      });
+    } else {
+      update.run();
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package no.ntnu.group7.coffeeshop.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import jakarta.persistence.EntityManagerFactory;
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+
+@SpringBootTest(properties = "coffeeshop.cache.enabled=true")
+@AutoConfigureMockMvc
+class CatalogCacheTests {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Test
+  void cachedCatalogReadsDoNotQueryTheDatabase() throws Exception {
+    Product product = productRepository.findAll().get(0);
+    String[] urls = { "/api/products", "/api/products/" + product.getId(), "/api/products/count",
+        "/api/categories" };
+    for (String url : urls) {
+      mockMvc.perform(get(url)).andExpect(status().isOk());
+    }
+
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+    for (String url : urls) {
+      mockMvc.perform(get(url)).andExpect(status().isOk());
+    }
+
+    assertEquals(0, statistics.getPrepareStatementCount());
+  }
+
+  @Test
+  void addingReviewInvalidatesProduct() throws Exception {
+    Product product = productRepository.findAll().get(1);
+    String url = "/api/products/" + product.getId();
+    mockMvc.perform(get(url + "?reviews=true")).andExpect(status().isOk());
+    mockMvc.perform(get("/api/products?reviews=true")).andExpect(status().isOk());
+
+    mockMvc.perform(post(url + "/add-review")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("{\"reviewText\": \"Cached?\", \"rating\": 4, \"username\": \"testUser\"}"))
+        .andExpect(status().isCreated());
+
+    mockMvc.perform(get(url + "?reviews=true"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.reviews[?(@.reviewText == 'Cached?')]").exists());
+    mockMvc.perform(get("/api/products?reviews=true"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[?(@.id == " + product.getId() + ")].reviews[?(@.reviewText == 'Cached?')]").exists());
+  }
+
+  @Test
+  void unchangedCatalogIsAnsweredWithNotModified() throws Exception {
+    Product product = productRepository.findAll().get(2);
+    String[] urls = { "/api/products", "/api/products/" + product.getId(), "/api/products/count",
+        "/api/categories" };
+
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    for (String url : urls) {
+      String eTag = getETag(url);
+      statistics.clear();
+      mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, eTag))
+          .andExpect(status().isNotModified())
+          .andExpect(header().string(HttpHeaders.ETAG, eTag));
+      assertEquals(0, statistics.getPrepareStatementCount(), url);
+    }
+  }
+
+  @Test
+  void addingReviewChangesOnlyThatProductsETag() throws Exception {
+    Product reviewed = productRepository.findAll().get(3);
+    Product other = productRepository.findAll().get(4);
+    String reviewedUrl = "/api/products/" + reviewed.getId();
+    String otherUrl = "/api/products/" + other.getId();
+    String reviewedETag = getETag(reviewedUrl);
+    String otherETag = getETag(otherUrl);
+    String listETag = getETag("/api/products");
+
+    mockMvc.perform(post(reviewedUrl + "/add-review")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("{\"reviewText\": \"Fresh\", \"rating\": 5, \"username\": \"testUser\"}"))
+        .andExpect(status().isCreated());
+
+    mockMvc.perform(get(reviewedUrl).header(HttpHeaders.IF_NONE_MATCH, reviewedETag))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.ratingSummary.count").value(1));
+    mockMvc.perform(get("/api/products").header(HttpHeaders.IF_NONE_MATCH, listETag))
+        .andExpect(status().isOk());
+    mockMvc.perform(get(otherUrl).header(HttpHeaders.IF_NONE_MATCH, otherETag))
+        .andExpect(status().isNotModified());
+    assertNotEquals(reviewedETag, getETag(reviewedUrl));
+  }
+
+  private String getETag(String url) throws Exception {
+    String eTag = mockMvc.perform(get(url))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    assertNotNull(eTag, url);
+    return eTag;
+  }
+}
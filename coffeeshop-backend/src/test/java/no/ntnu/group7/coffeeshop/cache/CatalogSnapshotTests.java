@@ -0,0 +1,121 @@
+package no.ntnu.group7.coffeeshop.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+
+import jakarta.persistence.EntityManagerFactory;
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+
+@SpringBootTest(properties = "coffeeshop.catalog-snapshot.enabled=true")
+@AutoConfigureMockMvc
+class CatalogSnapshotTests {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private CatalogSnapshot catalogSnapshot;
+
+  @Autowired
+  private CatalogVersion catalogVersion;
+
+  @Test
+  void snapshotMatchesTheUsualResponse() throws Exception {
+    awaitSnapshots();
+
+    for (String url : new String[] { "/api/products", "/api/categories" }) {
+      Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+      statistics.clear();
+      MockHttpServletResponse gzipped = mockMvc.perform(get(url).header(HttpHeaders.ACCEPT_ENCODING, "gzip, br"))
+          .andExpect(status().isOk())
+          .andReturn().getResponse();
+      MockHttpServletResponse plain = mockMvc.perform(get(url))
+          .andExpect(status().isOk())
+          .andReturn().getResponse();
+      assertEquals(0, statistics.getPrepareStatementCount());
+
+      assertEquals("gzip", gzipped.getHeader(HttpHeaders.CONTENT_ENCODING));
+      assertNull(plain.getHeader(HttpHeaders.CONTENT_ENCODING));
+      assertTrue(plain.getHeaders(HttpHeaders.VARY).contains(HttpHeaders.ACCEPT_ENCODING));
+      assertEquals(plain.getContentAsString(), gunzip(gzipped.getContentAsByteArray()));
+    }
+
+    // Asking for every field skips the snapshot, but serializes the same list
+    String serialized = mockMvc.perform(get("/api/products?fields=full"))
+        .andReturn().getResponse().getContentAsString();
+    assertEquals(serialized, mockMvc.perform(get("/api/products")).andReturn().getResponse().getContentAsString());
+  }
+
+  @Test
+  void snapshotIsRebuiltAfterChanges() throws Exception {
+    awaitSnapshots();
+    String oldETag = catalogSnapshot.getProducts().orElseThrow().getETag();
+
+    Product product = productRepository.findAll().get(0);
+    mockMvc.perform(post("/api/products/" + product.getId() + "/add-review")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("{\"reviewText\": \"Snapshot\", \"rating\": 2, \"username\": \"testUser\"}"))
+        .andExpect(status().isCreated());
+
+    awaitSnapshots();
+    String newETag = catalogSnapshot.getProducts().orElseThrow().getETag();
+    assertFalse(oldETag.equals(newETag));
+    assertEquals(catalogVersion.getProductsETag(), newETag);
+
+    String fresh = mockMvc.perform(get("/api/products?fields=full")).andReturn().getResponse().getContentAsString();
+    assertEquals(fresh, mockMvc.perform(get("/api/products")).andReturn().getResponse().getContentAsString());
+  }
+
+  @Test
+  void acceptEncodingIsNegotiated() {
+    assertTrue(CatalogSnapshot.acceptsGzip("gzip"));
+    assertTrue(CatalogSnapshot.acceptsGzip("deflate, GZIP;q=0.5"));
+    assertTrue(CatalogSnapshot.acceptsGzip("*"));
+    assertFalse(CatalogSnapshot.acceptsGzip(null));
+    assertFalse(CatalogSnapshot.acceptsGzip("identity"));
+    assertFalse(CatalogSnapshot.acceptsGzip("br, gzip;q=0"));
+  }
+
+  private void awaitSnapshots() throws InterruptedException {
+    for (int i = 0; i < 100; i++) {
+      if (catalogSnapshot.getProducts().isPresent() && catalogSnapshot.getCategories().isPresent()) {
+        return;
+      }
+      Thread.sleep(50);
+    }
+    throw new AssertionError("Catalog snapshot was not built");
+  }
+
+  private String gunzip(byte[] bytes) throws IOException {
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+      return new String(in.readAllBytes(), "UTF-8");
+    }
+  }
+}
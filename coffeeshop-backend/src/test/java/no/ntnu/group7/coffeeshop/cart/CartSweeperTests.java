@@ -0,0 +1,124 @@
+package no.ntnu.group7.coffeeshop.cart;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.model.User;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.ShoppingCartProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.UserRepository;
+
+// A small batch size makes the sweep take several batches
+@SpringBootTest(properties = { "coffeeshop.cart.sweep-batch-size=3", "coffeeshop.cart.sweep-pause=0ms" })
+class CartSweeperTests {
+
+  @Autowired
+  private CartSweeper cartSweeper;
+
+  @Autowired
+  private CartStore cartStore;
+
+  @Autowired
+  private ShoppingCartProductRepository shoppingCartProductRepository;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  private List<User> users = new ArrayList<>();
+
+  @BeforeEach
+  void setUp() {
+    for (int i = 0; i < 4; i++) {
+      String username = "sweptUser" + System.nanoTime();
+      users.add(userRepository.save(new User(username, "password", "First", "Last", username + "@mail.com",
+          "Address")));
+    }
+  }
+
+  @AfterEach
+  void tearDown() {
+    for (User user : users) {
+      cartStore.removeUser(user.getId());
+      userRepository.deleteById(user.getId());
+    }
+  }
+
+  @Test
+  void idleCartsAreDeletedInBatches() {
+    List<Product> products = productRepository.findAll();
+    for (User user : users) {
+      cartStore.add(user.getId(), products.get(0).getId(), 1);
+      cartStore.add(user.getId(), products.get(1).getId(), 1);
+    }
+    User active = users.get(3);
+    List<Long> idleUserIds = new ArrayList<>();
+    users.subList(0, 3).forEach(user -> idleUserIds.add(user.getId()));
+    Date longAgo = new Date(System.currentTimeMillis() - 1000L * 60 * 60 * 24 * 365);
+    new TransactionTemplate(transactionManager)
+        .executeWithoutResult(status -> shoppingCartProductRepository.touchByUserIdIn(idleUserIds, longAgo));
+
+    double scanned = counter("cart.sweep.rows.scanned");
+    double deleted = counter("cart.sweep.rows.deleted");
+    long sweeps = meterRegistry.get("cart.sweep.duration").timer().count();
+
+    assertEquals(6, cartSweeper.sweep(new Date(System.currentTimeMillis() - 1000L * 60 * 60)));
+    for (Long userId : idleUserIds) {
+      assertEquals(0, cartStore.getItems(userId).size());
+    }
+    assertEquals(2, cartStore.getItems(active.getId()).size());
+
+    // Whole carts are deleted, so a batch can delete rows it didn't look at
+    assertEquals(6, counter("cart.sweep.rows.deleted") - deleted);
+    double batchRows = counter("cart.sweep.rows.scanned") - scanned;
+    assertTrue(batchRows > 3 && batchRows <= 6);
+    assertEquals(sweeps + 1, meterRegistry.get("cart.sweep.duration").timer().count());
+  }
+
+  @Test
+  void keptCartsDoNotStopTheSweep() {
+    List<Product> products = productRepository.findAll();
+    // The first user's cart fills a whole batch with idle rows, but has a row
+    // added since, so it is kept
+    User kept = users.get(0);
+    for (int i = 0; i < 3; i++) {
+      cartStore.add(kept.getId(), products.get(i).getId(), 1);
+    }
+    User idle = users.get(1);
+    cartStore.add(idle.getId(), products.get(0).getId(), 1);
+    Date longAgo = new Date(System.currentTimeMillis() - 1000L * 60 * 60 * 24 * 365);
+    new TransactionTemplate(transactionManager).executeWithoutResult(status -> shoppingCartProductRepository
+        .touchByUserIdIn(List.of(kept.getId(), idle.getId()), longAgo));
+    cartStore.add(kept.getId(), products.get(3).getId(), 1);
+
+    assertEquals(1, cartSweeper.sweep(new Date(System.currentTimeMillis() - 1000L * 60 * 60)));
+    assertEquals(4, cartStore.getItems(kept.getId()).size());
+    assertEquals(0, cartStore.getItems(idle.getId()).size());
+  }
+
+  private double counter(String name) {
+    return meterRegistry.get(name).counter().count();
+  }
+}
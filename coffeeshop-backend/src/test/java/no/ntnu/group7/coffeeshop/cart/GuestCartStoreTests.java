@@ -0,0 +1,81 @@
+package no.ntnu.group7.coffeeshop.cart;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class GuestCartStoreTests {
+
+  @Test
+  void leastRecentlyUsedCartsAreDroppedBeyondTheLimit() {
+    GuestCartStore store = new GuestCartStore(Duration.ofHours(1), 2, 2);
+    String first = store.newToken();
+    String second = store.newToken();
+    String third = store.newToken();
+    assertNotEquals(first, second);
+
+    store.apply(first, List.of(add(1, 1)));
+    store.apply(second, List.of(add(1, 1)));
+    // Reading the first cart makes the second the least recently used
+    assertEquals(1, store.getItems(first).size());
+    store.apply(third, List.of(add(1, 1)));
+
+    assertEquals(2, store.size());
+    assertEquals(1, store.getItems(first).size());
+    assertEquals(0, store.getItems(second).size());
+    assertThrows(IllegalArgumentException.class, () -> store.apply(first, List.of(add(2, 1), add(3, 1))));
+    assertEquals(1, store.getItems(first).size());
+  }
+
+  @Test
+  void unusedCartsExpire() throws InterruptedException {
+    GuestCartStore store = new GuestCartStore(Duration.ofMillis(50), 10, 10);
+    String token = store.newToken();
+    store.apply(token, List.of(add(1, 2)));
+    assertEquals(2, store.take(token).get(0).getQuantity());
+    assertEquals(0, store.take(token).size());
+
+    store.apply(token, List.of(add(1, 2)));
+    Thread.sleep(100);
+    assertEquals(0, store.size());
+    assertEquals(0, store.getItems(token).size());
+  }
+
+  @Test
+  void onlyTokensLikeNewTokensAreAccepted() {
+    GuestCartStore store = new GuestCartStore(Duration.ofHours(1), 10, 10);
+    String token = store.newToken();
+    assertTrue(store.isValidToken(token));
+    assertFalse(store.isValidToken(null));
+    assertFalse(store.isValidToken(token + "a"));
+    assertFalse(store.isValidToken(token.substring(1) + "="));
+    assertThrows(IllegalArgumentException.class, () -> store.apply("x".repeat(10000), List.of(add(1, 1))));
+    assertEquals(0, store.size());
+  }
+
+  @Test
+  void restoredItemsAreAddedToTheCart() {
+    GuestCartStore store = new GuestCartStore(Duration.ofHours(1), 10, 10);
+    String token = store.newToken();
+    store.apply(token, List.of(add(1, 2)));
+    List<CartItem> taken = store.take(token);
+
+    // Added while the taken items were being moved
+    store.apply(token, List.of(add(1, 1), add(2, 1)));
+    store.restore(token, taken);
+    List<CartItem> items = store.getItems(token);
+    assertEquals(2, items.size());
+    assertEquals(3, items.get(0).getQuantity());
+  }
+
+  private CartOperation add(int productId, int quantity) {
+    return new CartOperation(CartOperation.Type.ADD, productId, quantity);
+  }
+}
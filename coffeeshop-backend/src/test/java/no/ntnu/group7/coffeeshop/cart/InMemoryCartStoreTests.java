@@ -0,0 +1,269 @@
+package no.ntnu.group7.coffeeshop.cart;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.persistence.EntityManagerFactory;
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.model.User;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.ShoppingCartProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.UserRepository;
+
+// The long flush interval keeps the background flush out of the way; the
+// tests flush by hand
+@SpringBootTest(properties = { "coffeeshop.cart.store=memory", "coffeeshop.cart.flush-interval=1h" })
+class InMemoryCartStoreTests {
+
+  @Autowired
+  private CartStore cartStore;
+
+  @Autowired
+  private ShoppingCartProductRepository shoppingCartProductRepository;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private AutowireCapableBeanFactory beanFactory;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  private InMemoryCartStore store;
+  private List<User> users = new ArrayList<>();
+  private List<Product> products;
+
+  @BeforeEach
+  void setUp() {
+    store = (InMemoryCartStore) cartStore;
+    products = productRepository.findAll();
+    for (int i = 0; i < 2; i++) {
+      String username = "cartUser" + System.nanoTime();
+      users.add(userRepository.save(new User(username, "password", "First", "Last", username + "@mail.com",
+          "Address")));
+    }
+  }
+
+  @AfterEach
+  void tearDown() {
+    for (User user : users) {
+      store.removeUser(user.getId());
+      userRepository.deleteById(user.getId());
+    }
+  }
+
+  @Test
+  void readsDoNotQueryTheDatabase() {
+    long userId = users.get(0).getId();
+    store.add(userId, products.get(0).getId(), 1);
+
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+    assertEquals(1, store.getItems(userId).size());
+    assertEquals(0, statistics.getPrepareStatementCount());
+  }
+
+  @Test
+  void changesAreWrittenOnFlushAndReloaded() {
+    long userId = users.get(0).getId();
+    int first = products.get(0).getId();
+    int second = products.get(1).getId();
+    int third = products.get(2).getId();
+
+    store.add(userId, first, 1);
+    store.add(userId, first, 2);
+    store.add(userId, second, 1);
+    store.setQuantity(userId, second, 4);
+    assertEquals(0, shoppingCartProductRepository.findViewsByUserId(userId).size());
+
+    store.flush();
+    assertEquals(Map.of(first, 3, second, 4), rows(userId));
+    assertEquals(0, store.getDirtyCount());
+
+    store.remove(userId, first);
+    store.add(userId, third, 1);
+    store.clear(users.get(1).getId());
+    store.flush();
+    assertEquals(Map.of(second, 4, third, 1), rows(userId));
+
+    // A new store, as after a restart, starts from what was written
+    InMemoryCartStore restarted = new InMemoryCartStore(Duration.ofHours(1));
+    beanFactory.autowireBean(restarted);
+    restarted.start();
+    try {
+      assertEquals(List.of(second, third), restarted.getItems(userId).stream()
+          .map(CartItem::getProductId)
+          .collect(Collectors.toList()));
+    } finally {
+      restarted.stop();
+    }
+  }
+
+  @Test
+  void failedBatchLeavesTheCartUnchanged() {
+    long userId = users.get(0).getId();
+    int first = products.get(0).getId();
+    int second = products.get(1).getId();
+    store.add(userId, first, 1);
+
+    assertThrows(IllegalArgumentException.class, () -> store.apply(userId, List.of(
+        new CartOperation(CartOperation.Type.REMOVE, first, 0),
+        new CartOperation(CartOperation.Type.SET, second, 2))));
+    assertEquals(1, store.getItems(userId).get(0).getQuantity());
+
+    List<CartItem> items = store.apply(userId, List.of(
+        new CartOperation(CartOperation.Type.ADD, second, 2),
+        new CartOperation(CartOperation.Type.REMOVE, first, 0)));
+    assertEquals(1, items.size());
+    assertEquals(second, items.get(0).getProductId());
+    store.flush();
+    assertEquals(Map.of(second, 2), rows(userId));
+
+    // Operations that leave the cart as it was have nothing to write
+    store.apply(userId, List.of(
+        new CartOperation(CartOperation.Type.ADD, first, 1),
+        new CartOperation(CartOperation.Type.REMOVE, first, 0)));
+    assertEquals(0, store.getDirtyCount());
+  }
+
+  @Test
+  void cartsOfDeletedUsersAndProductsAreRepairedInsteadOfRetried() {
+    long userId = users.get(0).getId();
+    long deletedUserId = Long.MAX_VALUE;
+    int productId = products.get(0).getId();
+    int deletedProductId = Integer.MAX_VALUE;
+    store.add(userId, productId, 1);
+    store.add(userId, deletedProductId, 1);
+    store.add(deletedUserId, productId, 1);
+
+    // The batch fails, and each cart fails again on its own and is repaired
+    store.flush();
+    assertEquals(1, store.getItems(userId).size());
+    assertEquals(0, store.getItems(deletedUserId).size());
+
+    // The repaired cart is written by the next flush
+    store.flush();
+    assertEquals(Map.of(productId, 1), rows(userId));
+    assertEquals(0, store.getDirtyCount());
+  }
+
+  @Test
+  void clearingInATransactionThatRollsBackKeepsTheCart() {
+    long userId = users.get(0).getId();
+    store.add(userId, products.get(0).getId(), 1);
+
+    new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+      store.clear(userId);
+      assertEquals(1, store.getItems(userId).size());
+      status.setRollbackOnly();
+    });
+    assertEquals(1, store.getItems(userId).size());
+
+    new TransactionTemplate(transactionManager).executeWithoutResult(status -> store.clear(userId));
+    assertEquals(0, store.getItems(userId).size());
+  }
+
+  @Test
+  void concurrentAddsAreNotLost() throws Exception {
+    long userId = users.get(0).getId();
+    long otherUserId = users.get(1).getId();
+    int productId = products.get(0).getId();
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int thread = 0; thread < 8; thread++) {
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < 1000; i++) {
+          store.add(userId, productId, 1);
+          store.add(otherUserId, productId, 2);
+          if (i % 100 == 0) {
+            store.flush();
+          }
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    assertEquals(8000, store.getItems(userId).get(0).getQuantity());
+    assertEquals(16000, store.getItems(otherUserId).get(0).getQuantity());
+    store.flush();
+    assertEquals(Map.of(productId, 8000), rows(userId));
+    assertEquals(Map.of(productId, 16000), rows(otherUserId));
+  }
+
+  @Test
+  void removingProductsAndUsersDeletesTheirRowsAtOnce() {
+    long userId = users.get(0).getId();
+    int first = products.get(0).getId();
+    int second = products.get(1).getId();
+    store.add(userId, first, 1);
+    store.add(userId, second, 1);
+    store.flush();
+
+    store.removeProduct(first);
+    assertEquals(Map.of(second, 1), rows(userId));
+    assertEquals(1, store.getItems(userId).size());
+
+    store.removeUser(userId);
+    assertEquals(Map.of(), rows(userId));
+    assertEquals(0, store.getItems(userId).size());
+  }
+
+  @Test
+  void onlyIdleCartsWithoutPendingChangesExpire() {
+    long idleUserId = users.get(0).getId();
+    long changedUserId = users.get(1).getId();
+    int productId = products.get(0).getId();
+    store.add(idleUserId, productId, 1);
+    store.add(changedUserId, productId, 1);
+    store.flush();
+
+    Date cutoff = new Date(System.currentTimeMillis() + 60000);
+    store.add(changedUserId, productId, 1);
+    assertEquals(1, store.expire(List.of(idleUserId, changedUserId), cutoff));
+    assertEquals(0, store.getItems(idleUserId).size());
+    assertEquals(Map.of(), rows(idleUserId));
+
+    // The pending change is written, which touches the cart
+    store.flush();
+    assertEquals(0, store.expire(List.of(changedUserId), new Date(System.currentTimeMillis() - 60000)));
+    assertEquals(Map.of(productId, 2), rows(changedUserId));
+  }
+
+  private Map<Integer, Integer> rows(long userId) {
+    return shoppingCartProductRepository.findViewsByUserId(userId).stream()
+        .collect(Collectors.toMap(ShoppingCartProductRepository.CartRowView::getProductId,
+            ShoppingCartProductRepository.CartRowView::getQuantity));
+  }
+}
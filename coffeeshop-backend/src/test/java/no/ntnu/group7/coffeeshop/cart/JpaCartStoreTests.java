@@ -0,0 +1,100 @@
+package no.ntnu.group7.coffeeshop.cart;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import jakarta.persistence.EntityManagerFactory;
+import no.ntnu.group7.coffeeshop.model.User;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.ShoppingCartProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.UserRepository;
+
+@SpringBootTest(properties = "coffeeshop.cart.store=jpa")
+class JpaCartStoreTests {
+
+  @Autowired
+  private CartStore cartStore;
+
+  @Autowired
+  private ShoppingCartProductRepository shoppingCartProductRepository;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  private User user;
+
+  @BeforeEach
+  void setUp() {
+    String username = "upsertUser" + System.nanoTime();
+    user = userRepository.save(new User(username, "password", "First", "Last", username + "@mail.com", "Address"));
+  }
+
+  @AfterEach
+  void tearDown() {
+    cartStore.removeUser(user.getId());
+    userRepository.deleteById(user.getId());
+  }
+
+  @Test
+  void addingToAProductInTheCartIsOneStatement() {
+    int productId = productRepository.findAll().get(0).getId();
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+    // On MySQL the first add is one statement too; Derby updates, then inserts
+    cartStore.add(user.getId(), productId, 1);
+    statistics.clear();
+    cartStore.add(user.getId(), productId, 2);
+    assertEquals(1, statistics.getPrepareStatementCount());
+    assertEquals(3, cartStore.getItems(user.getId()).get(0).getQuantity());
+  }
+
+  @Test
+  void concurrentAddsOfTheSameProductMakeOneRow() throws Exception {
+    int productId = productRepository.findAll().get(0).getId();
+    int threads = 8;
+    int addsPerThread = 25;
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int thread = 0; thread < threads; thread++) {
+      futures.add(executor.submit(() -> {
+        start.await();
+        for (int i = 0; i < addsPerThread; i++) {
+          cartStore.add(user.getId(), productId, 1);
+        }
+        return null;
+      }));
+    }
+    start.countDown();
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    List<ShoppingCartProductRepository.CartRowView> rows = shoppingCartProductRepository
+        .findViewsByUserId(user.getId());
+    assertEquals(1, rows.size());
+    assertEquals(threads * addsPerThread, rows.get(0).getQuantity());
+  }
+}
@@ -0,0 +1,134 @@
+package no.ntnu.group7.coffeeshop.controllers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+import org.springframework.test.web.servlet.MockMvc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.model.User;
+import no.ntnu.group7.coffeeshop.repositories.OrderRepository;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.RoleRepository;
+import no.ntnu.group7.coffeeshop.repositories.UserRepository;
+import no.ntnu.group7.coffeeshop.security.AccessUserDetails;
+import no.ntnu.group7.coffeeshop.security.JwtUtil;
+import no.ntnu.group7.coffeeshop.services.ShoppingCartService;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class CheckoutControllerTests {
+  private static final long TIMEOUT_MILLIS = 10000;
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private OrderRepository orderRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private RoleRepository roleRepository;
+
+  @Autowired
+  private ShoppingCartService shoppingCartService;
+
+  @Autowired
+  private JwtUtil jwtUtil;
+
+  private final List<User> users = new ArrayList<>();
+  private final List<Long> orderIds = new ArrayList<>();
+
+  @AfterEach
+  void tearDown() {
+    orderIds.forEach(id -> orderRepository.deleteById(id.intValue()));
+    for (User user : users) {
+      shoppingCartService.clearShoppingCart(user);
+      userRepository.deleteById(user.getId());
+    }
+  }
+
+  @Test
+  void asyncCheckoutIsAcceptedAndCanBePolled() throws Exception {
+    User user = createUser();
+    Product product = productRepository.findAll().get(0);
+    shoppingCartService.addItemToCart(user, product.getId(), 1);
+
+    MockHttpServletResponse response = mockMvc.perform(post("/api/checkout")
+        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token(user))
+        .header("Prefer", "respond-async"))
+        .andExpect(status().isAccepted())
+        .andReturn().getResponse();
+    JsonNode accepted = objectMapper.readTree(response.getContentAsString());
+    long orderId = accepted.get("orderId").asLong();
+    orderIds.add(orderId);
+    assertEquals("PENDING", accepted.get("orderStatus").asText());
+    assertEquals("/api/orders/" + orderId + "/status", response.getHeader(HttpHeaders.LOCATION));
+
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    String orderStatus;
+    do {
+      Thread.sleep(20);
+      orderStatus = objectMapper.readTree(mockMvc.perform(get(response.getHeader(HttpHeaders.LOCATION))
+          .header(HttpHeaders.AUTHORIZATION, "Bearer " + token(user)))
+          .andExpect(status().isOk())
+          .andReturn().getResponse().getContentAsString()).get("orderStatus").asText();
+    } while (orderStatus.equals("PENDING") && System.currentTimeMillis() < deadline);
+    assertEquals("PROCESSING", orderStatus);
+
+    // Other users can't see the order
+    mockMvc.perform(get(response.getHeader(HttpHeaders.LOCATION))
+        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token(createUser())))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  void asyncCheckoutOfAnEmptyCartIsRejected() throws Exception {
+    User user = createUser();
+    mockMvc.perform(post("/api/checkout")
+        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token(user))
+        .header("Prefer", "respond-async"))
+        .andExpect(status().isBadRequest());
+    assertEquals(0, orderRepository.findAllSummaries().stream()
+        .filter(order -> order.getUsername().equals(user.getUsername()))
+        .count());
+  }
+
+  private User createUser() {
+    String username = "asyncBuyer" + System.nanoTime();
+    User user = new User(username, BCrypt.hashpw("password", BCrypt.gensalt()), "First", "Last",
+        username + "@mail.com", "Address");
+    user.addRole(roleRepository.findByName("ROLE_USER"));
+    user = userRepository.save(user);
+    users.add(user);
+    return user;
+  }
+
+  private String token(User user) {
+    return jwtUtil.generateToken(new AccessUserDetails(user));
+  }
+}
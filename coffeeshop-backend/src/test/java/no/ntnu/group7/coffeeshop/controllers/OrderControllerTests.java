@@ -0,0 +1,185 @@
+package no.ntnu.group7.coffeeshop.controllers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.persistence.EntityManagerFactory;
+import no.ntnu.group7.coffeeshop.model.Order;
+import no.ntnu.group7.coffeeshop.model.OrderProduct;
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.model.User;
+import no.ntnu.group7.coffeeshop.repositories.OrderRepository;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.UserRepository;
+import no.ntnu.group7.coffeeshop.security.AccessUserDetails;
+import no.ntnu.group7.coffeeshop.security.JwtUtil;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class OrderControllerTests {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private OrderRepository orderRepository;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private JwtUtil jwtUtil;
+
+  private Statistics statistics;
+
+  private final List<Order> createdOrders = new ArrayList<>();
+
+  @BeforeEach
+  void setUp() {
+    statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+  }
+
+  @AfterEach
+  void tearDown() {
+    createdOrders.forEach(order -> orderRepository.deleteById((int) order.getId()));
+    createdOrders.clear();
+  }
+
+  @Test
+  void ordersIncludeTheirProductsUnlessLeftOut() throws Exception {
+    Order order = createOrder(2);
+
+    JsonNode full = findOrder(getOrders(""), order.getId());
+    assertEquals(2, full.get("orderProducts").size());
+    assertNotNull(full.get("orderProducts").get(0).get("productName").asText());
+
+    JsonNode summary = findOrder(getOrders("?fields=summary"), order.getId());
+    assertFalse(summary.has("orderProducts"));
+    assertEquals("admin", summary.get("username").asText());
+
+    JsonNode selected = findOrder(getOrders("?fields=orderStatus"), order.getId());
+    assertEquals(List.of("id", "orderStatus"), fieldNames(selected));
+  }
+
+  @Test
+  void orderListStatementCountDoesNotGrowWithOrders() throws Exception {
+    createOrder(1);
+    long summaryBefore = countStatements("?fields=summary");
+    long fullBefore = countStatements("");
+
+    for (int i = 0; i < 5; i++) {
+      createOrder(3);
+    }
+
+    assertTrue(summaryBefore < fullBefore);
+    assertEquals(summaryBefore, countStatements("?fields=summary"));
+    assertEquals(fullBefore, countStatements(""));
+  }
+
+  @Test
+  void orderLinesKeepTheNameAndPriceTheyWereOrderedAt() throws Exception {
+    Product product = productRepository.save(new Product("Old name", new BigDecimal("10.00"), "Description",
+        "image.png", 50));
+    try {
+      User user = userRepository.findByUsername("admin").orElseThrow();
+      Order order = new Order(user, Order.OrderStatus.PROCESSING, new BigDecimal("20.00"));
+      order.getOrderProducts().add(new OrderProduct(order, product, 2));
+      createdOrders.add(orderRepository.save(order));
+
+      product.setName("New name");
+      product.setPrice(new BigDecimal("12.50"));
+      productRepository.save(product);
+
+      JsonNode line = findOrder(getOrders(""), order.getId()).get("orderProducts").get(0);
+      assertEquals("Old name", line.get("productName").asText());
+      assertEquals(0, new BigDecimal("10.00").compareTo(line.get("unitPrice").decimalValue()));
+    } finally {
+      tearDown();
+      productRepository.deleteById(product.getId());
+    }
+  }
+
+  @Test
+  void unknownFieldsAreRejected() throws Exception {
+    mockMvc.perform(get("/api/orders?fields=password")
+        .header(HttpHeaders.AUTHORIZATION, "Bearer " + adminToken()))
+        .andExpect(status().isBadRequest());
+  }
+
+  private Order createOrder(int productCount) {
+    User user = userRepository.findByUsername("admin").orElseThrow();
+    List<Product> products = productRepository.findAll();
+    Order order = new Order(user, Order.OrderStatus.PROCESSING, new BigDecimal(100));
+    for (int i = 0; i < productCount; i++) {
+      order.getOrderProducts().add(new OrderProduct(order, products.get(i), 1 + i));
+    }
+    createdOrders.add(orderRepository.save(order));
+    return order;
+  }
+
+  private JsonNode getOrders(String query) throws Exception {
+    String body = mockMvc.perform(get("/api/orders" + query)
+        .header(HttpHeaders.AUTHORIZATION, "Bearer " + adminToken()))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsString();
+    return objectMapper.readTree(body);
+  }
+
+  private long countStatements(String query) throws Exception {
+    String token = adminToken();
+    statistics.clear();
+    mockMvc.perform(get("/api/orders" + query).header(HttpHeaders.AUTHORIZATION, "Bearer " + token))
+        .andExpect(status().isOk());
+    return statistics.getPrepareStatementCount();
+  }
+
+  private JsonNode findOrder(JsonNode orders, long id) {
+    for (JsonNode order : orders) {
+      if (order.get("id").asLong() == id) {
+        return order;
+      }
+    }
+    throw new AssertionError("Order " + id + " not found");
+  }
+
+  private List<String> fieldNames(JsonNode node) {
+    List<String> names = new ArrayList<>();
+    node.fieldNames().forEachRemaining(names::add);
+    return names;
+  }
+
+  private String adminToken() {
+    return jwtUtil.generateToken(new AccessUserDetails(userRepository.findByUsername("admin").orElseThrow()));
+  }
+}
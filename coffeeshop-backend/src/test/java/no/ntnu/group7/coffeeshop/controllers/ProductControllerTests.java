@@ -0,0 +1,459 @@
+package no.ntnu.group7.coffeeshop.controllers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.persistence.EntityManagerFactory;
+import no.ntnu.group7.coffeeshop.inventory.StockReservations;
+import no.ntnu.group7.coffeeshop.model.Category;
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.model.Review;
+import no.ntnu.group7.coffeeshop.model.Role;
+import no.ntnu.group7.coffeeshop.model.User;
+import no.ntnu.group7.coffeeshop.repositories.CategoryRepository;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.ReviewRepository;
+import no.ntnu.group7.coffeeshop.repositories.RoleRepository;
+import no.ntnu.group7.coffeeshop.repositories.UserRepository;
+import no.ntnu.group7.coffeeshop.security.AccessUserDetails;
+import no.ntnu.group7.coffeeshop.security.JwtUtil;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class ProductControllerTests {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private CategoryRepository categoryRepository;
+
+  @Autowired
+  private ReviewRepository reviewRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private RoleRepository roleRepository;
+
+  @Autowired
+  private JwtUtil jwtUtil;
+
+  @Autowired
+  private StockReservations stockReservations;
+
+  private Statistics statistics;
+
+  private final List<Review> createdReviews = new ArrayList<>();
+  private final List<Product> createdProducts = new ArrayList<>();
+  private final List<User> createdUsers = new ArrayList<>();
+  private final List<Category> createdCategories = new ArrayList<>();
+
+  @BeforeEach
+  void setUp() {
+    statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+  }
+
+  @AfterEach
+  void tearDown() {
+    reviewRepository.deleteAll(createdReviews);
+    productRepository.deleteAll(createdProducts);
+    userRepository.deleteAll(createdUsers);
+    categoryRepository.deleteAll(createdCategories);
+    createdReviews.clear();
+    createdProducts.clear();
+    createdUsers.clear();
+    createdCategories.clear();
+  }
+
+  @Test
+  void productListStatementCountDoesNotGrowWithCatalog() throws Exception {
+    Category category = createCategory("statement-count");
+    Product product = createProducts(category, 1).get(0);
+
+    long productsBefore = countStatements("/api/products");
+    long productBefore = countStatements("/api/products/" + product.getId());
+    long categoryBefore = countStatements("/api/products/category/" + category.getId());
+
+    for (Product created : createProducts(category, 10)) {
+      createReviews(created, 3);
+    }
+    createReviews(product, 5);
+
+    assertEquals(productsBefore, countStatements("/api/products"));
+    assertEquals(productBefore, countStatements("/api/products/" + product.getId()));
+    assertEquals(categoryBefore, countStatements("/api/products/category/" + category.getId()));
+  }
+
+  @Test
+  void pagesCoverCatalogInSortOrder() throws Exception {
+    Category category = createCategory("pagination");
+    List<Product> products = createProducts(category, 7);
+    for (int i = 0; i < products.size(); i++) {
+      Product product = products.get(i);
+      product.setPrice(new BigDecimal(100 - i % 3));
+      productRepository.save(product);
+    }
+
+    List<Integer> byPrice = products.stream()
+        .sorted(Comparator.comparing(Product::getPrice).thenComparing(Product::getId))
+        .map(Product::getId)
+        .collect(Collectors.toList());
+    assertEquals(byPrice, collectPages("/api/products/category/" + category.getId() + "?sort=price&limit=3"));
+
+    List<Integer> byName = products.stream()
+        .sorted(Comparator.comparing(Product::getName).thenComparing(Product::getId))
+        .map(Product::getId)
+        .collect(Collectors.toList());
+    assertEquals(byName, collectPages("/api/products/category/" + category.getId() + "?sort=name&limit=2"));
+
+    List<Integer> allById = productRepository.findAll().stream()
+        .map(Product::getId)
+        .sorted()
+        .collect(Collectors.toList());
+    assertEquals(allById, collectPages("/api/products?limit=4"));
+  }
+
+  @Test
+  void laterPagesCostTheSameAsTheFirst() throws Exception {
+    Category category = createCategory("page-cost");
+    createProducts(category, 6);
+
+    JsonNode firstPage = getJson("/api/products?sort=name&limit=2");
+    String nextUrl = "/api/products?sort=name&limit=2&cursor=" + firstPage.get("nextCursor").asText();
+
+    assertEquals(countStatements("/api/products?sort=name&limit=2"), countStatements(nextUrl));
+  }
+
+  @Test
+  void invalidCursorIsRejected() throws Exception {
+    mockMvc.perform(get("/api/products?sort=price&cursor=bm90LWEtY3Vyc29y"))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void reviewsKeepRatingSummaryUpToDate() throws Exception {
+    Product product = createProducts(createCategory("rating-summary"), 1).get(0);
+    String url = "/api/products/" + product.getId();
+    postReview(product, 5);
+    int reviewId = postReview(product, 5);
+    postReview(product, 4);
+
+    JsonNode summary = getJson(url).get("ratingSummary");
+    assertEquals(3, summary.get("count").asInt());
+    assertEquals(4.67, summary.get("average").asDouble());
+    assertEquals("[0,0,0,1,2]", summary.get("histogram").toString());
+
+    mockMvc.perform(delete(url + "/reviews/" + reviewId)
+        .header(HttpHeaders.AUTHORIZATION, "Bearer " + adminToken()))
+        .andExpect(status().isNoContent());
+
+    summary = getJson(url).get("ratingSummary");
+    assertEquals(2, summary.get("count").asInt());
+    assertEquals(4.5, summary.get("average").asDouble());
+    assertEquals("[0,0,0,1,1]", summary.get("histogram").toString());
+  }
+
+  @Test
+  void invalidRatingIsRejected() throws Exception {
+    Product product = createProducts(createCategory("invalid-rating"), 1).get(0);
+    mockMvc.perform(post("/api/products/" + product.getId() + "/add-review")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("{\"reviewText\": \"Too good\", \"rating\": 6, \"username\": \"testUser\"}"))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void reviewsAreOnlyEmbeddedWhenAskedFor() throws Exception {
+    Category category = createCategory("without-reviews");
+    Product product = createProducts(category, 1).get(0);
+    postReview(product, 3);
+
+    JsonNode withoutReviews = getJson("/api/products/category/" + category.getId());
+    assertFalse(withoutReviews.get(0).has("reviews"));
+    assertEquals(1, withoutReviews.get(0).get("ratingSummary").get("count").asInt());
+    assertFalse(getJson("/api/products/" + product.getId()).has("reviews"));
+    JsonNode page = getJson("/api/products/category/" + category.getId() + "?limit=5");
+    assertFalse(page.get("items").get(0).has("reviews"));
+
+    JsonNode withReviews = getJson("/api/products/category/" + category.getId() + "?reviews=true");
+    assertEquals(1, withReviews.get(0).get("reviews").size());
+    assertEquals(1, getJson("/api/products/" + product.getId() + "?reviews=true").get("reviews").size());
+  }
+
+  @Test
+  void singleProductShowsTheStockHeldForCarts() throws Exception {
+    Category category = createCategory("reserved");
+    Product product = createProducts(category, 1).get(0);
+    String url = "/api/products/" + product.getId();
+    String eTag = mockMvc.perform(get(url)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+    long cartOwnerId = 2_000_001;
+    stockReservations.holdMore(cartOwnerId, product.getId(), 2);
+    try {
+      JsonNode json = getJson(url);
+      assertEquals(5, json.get("inventoryAmount").asInt());
+      assertEquals(2, json.get("reservedAmount").asInt());
+      assertEquals(3, json.get("availableAmount").asInt());
+      assertFalse(getJson("/api/products/category/" + category.getId()).get(0).has("reservedAmount"));
+      // A client holding the old response gets the new numbers
+      mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, eTag)).andExpect(status().isOk());
+    } finally {
+      stockReservations.releaseAll(cartOwnerId);
+    }
+  }
+
+  @Test
+  void reviewPagesAreNewestFirst() throws Exception {
+    Product product = createProducts(createCategory("review-pages"), 1).get(0);
+    createReviews(product, 7);
+    String url = "/api/products/" + product.getId() + "/reviews";
+
+    List<Integer> newestFirst = createdReviews.stream()
+        .map(Review::getId)
+        .sorted(Comparator.reverseOrder())
+        .collect(Collectors.toList());
+    assertEquals(newestFirst, collectPages(url + "?limit=3"));
+
+    List<Integer> ratedTwo = createdReviews.stream()
+        .filter(review -> review.getRating() == 2)
+        .map(Review::getId)
+        .sorted(Comparator.reverseOrder())
+        .collect(Collectors.toList());
+    assertEquals(ratedTwo, collectPages(url + "?rating=2&limit=1"));
+
+    JsonNode firstPage = getJson(url + "?limit=3");
+    String nextUrl = url + "?limit=3&cursor=" + firstPage.get("nextCursor").asText();
+    assertEquals(countStatements(url + "?limit=3"), countStatements(nextUrl));
+
+    mockMvc.perform(get(url + "?rating=6")).andExpect(status().isBadRequest());
+    mockMvc.perform(get("/api/products/0/reviews")).andExpect(status().isNotFound());
+  }
+
+  @Test
+  void fieldsSelectWhatIsLoadedAndSerialized() throws Exception {
+    Category category = createCategory("fields");
+    createProducts(category, 3);
+    String url = "/api/products/category/" + category.getId();
+
+    statistics.clear();
+    JsonNode summaries = getJson(url + "?fields=summary");
+    // One statement for the category check, one for the products, no joins
+    assertEquals(2, statistics.getPrepareStatementCount());
+    assertEquals(3, summaries.size());
+    assertEquals(List.of("id", "name", "inventoryAmount", "price", "image"), fieldNames(summaries.get(0)));
+
+    JsonNode page = getJson("/api/products?limit=2&fields=name,categories");
+    assertEquals(List.of("id", "name", "categories"), fieldNames(page.get("items").get(0)));
+    assertTrue(page.has("nextCursor"));
+
+    JsonNode full = getJson(url);
+    assertTrue(full.get(0).has("description"));
+    assertFalse(full.get(0).has("reviews"));
+    assertTrue(getJson(url + "?fields=summary&reviews=true").get(0).has("reviews"));
+
+    mockMvc.perform(get(url + "?fields=password")).andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void searchIsAnsweredWithoutTheDatabase() throws Exception {
+    statistics.clear();
+    JsonNode results = getJson("/api/products/search?q=green te");
+    assertEquals(0, statistics.getPrepareStatementCount());
+    assertEquals("Green tea", results.get(0).get("name").asText());
+  }
+
+  @Test
+  void searchFollowsProductChanges() throws Exception {
+    Category category = createCategory("search");
+    Product product = createProducts(category, 1).get(0);
+    String url = "/api/products/" + product.getId();
+
+    mockMvc.perform(put(url)
+        .header(HttpHeaders.AUTHORIZATION, "Bearer " + adminToken())
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("{\"name\": \"Searchable espresso\", \"description\": \"Strong\", \"inventoryAmount\": 5, "
+            + "\"price\": 30, \"image\": \"test\", \"categories\": [{\"id\": " + category.getId() + "}]}"))
+        .andExpect(status().isOk());
+    JsonNode results = getJson("/api/products/search?q=espresso");
+    assertEquals(1, results.size());
+    assertEquals(product.getId(), results.get(0).get("id").asInt());
+
+    mockMvc.perform(delete(url).header(HttpHeaders.AUTHORIZATION, "Bearer " + adminToken()))
+        .andExpect(status().isNoContent());
+    assertEquals(0, getJson("/api/products/search?q=espresso").size());
+  }
+
+  @Test
+  void filterCountsFacetsAndFollowsProductChanges() throws Exception {
+    Category category = createCategory("filter");
+    List<Product> products = createProducts(category, 3);
+    updateProduct(products.get(0), category, 30, 0);
+    updateProduct(products.get(1), category, 10, 5);
+    updateProduct(products.get(2), category, 20, 5);
+    String url = "/api/products/filter?categories=" + category.getId();
+
+    statistics.clear();
+    JsonNode page = getJson(url + "&sort=price");
+    assertEquals(1, statistics.getPrepareStatementCount());
+    assertEquals(3, page.get("total").asInt());
+    assertEquals(List.of(products.get(1).getId(), products.get(2).getId(), products.get(0).getId()),
+        ids(page.get("items")));
+    assertEquals(2, page.get("facets").get("inStock").asInt());
+    assertEquals(3, page.get("facets").get("categories").get(String.valueOf(category.getId())).asInt());
+    assertEquals(10, page.get("facets").get("minPrice").asInt());
+    assertEquals(30, page.get("facets").get("maxPrice").asInt());
+
+    page = getJson(url + "&inStock=true&minPrice=15");
+    assertEquals(List.of(products.get(2).getId()), ids(page.get("items")));
+    // The price facet ignores the price filter
+    assertEquals(10, page.get("facets").get("minPrice").asInt());
+
+    postReview(products.get(2), 5);
+    postReview(products.get(1), 3);
+    page = getJson(url + "&minRating=4");
+    assertEquals(List.of(products.get(2).getId()), ids(page.get("items")));
+    assertEquals(2, page.get("facets").get("minRating").get(2).asInt());
+
+    mockMvc.perform(delete("/api/products/" + products.get(0).getId())
+        .header(HttpHeaders.AUTHORIZATION, "Bearer " + adminToken()))
+        .andExpect(status().isNoContent());
+    assertEquals(2, getJson(url).get("total").asInt());
+
+    mockMvc.perform(get(url + "&minRating=6")).andExpect(status().isBadRequest());
+    mockMvc.perform(get(url + "&minPrice=20&maxPrice=10")).andExpect(status().isBadRequest());
+  }
+
+  private String adminToken() {
+    return jwtUtil.generateToken(new AccessUserDetails(userRepository.findByUsername("admin").orElseThrow()));
+  }
+
+  private int postReview(Product product, int rating) throws Exception {
+    String body = mockMvc.perform(post("/api/products/" + product.getId() + "/add-review")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("{\"reviewText\": \"Rated " + rating + "\", \"rating\": " + rating
+            + ", \"username\": \"testUser\"}"))
+        .andExpect(status().isCreated())
+        .andReturn().getResponse().getContentAsString();
+    int reviewId = objectMapper.readTree(body).get("id").asInt();
+    createdReviews.add(reviewRepository.findById(reviewId).orElseThrow());
+    return reviewId;
+  }
+
+  private void updateProduct(Product product, Category category, int price, int inventoryAmount) throws Exception {
+    mockMvc.perform(put("/api/products/" + product.getId())
+        .header(HttpHeaders.AUTHORIZATION, "Bearer " + adminToken())
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("{\"name\": \"" + product.getName() + "\", \"description\": \"Test\", \"inventoryAmount\": "
+            + inventoryAmount + ", \"price\": " + price + ", \"image\": \"test\", \"categories\": [{\"id\": "
+            + category.getId() + "}]}"))
+        .andExpect(status().isOk());
+  }
+
+  private List<String> fieldNames(JsonNode node) {
+    List<String> names = new ArrayList<>();
+    node.fieldNames().forEachRemaining(names::add);
+    return names;
+  }
+
+  private List<Integer> ids(JsonNode items) {
+    List<Integer> ids = new ArrayList<>();
+    for (JsonNode item : items) {
+      ids.add(item.get("id").asInt());
+    }
+    return ids;
+  }
+
+  private List<Integer> collectPages(String url) throws Exception {
+    List<Integer> ids = new ArrayList<>();
+    String cursor = null;
+    do {
+      JsonNode page = getJson(cursor == null ? url : url + "&cursor=" + cursor);
+      assertTrue(page.get("items").size() > 0);
+      for (JsonNode item : page.get("items")) {
+        ids.add(item.get("id").asInt());
+      }
+      cursor = page.get("nextCursor").isNull() ? null : page.get("nextCursor").asText();
+    } while (cursor != null);
+    return ids;
+  }
+
+  private JsonNode getJson(String url) throws Exception {
+    String body = mockMvc.perform(get(url)).andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsString();
+    return objectMapper.readTree(body);
+  }
+
+  private long countStatements(String url) throws Exception {
+    statistics.clear();
+    mockMvc.perform(get(url)).andExpect(status().isOk());
+    return statistics.getPrepareStatementCount();
+  }
+
+  private Category createCategory(String name) {
+    Category category = categoryRepository.save(new Category(name));
+    createdCategories.add(category);
+    return category;
+  }
+
+  private List<Product> createProducts(Category category, int count) {
+    Category otherCategory = createCategory("statement-count-other-" + createdCategories.size());
+    List<Product> products = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Product product = new Product("Test product " + createdProducts.size(), new BigDecimal(10), "Test", "test", 5);
+      product.setCategories(Arrays.asList(category, otherCategory));
+      products.add(productRepository.save(product));
+      createdProducts.add(product);
+    }
+    return products;
+  }
+
+  private void createReviews(Product product, int count) {
+    Role role = roleRepository.findByName("ROLE_USER");
+    for (int i = 0; i < count; i++) {
+      String username = "reviewer" + createdUsers.size();
+      User user = new User(username, "password", "First", "Last", username + "@mail.com", "Address");
+      user.addRole(role);
+      createdUsers.add(userRepository.save(user));
+      createdReviews.add(reviewRepository.save(new Review(product, user, "Review " + i, 1 + i % 5)));
+    }
+  }
+}
@@ -0,0 +1,328 @@
+package no.ntnu.group7.coffeeshop.controllers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.servlet.http.Cookie;
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.model.User;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.RoleRepository;
+import no.ntnu.group7.coffeeshop.repositories.ShoppingCartProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.UserRepository;
+import no.ntnu.group7.coffeeshop.security.AccessUserDetails;
+import no.ntnu.group7.coffeeshop.security.JwtUtil;
+import no.ntnu.group7.coffeeshop.services.ShoppingCartService;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class ShoppingCartControllerTests {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private RoleRepository roleRepository;
+
+  @Autowired
+  private ShoppingCartProductRepository shoppingCartProductRepository;
+
+  @Autowired
+  private ShoppingCartService shoppingCartService;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private JwtUtil jwtUtil;
+
+  private User user;
+  private String token;
+
+  @BeforeEach
+  void setUp() {
+    String username = "shopper" + System.nanoTime();
+    user = new User(username, BCrypt.hashpw("password", BCrypt.gensalt()), "First", "Last", username + "@mail.com",
+        "Address");
+    user.addRole(roleRepository.findByName("ROLE_USER"));
+    user = userRepository.save(user);
+    token = jwtUtil.generateToken(new AccessUserDetails(user));
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (userRepository.existsById(user.getId())) {
+      shoppingCartService.removeCart(user);
+      userRepository.deleteById(user.getId());
+    }
+  }
+
+  @Test
+  void cartCanBeFilledChangedAndEmptied() throws Exception {
+    List<Product> products = productRepository.findAll();
+    Product coffee = products.get(0);
+    Product tea = products.get(1);
+
+    addToCart(coffee.getId(), 2).andExpect(status().isOk());
+    addToCart(coffee.getId(), 1).andExpect(status().isOk());
+    addToCart(tea.getId(), 1).andExpect(status().isOk());
+
+    JsonNode cart = getCart();
+    assertEquals(2, cart.size());
+    assertEquals(coffee.getId(), cart.get(0).get("productId").asInt());
+    assertEquals(coffee.getId(), cart.get(0).get("id").asInt());
+    assertEquals(3, cart.get(0).get("quantity").asInt());
+    assertEquals(user.getId(), cart.get(0).get("userId").asLong());
+    assertEquals(0, coffee.getPrice().multiply(new BigDecimal(3)).add(tea.getPrice()).compareTo(getTotal()));
+
+    // Older clients only send the ID of the item
+    mockMvc.perform(withToken(patch("/api/shoppingCart/quantity"))
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("{\"id\": " + coffee.getId() + ", \"quantity\": 5}"))
+        .andExpect(status().isOk());
+    mockMvc.perform(withToken(patch("/api/shoppingCart/quantity"))
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("{\"productId\": " + products.get(2).getId() + ", \"quantity\": 5}"))
+        .andExpect(status().isNotFound());
+    mockMvc.perform(withToken(delete("/api/shoppingCart/" + tea.getId())))
+        .andExpect(status().isNoContent());
+
+    cart = getCart();
+    assertEquals(1, cart.size());
+    assertEquals(5, cart.get(0).get("quantity").asInt());
+    assertEquals(1, shoppingCartProductRepository.findViewsByUserId(user.getId()).size());
+  }
+
+  @Test
+  void invalidRequestsAreRejected() throws Exception {
+    addToCart(Integer.MAX_VALUE, 1).andExpect(status().isNotFound());
+    addToCart(productRepository.findAll().get(0).getId(), 0).andExpect(status().isBadRequest());
+    assertEquals(0, getCart().size());
+  }
+
+  @Test
+  void guestCartIsKeptInMemoryAndMergedOnLogin() throws Exception {
+    List<Product> products = productRepository.findAll();
+    Product coffee = products.get(0);
+    Product tea = products.get(1);
+    addToCart(coffee.getId(), 1).andExpect(status().isOk());
+
+    // Visitors without a cart get an empty one
+    assertEquals("[]", mockMvc.perform(get("/api/shoppingCart"))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsString());
+
+    Cookie guestCart = mockMvc.perform(post("/api/shoppingCart/add-to-cart")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("{\"productId\": " + coffee.getId() + ", \"quantity\": 2}"))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getCookie("guest_cart");
+    assertTrue(guestCart.isHttpOnly());
+    mockMvc.perform(post("/api/shoppingCart/add-to-cart").cookie(guestCart)
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("{\"productId\": " + tea.getId() + ", \"quantity\": 1}"))
+        .andExpect(status().isOk());
+    JsonNode cart = objectMapper.readTree(mockMvc.perform(get("/api/shoppingCart/details").cookie(guestCart))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsString());
+    assertEquals(2, cart.get("items").size());
+    assertEquals(0, coffee.getPrice().multiply(new BigDecimal(2)).add(tea.getPrice())
+        .compareTo(cart.get("total").decimalValue()));
+    assertEquals(1, shoppingCartProductRepository.findViewsByUserId(user.getId()).size());
+
+    String login = mockMvc.perform(post("/api/authenticate").cookie(guestCart)
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("{\"username\": \"" + user.getUsername() + "\", \"password\": \"password\"}"))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getHeader(HttpHeaders.SET_COOKIE);
+    assertTrue(login.contains("Max-Age=0"));
+
+    cart = getCart();
+    assertEquals(2, cart.size());
+    assertEquals(3, cart.get(0).get("quantity").asInt());
+    assertEquals(1, cart.get(1).get("quantity").asInt());
+    assertEquals(2, shoppingCartProductRepository.findViewsByUserId(user.getId()).size());
+    assertEquals("[]", mockMvc.perform(get("/api/shoppingCart").cookie(guestCart))
+        .andReturn().getResponse().getContentAsString());
+  }
+
+  @Test
+  void usersWithItemsInTheirCartCanBeDeleted() throws Exception {
+    addToCart(productRepository.findAll().get(0).getId(), 1).andExpect(status().isOk());
+    User admin = userRepository.findByUsername("admin").orElseThrow();
+
+    mockMvc.perform(delete("/api/users/" + user.getUsername())
+        .header(HttpHeaders.AUTHORIZATION, "Bearer " + jwtUtil.generateToken(new AccessUserDetails(admin))))
+        .andExpect(status().isOk());
+    assertEquals(0, shoppingCartProductRepository.findViewsByUserId(user.getId()).size());
+  }
+
+  @Test
+  void batchIsAppliedAllOrNothing() throws Exception {
+    List<Product> products = productRepository.findAll();
+    Product coffee = products.get(0);
+    Product tea = products.get(1);
+    Product cake = products.get(2);
+
+    JsonNode cart = objectMapper.readTree(batch(operation("add", coffee, 2), operation("add", tea, 1),
+        operation("set", coffee, 5), operation("remove", cake, 0))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsString());
+    assertEquals(2, cart.get("items").size());
+    assertEquals(5, cart.get("items").get(0).get("quantity").asInt());
+    assertEquals(0, coffee.getPrice().multiply(new BigDecimal(5)).add(tea.getPrice())
+        .compareTo(cart.get("total").decimalValue()));
+
+    // Setting the quantity of a product not in the cart fails the whole batch
+    batch(operation("remove", tea, 0), operation("set", cake, 3)).andExpect(status().isBadRequest());
+    batch(operation("remove", tea, 0), "{\"type\": \"add\", \"productId\": " + Integer.MAX_VALUE
+        + ", \"quantity\": 1}").andExpect(status().isNotFound());
+    batch(operation("add", tea, 0)).andExpect(status().isBadRequest());
+    batch(operation("explode", tea, 1)).andExpect(status().isBadRequest());
+    batch(operation("add", tea, 1), "null").andExpect(status().isBadRequest());
+    assertEquals(2, getCart().size());
+  }
+
+  @Test
+  void batchStatementCountDoesNotGrowWithOperations() throws Exception {
+    Product coffee = productRepository.findAll().get(0);
+    addToCart(coffee.getId(), 1).andExpect(status().isOk());
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+    statistics.clear();
+    batch(operation("add", coffee, 1)).andExpect(status().isOk());
+    long oneOperation = statistics.getPrepareStatementCount();
+
+    String[] operations = new String[20];
+    Arrays.fill(operations, operation("add", coffee, 1));
+    statistics.clear();
+    batch(operations).andExpect(status().isOk());
+    assertEquals(oneOperation, statistics.getPrepareStatementCount());
+    assertEquals(22, getCart().get(0).get("quantity").asInt());
+  }
+
+  @Test
+  void detailsIncludePricesAndTheRunningTotal() throws Exception {
+    List<Product> products = productRepository.findAll();
+    Product coffee = products.get(0);
+    Product tea = products.get(1);
+    addToCart(coffee.getId(), 2).andExpect(status().isOk());
+    addToCart(tea.getId(), 1).andExpect(status().isOk());
+
+    JsonNode cart = getDetails();
+    JsonNode first = cart.get("items").get(0);
+    assertEquals(coffee.getName(), first.get("productName").asText());
+    assertEquals(0, coffee.getPrice().compareTo(first.get("unitPrice").decimalValue()));
+    assertEquals(0, coffee.getPrice().multiply(new BigDecimal(2)).compareTo(first.get("lineTotal").decimalValue()));
+    assertEquals(0, coffee.getPrice().multiply(new BigDecimal(2)).add(tea.getPrice())
+        .compareTo(cart.get("total").decimalValue()));
+
+    // Changes adjust the running total, so reading it only reads the cart
+    shoppingCartService.addItemToCart(user, tea.getId(), 2);
+    shoppingCartService.updateCartItemQuantity(user, coffee.getId(), 1);
+    shoppingCartService.removeItemFromCart(user, products.get(2).getId());
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+    BigDecimal total = shoppingCartService.calculateShoppingCartTotal(user);
+    assertEquals(1, statistics.getPrepareStatementCount());
+    assertEquals(0, coffee.getPrice().add(tea.getPrice().multiply(new BigDecimal(3))).compareTo(total));
+  }
+
+  @Test
+  void priceChangesReachTheRunningTotal() throws Exception {
+    Product coffee = productRepository.findAll().get(0);
+    BigDecimal oldPrice = coffee.getPrice();
+    addToCart(coffee.getId(), 2).andExpect(status().isOk());
+    assertEquals(0, oldPrice.multiply(new BigDecimal(2)).compareTo(getTotal()));
+
+    try {
+      coffee.setPrice(oldPrice.add(BigDecimal.TEN));
+      shoppingCartService.productChanged(productRepository.save(coffee));
+      JsonNode cart = getDetails();
+      assertEquals(0, coffee.getPrice().compareTo(cart.get("items").get(0).get("unitPrice").decimalValue()));
+      assertEquals(0, coffee.getPrice().multiply(new BigDecimal(2)).compareTo(cart.get("total").decimalValue()));
+    } finally {
+      coffee.setPrice(oldPrice);
+      shoppingCartService.productChanged(productRepository.save(coffee));
+    }
+  }
+
+  private ResultActions addToCart(int productId, int quantity) throws Exception {
+    return mockMvc.perform(withToken(post("/api/shoppingCart/add-to-cart"))
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("{\"productId\": " + productId + ", \"quantity\": " + quantity + "}"));
+  }
+
+  private ResultActions batch(String... operations) throws Exception {
+    return mockMvc.perform(withToken(post("/api/shoppingCart/batch"))
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("[" + String.join(",", operations) + "]"));
+  }
+
+  private String operation(String type, Product product, int quantity) {
+    return "{\"type\": \"" + type + "\", \"productId\": " + product.getId() + ", \"quantity\": " + quantity
+        + "}";
+  }
+
+  private JsonNode getCart() throws Exception {
+    String body = mockMvc.perform(withToken(get("/api/shoppingCart")))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsString();
+    return objectMapper.readTree(body);
+  }
+
+  private JsonNode getDetails() throws Exception {
+    String body = mockMvc.perform(withToken(get("/api/shoppingCart/details")))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsString();
+    return objectMapper.readTree(body);
+  }
+
+  private BigDecimal getTotal() throws Exception {
+    String body = mockMvc.perform(withToken(get("/api/shoppingCart/total")))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsString();
+    return new BigDecimal(body);
+  }
+
+  private MockHttpServletRequestBuilder withToken(MockHttpServletRequestBuilder request) {
+    return request.header(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+  }
+}
@@ -0,0 +1,248 @@
+package no.ntnu.group7.coffeeshop.idempotency;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.servlet.http.Cookie;
+import no.ntnu.group7.coffeeshop.cart.GuestCartStore;
+import no.ntnu.group7.coffeeshop.controllers.ShoppingCartController;
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.model.User;
+import no.ntnu.group7.coffeeshop.repositories.OrderRepository;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.RoleRepository;
+import no.ntnu.group7.coffeeshop.repositories.UserRepository;
+import no.ntnu.group7.coffeeshop.security.AccessUserDetails;
+import no.ntnu.group7.coffeeshop.security.JwtUtil;
+import no.ntnu.group7.coffeeshop.services.ShoppingCartService;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class IdempotencyFilterTests {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private OrderRepository orderRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private RoleRepository roleRepository;
+
+  @Autowired
+  private ShoppingCartService shoppingCartService;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private JwtUtil jwtUtil;
+
+  @Autowired
+  private GuestCartStore guestCartStore;
+
+  @Value("${jwt_secret_key}")
+  private String secretKey;
+
+  private User user;
+  private String token;
+  private Product product;
+  private final List<Long> orderIds = new ArrayList<>();
+
+  @BeforeEach
+  void setUp() {
+    String username = "retryingUser" + System.nanoTime();
+    user = new User(username, BCrypt.hashpw("password", BCrypt.gensalt()), "First", "Last", username + "@mail.com",
+        "Address");
+    user.addRole(roleRepository.findByName("ROLE_USER"));
+    user = userRepository.save(user);
+    token = jwtUtil.generateToken(new AccessUserDetails(user));
+    product = productRepository.save(new Product("Retried product", new BigDecimal("10.00"), "Description",
+        "image.png", 50));
+  }
+
+  @AfterEach
+  void tearDown() {
+    orderIds.forEach(id -> orderRepository.deleteById(id.intValue()));
+    shoppingCartService.clearShoppingCart(user);
+    userRepository.deleteById(user.getId());
+    productRepository.deleteById(product.getId());
+  }
+
+  @Test
+  void retriesAreReplayedWithoutTouchingTheDatabase() throws Exception {
+    MockHttpServletResponse first = addToCart("add-1", 2);
+    assertEquals(200, first.getStatus());
+    assertNull(first.getHeader(IdempotencyFilter.IDEMPOTENT_REPLAYED));
+
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+    MockHttpServletResponse retry = addToCart("add-1", 2);
+    assertEquals(0, statistics.getPrepareStatementCount());
+    assertEquals(200, retry.getStatus());
+    assertEquals("true", retry.getHeader(IdempotencyFilter.IDEMPOTENT_REPLAYED));
+    assertEquals(first.getContentAsString(), retry.getContentAsString());
+    assertEquals(2, shoppingCartService.getCartItems(user).get(0).getQuantity());
+
+    // A new key is a new request
+    addToCart("add-2", 2);
+    assertEquals(4, shoppingCartService.getCartItems(user).get(0).getQuantity());
+  }
+
+  @Test
+  void keyReusedWithAnotherBodyIsRejected() throws Exception {
+    addToCart("add-1", 2);
+    assertEquals(422, addToCart("add-1", 3).getStatus());
+    assertEquals(2, shoppingCartService.getCartItems(user).get(0).getQuantity());
+  }
+
+  @Test
+  void forbiddenResponsesAreNotKept() throws Exception {
+    MockHttpServletRequestBuilder checkout = post("/api/checkout")
+        .header(IdempotencyFilter.IDEMPOTENCY_KEY, "checkout-1");
+    assertEquals(403, mockMvc.perform(checkout).andReturn().getResponse().getStatus());
+    MockHttpServletResponse retry = mockMvc.perform(checkout).andReturn().getResponse();
+    assertEquals(403, retry.getStatus());
+    assertNull(retry.getHeader(IdempotencyFilter.IDEMPOTENT_REPLAYED));
+  }
+
+  @Test
+  void responsesAreNotReplayedAfterTheTokenExpires() throws Exception {
+    token = Jwts.builder()
+        .setSubject(user.getUsername())
+        .setExpiration(new Date(System.currentTimeMillis() + 1000))
+        .signWith(SignatureAlgorithm.HS256, secretKey)
+        .compact();
+    assertEquals(200, addToCart("add-1", 2).getStatus());
+    Thread.sleep(1500);
+
+    // Without a valid token the retry is a guest's request, which runs
+    assertNull(addToCart("add-1", 2).getHeader(IdempotencyFilter.IDEMPOTENT_REPLAYED));
+    assertEquals(2, shoppingCartService.getCartItems(user).get(0).getQuantity());
+  }
+
+  @Test
+  void requestsOfUnknownClientsAreNotKept() throws Exception {
+    MockHttpServletResponse first = mockMvc.perform(guestAddToCart("add-1")).andReturn().getResponse();
+    MockHttpServletResponse second = mockMvc.perform(guestAddToCart("add-1")).andReturn().getResponse();
+    assertEquals(200, second.getStatus());
+    assertNull(second.getHeader(IdempotencyFilter.IDEMPOTENT_REPLAYED));
+    // Each got a guest cart of its own
+    assertNotEquals(first.getCookie(ShoppingCartController.GUEST_CART_COOKIE).getValue(),
+        second.getCookie(ShoppingCartController.GUEST_CART_COOKIE).getValue());
+  }
+
+  @Test
+  void cookiesAreNotReplayed() throws Exception {
+    Cookie guestCart = new Cookie(ShoppingCartController.GUEST_CART_COOKIE, guestCartStore.newToken());
+    MockHttpServletResponse first = mockMvc.perform(guestAddToCart("add-1").cookie(guestCart))
+        .andReturn().getResponse();
+    assertNotNull(first.getHeader(HttpHeaders.SET_COOKIE));
+
+    MockHttpServletResponse retry = mockMvc.perform(guestAddToCart("add-1").cookie(guestCart))
+        .andReturn().getResponse();
+    assertEquals("true", retry.getHeader(IdempotencyFilter.IDEMPOTENT_REPLAYED));
+    assertNull(retry.getHeader(HttpHeaders.SET_COOKIE));
+  }
+
+  @Test
+  void largeBodiesAreRejected() throws Exception {
+    MockHttpServletResponse response = perform(post("/api/shoppingCart/add-to-cart")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(new byte[2 * 1024 * 1024]), "add-1");
+    assertEquals(413, response.getStatus());
+  }
+
+  @Test
+  void concurrentRetriesOfACheckoutPlaceOneOrder() throws Exception {
+    shoppingCartService.addItemToCart(user, product.getId(), 1);
+
+    int attempts = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(attempts);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<MockHttpServletResponse>> futures = new ArrayList<>();
+    for (int i = 0; i < attempts; i++) {
+      futures.add(executor.submit(() -> {
+        start.await();
+        return perform(post("/api/checkout"), "checkout-1");
+      }));
+    }
+    start.countDown();
+    Set<Long> placed = new HashSet<>();
+    for (Future<MockHttpServletResponse> future : futures) {
+      MockHttpServletResponse response = future.get();
+      assertEquals(200, response.getStatus());
+      placed.add(objectMapper.readTree(response.getContentAsString()).get("id").asLong());
+    }
+    executor.shutdown();
+    orderIds.addAll(placed);
+
+    assertEquals(1, placed.size());
+    assertEquals(49, productRepository.findById(product.getId()).get().getInventoryAmount());
+  }
+
+  private MockHttpServletResponse addToCart(String idempotencyKey, int quantity) throws Exception {
+    return perform(post("/api/shoppingCart/add-to-cart")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("{\"productId\": " + product.getId() + ", \"quantity\": " + quantity + "}"), idempotencyKey);
+  }
+
+  private MockHttpServletRequestBuilder guestAddToCart(String idempotencyKey) {
+    return post("/api/shoppingCart/add-to-cart")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("{\"productId\": " + product.getId() + ", \"quantity\": 1}")
+        .header(IdempotencyFilter.IDEMPOTENCY_KEY, idempotencyKey);
+  }
+
+  private MockHttpServletResponse perform(MockHttpServletRequestBuilder request, String idempotencyKey)
+      throws Exception {
+    return mockMvc.perform(request
+        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+        .header(IdempotencyFilter.IDEMPOTENCY_KEY, idempotencyKey))
+        .andReturn().getResponse();
+  }
+}
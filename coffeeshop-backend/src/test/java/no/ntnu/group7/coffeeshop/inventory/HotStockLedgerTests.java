@@ -0,0 +1,217 @@
+package no.ntnu.group7.coffeeshop.inventory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+
+import no.ntnu.group7.coffeeshop.model.Order;
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.model.User;
+import no.ntnu.group7.coffeeshop.repositories.OrderRepository;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.StockLedgerRepository;
+import no.ntnu.group7.coffeeshop.repositories.UserRepository;
+import no.ntnu.group7.coffeeshop.services.CheckoutService;
+import no.ntnu.group7.coffeeshop.services.OutOfStockException;
+import no.ntnu.group7.coffeeshop.services.ShoppingCartService;
+
+@SpringBootTest
+class HotStockLedgerTests {
+
+  @Autowired
+  private HotStockLedger ledger;
+
+  @Autowired
+  private CheckoutService checkoutService;
+
+  @Autowired
+  private ShoppingCartService shoppingCartService;
+
+  @Autowired
+  private StockLedgerRepository stockLedgerRepository;
+
+  @Autowired
+  private OrderRepository orderRepository;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private AutowireCapableBeanFactory beanFactory;
+
+  private Product hot;
+  private Product cold;
+  private final List<User> users = new ArrayList<>();
+  private final List<Order> orders = new ArrayList<>();
+
+  @BeforeEach
+  void setUp() {
+    hot = productRepository.save(new Product("Hot product", new BigDecimal("10.00"), "Description", "image.png",
+        10));
+    cold = productRepository.save(new Product("Cold product", new BigDecimal("10.00"), "Description", "image.png",
+        10));
+    ledger.track(hot.getId());
+  }
+
+  @AfterEach
+  void tearDown() {
+    ledger.flush();
+    orders.forEach(order -> orderRepository.deleteById((int) order.getId()));
+    for (User user : users) {
+      shoppingCartService.clearShoppingCart(user);
+      userRepository.deleteById(user.getId());
+    }
+    productRepository.deleteById(hot.getId());
+    productRepository.deleteById(cold.getId());
+  }
+
+  @Test
+  void hotStockIsTakenInMemoryAndWrittenOnFlush() {
+    User user = newUser();
+    shoppingCartService.addItemToCart(user, hot.getId(), 3);
+    shoppingCartService.addItemToCart(user, cold.getId(), 1);
+    orders.add(checkoutService.checkout(user));
+
+    assertEquals(7, ledger.getStock(hot.getId()));
+    assertEquals(10, stockInTable(hot));
+    assertEquals(9, stockInTable(cold));
+    assertEquals(-3, pendingDelta());
+
+    ledger.flush();
+    assertEquals(7, stockInTable(hot));
+    assertEquals(0, pendingDelta());
+  }
+
+  @Test
+  void failedCheckoutGivesTheStockBack() {
+    User user = newUser();
+    shoppingCartService.addItemToCart(user, hot.getId(), 2);
+    shoppingCartService.addItemToCart(user, cold.getId(), 11);
+
+    OutOfStockException e = assertThrows(OutOfStockException.class, () -> checkoutService.checkout(user));
+    assertEquals(cold.getId(), e.getShortages().get(0).getProductId());
+    assertEquals(10, ledger.getStock(hot.getId()));
+    assertEquals(0, pendingDelta());
+  }
+
+  @Test
+  void concurrentCheckoutsNeverOversellAHotProduct() throws Exception {
+    ledger.setStock(hot.getId(), 5);
+    List<User> buyers = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      User buyer = newUser();
+      shoppingCartService.addItemToCart(buyer, hot.getId(), 1);
+      buyers.add(buyer);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(buyers.size());
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Order>> futures = new ArrayList<>();
+    for (User buyer : buyers) {
+      futures.add(executor.submit(() -> {
+        start.await();
+        try {
+          return checkoutService.checkout(buyer);
+        } catch (OutOfStockException e) {
+          return null;
+        }
+      }));
+    }
+    start.countDown();
+    for (Future<Order> future : futures) {
+      Order order = future.get();
+      if (order != null) {
+        orders.add(order);
+      }
+    }
+    executor.shutdown();
+
+    assertEquals(5, orders.size());
+    assertEquals(0, ledger.getStock(hot.getId()));
+    ledger.flush();
+    assertEquals(0, stockInTable(hot));
+  }
+
+  @Test
+  void stockHeldForOtherUsersIsNotSold() {
+    User holder = newUser();
+    User buyer = newUser();
+    shoppingCartService.addItemToCart(holder, hot.getId(), 4);
+    // Only what no one holds is held for the buyer
+    shoppingCartService.addItemToCart(buyer, hot.getId(), 8);
+
+    OutOfStockException e = assertThrows(OutOfStockException.class, () -> checkoutService.checkout(buyer));
+    assertEquals(6, e.getShortages().get(0).getAvailable());
+    assertEquals(10, ledger.getStock(hot.getId()));
+    assertEquals(0, pendingDelta());
+
+    orders.add(checkoutService.checkout(holder));
+    assertEquals(6, ledger.getStock(hot.getId()));
+
+    // The buyer's hold was put back, so there is enough once the cart fits
+    shoppingCartService.updateCartItemQuantity(buyer, hot.getId(), 6);
+    orders.add(checkoutService.checkout(buyer));
+    assertEquals(0, ledger.getStock(hot.getId()));
+  }
+
+  @Test
+  void journalIsWrittenToTheProductsAtStartup() {
+    User user = newUser();
+    shoppingCartService.addItemToCart(user, hot.getId(), 2);
+    orders.add(checkoutService.checkout(user));
+    ledger.setStock(hot.getId(), 20);
+    assertEquals(20, ledger.getStock(hot.getId()));
+
+    // A new ledger, as after a restart, starts from the products with the
+    // journal added
+    HotStockLedger restarted = new HotStockLedger();
+    beanFactory.autowireBean(restarted);
+    restarted.start();
+    try {
+      assertEquals(20, stockInTable(hot));
+      assertEquals(0, pendingDelta());
+      restarted.track(hot.getId());
+      assertEquals(20, restarted.getStock(hot.getId()));
+    } finally {
+      restarted.stop();
+    }
+  }
+
+  private User newUser() {
+    String username = "hotBuyer" + System.nanoTime();
+    User user = userRepository.save(new User(username, "password", "First", "Last", username + "@mail.com",
+        "Address"));
+    users.add(user);
+    return user;
+  }
+
+  private int stockInTable(Product product) {
+    return productRepository.findById(product.getId()).get().getInventoryAmount();
+  }
+
+  // The change to the hot product not yet written to it
+  private int pendingDelta() {
+    return stockLedgerRepository.findEntries(PageRequest.of(0, 1000)).stream()
+        .filter(entry -> entry.getProductId() == hot.getId())
+        .mapToInt(StockLedgerRepository.EntryView::getDelta)
+        .sum();
+  }
+}
@@ -0,0 +1,110 @@
+package no.ntnu.group7.coffeeshop.inventory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.StockHoldRepository;
+
+@SpringBootTest
+class StockReservationsTests {
+  private static final long USER = 1_000_001;
+  private static final long OTHER_USER = 1_000_002;
+
+  @Autowired
+  private StockReservations reservations;
+
+  @Autowired
+  private StockHoldRepository stockHoldRepository;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private AutowireCapableBeanFactory beanFactory;
+
+  private final List<Product> products = new ArrayList<>();
+
+  @BeforeEach
+  void setUp() {
+    for (int i = 0; i < 2; i++) {
+      products.add(productRepository.save(new Product("Reserved product " + i, new BigDecimal("10.00"),
+          "Description", "image.png", 5)));
+    }
+  }
+
+  @AfterEach
+  void tearDown() {
+    reservations.releaseAll(USER);
+    reservations.releaseAll(OTHER_USER);
+    reservations.writeJournal();
+    products.forEach(product -> productRepository.deleteById(product.getId()));
+  }
+
+  @Test
+  void holdsNeverTakeMoreThanTheUnheldStock() {
+    int productId = products.get(0).getId();
+    reservations.holdMore(USER, productId, 3);
+    reservations.holdMore(OTHER_USER, productId, 4);
+    assertEquals(5, reservations.getReserved(productId));
+    assertEquals(Map.of(productId, 2), reservations.getReservedByOthers(USER, List.of(productId)));
+
+    // Lowering a hold frees stock for the next one
+    reservations.hold(USER, Map.of(productId, 1));
+    reservations.holdMore(OTHER_USER, productId, 4);
+    assertEquals(Map.of(productId, 4), reservations.getReservedByOthers(USER, List.of(productId)));
+
+    reservations.release(OTHER_USER, productId);
+    assertEquals(1, reservations.getReserved(productId));
+  }
+
+  @Test
+  void holdsAreReleasedWhenTheyExpire() {
+    int first = products.get(0).getId();
+    int second = products.get(1).getId();
+    reservations.holdMore(USER, first, 2);
+    reservations.holdMore(OTHER_USER, second, 1);
+
+    assertEquals(0, reservations.expire(System.currentTimeMillis()));
+    assertEquals(2, reservations.expire(System.currentTimeMillis() + 60 * 60 * 1000));
+    assertEquals(0, reservations.getReserved(first));
+    assertEquals(0, reservations.getReserved(second));
+  }
+
+  @Test
+  void holdsAreLoadedFromTheJournalAfterARestart() {
+    int first = products.get(0).getId();
+    int second = products.get(1).getId();
+    reservations.holdMore(USER, first, 2);
+    reservations.holdMore(USER, second, 1);
+    reservations.writeJournal();
+    assertEquals(2, stockHoldRepository.count());
+
+    StockReservations restarted = new StockReservations();
+    beanFactory.autowireBean(restarted);
+    restarted.start();
+    try {
+      assertEquals(2, restarted.getReserved(first));
+      assertEquals(1, restarted.getReserved(second));
+    } finally {
+      restarted.stop();
+    }
+
+    // Released holds leave the journal
+    reservations.release(USER, first);
+    reservations.writeJournal();
+    assertEquals(1, stockHoldRepository.count());
+  }
+}
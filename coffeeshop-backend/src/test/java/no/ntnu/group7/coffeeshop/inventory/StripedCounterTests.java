@@ -0,0 +1,65 @@
+package no.ntnu.group7.coffeeshop.inventory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class StripedCounterTests {
+
+  @Test
+  void takesGatherFromEveryStripe() {
+    StripedCounter counter = new StripedCounter(8, 10);
+    assertEquals(10, counter.sum());
+
+    // More than any one stripe has
+    assertTrue(counter.tryTake(7));
+    assertFalse(counter.tryTake(4));
+    assertEquals(3, counter.sum());
+
+    counter.add(2);
+    assertEquals(5, counter.takeUpTo(9));
+    assertEquals(0, counter.sum());
+  }
+
+  @Test
+  void concurrentTakesNeverGoBelowZero() throws Exception {
+    StripedCounter counter = new StripedCounter(16, 1000);
+    int threads = 16;
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Integer>> futures = new ArrayList<>();
+    for (int thread = 0; thread < threads; thread++) {
+      int quantity = thread % 3 + 1;
+      futures.add(executor.submit(() -> {
+        start.await();
+        int taken = 0;
+        for (int i = 0; i < 200; i++) {
+          if (counter.tryTake(quantity)) {
+            taken += quantity;
+          }
+        }
+        return taken;
+      }));
+    }
+    start.countDown();
+    int taken = 0;
+    for (Future<Integer> future : futures) {
+      taken += future.get();
+    }
+    executor.shutdown();
+
+    // Nothing is lost or taken twice
+    assertEquals(1000, taken + counter.sum());
+    assertTrue(counter.sum() >= 0);
+  }
+}
@@ -0,0 +1,35 @@
+package no.ntnu.group7.coffeeshop.inventory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class TimerWheelTests {
+
+  @Test
+  void keysAreHandedBackOnceTheirTickHasPassed() {
+    TimerWheel<String> wheel = new TimerWheel<>(10, 4, 0);
+    wheel.schedule("soon", 15);
+    wheel.schedule("later", 35);
+    // More than a turn of the wheel ahead, in the same slot as "soon"
+    wheel.schedule("next turn", 55);
+
+    assertEquals(List.of(), wheel.advance(19));
+    assertEquals(List.of("soon"), wheel.advance(20));
+    assertEquals(List.of("later"), wheel.advance(45));
+    assertEquals(List.of(), wheel.advance(59));
+    assertEquals(List.of("next turn"), wheel.advance(60));
+  }
+
+  @Test
+  void advancingPastAWholeTurnFindsEveryDueKey() {
+    TimerWheel<Integer> wheel = new TimerWheel<>(10, 4, 0);
+    for (int i = 0; i < 8; i++) {
+      wheel.schedule(i, i * 10);
+    }
+    assertEquals(8, wheel.advance(1000).size());
+    assertEquals(List.of(), wheel.advance(2000));
+  }
+}
@@ -0,0 +1,207 @@
+package no.ntnu.group7.coffeeshop.outbox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import no.ntnu.group7.coffeeshop.model.Order;
+import no.ntnu.group7.coffeeshop.model.OrderEvent;
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.model.User;
+import no.ntnu.group7.coffeeshop.repositories.OrderEventRepository;
+import no.ntnu.group7.coffeeshop.repositories.OrderRepository;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.UserRepository;
+import no.ntnu.group7.coffeeshop.services.CheckoutService;
+import no.ntnu.group7.coffeeshop.services.OrderService;
+import no.ntnu.group7.coffeeshop.services.OutOfStockException;
+import no.ntnu.group7.coffeeshop.services.ShoppingCartService;
+
+// Small batches, so that a failing order can fill a whole batch. The tests
+// relay at times of their own to get past the retry backoff
+@SpringBootTest(properties = { "coffeeshop.outbox.batch-size=2", "coffeeshop.outbox.retry-backoff=1m",
+    "coffeeshop.outbox.max-retry-backoff=4m", "coffeeshop.outbox.park-after=1h" })
+class OrderOutboxTests {
+
+  @TestConfiguration
+  static class SubscriberConfiguration {
+    @Bean
+    RecordingSubscriber recordingSubscriber() {
+      return new RecordingSubscriber();
+    }
+  }
+
+  // Records the events it is handed, and fails the orders it is told to
+  static class RecordingSubscriber implements OrderEventSubscriber {
+    private final List<OrderEvent> events = Collections.synchronizedList(new ArrayList<>());
+    private final Set<Long> failing = Collections.synchronizedSet(new HashSet<>());
+
+    @Override
+    public void onEvent(OrderEvent event) {
+      if (failing.contains(event.getOrderId())) {
+        throw new IllegalStateException("Subscriber is down");
+      }
+      events.add(event);
+    }
+  }
+
+  @Autowired
+  private OrderOutbox orderOutbox;
+
+  @Autowired
+  private RecordingSubscriber subscriber;
+
+  @Autowired
+  private CheckoutService checkoutService;
+
+  @Autowired
+  private OrderService orderService;
+
+  @Autowired
+  private ShoppingCartService shoppingCartService;
+
+  @Autowired
+  private OrderEventRepository orderEventRepository;
+
+  @Autowired
+  private OrderRepository orderRepository;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  private User user;
+  private Product product;
+  private final List<Order> orders = new ArrayList<>();
+
+  @BeforeEach
+  void setUp() {
+    String username = "outboxUser" + System.nanoTime();
+    user = userRepository.save(new User(username, "password", "First", "Last", username + "@mail.com", "Address"));
+    product = productRepository.save(new Product("Outbox product", new BigDecimal("10.00"), "Description",
+        "image.png", 5));
+    // Delivers what earlier tests left in the outbox
+    orderOutbox.relay(System.currentTimeMillis() + Duration.ofMinutes(10).toMillis());
+    subscriber.events.clear();
+  }
+
+  @AfterEach
+  void tearDown() {
+    subscriber.failing.clear();
+    orderOutbox.relay(System.currentTimeMillis() + Duration.ofMinutes(10).toMillis());
+    orders.forEach(order -> orderRepository.deleteById((int) order.getId()));
+    shoppingCartService.clearShoppingCart(user);
+    userRepository.deleteById(user.getId());
+    productRepository.deleteById(product.getId());
+  }
+
+  @Test
+  void eventsOfAnOrderAreDeliveredInOrder() {
+    Order order = checkout();
+    orderService.updateStatus((int) order.getId(), Order.OrderStatus.SHIPPED);
+    orderService.updateStatus((int) order.getId(), Order.OrderStatus.DELIVERED);
+    assertEquals(3, orderEventRepository.findByOrderIdOrderById(order.getId()).size());
+
+    assertEquals(3, orderOutbox.relay());
+    assertEquals(List.of("PLACED PROCESSING", "STATUS_CHANGED SHIPPED", "STATUS_CHANGED DELIVERED"),
+        delivered(order));
+    assertEquals(0, orderEventRepository.findByOrderIdOrderById(order.getId()).size());
+  }
+
+  @Test
+  void failedDeliveriesAreRetriedWithoutHoldingUpOtherOrders() {
+    Order failing = checkout();
+    orderService.updateStatus((int) failing.getId(), Order.OrderStatus.SHIPPED);
+    Order other = checkout();
+    subscriber.failing.add(failing.getId());
+
+    // The first batch is the failing order's two events
+    assertEquals(1, orderOutbox.relay());
+    assertEquals(List.of(), delivered(failing));
+    assertEquals(List.of("PLACED PROCESSING"), delivered(other));
+    assertEquals(2, orderEventRepository.findByOrderIdOrderById(failing.getId()).size());
+
+    // It isn't tried again until the retry backoff has passed
+    subscriber.failing.clear();
+    assertEquals(0, orderOutbox.relay());
+    assertEquals(2, orderOutbox.relay(System.currentTimeMillis() + Duration.ofMinutes(2).toMillis()));
+    assertEquals(List.of("PLACED PROCESSING", "STATUS_CHANGED SHIPPED"), delivered(failing));
+  }
+
+  @Test
+  void failingEventsBackOffAndAreParkedWithTheirOrder() {
+    Order order = checkout();
+    subscriber.failing.add(order.getId());
+    long start = System.currentTimeMillis();
+
+    // Tried again after one minute, then after two more
+    orderOutbox.relay(start);
+    orderOutbox.relay(start + Duration.ofSeconds(30).toMillis());
+    assertEquals(1, attempts(order));
+    orderOutbox.relay(start + Duration.ofSeconds(61).toMillis());
+    orderOutbox.relay(start + Duration.ofSeconds(120).toMillis());
+    assertEquals(2, attempts(order));
+
+    // Still failing an hour after it was written
+    orderOutbox.relay(start + Duration.ofMinutes(61).toMillis());
+    orderService.updateStatus((int) order.getId(), Order.OrderStatus.SHIPPED);
+    subscriber.failing.clear();
+    orderOutbox.relay(start + Duration.ofHours(2).toMillis());
+    assertEquals(List.of(), delivered(order));
+    List<OrderEvent> events = orderEventRepository.findByOrderIdOrderById(order.getId());
+    assertEquals(2, events.size());
+    assertEquals(3, events.get(0).getAttempts());
+    assertTrue(events.get(0).isParked());
+    orderEventRepository.deleteAll(events);
+  }
+
+  @Test
+  void rolledBackChangesWriteNoEvents() {
+    shoppingCartService.addItemToCart(user, product.getId(), 6);
+    assertThrows(OutOfStockException.class, () -> checkoutService.checkout(user));
+    // An unchanged status is no change
+    Order order = checkout();
+    orderService.updateStatus((int) order.getId(), Order.OrderStatus.PROCESSING);
+
+    orderOutbox.relay();
+    assertEquals(1, subscriber.events.stream().filter(event -> event.getUserId() == user.getId()).count());
+  }
+
+  private Order checkout() {
+    shoppingCartService.clearShoppingCart(user);
+    shoppingCartService.addItemToCart(user, product.getId(), 1);
+    Order order = checkoutService.checkout(user);
+    orders.add(order);
+    return order;
+  }
+
+  private int attempts(Order order) {
+    return orderEventRepository.findByOrderIdOrderById(order.getId()).get(0).getAttempts();
+  }
+
+  private List<String> delivered(Order order) {
+    return subscriber.events.stream()
+        .filter(event -> event.getOrderId() == order.getId())
+        .map(event -> event.getType() + " " + event.getOrderStatus())
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,171 @@
+package no.ntnu.group7.coffeeshop.search;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+class ProductFacetIndexTests {
+
+  private static final int COFFEE = 1;
+  private static final int TEA = 2;
+  private static final int SWEETS = 3;
+
+  private ProductFacetIndex index;
+
+  @BeforeEach
+  void setUp() {
+    index = new ProductFacetIndex();
+    index.put(1, new BigDecimal("120"), 5, List.of(COFFEE), 2, 9);
+    index.put(2, new BigDecimal("50"), 0, List.of(TEA), 1, 3);
+    index.put(3, new BigDecimal("80"), 3, List.of(TEA, SWEETS), 0, 0);
+    index.put(4, new BigDecimal("50"), 7, List.of(SWEETS), 4, 20);
+  }
+
+  @Test
+  void emptyFilterMatchesEverything() {
+    ProductFacetIndex.Result result = filter(List.of(), null, null, false, 0, ProductFacetIndex.Sort.ID);
+    assertEquals(List.of(1, 2, 3, 4), result.getIds());
+    assertEquals(4, result.getTotal());
+    assertEquals(Map.of(COFFEE, 1, TEA, 2, SWEETS, 2), result.getCategoryCounts());
+    assertEquals(3, result.getInStockCount());
+    assertArrayEquals(new int[] { 3, 3, 3, 2, 1 }, result.getRatingCounts());
+    assertEquals(new BigDecimal("50"), result.getLowestPrice());
+    assertEquals(new BigDecimal("120"), result.getHighestPrice());
+  }
+
+  @Test
+  void categoriesMatchAnyAndOtherFiltersMatchAll() {
+    assertEquals(List.of(2, 3, 4), filter(List.of(TEA, SWEETS), null, null, false, 0,
+        ProductFacetIndex.Sort.ID).getIds());
+    assertEquals(List.of(3, 4), filter(List.of(TEA, SWEETS), null, null, true, 0,
+        ProductFacetIndex.Sort.ID).getIds());
+    assertEquals(List.of(4), filter(List.of(TEA, SWEETS), null, null, true, 4,
+        ProductFacetIndex.Sort.ID).getIds());
+    assertEquals(List.of(), filter(List.of(99), null, null, false, 0, ProductFacetIndex.Sort.ID).getIds());
+  }
+
+  @Test
+  void priceRangeIsInclusive() {
+    assertEquals(List.of(2, 3, 4), filter(List.of(), new BigDecimal("50"), new BigDecimal("80"), false, 0,
+        ProductFacetIndex.Sort.ID).getIds());
+    assertEquals(List.of(1, 3), filter(List.of(), new BigDecimal("50.01"), null, false, 0,
+        ProductFacetIndex.Sort.ID).getIds());
+    assertEquals(List.of(2, 4), filter(List.of(), null, new BigDecimal("79.99"), false, 0,
+        ProductFacetIndex.Sort.ID).getIds());
+  }
+
+  @Test
+  void facetCountsIgnoreTheirOwnFilter() {
+    ProductFacetIndex.Result result = filter(List.of(TEA), new BigDecimal("60"), null, true, 0,
+        ProductFacetIndex.Sort.ID);
+    assertEquals(List.of(3), result.getIds());
+    // In stock and at least 60: products 1 and 3
+    assertEquals(Map.of(COFFEE, 1, TEA, 1, SWEETS, 1), result.getCategoryCounts());
+    // Tea and at least 60, in stock or not: product 3
+    assertEquals(1, result.getInStockCount());
+    // Tea and in stock, any price: product 3
+    assertEquals(new BigDecimal("80"), result.getLowestPrice());
+    assertEquals(new BigDecimal("80"), result.getHighestPrice());
+  }
+
+  @Test
+  void pagesAreSortedAndOffset() {
+    assertEquals(List.of(2, 4, 3, 1), filter(List.of(), null, null, false, 0, ProductFacetIndex.Sort.PRICE)
+        .getIds());
+    ProductFacetIndex.Result page = index.filter(new ProductFacetIndex.Filter(List.of(), null, null, false, 0),
+        ProductFacetIndex.Sort.PRICE, 1, 2);
+    assertEquals(List.of(4, 3), page.getIds());
+    assertEquals(4, page.getTotal());
+  }
+
+  @Test
+  void updatesChangeWhatMatches() {
+    index.updateStock(2, 10);
+    index.updateRating(3, 5, 1);
+    index.put(1, new BigDecimal("10"), 5, List.of(SWEETS), 2, 9);
+    index.remove(4);
+    index.removeCategory(TEA);
+
+    ProductFacetIndex.Result result = filter(List.of(), null, null, false, 0, ProductFacetIndex.Sort.PRICE);
+    assertEquals(List.of(1, 2, 3), result.getIds());
+    assertEquals(Map.of(SWEETS, 2), result.getCategoryCounts());
+    assertEquals(3, result.getInStockCount());
+    assertArrayEquals(new int[] { 3, 3, 3, 2, 1 }, result.getRatingCounts());
+    assertEquals(3, index.size());
+
+    index.clear();
+    result = filter(List.of(), null, null, false, 0, ProductFacetIndex.Sort.ID);
+    assertEquals(0, result.getTotal());
+    assertNull(result.getLowestPrice());
+  }
+
+  @Test
+  void removedSlotsAreCompacted() {
+    ProductFacetIndex largeIndex = new ProductFacetIndex();
+    for (int id = 1; id <= 5000; id++) {
+      largeIndex.put(id, new BigDecimal(id % 100), id % 2, List.of(id % 3), 1, id % 5 + 1);
+    }
+    for (int id = 1; id <= 5000; id++) {
+      if (id % 4 != 0) {
+        largeIndex.remove(id);
+      }
+    }
+
+    ProductFacetIndex.Result result = largeIndex.filter(
+        new ProductFacetIndex.Filter(List.of(0), new BigDecimal("10"), new BigDecimal("20"), false, 0),
+        ProductFacetIndex.Sort.PRICE, 0, 5);
+    // Multiples of 12 with id % 100 between 10 and 20, by price and then ID
+    assertEquals(List.of(12, 312, 612, 912, 1212), result.getIds());
+    assertEquals(1250, largeIndex.size());
+  }
+
+  // Stands in for a JMH benchmark: builds a synthetic catalog of 300 000
+  // products in 50 categories and checks that filtering it, facet counts
+  // included, stays fast. Timing depends on the machine, so it only runs with
+  // the benchmark profile.
+  @Tag("benchmark")
+  @Test
+  void filteringLargeCatalogIsFast() {
+    Random random = new Random(42);
+    ProductFacetIndex largeIndex = new ProductFacetIndex();
+    for (int id = 1; id <= 300_000; id++) {
+      int ratingCount = random.nextInt(10);
+      largeIndex.put(id, BigDecimal.valueOf(random.nextInt(100_000), 2), random.nextInt(4),
+          List.of(random.nextInt(50), random.nextInt(50)), ratingCount, ratingCount * (1 + random.nextInt(5)));
+    }
+
+    ProductFacetIndex.Filter[] filters = new ProductFacetIndex.Filter[50];
+    for (int i = 0; i < filters.length; i++) {
+      BigDecimal minPrice = BigDecimal.valueOf(random.nextInt(50_000), 2);
+      filters[i] = new ProductFacetIndex.Filter(List.of(random.nextInt(50), random.nextInt(50)), minPrice,
+          minPrice.add(BigDecimal.valueOf(random.nextInt(50_000), 2)), i % 2 == 0, i % 6);
+    }
+    for (int i = 0; i < 500; i++) {
+      largeIndex.filter(filters[i % filters.length], ProductFacetIndex.Sort.values()[i % 2], 0, 20);
+    }
+
+    int runs = 200;
+    long start = System.nanoTime();
+    for (int i = 0; i < runs; i++) {
+      largeIndex.filter(filters[i % filters.length], ProductFacetIndex.Sort.values()[i % 2], 0, 20);
+    }
+    double averageMillis = (System.nanoTime() - start) / 1e6 / runs;
+    assertTrue(averageMillis < 50, "Average filter took " + averageMillis + " ms");
+  }
+
+  private ProductFacetIndex.Result filter(List<Integer> categoryIds, BigDecimal minPrice, BigDecimal maxPrice,
+      boolean inStock, int minRating, ProductFacetIndex.Sort sort) {
+    return index.filter(new ProductFacetIndex.Filter(categoryIds, minPrice, maxPrice, inStock, minRating), sort,
+        0, 10);
+  }
+}
@@ -0,0 +1,128 @@
+package no.ntnu.group7.coffeeshop.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+class ProductSearchIndexTests {
+
+  private ProductSearchIndex index;
+
+  @BeforeEach
+  void setUp() {
+    index = new ProductSearchIndex();
+    put(1, "Green tea", "A relaxing and healthy tea", "Tea", "Green tea");
+    put(2, "Peru coffee beans", "Premium beans from the highlands of Peru", "Coffee", "Beans");
+    put(3, "Chocolate", "Goes well with a cup of coffee or tea", "Sweets");
+    put(4, "Kaffetrakter", "Lager god kaffe til hele familien", "Kaffemaskiner");
+  }
+
+  @Test
+  void nameMatchesRankAboveDescriptionMatches() {
+    assertEquals(List.of(1, 3), search("tea"));
+    assertEquals(List.of(2, 3), search("coffee"));
+  }
+
+  @Test
+  void everyWordMustMatch() {
+    assertEquals(List.of(3), search("coffee tea"));
+    assertEquals(List.of(), search("coffee unicorn"));
+  }
+
+  @Test
+  void wordsMatchByPrefix() {
+    assertEquals(List.of(3), search("choc"));
+    assertEquals(List.of(2), search("Highl"));
+  }
+
+  @Test
+  void wordsMatchByStem() {
+    assertEquals(List.of(2), search("bean"));
+    assertEquals(List.of(4), search("kaffen"));
+  }
+
+  @Test
+  void updatesReplaceAndRemoveProducts() {
+    put(3, "Dark chocolate", "Rich and bitter", "Sweets");
+    assertEquals(List.of(), search("coffee tea"));
+    assertEquals(List.of(3), search("dark"));
+
+    index.remove(1);
+    assertEquals(List.of(3), search("dark"));
+    assertEquals(List.of(), search("green"));
+    assertEquals(3, index.size());
+  }
+
+  // Stands in for a JMH benchmark: builds a synthetic catalog of 100 000
+  // products and checks that searching it stays fast. Words are drawn from a
+  // skewed distribution over a 2 000 word vocabulary, like real text, so
+  // common words match a large part of the catalog. Timing depends on the
+  // machine, so it only runs with the benchmark profile.
+  @Tag("benchmark")
+  @Test
+  void searchingLargeCatalogIsFast() {
+    Random random = new Random(42);
+    String[] vocabulary = new String[2000];
+    for (int i = 0; i < vocabulary.length; i++) {
+      vocabulary[i] = syntheticWord(random);
+    }
+
+    ProductSearchIndex largeIndex = new ProductSearchIndex();
+    for (int id = 1; id <= 100_000; id++) {
+      String name = pickWord(vocabulary, random) + " " + pickWord(vocabulary, random) + " " + id;
+      StringBuilder description = new StringBuilder();
+      for (int i = 0; i < 30; i++) {
+        description.append(pickWord(vocabulary, random)).append(' ');
+      }
+      largeIndex.put(id, name, description.toString(), List.of(pickWord(vocabulary, random)), BigDecimal.TEN,
+          "image");
+    }
+
+    String[] queries = new String[50];
+    for (int i = 0; i < queries.length; i++) {
+      String word = pickWord(vocabulary, random);
+      queries[i] = i % 2 == 0 ? word + " " + pickWord(vocabulary, random) : word.substring(0, 3);
+    }
+    for (int i = 0; i < 2000; i++) {
+      largeIndex.search(queries[i % queries.length], 20);
+    }
+
+    int runs = 1000;
+    long start = System.nanoTime();
+    for (int i = 0; i < runs; i++) {
+      largeIndex.search(queries[i % queries.length], 20);
+    }
+    double averageMillis = (System.nanoTime() - start) / 1e6 / runs;
+    assertTrue(averageMillis < 50, "Average search took " + averageMillis + " ms");
+  }
+
+  private static String syntheticWord(Random random) {
+    StringBuilder word = new StringBuilder();
+    int length = 4 + random.nextInt(6);
+    for (int i = 0; i < length; i++) {
+      word.append((char) ('a' + random.nextInt(26)));
+    }
+    return word.toString();
+  }
+
+  private static String pickWord(String[] vocabulary, Random random) {
+    // Skewed towards the start of the vocabulary, so a few words are common
+    return vocabulary[random.nextInt(random.nextInt(vocabulary.length) + 1)];
+  }
+
+  private void put(int id, String name, String description, String... categories) {
+    index.put(id, name, description, List.of(categories), BigDecimal.ONE, "image");
+  }
+
+  private List<Integer> search(String query) {
+    return index.search(query, 10).stream().map(ProductSearchIndex.Hit::getId).collect(Collectors.toList());
+  }
+}
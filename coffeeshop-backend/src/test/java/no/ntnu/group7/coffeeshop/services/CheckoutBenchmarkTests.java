@@ -0,0 +1,172 @@
+package no.ntnu.group7.coffeeshop.services;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import no.ntnu.group7.coffeeshop.inventory.HotStockLedger;
+import no.ntnu.group7.coffeeshop.model.Order;
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.model.User;
+import no.ntnu.group7.coffeeshop.repositories.OrderRepository;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.UserRepository;
+
+/**
+ * Measures how many checkouts of 1, 10 and 50 lines are placed per second,
+ * one after another. Only the checkouts are timed, not filling the carts.
+ * Also measures checkouts of a single product by 64 buyers at once, with its
+ * stock counted in the products table and in the HotStockLedger; there each
+ * buyer fills its cart and checks out in a loop, and the whole run is timed.
+ * Left out of the normal build; run it with mvn test -Pbenchmark.
+ * IdentityIdCheckoutBenchmarkTests runs the same with database-generated IDs
+ * and no JDBC batching, to compare against.
+ */
+@Tag("benchmark")
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+class CheckoutBenchmarkTests {
+  private static final int[] LINES = { 1, 10, 50 };
+  private static final int WARMUP_CHECKOUTS = 100;
+  private static final int MEASURED_CHECKOUTS = 200;
+  private static final int BUYERS = 64;
+  private static final int CHECKOUTS_PER_BUYER = 20;
+
+  @Autowired
+  private CheckoutService checkoutService;
+
+  @Autowired
+  private ShoppingCartService shoppingCartService;
+
+  @Autowired
+  private OrderRepository orderRepository;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private HotStockLedger hotStockLedger;
+
+  // Named after the class run, so that IdentityIdCheckoutBenchmarkTests can be told apart
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private User user;
+  private final List<User> users = new ArrayList<>();
+  private final List<Product> products = new ArrayList<>();
+  private final List<Order> orders = new ArrayList<>();
+
+  @BeforeEach
+  void setUp() {
+    String username = "benchmarkUser" + System.nanoTime();
+    user = userRepository.save(new User(username, "password", "First", "Last", username + "@mail.com", "Address"));
+    for (int i = 0; i < 50; i++) {
+      products.add(productRepository.save(new Product("Benchmark product " + i, new BigDecimal("10.00"),
+          "Description", "image.png", 1_000_000)));
+    }
+  }
+
+  @AfterEach
+  void tearDown() {
+    hotStockLedger.flush();
+    orders.forEach(order -> orderRepository.deleteById((int) order.getId()));
+    users.add(user);
+    for (User createdUser : users) {
+      shoppingCartService.clearShoppingCart(createdUser);
+      userRepository.deleteById(createdUser.getId());
+    }
+    products.forEach(product -> productRepository.deleteById(product.getId()));
+  }
+
+  @Test
+  void checkoutThroughput() {
+    for (int lines : LINES) {
+      checkouts(lines, WARMUP_CHECKOUTS);
+    }
+    for (int lines : LINES) {
+      long nanos = checkouts(lines, MEASURED_CHECKOUTS);
+      logger.info(String.format("%2d-line checkouts: %7.1f per second, %6.2f ms each", lines,
+          MEASURED_CHECKOUTS * 1e9 / nanos, nanos / 1e6 / MEASURED_CHECKOUTS));
+    }
+  }
+
+  @Test
+  void singleProductContention() throws Exception {
+    List<User> buyers = new ArrayList<>();
+    for (int i = 0; i < BUYERS; i++) {
+      String username = "contender" + i + "_" + System.nanoTime();
+      buyers.add(userRepository.save(new User(username, "password", "First", "Last", username + "@mail.com",
+          "Address")));
+    }
+    users.addAll(buyers);
+    Product inTable = products.get(0);
+    Product inLedger = products.get(1);
+    hotStockLedger.track(inLedger.getId());
+
+    // Warms up both, then measures both
+    for (int round = 0; round < 2; round++) {
+      for (Product product : List.of(inTable, inLedger)) {
+        long nanos = contendedCheckouts(buyers, product);
+        if (round == 1) {
+          int checkouts = BUYERS * CHECKOUTS_PER_BUYER;
+          logger.info(String.format("%d buyers of one product, stock in the %s: %7.1f checkouts per second",
+              BUYERS, product == inTable ? "table " : "ledger", checkouts * 1e9 / nanos));
+        }
+      }
+    }
+  }
+
+  // Returns the time taken by every buyer checking out the product
+  private long contendedCheckouts(List<User> buyers, Product product) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(buyers.size());
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<List<Order>>> futures = new ArrayList<>();
+    for (User buyer : buyers) {
+      futures.add(executor.submit(() -> {
+        start.await();
+        List<Order> placed = new ArrayList<>();
+        for (int i = 0; i < CHECKOUTS_PER_BUYER; i++) {
+          shoppingCartService.addItemToCart(buyer, product.getId(), 1);
+          placed.add(checkoutService.checkout(buyer));
+        }
+        return placed;
+      }));
+    }
+    long startNanos = System.nanoTime();
+    start.countDown();
+    for (Future<List<Order>> future : futures) {
+      orders.addAll(future.get());
+    }
+    long nanos = System.nanoTime() - startNanos;
+    executor.shutdown();
+    return nanos;
+  }
+
+  // Returns the time spent checking out
+  private long checkouts(int lines, int count) {
+    long nanos = 0;
+    for (int i = 0; i < count; i++) {
+      for (int line = 0; line < lines; line++) {
+        shoppingCartService.addItemToCart(user, products.get(line).getId(), 1);
+      }
+      long start = System.nanoTime();
+      orders.add(checkoutService.checkout(user));
+      nanos += System.nanoTime() - start;
+    }
+    return nanos;
+  }
+}
@@ -0,0 +1,184 @@
+package no.ntnu.group7.coffeeshop.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import no.ntnu.group7.coffeeshop.model.Order;
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.model.User;
+import no.ntnu.group7.coffeeshop.repositories.OrderRepository;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.UserRepository;
+
+// One worker and room for one more checkout, so that two checkouts fill the
+// queue
+@SpringBootTest(properties = { "coffeeshop.checkout.workers=1", "coffeeshop.checkout.queue-capacity=1" })
+class CheckoutQueueTests {
+  private static final long TIMEOUT_MILLIS = 10000;
+
+  @Autowired
+  private CheckoutQueue checkoutQueue;
+
+  @Autowired
+  private ShoppingCartService shoppingCartService;
+
+  @Autowired
+  private OrderRepository orderRepository;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  private Product product;
+  private final List<User> users = new ArrayList<>();
+  private final List<Order> orders = new ArrayList<>();
+
+  @BeforeEach
+  void setUp() {
+    product = productRepository.save(new Product("Queued product", new BigDecimal("10.00"), "Description",
+        "image.png", 50));
+  }
+
+  @AfterEach
+  void tearDown() {
+    orders.forEach(order -> orderRepository.deleteById((int) order.getId()));
+    for (User user : users) {
+      shoppingCartService.clearShoppingCart(user);
+      userRepository.deleteById(user.getId());
+    }
+    productRepository.deleteById(product.getId());
+  }
+
+  @Test
+  void ordersArePlacedInTheBackground() throws Exception {
+    User user = createUser(2);
+
+    Order order = submit(user);
+    assertEquals(Order.OrderStatus.PENDING, order.getOrderStatus());
+
+    assertEquals(Order.OrderStatus.PROCESSING, awaitPlaced(order));
+    assertEquals(0, new BigDecimal("20.00").compareTo(orderRepository.findById((int) order.getId()).get().getTotal()));
+    assertEquals(48, productRepository.findById(product.getId()).get().getInventoryAmount());
+    assertEquals(0, shoppingCartService.getCartItems(user).size());
+  }
+
+  @Test
+  void ordersThatRunOutAreCanceled() throws Exception {
+    User user = createUser(51);
+
+    Order order = submit(user);
+    assertEquals(Order.OrderStatus.CANCELED, awaitPlaced(order));
+    assertEquals(1, checkoutQueue.getShortages(order.getId()).size());
+    assertEquals(50, checkoutQueue.getShortages(order.getId()).get(0).getAvailable());
+    assertEquals(50, productRepository.findById(product.getId()).get().getInventoryAmount());
+    assertEquals(1, shoppingCartService.getCartItems(user).size());
+  }
+
+  @Test
+  void ordersWhoseCartWasEmptiedAreCanceled() throws Exception {
+    User user = createUser(2);
+
+    // The second checkout finds the cart emptied by the first
+    Order first = submit(user);
+    Order second = submit(user);
+    assertEquals(Order.OrderStatus.PROCESSING, awaitPlaced(first));
+    assertEquals(Order.OrderStatus.CANCELED, awaitPlaced(second));
+    assertEquals(48, productRepository.findById(product.getId()).get().getInventoryAmount());
+  }
+
+  @Test
+  void checkoutsAreTurnedAwayWhenTheQueueIsFull() throws Exception {
+    User first = createUser(1);
+    User second = createUser(1);
+    User third = createUser(1);
+
+    // Holds a lock on the product, which keeps the worker busy with the first
+    // checkout until it is released
+    CountDownLatch locked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService locker = Executors.newSingleThreadExecutor();
+    Future<?> lock = locker.submit(() -> new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+      entityManager.createQuery("UPDATE Product p SET p.inventoryAmount = p.inventoryAmount WHERE p.id = :id")
+          .setParameter("id", product.getId())
+          .executeUpdate();
+      locked.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }));
+    locked.await();
+
+    List<Order> placed;
+    try {
+      placed = List.of(submit(first), submit(second));
+      assertThrows(CheckoutQueueFullException.class, () -> checkoutQueue.submit(third));
+    } finally {
+      release.countDown();
+      lock.get();
+      locker.shutdown();
+    }
+
+    for (Order order : placed) {
+      assertEquals(Order.OrderStatus.PROCESSING, awaitPlaced(order));
+    }
+    assertEquals(48, productRepository.findById(product.getId()).get().getInventoryAmount());
+    // Nothing was written for the checkout that was turned away
+    assertEquals(0, orderRepository.findAllSummaries().stream()
+        .filter(order -> order.getUsername().equals(third.getUsername()))
+        .count());
+  }
+
+  private User createUser(int quantity) {
+    String username = "queuedUser" + System.nanoTime();
+    User user = userRepository.save(new User(username, "password", "First", "Last", username + "@mail.com",
+        "Address"));
+    users.add(user);
+    shoppingCartService.addItemToCart(user, product.getId(), quantity);
+    return user;
+  }
+
+  private Order submit(User user) {
+    Order order = checkoutQueue.submit(user);
+    orders.add(order);
+    return order;
+  }
+
+  private Order.OrderStatus awaitPlaced(Order order) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (true) {
+      Order.OrderStatus status = orderRepository.findStatusById(order.getId()).get().getOrderStatus();
+      if (status != Order.OrderStatus.PENDING || System.currentTimeMillis() > deadline) {
+        return status;
+      }
+      Thread.sleep(20);
+    }
+  }
+}
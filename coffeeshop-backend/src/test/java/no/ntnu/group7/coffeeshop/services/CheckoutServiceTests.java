@@ -0,0 +1,236 @@
+package no.ntnu.group7.coffeeshop.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import jakarta.persistence.EntityManagerFactory;
+import no.ntnu.group7.coffeeshop.model.Order;
+import no.ntnu.group7.coffeeshop.model.Product;
+import no.ntnu.group7.coffeeshop.model.User;
+import no.ntnu.group7.coffeeshop.repositories.OrderProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.OrderRepository;
+import no.ntnu.group7.coffeeshop.repositories.ProductRepository;
+import no.ntnu.group7.coffeeshop.repositories.UserRepository;
+
+@SpringBootTest
+class CheckoutServiceTests {
+  // Read the cart, insert the order, insert its lines in one batch, decrement
+  // the stock, read the new stock back, clear the cart and insert the event
+  private static final int STATEMENTS_PER_CHECKOUT = 7;
+  // Now and then a checkout also fetches a new block of IDs for orders, one
+  // for order lines and one for order events
+  private static final int MAX_ID_FETCHES = 3;
+
+  @Autowired
+  private CheckoutService checkoutService;
+
+  @Autowired
+  private ShoppingCartService shoppingCartService;
+
+  @Autowired
+  private OrderRepository orderRepository;
+
+  @Autowired
+  private OrderProductRepository orderProductRepository;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  private User user;
+  private final List<Product> products = new ArrayList<>();
+  private final List<Order> orders = new ArrayList<>();
+  private final List<User> users = new ArrayList<>();
+
+  @BeforeEach
+  void setUp() {
+    String username = "checkoutUser" + System.nanoTime();
+    user = userRepository.save(new User(username, "password", "First", "Last", username + "@mail.com", "Address"));
+    users.add(user);
+    for (int i = 0; i < 20; i++) {
+      products.add(productRepository.save(new Product("Checkout product " + i, new BigDecimal("10.00"),
+          "Description", "image.png", 50)));
+    }
+  }
+
+  @AfterEach
+  void tearDown() {
+    orders.forEach(order -> orderRepository.deleteById((int) order.getId()));
+    for (User createdUser : users) {
+      shoppingCartService.clearShoppingCart(createdUser);
+      userRepository.deleteById(createdUser.getId());
+    }
+    products.forEach(product -> productRepository.deleteById(product.getId()));
+  }
+
+  @Test
+  void checkoutStatementsDoNotGrowWithTheCart() {
+    for (int lines : new int[] { 1, 20 }) {
+      long statements = checkoutStatements(lines);
+      assertTrue(statements >= STATEMENTS_PER_CHECKOUT
+          && statements <= STATEMENTS_PER_CHECKOUT + MAX_ID_FETCHES, lines + " lines took " + statements);
+    }
+  }
+
+  @Test
+  void checkoutWritesTheLinesTakesTheStockAndClearsTheCart() {
+    shoppingCartService.addItemToCart(user, products.get(0).getId(), 2);
+    shoppingCartService.addItemToCart(user, products.get(1).getId(), 3);
+
+    Order order = checkout();
+    assertEquals(Order.OrderStatus.PROCESSING, order.getOrderStatus());
+    assertEquals(0, new BigDecimal("50.00").compareTo(order.getTotal()));
+    List<OrderProductRepository.OrderProductView> lines = orderProductRepository.findAllViews().stream()
+        .filter(line -> line.getOrderId() == order.getId())
+        .collect(Collectors.toList());
+    assertEquals(2, lines.size());
+    assertEquals(products.get(0).getName(), lines.get(0).getProductName());
+    assertEquals(0, new BigDecimal("10.00").compareTo(lines.get(0).getUnitPrice()));
+    assertEquals(48, productRepository.findById(products.get(0).getId()).get().getInventoryAmount());
+    assertEquals(47, productRepository.findById(products.get(1).getId()).get().getInventoryAmount());
+    assertEquals(50, productRepository.findById(products.get(2).getId()).get().getInventoryAmount());
+    assertEquals(0, shoppingCartService.getCartItems(user).size());
+  }
+
+  @Test
+  void checkoutWithoutEnoughStockChangesNothing() {
+    Product scarce = products.get(1);
+    scarce.setInventoryAmount(2);
+    productRepository.save(scarce);
+    shoppingCartService.addItemToCart(user, products.get(0).getId(), 1);
+    shoppingCartService.addItemToCart(user, scarce.getId(), 3);
+
+    OutOfStockException e = assertThrows(OutOfStockException.class, () -> checkoutService.checkout(user));
+    assertEquals(1, e.getShortages().size());
+    assertEquals(scarce.getId(), e.getShortages().get(0).getProductId());
+    assertEquals(3, e.getShortages().get(0).getRequested());
+    assertEquals(2, e.getShortages().get(0).getAvailable());
+
+    assertEquals(50, productRepository.findById(products.get(0).getId()).get().getInventoryAmount());
+    assertEquals(2, productRepository.findById(scarce.getId()).get().getInventoryAmount());
+    assertEquals(2, shoppingCartService.getCartItems(user).size());
+  }
+
+  @Test
+  void stockHeldForOtherCartsIsNotSold() {
+    Product scarce = products.get(0);
+    scarce.setInventoryAmount(2);
+    productRepository.save(scarce);
+    String username = "holder" + System.nanoTime();
+    User holder = userRepository.save(new User(username, "password", "First", "Last", username + "@mail.com",
+        "Address"));
+    users.add(holder);
+
+    // The holder was first, so holds both; the user gets no hold
+    shoppingCartService.addItemToCart(holder, scarce.getId(), 2);
+    shoppingCartService.addItemToCart(user, scarce.getId(), 1);
+
+    OutOfStockException e = assertThrows(OutOfStockException.class, () -> checkoutService.checkout(user));
+    assertEquals(0, e.getShortages().get(0).getAvailable());
+
+    checkout(holder);
+    assertEquals(0, productRepository.findById(scarce.getId()).get().getInventoryAmount());
+  }
+
+  @Test
+  void concurrentCheckoutsNeverOversell() throws Exception {
+    Product scarce = products.get(0);
+    scarce.setInventoryAmount(5);
+    productRepository.save(scarce);
+
+    List<User> buyers = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      String username = "buyer" + i + "_" + System.nanoTime();
+      User buyer = userRepository.save(new User(username, "password", "First", "Last", username + "@mail.com",
+          "Address"));
+      shoppingCartService.addItemToCart(buyer, scarce.getId(), 1);
+      // Also takes an item with plenty of stock, which must be rolled back
+      // along with the scarce one
+      shoppingCartService.addItemToCart(buyer, products.get(1).getId(), 1);
+      buyers.add(buyer);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(buyers.size());
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Order>> futures = new ArrayList<>();
+    for (User buyer : buyers) {
+      futures.add(executor.submit(() -> {
+        start.await();
+        try {
+          return checkoutService.checkout(buyer);
+        } catch (OutOfStockException e) {
+          return null;
+        }
+      }));
+    }
+    start.countDown();
+    int placed = 0;
+    for (Future<Order> future : futures) {
+      Order order = future.get();
+      if (order != null) {
+        orders.add(order);
+        placed++;
+      }
+    }
+    executor.shutdown();
+
+    try {
+      assertEquals(5, placed);
+      assertEquals(0, productRepository.findById(scarce.getId()).get().getInventoryAmount());
+      assertEquals(45, productRepository.findById(products.get(1).getId()).get().getInventoryAmount());
+    } finally {
+      orders.forEach(order -> orderRepository.deleteById((int) order.getId()));
+      orders.clear();
+      for (User buyer : buyers) {
+        shoppingCartService.clearShoppingCart(buyer);
+        userRepository.deleteById(buyer.getId());
+      }
+    }
+  }
+
+  private long checkoutStatements(int lines) {
+    for (int i = 0; i < lines; i++) {
+      shoppingCartService.addItemToCart(user, products.get(i).getId(), 1);
+    }
+    // Prices the cart, so that the checkout finds the prices and total kept
+    shoppingCartService.getCart(user);
+
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+    checkout();
+    return statistics.getPrepareStatementCount();
+  }
+
+  private Order checkout() {
+    return checkout(user);
+  }
+
+  private Order checkout(User buyer) {
+    Order order = checkoutService.checkout(buyer);
+    orders.add(order);
+    return order;
+  }
+}
@@ -0,0 +1,19 @@
+package no.ntnu.group7.coffeeshop.services;
+
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Runs the checkout benchmarks with the IDs of orders, order lines, reviews
+ * and stock holds generated by the database and JDBC batching turned off, as
+ * they were before those IDs were allocated in blocks, so that both are
+ * measured in the same run. The order lines are still persisted as entities,
+ * one INSERT each; the multi-row INSERT that checkout used before isn't
+ * measured. Uses a database of its own, as its schema differs.
+ */
+@SpringBootTest(properties = {
+    "spring.jpa.show-sql=false",
+    "spring.datasource.url=jdbc:derby:memory:coffeeshop_identity;create=true",
+    "spring.jpa.mapping-resources=META-INF/identity-ids.xml",
+    "spring.jpa.properties.hibernate.jdbc.batch_size=0" })
+class IdentityIdCheckoutBenchmarkTests extends CheckoutBenchmarkTests {
+}
@@ -22,7 +22,7 @@ export async function getShoppingCart() {
 }
 
 export async function getProductById(id) {
-  return await asyncApiRequest("GET", "/products/" + id);
+  return await asyncApiRequest("GET", "/products/" + id + "?reviews=true");
 }
 
 export async function getShoppingCartTotal() {